@@ -7,13 +7,17 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.RadioMenuItem;
+import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.*;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import org.g2fx.g2gui.panel.Slots;
 import org.g2fx.g2gui.window.*;
+import org.g2fx.g2lib.device.DeviceSession;
 import org.g2fx.g2lib.device.Devices;
+import org.g2fx.g2lib.device.LibScheduler;
 import org.g2fx.g2lib.state.AreaId;
 import org.g2fx.g2lib.state.Performance;
 import org.g2fx.g2lib.state.Slot;
@@ -66,11 +70,13 @@ public class Commands {
 
             Menu perfMenu = populatePerfMenu();
 
+            Menu deviceMenu = populateDeviceMenu();
+
             Menu toolsMenu = populateToolsMenu(stage);
 
             Menu helpMenu = populateHelpMenu();
 
-            menuBar.getMenus().addAll(fileMenu,editMenu,patchMenu,perfMenu,toolsMenu,helpMenu);
+            menuBar.getMenus().addAll(fileMenu,editMenu,patchMenu,perfMenu,deviceMenu,toolsMenu,helpMenu);
 
         }
 
@@ -144,7 +150,7 @@ public class Commands {
 
             Platform.runLater(Commands.this::updateRecentFiles);
 
-            devices.execute(() -> devices.loadFile(f.getAbsolutePath(), null));
+            devices.execute(LibScheduler.Priority.Structural, () -> devices.loadFile(f.getAbsolutePath(), null));
         }
 
 
@@ -183,6 +189,33 @@ public class Commands {
         devices.runWithCurrent(d -> d.writeToFile(f));
     }
 
+    /**
+     * Connected devices, rebuilt on showing, selecting current device.
+     */
+    private Menu populateDeviceMenu() {
+        Menu menu = mkMenu("Device");
+        menu.setOnShowing(_ -> {
+            menu.getItems().clear();
+            ToggleGroup group = new ToggleGroup();
+            DeviceSession active = devices.getActive();
+            for (DeviceSession s : devices.getSessions()) {
+                RadioMenuItem mi = new RadioMenuItem(String.valueOf(s.getLabel() == null ? s : s.getLabel()));
+                mi.setToggleGroup(group);
+                mi.setSelected(s == active);
+                mi.setOnAction(_ -> devices.select(s.getAddress()));
+                menu.getItems().add(mi);
+            }
+            if (menu.getItems().isEmpty()) {
+                MenuItem none = new MenuItem("No devices connected");
+                none.setDisable(true);
+                menu.getItems().add(none);
+            }
+        });
+        //empty menus never show
+        menu.getItems().add(new MenuItem("No devices connected"));
+        return menu;
+    }
+
     private Menu populatePerfMenu() {
         return mkMenu("Performance",
                 mkMenuItem("Performance Settings", shortcutKey(KeyCode.R), _ -> perfSettings.show()));
@@ -2,7 +2,9 @@ package org.g2fx.g2gui;
 
 import javafx.animation.AnimationTimer;
 
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
@@ -11,6 +13,7 @@ import java.util.logging.Logger;
 public class FXQueue implements Executor {
 
     private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    private final List<Runnable> frameTasks = new CopyOnWriteArrayList<>();
     private volatile boolean running = false;
     private AnimationTimer timer;
     private static final Logger log = Logger.getLogger(FXQueue.class.getName());
@@ -24,6 +27,13 @@ public class FXQueue implements Executor {
         queue.offer(task);
     }
 
+    /**
+     * Add task run on the FX thread once per frame, after queued tasks.
+     */
+    public void addFrameTask(Runnable task) {
+        frameTasks.add(task);
+    }
+
     /**
      * Starts the AnimationTimer that polls the queue and executes tasks on the FX thread.
      * Should be called from the JavaFX Application Thread, typically in Application.start().
@@ -46,6 +56,14 @@ public class FXQueue implements Executor {
                                 "Exception while executing task in FXQueue",e);
                     }
                 }
+                for (Runnable t : frameTasks) {
+                    try {
+                        t.run();
+                    } catch (Exception e) {
+                        log.log(Level.SEVERE,
+                                "Exception while executing frame task in FXQueue",e);
+                    }
+                }
             }
         };
         timer.start();
@@ -31,6 +31,7 @@ import org.g2fx.g2gui.window.*;
 import org.g2fx.g2lib.device.Device;
 import org.g2fx.g2lib.device.DeviceListener;
 import org.g2fx.g2lib.device.Devices;
+import org.g2fx.g2lib.device.G2Emulator;
 import org.g2fx.g2lib.model.LibProperty;
 import org.g2fx.g2lib.model.ModuleType;
 import org.g2fx.g2lib.model.ParamConstants;
@@ -41,6 +42,7 @@ import org.g2fx.g2lib.state.LifecycleListener;
 import org.g2fx.g2lib.state.Patch;
 import org.g2fx.g2lib.state.Performance;
 import org.g2fx.g2lib.usb.UsbService;
+import org.g2fx.g2lib.usb.WireLog;
 import org.g2fx.g2lib.util.Util;
 
 import java.util.ArrayList;
@@ -220,8 +222,11 @@ public class G2GuiApplication extends Application implements DeviceListener {
         addGlobalStylesheet(scene);
         stage.show();
 
+        fxQueue.addFrameTask(() -> slots.repaintVisuals(devices.getVisualFrames()));
         fxQueue.startPolling();
+        WireLog.installFromProperty();
         if (usbEnabled) usbService.start();
+        G2Emulator.connectFromProperty(devices);
 
         textFocusListener.focusChange(false);
 
@@ -526,6 +531,7 @@ public class G2GuiApplication extends Application implements DeviceListener {
         fxQueue.shutdown();
         devices.shutdown();
         if (usbEnabled) usbService.shutdown();
+        WireLog.closeRingFile();
     }
 
     public static void main(String[] args) {
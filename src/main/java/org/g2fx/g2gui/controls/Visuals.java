@@ -12,10 +12,13 @@ import org.g2fx.g2lib.model.LibProperty;
 import org.g2fx.g2lib.model.Visual;
 import org.g2fx.g2lib.state.PatchModule;
 import org.g2fx.g2lib.state.PatchVisual;
+import org.g2fx.g2lib.state.VisualFrames;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.IntConsumer;
 
 import static org.g2fx.g2gui.FXUtil.withClass;
 import static org.g2fx.g2gui.panel.ModulePane.layout;
@@ -29,6 +32,15 @@ public class Visuals {
 
     public record LedControl(Node control,Property<Boolean> lit,int group,int codeRef) {}
 
+    /**
+     * Fast-lane painter for visual GROUPID of TYPE, resolved to a {@link PatchVisual} by {@link #bindFrames}.
+     */
+    private record Painter(Visual.VisualType type, int groupId, IntConsumer paint) {}
+    private record Bound(PatchVisual visual, boolean led, IntConsumer paint) {}
+
+    private final List<Painter> painters = new ArrayList<>();
+    private volatile List<Bound> bound = List.of();
+
     public Visuals(Bridger<PatchModule> bridges) {
         this.bridges = bridges;
     }
@@ -70,9 +82,10 @@ public class Visuals {
     }
 
     private void bridgeGroupLed(UIElements.Led c, LedControl ctl) {
+        painters.add(new Painter(Visual.VisualType.LedGroup, c.GroupId(), v -> ctl.lit().setValue(v == c.CodeRef())));
         bridges.bridge(d -> {
                     List<PatchVisual> leds = d.getMetersAndGroups();
-                    return findVisual(c.GroupId(), leds, Visual.VisualType.LedGroup);
+                    return findVisual(c.GroupId(), leds, Visual.VisualType.LedGroup).value();
                 },
                 new FxProperty.SimpleFxProperty<>(ctl.lit()),
                 new Iso<>() {
@@ -88,14 +101,14 @@ public class Visuals {
                 });
     }
 
-    private LibProperty<Integer> findVisual(int groupId, List<PatchVisual> leds, Visual.VisualType type) {
+    private PatchVisual findVisual(int groupId, List<PatchVisual> leds, Visual.VisualType type) {
         for (PatchVisual led : leds) {
             if (led.getVisual().index() == groupId) {
                 //System.out.println("Led: " + led + ", " + this);
                 if (led.getVisual().type() != type) {
                     throw new IllegalArgumentException("findVisual: matching visual of wrong type " + type + ": " + led);
                 }
-                return led.value();
+                return led;
             }
         }
         throw new IllegalStateException("Could not locate led idx " + groupId + ", " + this);
@@ -103,9 +116,10 @@ public class Visuals {
 
     private LedControl mkSingleLed(UIElements.Led c) {
         LedControl ctl = mkGreenLed(c);
+        painters.add(new Painter(Visual.VisualType.Led, c.GroupId(), v -> ctl.lit().setValue(v == 1)));
         bridges.bridge(d -> {
                     List<PatchVisual> leds = d.getLeds();
-                    return findVisual(c.GroupId(), leds, Visual.VisualType.Led);
+                    return findVisual(c.GroupId(), leds, Visual.VisualType.Led).value();
                 },
                 new FxProperty.SimpleFxProperty<>(ctl.lit()),
                 Iso.BOOL_PARAM_ISO);
@@ -130,15 +144,43 @@ public class Visuals {
 
     public Node mkMeter(UIElements.MiniVU c) {
         VuMeter v = new VuMeter(c);
+        painters.add(new Painter(Visual.VisualType.Meter, c.GroupId(), l -> {
+            if (v.level().getValue() != l) { v.level().setValue(l); }
+        }));
         bridges.bridge(v.level(),d -> {
                     List<PatchVisual> leds = d.getMetersAndGroups();
-                    return findVisual(c.GroupId(), leds, Visual.VisualType.Meter);
+                    return findVisual(c.GroupId(), leds, Visual.VisualType.Meter).value();
                 });
         meters.put(c.GroupId(),v);
         return v.getControl();
     }
 
 
+    /**
+     * On lib thread: resolve fast-lane painters against module visuals.
+     */
+    public void bindFrames(PatchModule pm) {
+        List<Bound> bs = new ArrayList<>();
+        for (Painter p : painters) {
+            boolean led = p.type() == Visual.VisualType.Led;
+            PatchVisual v = findVisual(p.groupId(), led ? pm.getLeds() : pm.getMetersAndGroups(), p.type());
+            bs.add(new Bound(v, led, p.paint()));
+        }
+        bound = bs;
+    }
+
+    /**
+     * On fx thread: repaint from snapshot copies of slot LED and meter frames.
+     */
+    public void repaint(byte[] leds, int ledLen, byte[] meters, int meterLen) {
+        for (Bound b : bound) {
+            int v = b.led() ?
+                    VisualFrames.valueAt(leds, ledLen, b.visual().getIndex()) :
+                    VisualFrames.valueAt(meters, meterLen, b.visual().getIndex());
+            if (v >= 0) { b.paint().accept(v); }
+        }
+    }
+
     public LedControl getLed(int group) {
         return leds.get(group);
     }
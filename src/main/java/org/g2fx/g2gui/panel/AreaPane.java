@@ -312,7 +312,7 @@ public class AreaPane {
 
         public void onMouseReleased() {
             if (pasteOrigin == null) { return; }
-            Set<Integer> ixs = new TreeSet<>(modulePanes.keySet());
+            BitSet ixs = usedModuleIndexes();
             int minCol = Integer.MAX_VALUE;
             int minRow = Integer.MAX_VALUE;
             pasteGhosts.sort(Comparator.comparing(g -> new Coords((int) g.origin.getX(), (int) g.origin.getY())));
@@ -322,8 +322,8 @@ public class AreaPane {
                         (int) Math.round(g.rect.getY() / GRID_Y));
                 minCol = Math.min(cs.column(),minCol);
                 minRow = Math.min(cs.row(),minRow);
-                int idx = getNewModuleIndex(ixs);
-                ixs.add(idx);
+                int idx = ModuleIndex.nextFree(ixs);
+                ixs.set(idx);
                 if (g.module.getIndex()==centerModule) {
                     centerModule = idx;
                 }
@@ -547,18 +547,13 @@ public class AreaPane {
     }
 
     private int getNewModuleIndex() {
-        return getNewModuleIndex(modulePanes.keySet());
+        return ModuleIndex.nextFree(usedModuleIndexes());
     }
 
-    private static int getNewModuleIndex(Collection<Integer> ixs) {
-        int ix = 1;
-        for (Integer i : ixs) {
-            if (ix < i) {
-                return ix;
-            }
-            ix = i+1;
-        }
-        return ix;
+    private BitSet usedModuleIndexes() {
+        BitSet ixs = new BitSet(ModuleIndex.MAX_INDEX + 1);
+        modulePanes.keySet().forEach(ixs::set);
+        return ixs;
     }
 
 
@@ -580,6 +575,15 @@ public class AreaPane {
 
 
 
+    /**
+     * On fx thread: repaint module LEDs/meters from slot snapshot copies.
+     */
+    public void repaintVisuals(byte[] leds, int ledLen, byte[] meters, int meterLen) {
+        for (ModulePane mp : modulePanes.values()) {
+            mp.getVisuals().repaint(leds, ledLen, meters, meterLen);
+        }
+    }
+
     public void redrawCables(boolean shake) {
         cables.redrawCables(shake);
     }
@@ -596,8 +600,10 @@ public class AreaPane {
         modulePanes.put(index,modulePane);
         areaPane.getChildren().add(modulePane.getPane());
         moduleSelection.setupModuleMouseHandling(modulePane);
-        bridges.getLibExecutor().invoke(() -> modulePane.getBridges().initialize(pm))
-                .forEach(Runnable::run);
+        bridges.getLibExecutor().invoke(() -> {
+                    modulePane.getVisuals().bindFrames(pm);
+                    return modulePane.getBridges().initialize(pm);
+                }).forEach(Runnable::run);
         modulePane.coords().addListener((_,_,_) -> cables.moduleMoved(modulePane));
     }
 
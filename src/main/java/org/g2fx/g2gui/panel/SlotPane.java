@@ -396,6 +396,10 @@ public class SlotPane {
         varSelector.getToggleGroup().getToggles().get(i).setSelected(true);
     }
 
+    public void repaintVisuals(byte[] leds, int ledLen, byte[] meters, int meterLen) {
+        areaPanes.values().forEach(a -> a.repaintVisuals(leds, ledLen, meters, meterLen));
+    }
+
     public AreaPane getAreaPane(AreaId id) {
         if (id == AreaId.Settings) { throw new IllegalArgumentException("getAreaPane: must be FX or Voice"); }
         return areaPanes.get(id);
@@ -24,6 +24,8 @@ import org.g2fx.g2lib.state.AreaId;
 import org.g2fx.g2lib.state.Patch;
 import org.g2fx.g2lib.state.Performance;
 import org.g2fx.g2lib.state.Slot;
+import org.g2fx.g2lib.state.VisualFrame;
+import org.g2fx.g2lib.state.VisualFrames;
 import org.g2fx.g2lib.util.Util;
 
 import java.util.ArrayList;
@@ -59,6 +61,12 @@ public class Slots {
 
     private ModuleDelta clipboardModules;
 
+    // fx thread visual snapshot copies
+    private byte[] ledCopy = new byte[1024];
+    private byte[] meterCopy = new byte[1024];
+    private final long[] ledVersions = new long[Slot.values().length];
+    private final long[] meterVersions = new long[Slot.values().length];
+
     public Slots(Undos undos, Bridges<Performance> bridges) throws Exception {
         this.undos = undos;
         uiModules = UIModule.readModuleUIs();
@@ -221,6 +229,26 @@ public class Slots {
         return () -> fxUpdates.forEach(Runnable::run);
     }
 
+    /**
+     * On fx thread, once per frame: repaint slots whose LED/meter snapshots changed.
+     */
+    public void repaintVisuals(VisualFrames frames) {
+        if (!frames.takeDirty()) { return; }
+        for (SlotPane sp : slotPanes) {
+            int i = sp.getSlot().ordinal();
+            VisualFrame lf = frames.leds(sp.getSlot());
+            VisualFrame mf = frames.meters(sp.getSlot());
+            if (lf.version() == ledVersions[i] && mf.version() == meterVersions[i]) { continue; }
+            ledVersions[i] = lf.version();
+            meterVersions[i] = mf.version();
+            int ll = lf.read(ledCopy);
+            if (ll > ledCopy.length) { ledCopy = new byte[ll]; ll = lf.read(ledCopy); }
+            int ml = mf.read(meterCopy);
+            if (ml > meterCopy.length) { meterCopy = new byte[ml]; ml = mf.read(meterCopy); }
+            sp.repaintVisuals(ledCopy, Math.min(ll, ledCopy.length), meterCopy, Math.min(ml, meterCopy.length));
+        }
+    }
+
     public void onPatchDispose(Patch patch) {
         SlotPane slot = slotPanes.get(patch.getSlot().ordinal());
         slot.disposeBridges();
@@ -90,6 +90,7 @@ public class PatchBrowser implements G2Window {
     private void handleEvent(Entries.EntriesEvent e) {
         switch (e.type()) {
             case RefreshAll -> updateEntries(e.entries());
+            case UpdateEntry -> updateEntry(e.msg(), e.entries());
             default -> System.out.println(e);
         }
     }
@@ -130,6 +131,23 @@ public class PatchBrowser implements G2Window {
         }
     }
 
+    /**
+     * Replace the item of one stored or cleared entry.
+     */
+    private void updateEntry(Entries.EntryMsg msg, Map<Entries.EntryType,Map<Integer, Map<Integer, Entries.Entry>>> entries) {
+        this.entries = entries;
+        TreeItem<TreeNode> bi = banks.get(msg.type()).get(msg.bank());
+        List<TreeItem<TreeNode>> children = bi.getChildren();
+        children.removeIf(c -> c.getValue().index() == msg.entry());
+        Entries.Entry e = entries.get(msg.type()).getOrDefault(msg.bank(), Map.of()).get(msg.entry());
+        if (e == null) { return; }
+        int pos = 0;
+        while (pos < children.size() && children.get(pos).getValue().index() < msg.entry()) { pos++; }
+        TreeNode bn = bi.getValue();
+        children.add(pos, new TreeItem<>(new TreeNode(msg.type(), ItemType.Entry,
+                bn.index1() + "-" + (msg.entry()+1) + ": " + e.name(), msg.entry(), bn.index)));
+    }
+
     private TreeView<TreeNode> createTreeView(Entries.EntryType type) {
         TreeView<TreeNode> treeView = withClass(new TreeView<>(),"entries-tree");
         treeView.setShowRoot(false);
@@ -3,8 +3,10 @@ package org.g2fx.g2lib;
 import org.g2fx.g2lib.device.Device;
 import org.g2fx.g2lib.device.DeviceListener;
 import org.g2fx.g2lib.device.Devices;
+import org.g2fx.g2lib.device.G2Emulator;
 import org.g2fx.g2lib.repl.Repl;
 import org.g2fx.g2lib.usb.UsbService;
+import org.g2fx.g2lib.usb.WireLog;
 import org.g2fx.g2lib.util.Util;
 
 import java.io.File;
@@ -56,7 +58,9 @@ public class Main {
                     }
                 });
 
+        WireLog.installFromProperty();
         usbService.start();
+        G2Emulator.connectFromProperty(devices);
 
         log.info(() -> "Awaiting initialization ...");
         boolean initSuccess = deviceInitialized.await(2000,TimeUnit.MILLISECONDS);
@@ -68,6 +72,7 @@ public class Main {
 
         devices.shutdown();
         usbService.shutdown();
+        WireLog.closeRingFile();
 
         log.info("Exit");
     }
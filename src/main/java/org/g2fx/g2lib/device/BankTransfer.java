@@ -0,0 +1,553 @@
+package org.g2fx.g2lib.device;
+
+import org.g2fx.g2lib.protocol.Protocol;
+import org.g2fx.g2lib.state.Entries;
+import org.g2fx.g2lib.state.Patch;
+import org.g2fx.g2lib.state.Performance;
+import org.g2fx.g2lib.usb.RequestPipeline;
+import org.g2fx.g2lib.usb.UsbSender;
+import org.g2fx.g2lib.util.BitBuffer;
+import org.g2fx.g2lib.util.CRC16;
+import org.g2fx.g2lib.util.Util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.g2fx.g2lib.device.Device.dispatchSuccess;
+import static org.g2fx.g2lib.protocol.Codes.*;
+
+/**
+ * Streaming bank transfers between synth and disk, as Clavia bank dumps: a .pchList
+ * naming one .pch2/.prf2 file per entry. Upload (synth to disk) requests entries
+ * pipelined within the USB request window, writing each entry to disk as its response
+ * is dispatched; download (disk to synth) reads each file as its request is sent. Only
+ * in-flight entries are held in memory. Each window is its own task on the lib executor,
+ * so other lib work runs between windows. Entry data carries the file CRC, verified per
+ * entry. Uploads skip entries already on disk with valid CRC, downloads journal confirmed
+ * entries next to the .pchList, so interrupted transfers resume. Lib thread only.
+ */
+public class BankTransfer {
+
+    private static final Logger log = Util.getLogger(BankTransfer.class);
+
+    public static final String BANK_LIST_HEADER = "Version=Nord Modular G2 Bank Dump";
+    public static final String BANK_LIST_EXT = ".pchList";
+    public static final String JOURNAL_EXT = ".progress";
+    public static final int BANK_ENTRIES = 128;
+
+    /**
+     * Requests per lib task.
+     */
+    private static final int WINDOW = RequestPipeline.DEFAULT_WINDOW;
+
+    /**
+     * Precedes file data in entry messages; the length field counts one of these bytes.
+     */
+    private static final byte[] ENTRY_DATA_PREFIX = Util.asBytes(0x17, 0x00);
+
+    public record Progress(Entries.EntryType type, int bank, int entry, String name, int done, int total) {
+        @Override
+        public String toString() {
+            return String.format("%s %d:%d %s (%d/%d)", type, bank + 1, entry + 1, name, done, total);
+        }
+    }
+
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+    }
+
+    public record Result(int transferred, int skipped, int cleared, long bytes, long nanos, List<String> failures) {
+        public double bytesPerSec() {
+            return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+        }
+        public boolean ok() {
+            return failures.isEmpty();
+        }
+        @Override
+        public String toString() {
+            return String.format("%d transferred, %d skipped, %d cleared, %d bytes in %.0fms (%.0f bytes/s)%s",
+                    transferred, skipped, cleared, bytes, nanos / 1e6, bytesPerSec(),
+                    failures.isEmpty() ? "" : ", failures: " + failures);
+        }
+    }
+
+    /**
+     * Bank dump line: zero-based BANK and ENTRY, FILE relative to the .pchList.
+     */
+    public record BankListEntry(int bank, int entry, String file) { }
+
+    private record Key(Entries.EntryType type, int bank, int entry) {
+        @Override
+        public String toString() {
+            return String.format("%s %d:%d", type, bank + 1, entry + 1);
+        }
+    }
+
+    /**
+     * In-progress transfer: targets by entry, removed when their response is handled.
+     */
+    private static class Transfer {
+        final Map<Key, File> pending = new LinkedHashMap<>();
+        final List<String> failures = new ArrayList<>();
+        final ProgressListener listener;
+        final int total;
+        final Writer journal;
+        final CompletableFuture<Transfer> done = new CompletableFuture<>();
+        int transferred;
+        int cleared;
+        long bytes;
+        Transfer(Map<Key, File> pending, ProgressListener listener, Writer journal) {
+            this.pending.putAll(pending);
+            this.total = pending.size();
+            this.listener = listener;
+            this.journal = journal;
+        }
+    }
+
+    private final UsbSender usb;
+    private final Entries entries;
+    private Transfer transfer;
+    private boolean busy;
+
+    public BankTransfer(UsbSender usb, Entries entries) {
+        this.usb = usb;
+        this.entries = entries;
+    }
+
+    /**
+     * Upload BANKS (zero-based) of TYPE to DIR, one bank dump folder per bank
+     * (e.g. "PatchBank8/PatchBank8.pchList"), skipping entries already uploaded.
+     * Requests go out a window per task on LIB.
+     */
+    public CompletableFuture<Result> upload(Entries.EntryType type, List<Integer> banks, File dir,
+                                            ProgressListener listener, Executor lib) throws Exception {
+        return exclusive(() -> uploadBanks(type, banks, dir, listener, lib));
+    }
+
+    private CompletableFuture<Result> uploadBanks(Entries.EntryType type, List<Integer> banks, File dir,
+                                                  ProgressListener listener, Executor lib) throws Exception {
+        long start = System.nanoTime();
+        Map<Key, File> targets = new LinkedHashMap<>();
+        int skipped = 0;
+        for (int bank : banks) {
+            if (bank < 0 || bank >= type.getBanks()) {
+                throw new IllegalArgumentException("Invalid bank: " + type + " " + (bank + 1));
+            }
+            Map<Integer, Entries.Entry> listed = entries.getEntries(type).getOrDefault(bank, Map.of());
+            if (listed.isEmpty()) { continue; }
+            File bankDir = new File(dir, bankName(type, bank));
+            Files.createDirectories(bankDir.toPath());
+            List<BankListEntry> list = new ArrayList<>();
+            Set<String> used = new HashSet<>();
+            listed.forEach((entry, e) -> list.add(new BankListEntry(bank, entry, fileName(type, e.name(), entry, used))));
+            writeBankList(new File(bankDir, bankName(type, bank) + BANK_LIST_EXT), list);
+            for (BankListEntry le : list) {
+                File f = new File(bankDir, le.file());
+                if (verifyFile(type, f)) {
+                    skipped++;
+                } else {
+                    targets.put(new Key(type, bank, le.entry()), f);
+                }
+            }
+        }
+        int skips = skipped;
+        return run(targets, listener, null, lib, k ->
+                usb.sendSystemRequest("upload entry " + k, O_ENTRY_UPLOAD_DATA, type.ordinal(), k.bank(), k.entry()))
+                .thenApply(t -> result(t, skips, start));
+    }
+
+    /**
+     * Download bank dump PCH_LIST to the banks it names, resuming from its journal.
+     * If REPLACE, other entries in those banks are cleared, as the Clavia editor does,
+     * once entries are re-read from the device. Requests go out a window per task on LIB.
+     */
+    public CompletableFuture<Result> download(File pchList, boolean replace, ProgressListener listener,
+                                              Executor lib) throws Exception {
+        return exclusive(() -> downloadBanks(pchList, replace, listener, lib));
+    }
+
+    private CompletableFuture<Result> downloadBanks(File pchList, boolean replace, ProgressListener listener,
+                                                    Executor lib) throws Exception {
+        long start = System.nanoTime();
+        List<BankListEntry> list = readBankList(pchList);
+        if (list.isEmpty()) { throw new IllegalArgumentException("Empty bank list: " + pchList); }
+        Entries.EntryType type = fileType(list.getFirst().file());
+        File journalFile = new File(pchList.getPath() + JOURNAL_EXT);
+        Set<String> done = new HashSet<>();
+        if (journalFile.isFile()) { done.addAll(Files.readAllLines(journalFile.toPath())); }
+        Map<Key, File> targets = new LinkedHashMap<>();
+        int skipped = 0;
+        for (BankListEntry le : list) {
+            if (fileType(le.file()) != type) {
+                throw new IllegalArgumentException("Mixed entry types in bank list: " + le.file());
+            }
+            Key k = new Key(type, le.bank(), le.entry());
+            if (done.contains(k.toString())) {
+                skipped++;
+            } else {
+                targets.put(k, new File(pchList.getParentFile(), le.file()));
+            }
+        }
+        Writer journal = new FileWriter(journalFile, StandardCharsets.UTF_8, true);
+        CompletableFuture<Transfer> downloaded;
+        try {
+            downloaded = run(targets, listener, journal, lib, k -> {
+                ByteBuffer msg;
+                try {
+                    msg = downloadMessage(k, targets.get(k));
+                } catch (Exception ex) {
+                    fail(k, ex.getMessage());
+                    return;
+                }
+                transfer.bytes += msg.limit();
+                usb.sendBulk("download entry " + k, true, msg);
+            });
+        } catch (Exception e) {
+            journal.close();
+            throw e;
+        }
+        downloaded = downloaded.whenComplete((_, _) -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "download: closing journal failed", e);
+            }
+        });
+        if (replace) {
+            downloaded = downloaded.thenCompose(t -> {
+                // cached entries may be stale, clear only what the device lists now
+                entries.reconcile(lib);
+                return entries.reconciled()
+                        .thenComposeAsync(_ -> clearUnlisted(type, list, listener, lib), lib)
+                        .thenApply(c -> {
+                            t.cleared = c.cleared;
+                            t.failures.addAll(c.failures);
+                            return t;
+                        });
+            });
+        }
+        int skips = skipped;
+        return downloaded.thenApply(t -> {
+            if (t.failures.isEmpty() && !journalFile.delete()) {
+                log.warning(() -> "download: could not delete journal: " + journalFile);
+            }
+            return result(t, skips, start);
+        });
+    }
+
+    /**
+     * Clear entries of the banks in LIST that it does not name.
+     */
+    private CompletableFuture<Transfer> clearUnlisted(Entries.EntryType type, List<BankListEntry> list,
+                                                      ProgressListener listener, Executor lib) {
+        Set<Key> keep = new HashSet<>();
+        list.forEach(le -> keep.add(new Key(type, le.bank(), le.entry())));
+        Map<Key, File> clears = new LinkedHashMap<>();
+        list.stream().map(BankListEntry::bank).distinct().forEach(bank ->
+                entries.getEntries(type).getOrDefault(bank, Map.of()).keySet().forEach(entry -> {
+                    Key k = new Key(type, bank, entry);
+                    if (!keep.contains(k)) { clears.put(k, null); }
+                }));
+        return run(clears, listener, null, lib, k ->
+                usb.sendSystemRequest("clear entry " + k, O_CLEAR_ENTRY, type.ordinal(), k.bank(), k.entry(), 0x01));
+    }
+
+    /**
+     * Run TRANSFER as the only transfer until its result completes.
+     */
+    private CompletableFuture<Result> exclusive(Callable<CompletableFuture<Result>> transfer) throws Exception {
+        if (busy) { throw new IllegalStateException("Bank transfer in progress"); }
+        busy = true;
+        try {
+            return transfer.call().whenComplete((_, _) -> busy = false);
+        } catch (Exception e) {
+            busy = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Send REQUEST for each target pipelined, a window per task on LIB, failing
+     * targets left without response.
+     */
+    private CompletableFuture<Transfer> run(Map<Key, File> targets, ProgressListener listener, Writer journal,
+                                            Executor lib, Util.ThrowingConsumer<Key> request) {
+        Transfer t = new Transfer(targets, listener, journal);
+        if (targets.isEmpty()) { return CompletableFuture.completedFuture(t); }
+        if (!usb.online()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Bank transfer requires connected device"));
+        }
+        transfer = t;
+        Iterator<Key> keys = List.copyOf(targets.keySet()).iterator();
+        runWindow(t, keys, lib, request);
+        return t.done;
+    }
+
+    private void runWindow(Transfer t, Iterator<Key> keys, Executor lib, Util.ThrowingConsumer<Key> request) {
+        try {
+            usb.pipelined(() -> {
+                for (int i = 0; i < WINDOW && keys.hasNext(); i++) {
+                    request.accept(keys.next());
+                }
+            });
+            if (keys.hasNext()) {
+                lib.execute(() -> runWindow(t, keys, lib, request));
+                return;
+            }
+        } catch (Exception e) {
+            transfer = null;
+            t.done.completeExceptionally(e);
+            return;
+        }
+        transfer = null;
+        t.pending.keySet().forEach(k -> t.failures.add(k + ": no response"));
+        t.done.complete(t);
+    }
+
+    private Result result(Transfer t, int skipped, long start) {
+        Result r = new Result(t.transferred, skipped, t.cleared, t.bytes, System.nanoTime() - start,
+                List.copyOf(t.failures));
+        log.info(() -> "bank transfer: " + r);
+        return r;
+    }
+
+    /**
+     * Handle 01 0c [perfVersion] 19 [type] [bank] [entry] [name] [length] [data]:
+     * verify and write entry to its target file.
+     */
+    public boolean dispatchUploadData(ByteBuffer buf) {
+        Key k = readKey(buf);
+        String name = readName(buf);
+        int length = Util.getShort(buf) - 1;
+        buf.position(buf.position() + ENTRY_DATA_PREFIX.length);
+        ByteBuffer data = buf.slice(buf.position(), length);
+        Transfer t = transfer;
+        File target = t == null ? null : t.pending.remove(k);
+        if (target == null) {
+            return Device.dispatchFailure("dispatchUploadData: unexpected entry: %s", k);
+        }
+        if (!crcValid(data)) {
+            fail(k, "CRC mismatch");
+            return true;
+        }
+        File part = new File(target.getPath() + ".part");
+        try {
+            try (FileChannel ch = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ch.write(fileHeader(k.type()).duplicate().rewind());
+                ch.write(data);
+            }
+            Files.move(part.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            fail(k, e.toString());
+            return true;
+        }
+        completed(t, k, name, length);
+        return dispatchSuccess(() -> "dispatchUploadData: " + k + " " + name);
+    }
+
+    /**
+     * Handle 01 0c [perfVersion] 18 00 [type] [bank] [entry] 13 [entry list]:
+     * journal entry and update entries.
+     */
+    public boolean dispatchDownloaded(ByteBuffer buf) {
+        buf.get(); // unknown, 00
+        Key k = readKey(buf);
+        Transfer t = transfer;
+        if (t != null && t.pending.remove(k) != null) {
+            try {
+                if (t.journal != null) {
+                    t.journal.write(k + "\n");
+                    t.journal.flush();
+                }
+                completed(t, k, null, 0);
+            } catch (IOException e) {
+                t.failures.add(k + ": journal: " + e);
+            }
+        }
+        if (Util.b2i(buf.get()) == I_ENTRY_LIST) {
+            entries.dispatchEntryList(buf.slice());
+        }
+        return dispatchSuccess(() -> "dispatchDownloaded: " + k);
+    }
+
+    /**
+     * Handle 01 0c [perfVersion] 15 [type] [bank] [entry] ...
+     */
+    public boolean dispatchCleared(ByteBuffer buf) {
+        Key k = readKey(buf);
+        entries.removeEntry(k.type(), k.bank(), k.entry());
+        Transfer t = transfer;
+        if (t != null && t.pending.containsKey(k)) {
+            t.pending.remove(k);
+            t.cleared++;
+            if (t.listener != null) {
+                t.listener.onProgress(new Progress(k.type(), k.bank(), k.entry(), null, t.cleared, t.total));
+            }
+        }
+        return dispatchSuccess(() -> "dispatchCleared: " + k);
+    }
+
+    private void completed(Transfer t, Key k, String name, int bytes) {
+        t.transferred++;
+        t.bytes += bytes;
+        if (t.listener != null) {
+            t.listener.onProgress(new Progress(k.type(), k.bank(), k.entry(), name, t.transferred, t.total));
+        }
+    }
+
+    private void fail(Key k, String msg) {
+        log.warning(() -> "bank transfer: " + k + ": " + msg);
+        Transfer t = transfer;
+        if (t != null) {
+            t.pending.remove(k);
+            t.failures.add(k + ": " + msg);
+        }
+    }
+
+    /**
+     * Download request for entry K, reading file data straight into the message.
+     */
+    private ByteBuffer downloadMessage(Key k, File file) throws Exception {
+        ByteBuffer header = fileHeader(k.type());
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int length = (int) ch.size() - header.limit();
+            if (length < 2) { throw new IOException("Truncated file: " + file); }
+            ByteBuffer h = ByteBuffer.allocate(header.limit());
+            readFully(ch, h);
+            if (!h.flip().equals(header.duplicate().rewind())) { throw new IOException("Unexpected file header: " + file); }
+            ByteBuffer msg = ByteBuffer.allocate(7 + 17 + 2 + ENTRY_DATA_PREFIX.length + length);
+            msg.put(Util.asBytes(M_CMD, S_PERF_REQ, V_SYSTEM, O_ENTRY_DOWNLOAD_DATA, k.type().ordinal(), k.bank(), k.entry()));
+            BitBuffer bb = new BitBuffer(msg);
+            Protocol.EntryName.FIELDS.values(Protocol.EntryName.Name.value(entryName(file.getName()))).write(bb);
+            msg.position(bb.getBytePosition());
+            Util.putShort(msg, length + 1);
+            msg.put(ENTRY_DATA_PREFIX);
+            int dataStart = msg.position();
+            msg.limit(dataStart + length);
+            readFully(ch, msg);
+            if (!crcValid(msg.slice(dataStart, length))) { throw new IOException("CRC mismatch: " + file); }
+            return msg.flip();
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf) < 0) { throw new EOFException(); }
+        }
+    }
+
+    private static Key readKey(ByteBuffer buf) {
+        Entries.EntryType type = Entries.EntryType.LOOKUP.get((int) buf.get());
+        return new Key(type, Util.b2i(buf.get()), Util.b2i(buf.get()));
+    }
+
+    private static String readName(ByteBuffer buf) {
+        BitBuffer bb = new BitBuffer(buf.slice());
+        String name = Protocol.EntryName.Name.stringValue(Protocol.EntryName.FIELDS.read(bb));
+        buf.position(buf.position() + bb.getBytePosition());
+        return name;
+    }
+
+    /**
+     * True if last two bytes of DATA are the CRC of the rest, as in .pch2/.prf2 files.
+     */
+    public static boolean crcValid(ByteBuffer data) {
+        int n = data.limit();
+        return n >= 2 && CRC16.crc16(data, 0, n - 2) == Util.addb(data.get(n - 2), data.get(n - 1));
+    }
+
+    /**
+     * True if FILE exists with TYPE header and valid CRC.
+     */
+    public static boolean verifyFile(Entries.EntryType type, File file) throws Exception {
+        if (!file.isFile()) { return false; }
+        ByteBuffer header = fileHeader(type);
+        ByteBuffer buf = Util.fileBuffer(file.getPath());
+        if (buf.limit() < header.limit() + 2 ||
+                !buf.slice(0, header.limit()).equals(header.duplicate().rewind())) { return false; }
+        return crcValid(buf.slice(header.limit(), buf.limit() - header.limit()));
+    }
+
+    public static ByteBuffer fileHeader(Entries.EntryType type) {
+        return type == Entries.EntryType.Patch ? Patch.HEADER : Performance.HEADER;
+    }
+
+    public static String fileExtension(Entries.EntryType type) {
+        return type == Entries.EntryType.Patch ? ".pch2" : ".prf2";
+    }
+
+    private static Entries.EntryType fileType(String file) {
+        if (file.endsWith(".pch2")) { return Entries.EntryType.Patch; }
+        if (file.endsWith(".prf2")) { return Entries.EntryType.Performance; }
+        throw new IllegalArgumentException("Not a G2 file: " + file);
+    }
+
+    /**
+     * Clavia bank dump name, e.g. "PatchBank8" for zero-based BANK 7.
+     */
+    public static String bankName(Entries.EntryType type, int bank) {
+        return (type == Entries.EntryType.Patch ? "PatchBank" : "PerfBank") + (bank + 1);
+    }
+
+    /**
+     * File name for entry NAME, unique among USED.
+     */
+    private static String fileName(Entries.EntryType type, String name, int entry, Set<String> used) {
+        String base = name.replaceAll("[\\\\/:*?\"<>|]", "_").trim();
+        if (base.isEmpty()) { base = "entry" + (entry + 1); }
+        String f = base + fileExtension(type);
+        if (!used.add(f.toLowerCase())) {
+            f = base + " (" + (entry + 1) + ")" + fileExtension(type);
+            used.add(f.toLowerCase());
+        }
+        return f;
+    }
+
+    /**
+     * Entry name of FILE: name without extension, at most 16 characters.
+     */
+    private static String entryName(String file) {
+        String name = file.substring(0, file.lastIndexOf('.'));
+        return name.substring(0, Math.min(16, name.length()));
+    }
+
+    public static List<BankListEntry> readBankList(File pchList) throws IOException {
+        List<String> lines = Files.readAllLines(pchList.toPath(), StandardCharsets.ISO_8859_1);
+        if (lines.isEmpty() || !lines.getFirst().equals(BANK_LIST_HEADER)) {
+            throw new IllegalArgumentException("Not a bank list: " + pchList);
+        }
+        List<BankListEntry> list = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) { continue; }
+            String[] parts = line.split(":", 3);
+            if (parts.length != 3) { throw new IllegalArgumentException("Invalid bank list line: " + line); }
+            int bank = Integer.parseInt(parts[0].trim()) - 1;
+            int entry = Integer.parseInt(parts[1].trim()) - 1;
+            if (bank < 0 || entry < 0 || entry >= BANK_ENTRIES) {
+                throw new IllegalArgumentException("Invalid bank list entry: " + line);
+            }
+            list.add(new BankListEntry(bank, entry, parts[2].trim()));
+        }
+        return list;
+    }
+
+    public static void writeBankList(File pchList, List<BankListEntry> list) throws IOException {
+        StringBuilder sb = new StringBuilder(BANK_LIST_HEADER).append("\r\n");
+        list.forEach(le -> sb.append(le.bank() + 1).append(':').append(le.entry() + 1).append(": ")
+                .append(le.file()).append("\r\n"));
+        Files.writeString(pchList.toPath(), sb, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -6,10 +6,12 @@ import org.g2fx.g2lib.state.*;
 import org.g2fx.g2lib.usb.Dispatcher;
 import org.g2fx.g2lib.usb.UsbMessage;
 import org.g2fx.g2lib.usb.UsbSender;
+import org.g2fx.g2lib.usb.WireLog;
 import org.g2fx.g2lib.util.BitBuffer;
 import org.g2fx.g2lib.util.Util;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -24,15 +26,18 @@ import static org.g2fx.g2lib.util.BitBuffer.sliceAheadLength;
 public class Device implements Dispatcher {
 
     private static final Logger log = Util.getLogger(Device.class);
+    private static final WireLog wire = new WireLog(log);
     private final UsbSender usb;
     private final LifecycleListener<Performance> perfLoadListener;
     private final LifecycleListener<Patch> patchLoadListener;
 
     private final Entries entries;
+    private final BankTransfer bankTransfer;
 
 
     private Performance perf;
     private final SynthSettings synthSettings = new SynthSettings();
+    private final VisualFrames visualFrames = new VisualFrames();
 
     public Device(UsbSender usb,
                   LifecycleListener<Performance> perfLoadListener,
@@ -42,6 +47,7 @@ public class Device implements Dispatcher {
         this.patchLoadListener = patchLoadListener;
         usb.setDispatcher(this);
         entries = new Entries(usb);
+        bankTransfer = new BankTransfer(usb, entries);
     }
 
     public Device setPerf(Performance perf) {
@@ -67,8 +73,15 @@ public class Device implements Dispatcher {
         // this goes out first in poweron2
         usb.sendStartStopComm(false);
 
-        entries.readEntries();
+    }
 
+    /**
+     * Show cached entries of this synth, known from synth settings, then read
+     * its entries a page per task on BACKGROUND.
+     */
+    public void loadEntries(Executor background) {
+        entries.loadCache(synthSettings.deviceName().get());
+        entries.reconcile(background);
     }
 
 
@@ -92,7 +105,7 @@ public class Device implements Dispatcher {
     }
 
     public static boolean dispatchFailure(String msg, Object... args) {
-        log.warning(String.format(msg,args));
+        log.warning(() -> String.format(msg,args));
         return false;
     }
 
@@ -107,10 +120,41 @@ public class Device implements Dispatcher {
                 default -> dispatchFailure("dispatch: unrecognized response code: %02x", h);
             };
         } catch (RuntimeException e) {
-            throw new RuntimeException("Error in dispatch of message: " + Util.dumpBufferString(msg.buffer().rewind()),e);
+            wire.warning(() -> "Error in dispatch of " + msg + ": ", msg.buffer());
+            throw new RuntimeException("Error in dispatch of message: " + msg, e);
         }
     }
 
+    /**
+     * Fast-lane dispatch of LED/volume stream messages on the USB read thread,
+     * decoding into {@link VisualFrames} without touching performance state.
+     * @return false if not a visual stream message.
+     */
+    public boolean dispatchVisuals(UsbMessage msg) {
+        ByteBuffer buf = msg.getBufferx().slice();
+        if (buf.remaining() < 4 || Util.b2i(buf.get()) != M_CMD) { return false; }
+        int h = Util.b2i(buf.get());
+        Slot slot;
+        if (h >= S_SLOT_08 && h < S_PERF_0C) {
+            slot = Slot.fromIndex(h - 8);
+        } else if (h >= S_SLOT_00 && h < S_PERF_04) {
+            slot = Slot.fromIndex(h);
+        } else {
+            return false;
+        }
+        buf.get(); // slot version
+        switch (Util.b2i(buf.get())) {
+            case I_LED_DATA -> visualFrames.decodeLeds(slot, buf);
+            case I_VOLUME_DATA -> visualFrames.decodeVolumes(slot, buf);
+            default -> { return false; }
+        }
+        return true;
+    }
+
+    public VisualFrames getVisualFrames() {
+        return visualFrames;
+    }
+
     /**
      * Handle 01 ...
      */
@@ -154,6 +198,9 @@ public class Device implements Dispatcher {
             case I_ASSIGNED_VOICES -> perf.readAssignedVoices(buf);
             case I_ENTRY_LIST -> entries.dispatchEntryList(buf.slice());
             case I_CHANGE_SLOT -> perf.readSlotChange(buf);
+            case I_ENTRY_UPLOAD_DATA -> bankTransfer.dispatchUploadData(buf);
+            case I_ENTRY_DOWNLOADED_DATA -> bankTransfer.dispatchDownloaded(buf);
+            case I_ENTRY_CLEARED -> bankTransfer.dispatchCleared(buf);
             default -> dispatchFailure("dispatchPerfCmd: unrecognized type: %02x",t);
         };
     }
@@ -274,6 +321,10 @@ public class Device implements Dispatcher {
         return entries;
     }
 
+    public BankTransfer getBankTransfer() {
+        return bankTransfer;
+    }
+
     public SynthSettings getSynthSettings() {
         return synthSettings;
     }
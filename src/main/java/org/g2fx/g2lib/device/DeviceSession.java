@@ -0,0 +1,366 @@
+package org.g2fx.g2lib.device;
+
+import org.g2fx.g2lib.state.LifecycleListener;
+import org.g2fx.g2lib.state.Patch;
+import org.g2fx.g2lib.state.Performance;
+import org.g2fx.g2lib.usb.*;
+import org.g2fx.g2lib.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One G2, connected or offline, with its own lib thread, sender, {@link Device}
+ * (and so Entries) and Performance. Sessions share no locks: lib state of a session
+ * is only touched on its scheduler. Device/perf/patch listeners of {@link Devices}
+ * follow the session while it is attached, see {@link #attach()}.
+ */
+public class DeviceSession {
+
+    private static final Logger log = Util.getLogger(DeviceSession.class);
+
+    public static final int OFFLINE_ADDRESS = -1;
+
+    private final Devices devices;
+    private final int address;
+    private final LibScheduler scheduler;
+
+    private volatile UsbSender sender;
+    private volatile UsbMetrics metrics = new UsbMetrics();
+
+    private final UsbSender delegatingSender = new UsbSender() {
+        @Override
+        public int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
+            return sender.sendBulk(msg,dispatch,data);
+        }
+
+        @Override
+        public int sendParamUpdate(ParamUpdate u) throws Exception {
+            return sender.sendParamUpdate(u);
+        }
+
+        @Override
+        public void beginPipeline() {
+            sender.beginPipeline();
+        }
+
+        @Override
+        public void endPipeline() throws Exception {
+            sender.endPipeline();
+        }
+
+        @Override
+        public void shutdown() {
+            sender.shutdown();
+        }
+
+        @Override
+        public void setDispatcher(Dispatcher dispatcher) {
+            sender.setDispatcher(dispatcher);
+        }
+
+        @Override
+        public boolean online() {
+            return sender.online();
+        }
+    };
+
+    /**
+     * Performance-facing sender, coalescing param/mode changes and flushing them on the lib thread.
+     */
+    private final CoalescingSender perfSender = new CoalescingSender(delegatingSender,
+            r -> execute(LibScheduler.Priority.Edit, r::run));
+
+    /**
+     * Callback for Device/Dispatcher on inbound perf load events.
+     */
+    private final LifecycleListener<Performance> perfLoadListener = new LifecycleListener<>() {
+        @Override
+        public void onLifecycleInit(Performance performance) throws Exception {
+            setPerf(performance); //redundant set on device but oh well
+            if (attached) { devices.notifyPerfInit(performance); }
+        }
+
+        @Override
+        public void onLifecycleDispose(Performance performance) throws Exception {
+            disposePerf();
+        }
+    };
+
+    /**
+     * Callback for Device/Dispatcher on inbound patch load events.
+     */
+    private final LifecycleListener<Patch> patchLoadListener = new LifecycleListener<>() {
+        @Override
+        public void onLifecycleInit(Patch patch) throws Exception {
+            if (attached) { devices.notifyPatchInit(patch); }
+        }
+
+        @Override
+        public void onLifecycleDispose(Patch patch) throws Exception {
+            if (attached) { devices.notifyPatchDispose(patch); }
+        }
+    };
+
+    private final Device device;
+
+    private Performance perf;
+
+    /**
+     * Lib thread only: device init completed, and listeners notified of this session.
+     */
+    private boolean initialized;
+    private boolean attached;
+    private volatile CompletableFuture<Void> prevDetached = CompletableFuture.completedFuture(null);
+
+    /**
+     * Offline session at ADDRESS, see {@link #connect(UsbConnection)}. The
+     * persistent offline session starts out initialized and ATTACHED.
+     */
+    DeviceSession(Devices devices, int address, boolean attached) {
+        this.devices = devices;
+        this.address = address;
+        this.initialized = attached;
+        this.attached = attached;
+        this.sender = new OfflineSender();
+        this.scheduler = new LibScheduler(address == OFFLINE_ADDRESS ? "g2lib" : "g2lib-" + address);
+        metrics.setQueueDepthGauge(scheduler::size);
+        device = new Device(perfSender, perfLoadListener, patchLoadListener);
+    }
+
+    /**
+     * Route sends to USB and install inbound dispatch on this session's scheduler,
+     * with visual streams decoded on the read thread.
+     */
+    void connect(UsbConnection usb) {
+        UsbMetrics m = usb.getMetrics();
+        m.setQueueDepthGauge(scheduler::size);
+        metrics = m;
+        setSender(usb);
+
+        // stream messages not handled on the read thread coalesce per slot and type
+        Dispatcher executorDispatcher = msg -> {
+            Runnable task = () -> {
+                try {
+                    m.dispatch(device, msg);
+                } catch (Exception e) {
+                    log.log(Level.SEVERE,"Error in dispatcher",e);
+                } finally {
+                    msg.release();
+                }
+            };
+            int sig = UsbReadThread.signature(msg);
+            if (UsbReadThread.isStream(sig)) {
+                scheduler.executeVisual(sig, task, msg::release);
+            } else {
+                scheduler.executeInbound(task);
+            }
+            m.queueDepth(scheduler.size());
+            return true;
+        };
+        usb.setThreadsafeDispatcher(executorDispatcher);
+        // visual streams decode on read thread, never queueing behind the executor
+        usb.setStreamDispatcher(msg -> {
+            boolean handled;
+            try {
+                handled = m.dispatch(device::dispatchVisuals, msg);
+            } catch (Exception e) {
+                log.log(Level.SEVERE,"Error in visuals dispatcher",e);
+                handled = true;
+            }
+            if (handled) {
+                msg.release();
+                return true;
+            }
+            return executorDispatcher.dispatch(msg);
+        });
+        usb.start();
+    }
+
+    /**
+     * Route sends to SENDER, dispatching its responses to the device.
+     */
+    void setSender(UsbSender sender) {
+        this.sender = sender;
+        sender.setDispatcher(device);
+    }
+
+    /**
+     * Back to offline after unplug, keeping the performance.
+     */
+    void disconnect() {
+        UsbSender usb = sender;
+        setSender(new OfflineSender());
+        metrics = new UsbMetrics();
+        metrics.setQueueDepthGauge(scheduler::size);
+        usb.shutdown();
+    }
+
+    /**
+     * Initialize device and a new performance after {@link #connect}, attaching
+     * if active, then start comms, reading entries in the background. On lib thread.
+     */
+    void initialize() {
+        setPerf(new Performance(perfSender));
+
+        try {
+            device.initialize();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Device init failed!", e);
+            return;
+        }
+
+        try {
+            perf.initialize();
+        } catch (Exception e) {
+            log.log(Level.SEVERE,"Error in initializing performance",e);
+        }
+
+        device.loadEntries(r -> execute(LibScheduler.Priority.Structural, r::run));
+
+        initialized = true;
+        attach();
+
+        try {
+            sender.sendStartStopComm(true);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Device start comm failed", e);
+        }
+    }
+
+    /**
+     * Notify listeners of device and perf init if initialized and active. Lib thread only.
+     */
+    void attach() {
+        if (attached || !initialized || devices.getActive() != this || !prevDetached.isDone()) { return; }
+        attached = true;
+        devices.notifyDeviceInit(device);
+        if (perf != null) { devices.notifyPerfInit(perf); }
+    }
+
+    /**
+     * Hold off {@link #attach} until DETACHED, the previously active session's detach.
+     */
+    void afterDetach(CompletableFuture<Void> detached) {
+        prevDetached = detached;
+    }
+
+    /**
+     * Notify listeners of perf and device disposal if attached. Lib thread only.
+     */
+    void detach() {
+        if (!attached) { return; }
+        if (perf != null) { devices.notifyPerfDispose(perf); }
+        devices.notifyDeviceDispose(device);
+        attached = false;
+    }
+
+    boolean isAttached() {
+        return attached;
+    }
+
+    /**
+     * Flush, stop comms if SEND_STOP_COMMS and release the connection, then stop the lib thread
+     * once queued work is done, see {@link LibScheduler#awaitTermination}.
+     */
+    void shutdown(boolean sendStopComms) {
+        execute(LibScheduler.Priority.Structural, () -> device.shutdown(sendStopComms));
+        scheduler.shutdown();
+    }
+
+    /**
+     * Run C on this session's lib thread and wait, or inline if already on it.
+     */
+    public <V> V invoke(LibScheduler.Priority priority, Callable<V> c) throws Exception {
+        if (scheduler.onLibThread()) { return c.call(); }
+        return scheduler.submit(priority, c).get();
+    }
+
+    public void execute(LibScheduler.Priority priority, Util.ThrowingRunnable r) {
+        scheduler.execute(priority, () -> {
+            try {
+                r.run();
+            } catch (Exception e) {
+                log.log(Level.SEVERE,"execute: unexpected error",e);
+            }
+        });
+        metrics.queueDepth(scheduler.size());
+    }
+
+    /**
+     * Lib thread only.
+     */
+    public void setPerf(Performance perf) {
+        this.perf = perf;
+        device.setPerf(perf);
+    }
+
+    /**
+     * Dispose current perf and notify PERF as loaded. Lib thread only.
+     */
+    void replacePerf(Performance perf) {
+        disposePerf();
+        setPerf(perf);
+        if (attached) { devices.notifyPerfInit(perf); }
+    }
+
+    /**
+     * Lib thread only.
+     */
+    void disposePerf() {
+        if (perf == null) return;
+        if (attached) { devices.notifyPerfDispose(perf); }
+        perf = null;
+    }
+
+    public Performance getPerf() {
+        return perf;
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public boolean online() {
+        return device.online();
+    }
+
+    public UsbSender getPerfSender() {
+        return perfSender;
+    }
+
+    public LibScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public UsbMetrics getMetrics() {
+        return metrics;
+    }
+
+    public LifecycleListener<Performance> getPerfLoadListener() {
+        return perfLoadListener;
+    }
+
+    public LifecycleListener<Patch> getPatchLoadListener() {
+        return patchLoadListener;
+    }
+
+    /**
+     * Device name and address if online, else null.
+     */
+    public String getLabel() {
+        return online() ? device.getSynthSettings().deviceName().get() + "@" + address : null;
+    }
+
+    @Override
+    public String toString() {
+        return address == OFFLINE_ADDRESS ? "offline" : "device@" + address;
+    }
+}
@@ -5,11 +5,12 @@ import org.g2fx.g2lib.state.LifecycleListener;
 import org.g2fx.g2lib.state.Patch;
 import org.g2fx.g2lib.state.Performance;
 import org.g2fx.g2lib.state.Slot;
+import org.g2fx.g2lib.state.VisualFrames;
 import org.g2fx.g2lib.usb.*;
 import org.g2fx.g2lib.util.Util;
 
-import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -17,7 +18,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Singleton facade/pub-sub representing G2 device(s) and current Performance.
+ * Singleton facade/pub-sub representing G2 devices and current Performance.
+ * Each device runs in its own {@link DeviceSession}; listeners and the
+ * LibExecutor API follow the active (selected) session.
  */
 public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Performance> {
 
@@ -27,76 +30,30 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
     public List<LifecycleListener<Performance>> perfListeners = new CopyOnWriteArrayList<>();
     public List<LifecycleListener<Patch>> patchListeners = new CopyOnWriteArrayList<>();
 
-    private final ExecutorService executorService;
-
     /**
-     * Multi-device support not supported beyond usb connection/disconnection atm.
+     * Guards connection bookkeeping and selection, never held while running lib work.
      */
-    private final Map<Integer, Device> devices = new HashMap<>();
-
-    private Performance currentPerf;
-
-    private UsbSender currentSender = new OfflineSender();
-
-    private final UsbSender delegatingSender = new UsbSender() {
-        @Override
-        public int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
-            return currentSender.sendBulk(msg,dispatch,data);
-        }
-
-        @Override
-        public void shutdown() {
-            currentSender.shutdown();
-        }
-
-        @Override
-        public void setDispatcher(Dispatcher dispatcher) {
-            currentSender.setDispatcher(dispatcher);
-        }
-    };
+    private final Object selection = new Object();
 
+    private final Map<Integer, DeviceSession> sessions = new ConcurrentHashMap<>();
 
     /**
-     * Callback for Device/Dispatcher on inbound perf load events.
+     * Persistent "fake device" when no G2 connected; an unplugged active session
+     * takes its place, keeping its perf.
      */
-    private final LifecycleListener<Performance> perfLoadListener = new LifecycleListener<>() {
-        @Override
-        public void onLifecycleInit(Performance performance) throws Exception {
-            setCurrentPerf(performance); //redundant set on device but oh well
-            notifyPerfInit();
-        }
-
-        @Override
-        public void onLifecycleDispose(Performance performance) throws Exception {
-            disposePerf();
-        }
-    };
+    private volatile DeviceSession offline = new DeviceSession(this, DeviceSession.OFFLINE_ADDRESS, true);
 
-    /**
-     * Callback for Device/Dispatcher on inbound patch load events.
-     */
-    private final LifecycleListener<Patch> patchLoadListener = new LifecycleListener<>() {
-        @Override
-        public void onLifecycleInit(Patch patch) throws Exception {
-            LifecycleListener.notifyLifecycleInit(patchListeners,patch);
-        }
+    private volatile DeviceSession active = offline;
 
-        @Override
-        public void onLifecycleDispose(Patch patch) throws Exception {
-            LifecycleListener.notifyLifecycleDispose(patchListeners,patch);
-        }
-    };
+    public Devices(UsbService usbService) {
+        this();
+        usbService.addListener(this);
+    }
 
     /**
-     * Persistent "fake device" when G2 not connected.
+     * Without USB hotplug, for emulated devices (see {@link #connect(int, UsbConnection)}).
      */
-    private final Device offlineDevice = new Device(currentSender, perfLoadListener, patchLoadListener);
-
-    private Device currentDevice = offlineDevice;
-
-    public Devices(UsbService usbService) {
-        this.executorService = Executors.newSingleThreadExecutor();
-        usbService.addListener(this);
+    public Devices() {
     }
 
 
@@ -108,100 +65,126 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
         perfListeners.add(listener);
     }
 
-    private void connected(UsbService.UsbDevice ud) {
-
-        if (devices.get(ud.address()) != null) {
-            log.severe("connected: already have device at address! " + ud.address());
-            return;
-        }
-
-        Usb usb = new Usb(ud);
-        // ugly workaround for multi-device non-support
-        UsbSender tmpSender = currentSender;
-        currentSender = usb;
-        Device d = new Device(delegatingSender, perfLoadListener, patchLoadListener);
-        devices.put(ud.address(), d);
-
-        if (currentDevice.online()) {
-            log.warning("connected: current device already connected, ignoring: " + ud.address());
-            currentSender = tmpSender;
-            return;
+    /**
+     * Open a session for CONNECTION at ADDRESS, initializing it on its own lib thread
+     * and selecting it if no other device is.
+     */
+    private void connected(int address, Callable<UsbConnection> connection) {
+        DeviceSession s;
+        synchronized (selection) {
+            if (sessions.containsKey(address)) {
+                log.severe("connected: already have device at address! " + address);
+                return;
+            }
+            s = new DeviceSession(this, address, false);
+            sessions.put(address, s);
         }
-
-        notifyDeviceDispose(offlineDevice);
-        currentDevice = d;
-        log.info("Setting current device to address: " + ud.address());
-
-        usb.setThreadsafeDispatcher(msg -> {
-            executorService.execute(() -> {
-                try {
-                    d.dispatch(msg);
-                } catch (Exception e) {
-                    log.log(Level.SEVERE,"Error in dispatcher",e);
-                }
-            });
-            return true;
+        s.execute(LibScheduler.Priority.Structural, () -> {
+            try {
+                s.connect(connection.call());
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "connected: connection failed: " + address, e);
+                disconnected(address);
+                return;
+            }
+            if (activate(s, true)) {
+                log.info("Setting current device to address: " + address);
+            }
+            s.initialize();
         });
-        usb.start();
+    }
 
-        if (currentPerf != null) { //TODO this is not consistent with legacy app which will send current perf
-            disposePerf();
+    private void disconnected(int address) {
+        DeviceSession s, next = null, prevOffline = null;
+        synchronized (selection) {
+            s = sessions.remove(address);
+            if (s == null) {
+                log.severe("disconnected: received unknown address! " + address);
+                return;
+            }
+            if (s == active) {
+                next = sessions.values().stream().findFirst().orElse(null);
+                if (next == null) {
+                    prevOffline = offline;
+                    offline = s;
+                }
+            }
         }
-        setCurrentPerf(new Performance(delegatingSender));
-        d.setPerf(currentPerf);
-
-        try {
-            d.initialize();
-        } catch (Exception e) {
-            log.log(Level.SEVERE, "Device init failed!", e);
-            return;
+        if (prevOffline != null) {
+            log.info("disconnected current device, now offline: " + address);
+            s.execute(LibScheduler.Priority.Structural, () -> {
+                s.disconnect();
+                notifyDeviceDispose(s.getDevice());
+            });
+            prevOffline.shutdown(false);
+        } else {
+            if (next != null) { select(next); }
+            s.shutdown(false);
         }
+    }
 
-        notifyDeviceInit(d);
-
-        try {
-            currentPerf.initialize();
-        } catch (Exception e) {
-            log.log(Level.SEVERE,"Error in initializing performance",e);
+    /**
+     * Make NEXT active unless it already is, or if REPLACE_OFFLINE_ONLY and another
+     * device is. The previous session detaches from listeners on its own lib thread
+     * without waiting, then NEXT attaches on its lib thread; NEXT does not attach before.
+     */
+    private boolean activate(DeviceSession next, boolean replaceOfflineOnly) {
+        DeviceSession prev;
+        CompletableFuture<Void> detached = new CompletableFuture<>();
+        synchronized (selection) {
+            prev = active;
+            if (prev == next || (replaceOfflineOnly && prev != offline)) { return false; }
+            active = next;
+            next.afterDetach(detached);
         }
-
-        notifyPerfInit();
-
+        detached.thenRun(() -> next.execute(LibScheduler.Priority.Structural, next::attach));
         try {
-            usb.sendStartStopComm(true);
-        } catch (Exception e) {
-            log.log(Level.SEVERE, "Device start comm failed", e);
+            prev.execute(LibScheduler.Priority.Structural, () -> {
+                try {
+                    prev.detach();
+                } finally {
+                    detached.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warning("activate: previous session shut down: " + prev);
+            detached.complete(null);
         }
-
+        return true;
     }
 
+    private void select(DeviceSession s) {
+        activate(s, false);
+    }
 
-    private void disconnected(UsbService.UsbDevice ud) {
-        Device d = devices.remove(ud.address());
-        if (d == null) {
-            log.severe("disconnected: received unknown address! " + ud.address());
-        }
-        if (d != currentDevice) {
-            log.info("disconnected non-current device, ignoring: " + ud.address());
-            return;
-        }
-
-        currentDevice = offlineDevice;
-        currentSender = new OfflineSender();
-
-        notifyDeviceDispose(d);
+    /**
+     * Select connected device at ADDRESS as current, for UI/REPL and listeners.
+     */
+    public void select(int address) {
+        DeviceSession s = sessions.get(address);
+        if (s == null) { throw new IllegalArgumentException("No device at address: " + address); }
+        log.info("Setting current device to address: " + address);
+        select(s);
+    }
 
-        d.shutdown(false);
+    /**
+     * Connected device sessions by address.
+     */
+    public List<DeviceSession> getSessions() {
+        return sessions.values().stream().sorted(Comparator.comparingInt(DeviceSession::getAddress)).toList();
+    }
 
+    public DeviceSession getActive() {
+        return active;
     }
 
     public void initOfflineDevice() {
-        if (currentDevice == offlineDevice) {
-            notifyDeviceInit(offlineDevice);
+        if (active == offline) {
+            notifyDeviceInit(offline.getDevice());
         }
     }
 
-    private void notifyDeviceInit(Device d) {
+    void notifyDeviceInit(Device d) {
         listeners.forEach(l -> {
             try {
                 l.onDeviceInitialized(d);
@@ -211,7 +194,7 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
         });
     }
 
-    private void notifyDeviceDispose(Device d) {
+    void notifyDeviceDispose(Device d) {
         listeners.forEach(l -> {
             try {
                 l.onDeviceDisposal(d);
@@ -221,38 +204,65 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
         });
     }
 
+    void notifyPerfInit(Performance perf) {
+        LifecycleListener.notifyLifecycleInit(perfListeners, perf);
+    }
+
+    void notifyPerfDispose(Performance perf) {
+        LifecycleListener.notifyLifecycleDispose(perfListeners, perf);
+    }
+
+    void notifyPatchInit(Patch patch) {
+        LifecycleListener.notifyLifecycleInit(patchListeners, patch);
+    }
+
+    void notifyPatchDispose(Patch patch) {
+        LifecycleListener.notifyLifecycleDispose(patchListeners, patch);
+    }
+
     /**
      * Exposed for testing/used internally.
      */
     public void setCurrentPerf(Performance currentPerf) {
-        this.currentPerf = currentPerf;
-        currentDevice.setPerf(currentPerf);
+        active.setPerf(currentPerf);
     }
 
     @Override
     public void onConnectionEvent(UsbService.UsbDevice device, boolean connected) {
-        executorService.execute(() -> {
-            if (connected) {
-                connected(device);
-            } else {
-                disconnected(device);
-            }
-        });
+        if (connected) {
+            connected(device.address(), () -> new Usb(device));
+        } else {
+            disconnected(device.address());
+        }
     }
 
-    public void shutdown() throws Exception {
+    /**
+     * Connect a non-USB device, e.g. {@link G2Emulator}, at ADDRESS as if hot-plugged.
+     */
+    public void connect(int address, UsbConnection connection) {
+        connected(address, () -> connection);
+    }
 
-        //blocking shutdown of devices
-        Future<Boolean> f = executorService.submit(() -> {
-            for (Device d : devices.values()) {
-                d.shutdown(true);
-            }
-            return true;
-        });
-        f.get();
+    /**
+     * Disconnect device at ADDRESS as if unplugged.
+     */
+    public void disconnect(int address) {
+        disconnected(address);
+    }
 
-        executorService.shutdown();
+    public void shutdown() throws Exception {
 
+        List<DeviceSession> all;
+        synchronized (selection) {
+            all = new ArrayList<>(sessions.values());
+            all.add(offline);
+        }
+        all.forEach(s -> s.shutdown(s != offline));
+        for (DeviceSession s : all) {
+            if (!s.getScheduler().awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warning("shutdown: session did not terminate: " + s);
+            }
+        }
 
     }
 
@@ -262,23 +272,24 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
      * @param slot optional slot, otherwise perf "current slot" used
      */
     public void loadFile(String path, Slot slot) {
+        DeviceSession s = active;
         try {
 
             if (path.endsWith("prf2")) {
-                disposePerf();
-                setCurrentPerf(Performance.readFromFile(path, delegatingSender));
-                notifyPerfInit();
+                Performance perf = Performance.readFromFile(path, s.getPerfSender());
+                s.replacePerf(perf);
 
-                currentPerf.sendPerf();
+                perf.sendPerf();
 
             } else if (path.endsWith("pch2")) {
-                if (currentPerf == null) {
+                if (s.getPerf() == null) {
                     newPerformance();
                 }
-                if (slot == null) { slot = currentPerf.getSelectedSlot(); }
-                patchLoadListener.onLifecycleDispose(currentPerf.getSlot(slot));
-                Patch p = currentPerf.readPatchFromFile(slot,path);
-                patchLoadListener.onLifecycleInit(p);
+                Performance perf = s.getPerf();
+                if (slot == null) { slot = perf.getSelectedSlot(); }
+                s.getPatchLoadListener().onLifecycleDispose(perf.getSlot(slot));
+                Patch p = perf.readPatchFromFile(slot,path);
+                s.getPatchLoadListener().onLifecycleInit(p);
             }
         } catch (Exception e) {
             log.log(Level.SEVERE,"File load failed",e);
@@ -287,43 +298,37 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
 
 
     public void newPerformance() {
-        disposePerf();
-        setCurrentPerf(new Performance(delegatingSender));
+        DeviceSession s = active;
+        Performance perf = new Performance(s.getPerfSender());
         try {
-            currentPerf.initNew();
-            notifyPerfInit();
-            currentPerf.sendPerf();
+            perf.initNew();
+            s.replacePerf(perf);
+            perf.sendPerf();
         } catch (Exception e) {
             log.log(Level.SEVERE,"newPerformance: failure",e);
         }
     }
 
-    private void disposePerf() {
-        if (currentPerf == null) return;
-
-        notifyPerfDispose();
-
-        currentPerf = null;
-    }
-
 
-    private void notifyPerfInit() {
-        LifecycleListener.notifyLifecycleInit(perfListeners, currentPerf);
-    }
-
-    private void notifyPerfDispose() {
-        LifecycleListener.notifyLifecycleDispose(perfListeners,currentPerf);
+    /**
+     * LED/meter snapshots of current device.
+     */
+    public VisualFrames getVisualFrames() {
+        return active.getDevice().getVisualFrames();
     }
 
-
-
     public Path getPath() {
-        return Path.mkPath(currentDevice,currentPerf);
+        return Path.mkPath(active);
     }
 
     public <T>T withCurrentPerf(Util.ThrowingFunction<Performance, T> f) throws Exception {
-        if (currentPerf == null) { throw new IllegalStateException("Current device/perf not initialized"); }
-        return f.invoke(currentPerf);
+        return withPerf(active, f);
+    }
+
+    private static <T>T withPerf(DeviceSession s, Util.ThrowingFunction<Performance, T> f) throws Exception {
+        Performance perf = s.getPerf();
+        if (perf == null) { throw new IllegalStateException("Current device/perf not initialized"); }
+        return f.invoke(perf);
     }
 
 
@@ -339,7 +344,11 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
 
     @Override
     public <V> V invoke(Callable<V> c) {
-        Future<FailableResult<V>> f = executorService.submit(() -> {
+        return invoke(active, c);
+    }
+
+    private static <V> V invoke(DeviceSession s, Callable<V> c) {
+        Future<FailableResult<V>> f = s.getScheduler().submit(LibScheduler.Priority.Invoke, () -> {
             try {
                 return FailableResult.success(c.call());
             } catch (RuntimeException e) {
@@ -358,33 +367,56 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
 
     @Override
     public <V> V invokeWithCurrent(Util.ThrowingFunction<Performance, V> f) {
-        return invoke(() -> withCurrentPerf(f));
+        DeviceSession s = active;
+        return invoke(s, () -> withPerf(s, f));
     }
 
     @Override
     public void runWithCurrent(Util.ThrowingConsumer<Performance> f) {
-        execute(() -> {
-            if (currentPerf == null) {
-                throw new IllegalStateException("Current device/perf not initialized");
-            }
-            f.accept(currentPerf);
-        });
+        DeviceSession s = active;
+        s.execute(LibScheduler.Priority.Edit, () -> withPerf(s, p -> {
+            f.accept(p);
+            return null;
+        }));
     }
 
     public void runWithCurrentDevice(Util.ThrowingConsumer<Device> f) {
-        execute(() -> f.accept(currentDevice));
+        runWithCurrentDevice(LibScheduler.Priority.Edit, f);
+    }
+
+    public void runWithCurrentDevice(LibScheduler.Priority priority, Util.ThrowingConsumer<Device> f) {
+        DeviceSession s = active;
+        s.execute(priority, () -> f.accept(s.getDevice()));
     }
 
 
+    /**
+     * Run as user edit, see {@link LibScheduler.Priority#Edit}.
+     */
     @Override
     public void execute(Util.ThrowingRunnable r) {
-        executorService.execute(() -> {
-            try {
-                r.run();
-            } catch (Exception e) {
-                log.log(Level.SEVERE,"execute: unexpected error",e);
-            }
-        });
+        execute(LibScheduler.Priority.Edit, r);
+    }
+
+    /**
+     * Run on lib thread of current device.
+     */
+    public void execute(LibScheduler.Priority priority, Util.ThrowingRunnable r) {
+        active.execute(priority, r);
+    }
+
+    /**
+     * Lib thread scheduler of current device, exposed for queue stats.
+     */
+    public LibScheduler getScheduler() {
+        return active.getScheduler();
+    }
+
+    /**
+     * USB latency/throughput metrics of current device, see {@link UsbMetrics}.
+     */
+    public UsbMetrics getMetrics() {
+        return active.getMetrics();
     }
 
     public void addPatchListener(LifecycleListener<Patch> lifecycleListener) {
@@ -395,29 +427,28 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
      * exposed for testing
      */
     public LifecycleListener<Performance> getPerfLoadListener() {
-        return perfLoadListener;
+        return active.getPerfLoadListener();
     }
 
     /**
      * exposed for testing
      */
     public LifecycleListener<Patch> getPatchLoadListener() {
-        return patchLoadListener;
+        return active.getPatchLoadListener();
     }
 
     /**
      * exposed for testing
      */
     public Performance getCurrentPerf() {
-        return currentPerf;
+        return active.getPerf();
     }
 
     /**
      * Exposed for testing
      */
     public void setCurrentSender(UsbSender sender) {
-        this.currentSender = sender;
-        sender.setDispatcher(currentDevice);
+        active.setSender(sender);
     }
 
     public LibExecutor<Device> getDeviceExecutor() {
@@ -426,10 +457,11 @@ public class Devices implements UsbService.UsbConnectionListener, LibExecutor<Pe
                 return Devices.this.invoke(c);
             }
             @Override public <V> V invokeWithCurrent(Util.ThrowingFunction<Device, V> f) {
-                return Devices.this.invoke(() -> f.invoke(currentDevice));
+                DeviceSession s = active;
+                return Devices.invoke(s, () -> f.invoke(s.getDevice()));
             }
             @Override public void runWithCurrent(Util.ThrowingConsumer<Device> f) {
-                Devices.this.execute(() -> f.accept(currentDevice));
+                runWithCurrentDevice(f);
             }
             @Override public void execute(Util.ThrowingRunnable r) {
                 Devices.this.execute(r);
@@ -0,0 +1,847 @@
+package org.g2fx.g2lib.device;
+
+import org.g2fx.g2lib.model.Connector;
+import org.g2fx.g2lib.protocol.FieldValues;
+import org.g2fx.g2lib.protocol.Protocol;
+import org.g2fx.g2lib.protocol.Sections;
+import org.g2fx.g2lib.state.*;
+import org.g2fx.g2lib.usb.*;
+import org.g2fx.g2lib.util.BitBuffer;
+import org.g2fx.g2lib.util.CRC16;
+import org.g2fx.g2lib.util.Util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.g2fx.g2lib.protocol.Codes.*;
+
+/**
+ * In-process G2 speaking the USB protocol, for benchmarking and soak-testing
+ * {@link Devices}/{@link Device} and the GUI without a synth attached. Holds its own
+ * {@link Performance}, loaded from .prf2/.pch2 files, answering version, entries, perf
+ * and patch requests from it and applying param, mode, variation, cable, uprate and
+ * module add/delete edits, and module params, labels and names sections, to it.
+ * <p>
+ * Responses are framed as on the wire (embedded in the 16-byte interrupt packet when short,
+ * else extended) and delivered after a modeled {@link Timing}. LED/volume streams are emitted
+ * at configurable rates while comm is started.
+ */
+public class G2Emulator implements UsbConnection {
+
+    private static final Logger log = Util.getLogger(G2Emulator.class);
+    private static final WireLog wire = new WireLog(log);
+
+    /**
+     * System property naming a .prf2 file to emulate, see {@link #connectFromProperty(Devices)}.
+     */
+    public static final String EMULATE_PROPERTY = "g2fx.emulate";
+    public static final int EMULATOR_ADDRESS = 0xe0;
+    public static final double DEFAULT_STREAM_HZ = 25;
+    public static final int BULK_PACKET_SIZE = 64;
+    public static final int ENTRIES_PAGE = 64;
+
+    /**
+     * USB timing model: a transfer costs LATENCYNANOS (bus frame/interrupt polling)
+     * plus PACKETNANOS per packet; the device services one request at a time
+     * for SERVICENANOS.
+     */
+    public record Timing(long latencyNanos, long packetNanos, long serviceNanos) {
+
+        /**
+         * Respond immediately on the sending thread.
+         */
+        public static final Timing NONE = new Timing(0, 0, 0);
+
+        /**
+         * Full-speed USB, with service time giving the ~10ms round trips seen in captures.
+         */
+        public static final Timing G2 = new Timing(1_000_000, 50_000, 8_000_000);
+
+        /**
+         * Outbound bulk transfer of BYTES.
+         */
+        public long bulkNanos(int bytes) {
+            return latencyNanos + packetNanos * Math.max(1, Math.ceilDiv(bytes, BULK_PACKET_SIZE));
+        }
+
+        /**
+         * Inbound message of BYTES (payload + crc): embedded in one interrupt packet,
+         * or an interrupt packet announcing a bulk read.
+         */
+        public long inboundNanos(int bytes) {
+            long interrupt = latencyNanos + packetNanos;
+            return bytes < Usb.INTERRUPT_SIZE ? interrupt : interrupt + bulkNanos(bytes);
+        }
+
+        public boolean immediate() {
+            return latencyNanos == 0 && packetNanos == 0 && serviceNanos == 0;
+        }
+    }
+
+    private record BankEntry(String name, int category, String path) { }
+
+    private final Timing timing;
+    private final UsbSender offline = new OfflineSender();
+    private final SynthSettings synthSettings = new SynthSettings();
+    private final Map<Entries.EntryType, TreeMap<Integer, BankEntry>> banks = Map.of(
+            Entries.EntryType.Performance, new TreeMap<>(), Entries.EntryType.Patch, new TreeMap<>());
+    private final Map<Slot, FieldValues> selectedParams = new TreeMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "G2Emulator");
+        t.setDaemon(true);
+        return t;
+    });
+    private final UsbMetrics metrics = new UsbMetrics();
+    private final RequestPipeline pipeline =
+            new RequestPipeline(this::request, m -> metrics.dispatch(this.dispatcher, m), RequestPipeline.DEFAULT_WINDOW);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong streamed = new AtomicLong();
+
+    private Dispatcher dispatcher;
+    private volatile Dispatcher threadsafeDispatcher;
+    private volatile Dispatcher streamDispatcher;
+
+    /**
+     * Guarded by this, along with device timing and all other emulated state.
+     */
+    private Performance perf;
+    private long deviceFree;
+    private long lastDelivery;
+    private boolean commStarted;
+    private int streamTick;
+    private double ledHz;
+    private double volumeHz;
+    private boolean started;
+    private ScheduledFuture<?> ledStream;
+    private ScheduledFuture<?> volumeStream;
+
+    public G2Emulator(Performance perf, Timing timing) {
+        this.perf = perf;
+        this.timing = timing;
+        //power-on versions, as in captures
+        perf.setVersion(0);
+        for (Slot s : Slot.values()) {
+            perf.getSlot(s).setVersion(0);
+        }
+        synthSettings.deviceName().set("G2 Emulator");
+        for (Slot s : Slot.values()) {
+            selectedParams.put(s, Protocol.SelectedParam.FIELDS.values(
+                    Protocol.SelectedParam.Unknown.value(1),
+                    Protocol.SelectedParam.Location.value(AreaId.Settings.ordinal()),
+                    Protocol.SelectedParam.Module.value(1),
+                    Protocol.SelectedParam.Param.value(0)));
+        }
+    }
+
+    /**
+     * Emulate device with performance from .prf2 PATH.
+     */
+    public static G2Emulator fromFile(String path, Timing timing) throws Exception {
+        return new G2Emulator(Performance.readFromFile(path, new OfflineSender()), timing);
+    }
+
+    /**
+     * If {@link #EMULATE_PROPERTY} is set, connect an emulator with that performance, G2 timing
+     * and default stream rates, adding it to the performance bank.
+     * @return true if connected.
+     */
+    public static boolean connectFromProperty(Devices devices) throws Exception {
+        String path = System.getProperty(EMULATE_PROPERTY);
+        if (path == null) { return false; }
+        G2Emulator emulator = fromFile(path, Timing.G2);
+        emulator.addEntry(Entries.EntryType.Performance, 0, 0, path);
+        emulator.setStreamRates(DEFAULT_STREAM_HZ, DEFAULT_STREAM_HZ);
+        devices.connect(EMULATOR_ADDRESS, emulator);
+        log.info(() -> "Emulating " + path);
+        return true;
+    }
+
+    /**
+     * Add .prf2/.pch2 PATH to bank BANK at ENTRY, listed by name and loadable.
+     */
+    public synchronized G2Emulator addEntry(Entries.EntryType type, int bank, int entry, String path) {
+        if (bank < 0 || bank >= type.getBanks() || entry < 0 || entry > 0x7f) {
+            throw new IllegalArgumentException(String.format("Invalid entry: %s %s:%s", type, bank, entry));
+        }
+        String name = new File(path).getName().replaceFirst("\\.(prf2|pch2)$", "");
+        banks.get(type).put((bank << 8) | entry,
+                new BankEntry(name.substring(0, Math.min(16, name.length())), 0, path));
+        return this;
+    }
+
+    /**
+     * Emit LED and volume frames for each slot at these rates (0 disables) while comm is started.
+     */
+    public synchronized void setStreamRates(double ledHz, double volumeHz) {
+        this.ledHz = ledHz;
+        this.volumeHz = volumeHz;
+        if (started) { scheduleStreams(); }
+    }
+
+    @Override
+    public synchronized void start() {
+        started = true;
+        scheduleStreams();
+    }
+
+    private void scheduleStreams() {
+        if (ledStream != null) { ledStream.cancel(false); }
+        if (volumeStream != null) { volumeStream.cancel(false); }
+        ledStream = ledHz > 0 ? timer.scheduleAtFixedRate(() -> stream(I_LED_DATA),
+                0, (long) (1e9 / ledHz), TimeUnit.NANOSECONDS) : null;
+        volumeStream = volumeHz > 0 ? timer.scheduleAtFixedRate(() -> stream(I_VOLUME_DATA),
+                0, (long) (1e9 / volumeHz), TimeUnit.NANOSECONDS) : null;
+    }
+
+    @Override
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    @Override
+    public void setDispatcher(Dispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void setThreadsafeDispatcher(Dispatcher dispatcher) {
+        this.threadsafeDispatcher = dispatcher;
+    }
+
+    @Override
+    public void setStreamDispatcher(Dispatcher dispatcher) {
+        this.streamDispatcher = dispatcher;
+    }
+
+    @Override
+    public UsbMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Handle DATA, as {@link Usb#sendBulk}: requests wait for and dispatch their response
+     * unless pipelining; commands apply without response.
+     */
+    @Override
+    public int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
+        if (dispatch && pipeline.owns()) {
+            return pipeline.submit(msg, data);
+        }
+        if (wire.enabled()) {
+            wire.frame(WireLog.Direction.Out, data, () -> String.format("Emulator receive: %s %s", msg, dispatch));
+        }
+        if (!dispatch) {
+            commands.incrementAndGet();
+            metrics.bytesOut(data.limit() + 4);
+            metrics.record(UsbMetrics.Stage.Send, UsbMetrics.outboundType(data), timing.bulkNanos(data.limit() + 4));
+            synchronized (this) {
+                command(data.duplicate().rewind());
+            }
+            return data.limit();
+        }
+        UsbMessage m;
+        try {
+            m = request(msg, data).get(Usb.RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            log.log(Level.SEVERE, "No response: " + msg, e.getCause());
+            return 0;
+        }
+        metrics.dispatch(dispatcher, m);
+        return data.limit();
+    }
+
+    @Override
+    public void beginPipeline() {
+        pipeline.begin();
+    }
+
+    @Override
+    public void endPipeline() throws Exception {
+        pipeline.end();
+    }
+
+    /**
+     * Pipeline transport: handle request now, complete with response at modeled time.
+     */
+    private CompletableFuture<UsbMessage> request(String msg, ByteBuffer data) {
+        requests.incrementAndGet();
+        long start = System.nanoTime();
+        int type = UsbMetrics.outboundType(data);
+        metrics.record(UsbMetrics.Stage.Send, type, timing.bulkNanos(data.limit() + 4));
+        metrics.bytesOut(data.limit() + 4);
+        CompletableFuture<UsbMessage> f = new CompletableFuture<>();
+        f.whenComplete((_, e) -> {
+            if (e == null) { metrics.record(UsbMetrics.Stage.RoundTrip, type, System.nanoTime() - start); }
+        });
+        List<ByteBuffer> unsolicited = new ArrayList<>(1);
+        ByteBuffer response;
+        long deliverAt;
+        synchronized (this) {
+            try {
+                response = handle(data.duplicate().rewind(), unsolicited);
+            } catch (Exception e) {
+                f.completeExceptionally(new IllegalStateException("Emulator failed handling: " + msg, e));
+                return f;
+            }
+            deliverAt = schedule(data.limit() + 4, response.limit() + 2);
+        }
+        deliver(deliverAt, () -> f.complete(receive(response)));
+        unsolicited.forEach(u -> deliver(deliverAt, () -> {
+            Dispatcher d = threadsafeDispatcher;
+            (d != null ? d : dispatcher).dispatch(receive(u));
+        }));
+        return f;
+    }
+
+    /**
+     * Delivery time of a response: request transfer, then device service once free,
+     * then response transfer, in order behind earlier responses.
+     */
+    private long schedule(int requestBytes, int responseBytes) {
+        long arrive = System.nanoTime() + timing.bulkNanos(requestBytes);
+        deviceFree = Math.max(arrive, deviceFree) + timing.serviceNanos();
+        lastDelivery = Math.max(deviceFree + timing.inboundNanos(responseBytes), lastDelivery);
+        return lastDelivery;
+    }
+
+    private void deliver(long at, Runnable r) {
+        if (timing.immediate()) {
+            r.run();
+        } else {
+            timer.schedule(r, at - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private UsbMessage receive(ByteBuffer payload) {
+        metrics.bytesIn(payload.limit() + 2);
+        return frame(payload);
+    }
+
+    /**
+     * Frame PAYLOAD with crc as received from the device: embedded in an interrupt
+     * packet if it fits, else extended.
+     */
+    public static UsbMessage frame(ByteBuffer payload) {
+        int len = payload.limit();
+        int crc = CRC16.crc16(payload, 0, len);
+        UsbMessage m;
+        if (len + 3 <= Usb.INTERRUPT_SIZE) {
+            ByteBuffer b = ByteBuffer.allocate(Usb.INTERRUPT_SIZE);
+            b.put((byte) (((len + 2) << 4) | 2)).put(payload.rewind());
+            Util.putShort(b, crc);
+            m = Usb.parseInterrupt(b.clear());
+        } else {
+            ByteBuffer b = ByteBuffer.allocate(len + 2);
+            b.put(payload.rewind());
+            Util.putShort(b, crc);
+            m = Usb.parseBulk(len + 2, b.flip());
+        }
+        if (wire.enabled()) {
+            wire.frame(m.extended() ? WireLog.Direction.InBulk : WireLog.Direction.InInterrupt, m.buffer(),
+                    () -> "Emulator send");
+        }
+        return m;
+    }
+
+    /**
+     * Handle request, returning response payload and adding any unsolicited messages.
+     */
+    private ByteBuffer handle(ByteBuffer b, List<ByteBuffer> unsolicited) throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(0xffff);
+        int m = Util.b2i(b.get());
+        if (m == M_INIT) {
+            out.put(Util.asBytes(M_INIT, 0x0a, 0x03, 0x00));
+            return out.flip();
+        }
+        if (m != M_CMD) { throw new IllegalArgumentException(String.format("Unrecognized message: %02x", m)); }
+        int h = Util.b2i(b.get());
+        int v = Util.b2i(b.get());
+        if (h == S_PERF_REQ) {
+            switch (v) {
+                case V_SYSTEM -> system(b, out, unsolicited);
+                case V_NEW_PERF -> createPerf(b, out);
+                default -> perfRequest(b, out);
+            }
+        } else if (h >= S_SLOT_REQ && h < S_PERF_REQ) {
+            Slot slot = Slot.fromIndex(h - S_SLOT_REQ);
+            if (v == V_NEW_PATCH) {
+                createPatch(slot, b, out);
+            } else {
+                slotRequest(slot, b, out);
+            }
+        } else {
+            throw new IllegalArgumentException(String.format("Unrecognized request header: %02x", h));
+        }
+        return out.flip();
+    }
+
+    // emulator
+    private void system(ByteBuffer b, ByteBuffer out, List<ByteBuffer> unsolicited) throws Exception {
+        int op = Util.b2i(b.get());
+        switch (op) {
+            case O_START_STOP_COM -> {
+                commStarted = b.get() == 0;
+                ok(out);
+            }
+            case O_VERSION -> {
+                int s = b.get();
+                out.put(Util.asBytes(M_CMD, S_PERF_0C, V_VERSION, I_VERSION_UPDATE, s,
+                        s == S_PERF_04 ? perf.getVersion() : perf.getSlot(Slot.fromIndex(s)).getVersion()));
+            }
+            case O_SYNTH_SETTINGS -> {
+                perfHeader(out, I_SYNTH_SETTINGS);
+                write(out, synthSettings.getFieldValues());
+            }
+            case O_UNKNOWN1 -> {
+                perfHeader(out, M_INIT);
+                out.put(Util.asBytes(0x00, 0xff, 0x80, 0x01, 0xff, 0x80, 0x02, 0xff, 0x80, 0x03, 0xff));
+            }
+            case O_ASSIGNED_VOICES -> {
+                perfHeader(out, I_ASSIGNED_VOICES);
+                for (Slot s : Slot.values()) { out.put((byte) (int) perf.getSlot(s).assignedVoices().get()); }
+            }
+            case O_MASTER_CLOCK -> {
+                perfHeader(out, I_EXT_MASTER_CLOCK);
+                out.put((byte) 0x01);
+                Util.putShort(out, perf.getPerfSettings().masterClock().get());
+            }
+            case O_LIST_NAMES -> listEntries(Entries.EntryType.LOOKUP.get((int) b.get()), b.get(), b.get(), out);
+            case O_LOAD_ENTRY -> {
+                ok(out);
+                loadEntry(b.get(), b.get(), b.get(), unsolicited);
+            }
+            case O_ENTRY_UPLOAD_DATA -> uploadEntry(Entries.EntryType.LOOKUP.get((int) b.get()), b.get(), b.get(), out);
+            case O_ENTRY_DOWNLOAD_DATA -> downloadEntry(b, out);
+            case O_CLEAR_ENTRY -> {
+                Entries.EntryType type = Entries.EntryType.LOOKUP.get((int) b.get());
+                int bank = b.get(), entry = b.get();
+                banks.get(type).remove((bank << 8) | entry);
+                perfHeader(out, I_ENTRY_CLEARED);
+                out.put(Util.asBytes(type.ordinal(), bank, entry, I_ENTRY_LIST, 0x00, 0x02, 0x0d,
+                        type.ordinal(), bank, entry, 0x01, 0x05));
+            }
+            default -> ok(out);
+        }
+    }
+
+    // emulator
+    private void perfRequest(ByteBuffer b, ByteBuffer out) throws Exception {
+        int op = Util.b2i(b.get());
+        switch (op) {
+            case O_PERF_SETTINGS -> {
+                perfHeader(out, I_PERFORMANCE_NAME);
+                BitBuffer bb = new BitBuffer(out);
+                perf.writeNameAndSettings(bb);
+                out.position(bb.getBytePosition());
+            }
+            case O_UNKNOWN2 -> {
+                perfHeader(out, I_RESERVED_1E);
+                out.put((byte) 0);
+            }
+            case O_GLOBAL_KNOBS -> {
+                out.put(Util.asBytes(M_CMD, S_PERF_0C, perf.getVersion()));
+                Sections.writeSection(out, Sections.SGlobalKnobAssignments_5f,
+                        perf.getGlobalKnobAssignments().getFieldValues());
+            }
+            case O_SELECT_SLOT -> {
+                perf.getPerfSettings().selectedSlot().set((int) b.get());
+                ok(out);
+            }
+            default -> ok(out);
+        }
+    }
+
+    // emulator
+    private void createPerf(ByteBuffer b, ByteBuffer out) {
+        Util.expectWarn(log, b, O_CREATE, "emulator", "create perf");
+        b.position(b.position() + 3);
+        Performance p = Performance.readFromCreateMessage(nextVersion(perf.getVersion()), b, offline);
+        for (Slot s : Slot.values()) {
+            p.getSlot(s).setVersion(nextVersion(perf.getSlot(s).getVersion()));
+        }
+        perf = p;
+        out.put(Util.asBytes(M_CMD, S_PERF_0C, V_VERSION));
+        for (Slot s : Slot.values()) {
+            out.put(Util.asBytes(I_VERSION_UPDATE, s.ordinal(), p.getSlot(s).getVersion()));
+        }
+        out.put(Util.asBytes(I_VERSION_UPDATE, S_PERF_04, p.getVersion()));
+    }
+
+    // emulator
+    private void createPatch(Slot slot, ByteBuffer b, ByteBuffer out) {
+        Util.expectWarn(log, b, O_CREATE, "emulator", "create patch");
+        b.position(b.position() + 3);
+        Patch p = Patch.readFromCreateMessage(slot, nextVersion(perf.getSlot(slot).getVersion()), b, offline);
+        perf.setSlot(slot, p);
+        out.put(Util.asBytes(M_CMD, S_SLOT_08 + slot.ordinal(), V_VERSION,
+                I_VERSION_UPDATE, slot.ordinal(), p.getVersion()));
+    }
+
+    // emulator
+    private void slotRequest(Slot slot, ByteBuffer b, ByteBuffer out) throws Exception {
+        Patch patch = perf.getSlot(slot);
+        out.put(Util.asBytes(M_CMD, S_SLOT_08 + slot.ordinal(), patch.getVersion()));
+        int op = Util.b2i(b.get(b.position()));
+        switch (op) {
+            case O_PATCH -> patch.writeDescriptionMessage(out);
+            case O_PATCH_NAME -> {
+                out.put((byte) I_PATCH_NAME);
+                write(out, Protocol.EntryName.FIELDS.values(Protocol.EntryName.Name.value(patch.name().get())));
+            }
+            case O_CURRENT_NOTE -> patch.writeLiveSection(out, Sections.SCurrentNote_69);
+            case O_PATCH_TEXT -> patch.writeLiveSection(out, Sections.STextPad_6f);
+            case O_RESOURCES_USED -> {
+                b.get();
+                int area = b.get();
+                out.put((byte) I_PATCH_LOAD_DATA);
+                FieldValues fvs = Protocol.PatchLoadData.FIELDS.init();
+                for (Protocol.PatchLoadData f : Protocol.PatchLoadData.values()) {
+                    fvs.add(f.value(f == Protocol.PatchLoadData.Location ? area : 0));
+                }
+                write(out, fvs);
+            }
+            case O_SELECTED_PARAM -> {
+                out.put((byte) I_SELECTED_PARAM);
+                write(out, selectedParams.get(slot));
+            }
+            default -> {
+                edits(patch, b);
+                out.put((byte) I_OK);
+            }
+        }
+    }
+
+    /**
+     * Apply concatenated edit records of slot request, stopping at unmodeled ones.
+     */
+    // emulator
+    private void edits(Patch patch, ByteBuffer b) {
+        while (b.hasRemaining()) {
+            int op = Util.b2i(b.get());
+            switch (op) {
+                case O_ADD_CABLE -> addCable(patch, b);
+                case O_ADD_MODULE -> addModule(patch, b);
+                case O_DELETE_CABLE -> deleteCable(patch, b);
+                case O_SET_UPRATE -> {
+                    PatchArea area = patch.getArea(b.get());
+                    area.getModule(b.get()).getUserModuleData().uprate().set(b.get() == 1);
+                }
+                case O_SET_MODE -> {
+                    PatchArea area = patch.getArea(b.get());
+                    UserModuleData md = area.getModule(b.get()).getUserModuleData();
+                    md.getModes().get(b.get()).set(Util.b2i(b.get()));
+                }
+                case O_DELETE_MODULE -> patch.getArea(b.get()).removeModule(Util.b2i(b.get()));
+                case O_CHANGE_VARIATION -> patch.getPatchSettings().variation().set((int) b.get());
+                case O_SET_PATCH_NAME -> {
+                    BitBuffer bb = new BitBuffer(b);
+                    patch.name().set(Protocol.EntryName.Name.stringValue(Protocol.EntryName.FIELDS.read(bb)));
+                    b.position(bb.getBytePosition());
+                }
+                case I_PATCH_DESCRIPTION -> patch.readAheadSection(b.position(b.position() - 1),
+                        Sections.SPatchDescription_21);
+                // area sections following module adds, or sent alone
+                case 0x4d, 0x52, 0x5a, 0x5b -> {
+                    BitBuffer bb = Sections.sliceAheadSection(Sections.forArea(op, AreaId.Voice),
+                            b.position(b.position() - 1));
+                    patch.readSectionSlice(bb, Sections.forArea(op, AreaId.LOOKUP.get(bb.peek(2))));
+                }
+                default -> {
+                    log.fine(() -> String.format("edits: unmodeled op %02x", op));
+                    return;
+                }
+            }
+        }
+        patch.getVisuals().updateVisualIndex();
+    }
+
+    private static void addCable(Patch patch, ByteBuffer b) {
+        FieldValues fvs = Protocol.AddCable.FIELDS.read(new BitBuffer(b.position(b.position() - 1).slice()));
+        b.position(b.position() + 6);
+        int out = Connector.ConnDir.Out.ordinal();
+        patch.getArea(Protocol.AddCable.Location.intValue(fvs)).addCable(Protocol.Cable.FIELDS.values(
+                Protocol.Cable.Color.value(Protocol.AddCable.Color.intValue(fvs)),
+                Protocol.Cable.SrcModule.value(Protocol.AddCable.SrcModule.intValue(fvs)),
+                Protocol.Cable.SrcConn.value(Protocol.AddCable.SrcConn.intValue(fvs)),
+                Protocol.Cable.Direction.value(Protocol.AddCable.SrcConnType.intValue(fvs) == out ||
+                        Protocol.AddCable.DestConnType.intValue(fvs) == out),
+                Protocol.Cable.DestModule.value(Protocol.AddCable.DestModule.intValue(fvs)),
+                Protocol.Cable.DestConn.value(Protocol.AddCable.DestConn.intValue(fvs))));
+    }
+
+    /**
+     * Add module from a module add record, with color 0 as the record has none.
+     */
+    private static void addModule(Patch patch, ByteBuffer b) {
+        BitBuffer bb = new BitBuffer(b.position(b.position() - 1).slice());
+        FieldValues fvs = Protocol.ModuleAdd.FIELDS.read(bb);
+        b.position(b.position() + bb.getBytePosition());
+        List<FieldValues> modes = Protocol.ModuleAdd.Modes.subfieldsValue(fvs).stream().map(d ->
+                Protocol.ModuleModes.FIELDS.values(Protocol.ModuleModes.Data.value(
+                        Protocol.Data8.Datum.intValue(d)))).toList();
+        patch.getArea(Protocol.ModuleAdd.Location.intValue(fvs)).addModules(Protocol.ModuleList.FIELDS.values(
+                Protocol.ModuleList.ModuleCount.value(1),
+                Protocol.ModuleList.Modules.value(List.of(Protocol.UserModule.FIELDS.values(
+                        Protocol.UserModule.Id.value(Protocol.ModuleAdd.ModuleTypeIx.intValue(fvs)),
+                        Protocol.UserModule.Index.value(Protocol.ModuleAdd.Index.intValue(fvs)),
+                        Protocol.UserModule.Column.value(Protocol.ModuleAdd.Column.intValue(fvs)),
+                        Protocol.UserModule.Row.value(Protocol.ModuleAdd.Row.intValue(fvs)),
+                        Protocol.UserModule.Color.value(0),
+                        Protocol.UserModule.Uprate.value(Protocol.ModuleAdd.Uprate.intValue(fvs)),
+                        Protocol.UserModule.Leds.value(Protocol.ModuleAdd.Leds.intValue(fvs)),
+                        Protocol.UserModule.Reserved.value(0),
+                        Protocol.UserModule.ModeCount.value(modes.size()),
+                        Protocol.UserModule.Modes.value(modes))))));
+    }
+
+    /**
+     * Delete cable matching either way round, as the library writes both.
+     */
+    private static void deleteCable(Patch patch, ByteBuffer b) {
+        FieldValues fvs = Protocol.DeleteCable.FIELDS.read(new BitBuffer(b.position(b.position() - 1).slice()));
+        b.position(b.position() + 6);
+        int sm = Protocol.DeleteCable.SrcModule.intValue(fvs), sc = Protocol.DeleteCable.SrcConn.intValue(fvs);
+        int dm = Protocol.DeleteCable.DestModule.intValue(fvs), dc = Protocol.DeleteCable.DestConn.intValue(fvs);
+        CableGraph cables = patch.getArea(Protocol.DeleteCable.Location.intValue(fvs)).getCables();
+        cables.remove(cables.find(sm, sc, dm, dc));
+        cables.remove(cables.find(dm, dc, sm, sc));
+    }
+
+    // emulator
+    private void command(ByteBuffer b) {
+        b.get(); // M_CMD
+        int h = Util.b2i(b.get());
+        b.get(); // version
+        if (h < S_SLOT_CMD || h >= S_SLOT_CMD + Slot.values().length) {
+            log.fine(() -> String.format("command: unmodeled header %02x", h));
+            return;
+        }
+        Slot slot = Slot.fromIndex(h - S_SLOT_CMD);
+        Patch patch = perf.getSlot(slot);
+        int op = Util.b2i(b.get());
+        switch (op) {
+            case O_SET_PARAM -> patch.readParamUpdate(b);
+            case O_SELECT_PARAM -> {
+                FieldValues fvs = Protocol.SelectedParam.FIELDS.read(new BitBuffer(b.slice()));
+                selectedParams.put(slot, fvs.copy().update(Protocol.SelectedParam.Unknown, 1));
+                patch.readSelectedParam(b);
+            }
+            default -> log.fine(() -> String.format("command: unmodeled op %02x", op));
+        }
+    }
+
+    // emulator
+    private void listEntries(Entries.EntryType type, int bank, int entry, ByteBuffer out) throws Exception {
+        perfHeader(out, I_ENTRY_LIST);
+        out.put(Util.asBytes(0x7c, 0x01, 0x16, 0x01, type.ordinal()));
+        BitBuffer bb = new BitBuffer(out);
+        SortedMap<Integer, BankEntry> tail = banks.get(type).tailMap((bank << 8) | entry);
+        int count = 0, curBank = -1, next = -1;
+        boolean more = false;
+        for (Map.Entry<Integer, BankEntry> e : tail.entrySet()) {
+            if (count++ == ENTRIES_PAGE) {
+                more = true;
+                break;
+            }
+            int b = e.getKey() >> 8, i = e.getKey() & 0xff;
+            if (b != curBank) {
+                bb.put(8, 0x03);
+                bb.put(8, b);
+                bb.put(8, i);
+                curBank = b;
+            } else if (i != next) {
+                bb.put(8, 0x01);
+                bb.put(8, i);
+            }
+            next = i + 1;
+            Protocol.EntryData.FIELDS.values(
+                    Protocol.EntryData.Name.value(e.getValue().name()),
+                    Protocol.EntryData.Category.value(e.getValue().category())).write(bb);
+        }
+        bb.put(8, more ? 0x05 : 0x04);
+        out.position(bb.getBytePosition());
+    }
+
+    /**
+     * Send entry file data, less its text header.
+     */
+    // emulator
+    private void uploadEntry(Entries.EntryType type, int bank, int entry, ByteBuffer out) throws Exception {
+        BankEntry e = banks.get(type).get((bank << 8) | entry);
+        if (e == null) {
+            log.warning(() -> String.format("uploadEntry: no entry %s %s:%s", type, bank, entry));
+            ok(out);
+            return;
+        }
+        ByteBuffer file = Util.fileBuffer(e.path());
+        int header = BankTransfer.fileHeader(type).limit();
+        perfHeader(out, I_ENTRY_UPLOAD_DATA);
+        out.put(Util.asBytes(type.ordinal(), bank, entry));
+        write(out, Protocol.EntryName.FIELDS.values(Protocol.EntryName.Name.value(e.name())));
+        Util.putShort(out, file.limit() - header + 1);
+        out.put(Util.asBytes(0x17, 0x00));
+        out.put(file.position(header));
+    }
+
+    /**
+     * Store entry file data to a temp file, responding with the stored entry as listed.
+     */
+    // emulator
+    private void downloadEntry(ByteBuffer b, ByteBuffer out) throws Exception {
+        Entries.EntryType type = Entries.EntryType.LOOKUP.get((int) b.get());
+        int bank = b.get(), entry = b.get();
+        BitBuffer bb = new BitBuffer(b.slice());
+        String name = Protocol.EntryName.Name.stringValue(Protocol.EntryName.FIELDS.read(bb));
+        b.position(b.position() + bb.getBytePosition());
+        int length = Util.getShort(b) - 1;
+        b.position(b.position() + 2);
+        ByteBuffer data = b.slice(b.position(), length);
+        if (!BankTransfer.crcValid(data)) {
+            log.warning(() -> String.format("downloadEntry: bad CRC %s %s:%s", type, bank, entry));
+            ok(out);
+            return;
+        }
+        File f = File.createTempFile("g2emulator", BankTransfer.fileExtension(type));
+        f.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(f)) {
+            fos.getChannel().write(BankTransfer.fileHeader(type).duplicate().rewind());
+            fos.getChannel().write(data);
+        }
+        banks.get(type).put((bank << 8) | entry, new BankEntry(name, 0, f.getPath()));
+        perfHeader(out, I_ENTRY_DOWNLOADED_DATA);
+        out.put(Util.asBytes(0x00, type.ordinal(), bank, entry, I_ENTRY_LIST, 0x00, 0x02, 0x16, 0x00,
+                type.ordinal(), 0x03, bank, entry));
+        write(out, Protocol.EntryData.FIELDS.values(
+                Protocol.EntryData.Name.value(name), Protocol.EntryData.Category.value(0)));
+        out.put((byte) 0x05);
+    }
+
+    /**
+     * Load bank entry, emitting the load notification the device sends unsolicited.
+     */
+    // emulator
+    private void loadEntry(int slotCode, int bank, int entry, List<ByteBuffer> unsolicited) throws Exception {
+        Entries.EntryType type = slotCode == S_PERF_04 ? Entries.EntryType.Performance : Entries.EntryType.Patch;
+        BankEntry e = banks.get(type).get((bank << 8) | entry);
+        if (e == null) {
+            log.warning(() -> String.format("loadEntry: no entry %s %s:%s", type, bank, entry));
+            return;
+        }
+        ByteBuffer u = ByteBuffer.allocate(32);
+        if (type == Entries.EntryType.Performance) {
+            Performance p = Performance.readFromFile(e.path(), offline);
+            p.setVersion(nextVersion(perf.getVersion()));
+            u.put(Util.asBytes(M_CMD, S_PERF_04, V_VERSION, I_VERSION_LOAD_PERF, p.getVersion()));
+            for (Slot s : Slot.values()) {
+                p.getSlot(s).setVersion(nextVersion(perf.getSlot(s).getVersion()));
+                u.put(Util.asBytes(I_VERSION_UPDATE, s.ordinal(), p.getSlot(s).getVersion()));
+            }
+            perf = p;
+        } else {
+            Slot slot = Slot.fromIndex(slotCode);
+            Patch p = Patch.readFromFile(slot, e.path(), offline);
+            p.name().set(e.name());
+            p.setVersion(nextVersion(perf.getSlot(slot).getVersion()));
+            perf.setSlot(slot, p);
+            u.put(Util.asBytes(M_CMD, S_PERF_0C, V_VERSION, I_VERSION_LOAD_PATCH, slot.ordinal(), p.getVersion()));
+        }
+        unsolicited.add(u.flip());
+    }
+
+    /**
+     * Emit one LED or volume frame per slot, animating values by tick.
+     */
+    private void stream(int type) {
+        Dispatcher sd = streamDispatcher, td = threadsafeDispatcher;
+        Dispatcher d = sd != null ? sd : td != null ? td : dispatcher;
+        ByteBuffer[] frames = new ByteBuffer[Slot.values().length];
+        synchronized (this) {
+            if (!commStarted || d == null) { return; }
+            int t = streamTick++;
+            for (Slot s : Slot.values()) {
+                PatchVisuals vs = perf.getSlot(s).getVisuals();
+                ByteBuffer f = ByteBuffer.allocate(0xfff);
+                f.put(Util.asBytes(M_CMD, S_SLOT_00 + s.ordinal(), perf.getSlot(s).getVersion(), type));
+                if (type == I_LED_DATA) {
+                    f.put((byte) 0); // unknown
+                    int n = vs.getLeds().size();
+                    for (int i = 0; i < n; i += 4) {
+                        int packed = 0;
+                        for (int j = i; j < Math.min(n, i + 4); j++) {
+                            packed |= (((j + t) & 3) == 0 ? 1 : 0) << ((j & 3) * 2);
+                        }
+                        f.put((byte) packed);
+                    }
+                } else {
+                    int n = vs.getMetersAndGroups().size();
+                    for (int i = 0; i < n; i++) {
+                        f.put((byte) 0).put((byte) ((t * 4 + i * 16) & 0x7f));
+                    }
+                }
+                frames[s.ordinal()] = f.flip();
+            }
+        }
+        for (ByteBuffer f : frames) {
+            try {
+                d.dispatch(receive(f));
+                streamed.incrementAndGet();
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "stream: dispatch failed", e);
+            }
+        }
+    }
+
+    private void perfHeader(ByteBuffer out, int type) {
+        out.put(Util.asBytes(M_CMD, S_PERF_0C, perf.getVersion(), type));
+    }
+
+    private void ok(ByteBuffer out) {
+        perfHeader(out, I_OK);
+    }
+
+    private static void write(ByteBuffer out, FieldValues fvs) throws Exception {
+        BitBuffer bb = new BitBuffer(out);
+        fvs.write(bb);
+        out.position(bb.getBytePosition());
+    }
+
+    private static int nextVersion(int version) {
+        return (version + 1) & 0x7f;
+    }
+
+    /**
+     * Emulated performance state; hold this emulator's lock while reading.
+     */
+    public Performance getPerf() {
+        return perf;
+    }
+
+    public SynthSettings getSynthSettings() {
+        return synthSettings;
+    }
+
+    public synchronized boolean commStarted() {
+        return commStarted;
+    }
+
+    public long getRequests() { return requests.get(); }
+
+    public long getCommands() { return commands.get(); }
+
+    /**
+     * LED/volume frames dispatched.
+     */
+    public long getStreamed() { return streamed.get(); }
+}
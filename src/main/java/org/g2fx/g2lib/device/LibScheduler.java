@@ -0,0 +1,272 @@
+package org.g2fx.g2lib.device;
+
+import org.g2fx.g2lib.util.Util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single-threaded lib executor ordering work by {@link Priority}, preserving the
+ * single-writer guarantee for lib state. Within a priority tasks run in submission order.
+ * Queues are bounded: producers block while their queue is full, except the lib
+ * thread itself which would deadlock, and inbound dispatch from the USB read thread
+ * (see {@link #executeInbound}); visual tasks instead coalesce by key or
+ * drop the oldest pending.
+ */
+public class LibScheduler implements Executor {
+
+    private static final Logger log = Util.getLogger(LibScheduler.class);
+
+    public enum Priority {
+        /**
+         * User edits from UI/REPL, e.g. param changes.
+         */
+        Edit(1024),
+        /**
+         * Synchronous invokes, with a caller (e.g. the FX thread) blocked on the result.
+         */
+        Invoke(256),
+        /**
+         * Device connection, inbound dispatch, file and entry loads.
+         */
+        Structural(256),
+        /**
+         * LED/meter updates, stale once a newer one arrives.
+         */
+        Visual(64);
+
+        public final int capacity;
+
+        Priority(int capacity) { this.capacity = capacity; }
+    }
+
+    public record ClassStats(Priority priority, int depth, int maxDepth, long executed) {
+        @Override
+        public String toString() {
+            return String.format("%s: %d (max %d), %d run", priority, depth, maxDepth, executed);
+        }
+    }
+
+    public record Stats(List<ClassStats> classes, long coalesced, long dropped) {
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            classes.forEach(c -> sb.append(c).append('\n'));
+            return sb.append(String.format("visuals coalesced %d, dropped %d", coalesced, dropped)).toString();
+        }
+    }
+
+    /**
+     * Pending visual task, replaced in place when coalesced.
+     */
+    private static class VisualTask implements Runnable {
+        final Object key;
+        Runnable task;
+        Runnable onDiscard;
+        VisualTask(Object key, Runnable task, Runnable onDiscard) {
+            this.key = key;
+            this.task = task;
+            this.onDiscard = onDiscard;
+        }
+        @Override public void run() { task.run(); }
+    }
+
+    /**
+     * Guards all below.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<Priority, ArrayDeque<Runnable>> queues = new EnumMap<>(Priority.class);
+    private final Map<Object, VisualTask> pendingVisuals = new HashMap<>();
+    private final int[] maxDepth = new int[Priority.values().length];
+    private final long[] executed = new long[Priority.values().length];
+    private long coalesced;
+    private long dropped;
+    private boolean shutdown;
+
+    private final Thread thread;
+
+    public LibScheduler(String name) {
+        for (Priority p : Priority.values()) {
+            queues.put(p, new ArrayDeque<>());
+        }
+        thread = new Thread(this::run, name);
+        thread.start();
+    }
+
+    /**
+     * Execute as {@link Priority#Edit}.
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(Priority.Edit, task);
+    }
+
+    public void execute(Priority priority, Runnable task) {
+        if (priority == Priority.Visual) {
+            executeVisual(null, task, null);
+            return;
+        }
+        lock.lock();
+        try {
+            ArrayDeque<Runnable> q = queues.get(priority);
+            boolean onLib = onLibThread();
+            while (!shutdown && !onLib && q.size() >= priority.capacity) {
+                notFull.awaitUninterruptibly();
+            }
+            if (shutdown) { throw new RejectedExecutionException("LibScheduler shut down"); }
+            enqueue(priority, task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Execute inbound dispatch TASK as {@link Priority#Structural} without blocking
+     * on a full queue: the read thread must never wait on the lib thread, which may
+     * itself be waiting on a response. Depth beyond capacity shows in {@link #stats()}.
+     */
+    public void executeInbound(Runnable task) {
+        lock.lock();
+        try {
+            if (shutdown) { throw new RejectedExecutionException("LibScheduler shut down"); }
+            enqueue(Priority.Structural, task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Execute visual TASK, replacing a pending task with the same non-null KEY,
+     * otherwise dropping the oldest pending visual if full. ON_DISCARD, if any,
+     * runs in place of a replaced or dropped task.
+     */
+    public void executeVisual(Object key, Runnable task, Runnable onDiscard) {
+        List<Runnable> discards = new ArrayList<>(1);
+        lock.lock();
+        try {
+            if (shutdown) { throw new RejectedExecutionException("LibScheduler shut down"); }
+            VisualTask pending = key == null ? null : pendingVisuals.get(key);
+            if (pending != null) {
+                if (pending.onDiscard != null) { discards.add(pending.onDiscard); }
+                pending.task = task;
+                pending.onDiscard = onDiscard;
+                coalesced++;
+            } else {
+                ArrayDeque<Runnable> q = queues.get(Priority.Visual);
+                if (q.size() >= Priority.Visual.capacity) {
+                    VisualTask oldest = (VisualTask) q.poll();
+                    if (oldest.key != null) { pendingVisuals.remove(oldest.key); }
+                    if (oldest.onDiscard != null) { discards.add(oldest.onDiscard); }
+                    dropped++;
+                }
+                VisualTask v = new VisualTask(key, task, onDiscard);
+                if (key != null) { pendingVisuals.put(key, v); }
+                enqueue(Priority.Visual, v);
+            }
+        } finally {
+            lock.unlock();
+        }
+        discards.forEach(Runnable::run);
+    }
+
+    /**
+     * Run CALLABLE with PRIORITY, returning its future.
+     */
+    public <V> Future<V> submit(Priority priority, Callable<V> callable) {
+        FutureTask<V> f = new FutureTask<>(callable);
+        execute(priority, f);
+        return f;
+    }
+
+    private void enqueue(Priority priority, Runnable task) {
+        ArrayDeque<Runnable> q = queues.get(priority);
+        q.add(task);
+        maxDepth[priority.ordinal()] = Math.max(maxDepth[priority.ordinal()], q.size());
+        notEmpty.signal();
+    }
+
+    private void run() {
+        while (true) {
+            Runnable task = null;
+            lock.lock();
+            try {
+                while (task == null) {
+                    for (Priority p : Priority.values()) {
+                        task = queues.get(p).poll();
+                        if (task != null) {
+                            executed[p.ordinal()]++;
+                            if (task instanceof VisualTask v && v.key != null) { pendingVisuals.remove(v.key); }
+                            break;
+                        }
+                    }
+                    if (task == null) {
+                        if (shutdown) { return; }
+                        notEmpty.awaitUninterruptibly();
+                    }
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.log(Level.SEVERE, "Uncaught error in lib task", t);
+            }
+        }
+    }
+
+    /**
+     * Reject further tasks; queued tasks still run. Blocked producers are rejected.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        thread.join(unit.toMillis(timeout));
+        return !thread.isAlive();
+    }
+
+    public boolean onLibThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Total pending tasks.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return queues.values().stream().mapToInt(ArrayDeque::size).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            List<ClassStats> cs = new ArrayList<>();
+            for (Priority p : Priority.values()) {
+                cs.add(new ClassStats(p, queues.get(p).size(), maxDepth[p.ordinal()], executed[p.ordinal()]));
+            }
+            return new Stats(cs, coalesced, dropped);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
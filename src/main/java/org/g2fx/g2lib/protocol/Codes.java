@@ -61,13 +61,15 @@ public class Codes {
     public static final int O_SELECT_SLOT = 0x09;
     public static final int O_LOAD_ENTRY = 0x0a;
     public static final int O_STORE_ENTRY = 0x0b;
-    public static final int O_CLEAR_ENTRY = 0x0b;
+    public static final int O_CLEAR_ENTRY = 0x0c;
     public static final int O_PERF_SETTINGS = 0x10;
     public static final int O_LIST_NAMES = 0x14;
     public static final int O_ENTRY_UPLOAD_DATA = 0x17;
     public static final int O_ENTRY_DOWNLOAD_DATA = 0x19;
+    public static final int O_SET_PATCH_NAME = I_PATCH_NAME; // 0x27
     public static final int O_PATCH_NAME = 0x28;
     public static final int O_SET_UPRATE = 0x2a;
+    public static final int O_SET_MODE = 0x2b;
     public static final int O_SELECTED_PARAM = 0x2e;
     public static final int O_SELECT_PARAM = 0x2f;
     public static final int O_ADD_MODULE = 0x30;
@@ -76,6 +78,7 @@ public class Codes {
     public static final int O_MASTER_CLOCK = 0x3b;
     public static final int O_PATCH = 0x3c;
     public static final int O_CREATE = 0x37;
+    public static final int O_SET_PARAM = I_SET_PARAM; // 0x40
     public static final int O_PARAMS = 0x4c;
     public static final int O_PARAM_NAMES = 0x4f;
     public static final int O_ADD_CABLE = 0x50;
@@ -34,8 +34,8 @@ public interface FieldEnum {
         };
     }
 
-    default Integer intValue(FieldValues values) {
-        return intValueMaybe(values).orElseThrow(missing());
+    default int intValue(FieldValues values) {
+        return values.getInt(this);
     }
 
     default boolean booleanIntValue(FieldValues values) {
@@ -2,28 +2,71 @@ package org.g2fx.g2lib.protocol;
 
 import org.g2fx.g2lib.util.BitBuffer;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.RandomAccess;
 
+/**
+ * Values for a {@link Fields}, stored by field ordinal: int fields in a primitive
+ * array, string values and subfield arrays in a parallel reference array (only allocated
+ * when the Fields has such fields), with a presence bitmask. {@link FieldValue}
+ * instances are materialized on access; subfield lists are views over the stored arrays.
+ */
 public class FieldValues {
-    public final List<FieldValue> values;
     private final Fields fields;
+    private final int[] ints;
+    private final Object[] refs;
+    private long present;
 
     public FieldValues(int count, Fields fields) {
-        this.values = new ArrayList<>(count);
         this.fields = fields;
+        this.ints = new int[fields.size()];
+        this.refs = fields.hasRefs() ? new Object[fields.size()] : null;
     }
 
     public FieldValues add(FieldValue v) {
-        if (!values.isEmpty()) {
-            values.getLast().field().guardAdd(v.field());
-        }
-        values.add(v);
+        int idx = guardField(v.field());
+        set(idx, v);
+        present |= 1L << idx;
         return this;
     }
 
+    /**
+     * Unguarded primitive add for {@link FieldsPlan}.
+     */
+    void appendInt(int idx, int v) {
+        ints[idx] = v;
+        present |= 1L << idx;
+    }
+
+    /**
+     * Unguarded subfields add for {@link FieldsPlan}.
+     */
+    void appendSubfields(int idx, FieldValues[] vs) {
+        refs[idx] = vs;
+        present |= 1L << idx;
+    }
+
+    private void set(int idx, FieldValue v) {
+        switch (v) {
+            case IntValue iv -> ints[idx] = iv.value();
+            case StringValue sv -> refs[idx] = sv.value();
+            case SubfieldsValue sv -> refs[idx] = sv.value().toArray(FieldValues[]::new);
+            default -> throw new IllegalArgumentException("Unsupported value: " + v);
+        }
+    }
+
+    private int guardField(Field f) {
+        int idx = f.ordinal();
+        if (idx >= ints.length || fields.field(idx) != f) {
+            throw new IllegalArgumentException(String.format("Field enum class mismatch: %s: %s", f, fields.getName()));
+        }
+        return idx;
+    }
+
     public FieldValues addAll(FieldValue... vs) {
         for (FieldValue f : vs) {
             add(f);
@@ -32,21 +75,173 @@ public class FieldValues {
     }
 
     public Optional<FieldValue> get(FieldEnum f) {
+        return Optional.ofNullable(find(f));
+    }
+
+    /**
+     * Lookup, materializing value.
+     * @return value or null if not found.
+     */
+    public FieldValue find(FieldEnum f) {
         int idx = f.ordinal();
-        if (values.size() > idx) {
-            FieldValue fv = values.get(idx);
-            if (fv.field() == f.field()) {
-                return Optional.of(fv);
-            }
+        return has(idx, f.field()) ? valueAt(idx) : null;
+    }
+
+    /**
+     * Non-allocating int lookup.
+     * @throws IllegalArgumentException if not present or not an int field.
+     */
+    public int getInt(FieldEnum f) {
+        Field fld = f.field();
+        int idx = f.ordinal();
+        if (!has(idx, fld) || fld.type() != Field.Type.IntType) {
+            throw new IllegalArgumentException("required value not found: " + fld);
         }
-        return Optional.empty();
+        return ints[idx];
+    }
+
+    /**
+     * Int by ordinal, for {@link FieldsPlan}.
+     */
+    int intAt(int idx) {
+        return ints[idx];
+    }
+
+    /**
+     * Subfield values by ordinal, for {@link FieldsPlan}.
+     */
+    FieldValues[] subfieldsAt(int idx) {
+        return (FieldValues[]) refs[idx];
+    }
+
+    /**
+     * Non-allocating presence check.
+     */
+    public boolean contains(FieldEnum f) {
+        return has(f.ordinal(), f.field());
     }
 
+    boolean isPresent(int idx) {
+        return (present & (1L << idx)) != 0;
+    }
+
+    private boolean has(int idx, Field f) {
+        return idx < ints.length && isPresent(idx) && fields.field(idx) == f;
+    }
+
+    /**
+     * Materialize value by ordinal. Subfield lists write through to storage.
+     */
+    FieldValue valueAt(int idx) {
+        Field f = fields.field(idx);
+        return switch (f) {
+            case SizedField sf -> new IntValue(sf, ints[idx]);
+            case StringField sf -> new StringValue(sf, (String) refs[idx]);
+            case SubfieldsField sf -> new SubfieldsValue(sf, new SubfieldsList(idx));
+            default -> throw new IllegalStateException("Unsupported field: " + f);
+        };
+    }
+
+    /**
+     * Mutable list over the subfield array at an ordinal, replacing the array on
+     * structural changes.
+     */
+    private class SubfieldsList extends AbstractList<FieldValues> implements RandomAccess {
+        private final int idx;
+
+        SubfieldsList(int idx) {
+            this.idx = idx;
+        }
+
+        @Override
+        public FieldValues get(int index) {
+            return subfieldsAt(idx)[index];
+        }
+
+        @Override
+        public int size() {
+            return subfieldsAt(idx).length;
+        }
+
+        @Override
+        public FieldValues set(int index, FieldValues v) {
+            FieldValues[] a = subfieldsAt(idx);
+            FieldValues old = a[index];
+            a[index] = v;
+            return old;
+        }
+
+        @Override
+        public void add(int index, FieldValues v) {
+            FieldValues[] a = subfieldsAt(idx);
+            if (index < 0 || index > a.length) { throw new IndexOutOfBoundsException(index); }
+            FieldValues[] b = Arrays.copyOf(a, a.length + 1);
+            System.arraycopy(a, index, b, index + 1, a.length - index);
+            b[index] = v;
+            refs[idx] = b;
+            modCount++;
+        }
+
+        @Override
+        public FieldValues remove(int index) {
+            FieldValues[] a = subfieldsAt(idx);
+            FieldValues old = a[index];
+            removeRange(index, index + 1);
+            return old;
+        }
+
+        @Override
+        protected void removeRange(int from, int to) {
+            FieldValues[] a = subfieldsAt(idx);
+            FieldValues[] b = new FieldValues[a.length - (to - from)];
+            System.arraycopy(a, 0, b, 0, from);
+            System.arraycopy(a, to, b, from, a.length - to);
+            refs[idx] = b;
+            modCount++;
+        }
+    }
+
+    /**
+     * Read-only view of present values in field declaration order, materialized on access.
+     */
+    public List<FieldValue> values() {
+        return values;
+    }
+
+    private final List<FieldValue> values = new AbstractList<>() {
+        @Override
+        public FieldValue get(int index) {
+            long p = present;
+            for (int i = 0; i < index && p != 0; i++) { p &= p - 1; }
+            if (index < 0 || p == 0) { throw new IndexOutOfBoundsException(index); }
+            return valueAt(Long.numberOfTrailingZeros(p));
+        }
+
+        @Override
+        public int size() {
+            return Long.bitCount(present);
+        }
+    };
+
     public FieldValues update(FieldValue fv) {
         Field f = fv.field();
         int idx = f.ordinal();
-        if (values.size() > idx && values.get(idx).field() == f) {
-            values.set(idx, fv);
+        if (has(idx, f)) {
+            set(idx, fv);
+        } else {
+            throw new IllegalArgumentException("update: field not found: " + f);
+        }
+        return this;
+    }
+
+    /**
+     * Non-allocating int update.
+     */
+    public FieldValues update(FieldEnum fe, int v) {
+        Field f = fe.field();
+        int idx = fe.ordinal();
+        if (has(idx, f) && f.type() == Field.Type.IntType) {
+            ints[idx] = v;
         } else {
             throw new IllegalArgumentException("update: field not found: " + f);
         }
@@ -54,31 +249,52 @@ public class FieldValues {
     }
 
     public void write(BitBuffer bb) throws Exception {
-        SzContext ctx = new SzContext();
+        SzContext ctx = fields.newContext();
         write(bb, ctx);
         fields.logWrite(ctx);
     }
 
     public void write(BitBuffer bb, SzContext ctx) throws Exception {
         ctx.push(this);
-        fields.write(bb,values,ctx);
+        fields.write(bb,this,ctx);
         ctx.pop();
     }
 
     @Override
     public String toString() {
-        return values.toString();
+        return values().toString();
     }
 
+    /**
+     * Equal if the same fields are present with equal values, as with the former value lists.
+     */
     @Override
     public boolean equals(Object obj) {
-        return this == obj ||
-                (obj instanceof FieldValues fvs && Objects.equals(values,fvs.values));
+        if (this == obj) { return true; }
+        if (!(obj instanceof FieldValues fvs) || present != fvs.present) {
+            return false;
+        }
+        for (long p = present; p != 0; p &= p - 1) {
+            int i = Long.numberOfTrailingZeros(p);
+            if (fields.field(i) != fvs.fields.field(i) || ints[i] != fvs.ints[i] ||
+                    (refs != null && !Objects.deepEquals(refs[i], fvs.refs[i]))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return values.hashCode();
+        int h = Long.hashCode(present);
+        for (long p = present; p != 0; p &= p - 1) {
+            int i = Long.numberOfTrailingZeros(p);
+            h = 31 * h + ints[i];
+            if (refs != null && refs[i] != null) {
+                h = 31 * h + (refs[i] instanceof Object[] a ? Arrays.hashCode(a) : refs[i].hashCode());
+            }
+        }
+        return h;
     }
 
     public Fields getFields() {
@@ -89,10 +305,12 @@ public class FieldValues {
      * Shallow copy.
      */
     public FieldValues copy() {
-        FieldValues c = new FieldValues(values.size(), fields);
-        for (FieldValue value : values) {
-            c.add(value);
+        FieldValues c = new FieldValues(0, fields);
+        System.arraycopy(ints, 0, c.ints, 0, ints.length);
+        if (refs != null) {
+            System.arraycopy(refs, 0, c.refs, 0, refs.length);
         }
+        c.present = present;
         return c;
     }
 
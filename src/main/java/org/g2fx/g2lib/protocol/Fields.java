@@ -12,13 +12,21 @@ public class Fields {
     private static final Logger log = Util.getLogger(Fields.class);
     private final List<Field> fields;
     private final String name;
+    private final boolean hasRefs;
+    private FieldsPlan plan;
 
     public Fields(FieldEnum[] fieldEnums) {
         fields = new ArrayList<>();
+        boolean refs = false;
         for (FieldEnum fieldEnum : fieldEnums) {
             fields.add(fieldEnum.field());
+            refs |= fieldEnum.field().type() != Field.Type.IntType;
         }
         this.name = fieldEnums[0].getClass().getSimpleName();
+        if (fields.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Too many fields: " + name);
+        }
+        this.hasRefs = refs;
     }
 
     @Override
@@ -32,30 +40,53 @@ public class Fields {
         return name;
     }
 
+    Field field(int ordinal) {
+        return fields.get(ordinal);
+    }
+
+    int size() {
+        return fields.size();
+    }
+
+    /**
+     * True if any field is non-int, requiring reference storage in {@link FieldValues}.
+     */
+    boolean hasRefs() {
+        return hasRefs;
+    }
+
+    /**
+     * Compiled plan, built on first use (enum init order prevents eager compile).
+     */
+    FieldsPlan plan() {
+        FieldsPlan p = plan;
+        if (p == null) {
+            plan = p = new FieldsPlan(this, fields);
+        }
+        return p;
+    }
+
+    /**
+     * New context for top-level read/write, tracing only if Fields logging enabled.
+     */
+    public SzContext newContext() {
+        return SzContext.forLogger(log);
+    }
+
     public FieldValues read(BitBuffer bb) {
-        SzContext c = new SzContext();
+        SzContext c = newContext();
         FieldValues fvs = read(bb, c);
-        log.info(() -> fields.getFirst().getFieldEnumClass().getSimpleName() + " [READ]: " + c.dumpEntries());
+        if (c.tracing()) {
+            log.info(() -> fields.getFirst().getFieldEnumClass().getSimpleName() + " [READ]: " + c.dumpEntries());
+        }
         return fvs;
     }
 
+    /**
+     * Decode with the compiled plan, recording fields and entries if CONTEXT is tracing.
+     */
     public FieldValues read(BitBuffer bb, SzContext context) {
-        int fvsStart = bb.getBitPosition();
-        FieldValues l = init();
-        context.push(l);
-        fields.forEach(f -> {
-            int fStart = bb.getBitPosition();
-            context.startField(f,fStart);
-            try {
-                f.read(bb, context);
-            } catch (Exception e) {
-                throw new IllegalStateException(
-                        "readFailed, field=" + f + ", context=" + context
-                        ,e);
-            }
-            context.endField(f,bb.getBitPosition());
-        });
-        return context.pop();
+        return plan().read(bb, context);
     }
 
 
@@ -67,13 +98,15 @@ public class Fields {
         return init().addAll(vs);
     }
 
-    public void write(BitBuffer bb, List<FieldValue> values, SzContext ctx) throws Exception {
-        for (FieldValue fv : values) {
-            fv.field().write(fv,bb,ctx);
-        }
+    /**
+     * Encode with the compiled plan, recording fields and entries if CTX is tracing.
+     */
+    public void write(BitBuffer bb, FieldValues values, SzContext ctx) throws Exception {
+        plan().write(bb, values, ctx);
     }
 
     public void logWrite(SzContext ctx) {
+        if (!ctx.tracing()) { return; }
         log.info(() -> fields.getFirst().getFieldEnumClass().getSimpleName() + " [WRITE]: " + ctx.dumpEntries());
     }
 }
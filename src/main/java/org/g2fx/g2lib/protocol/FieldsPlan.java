@@ -0,0 +1,140 @@
+package org.g2fx.g2lib.protocol;
+
+import org.g2fx.g2lib.util.BitBuffer;
+
+import java.util.List;
+
+/**
+ * Flat decode/encode plan for a {@link Fields}, compiled once on first use:
+ * per-field opcodes, bit widths, count references and subfield plan pointers,
+ * run by a single interpreter loop. Field records and entries are only made
+ * for a tracing {@link SzContext}.
+ * Fields with custom read behavior (strings, overridden sized reads, stateful
+ * subfield counters) are delegated to {@link Field#read(BitBuffer, SzContext)}.
+ */
+final class FieldsPlan {
+
+    /** Plain sized int, ARG is bit width. */
+    private static final byte OP_INT = 0;
+    /** Subfields with constant count, ARG is count. */
+    private static final byte OP_SUB_CONST = 1;
+    /** Subfields counted by previously-read sibling int, ARG is sibling index. */
+    private static final byte OP_SUB_LOCAL = 2;
+    /** Subfields counted by int in enclosing values, resolved through context. */
+    private static final byte OP_SUB_OUTER = 3;
+    /** Anything else, read via field. */
+    private static final byte OP_DELEGATE = 4;
+
+    private final Fields fields;
+    private final Field[] field;
+    private final byte[] ops;
+    private final int[] args;
+    private final SubfieldsField.FieldCount[] outerCounts;
+    private final FieldsPlan[] subplans;
+
+    FieldsPlan(Fields fields, List<Field> fieldList) {
+        this.fields = fields;
+        int n = fieldList.size();
+        field = fieldList.toArray(new Field[0]);
+        ops = new byte[n];
+        args = new int[n];
+        outerCounts = new SubfieldsField.FieldCount[n];
+        subplans = new FieldsPlan[n];
+        Class<?> enumClass = field[0].getFieldEnumClass();
+        for (int i = 0; i < n; i++) {
+            Field f = field[i];
+            ops[i] = OP_DELEGATE;
+            if (f.getClass() == SizedField.class) {
+                ops[i] = OP_INT;
+                args[i] = ((SizedField) f).size;
+            } else if (f instanceof SubfieldsField sf) {
+                SubfieldsField.SubfieldCount c = sf.getCount();
+                if (c instanceof SubfieldsField.ConstantSubfieldCount cc) {
+                    ops[i] = OP_SUB_CONST;
+                    args[i] = cc.count();
+                } else if (c instanceof SubfieldsField.FieldCount fc) {
+                    Field cf = fc.f().field();
+                    if (cf.getFieldEnumClass() == enumClass && cf.ordinal() < i &&
+                            cf.type() == Field.Type.IntType) {
+                        ops[i] = OP_SUB_LOCAL;
+                        args[i] = cf.ordinal();
+                    } else {
+                        ops[i] = OP_SUB_OUTER;
+                        outerCounts[i] = fc;
+                    }
+                }
+                if (ops[i] != OP_DELEGATE) {
+                    subplans[i] = sf.getSubfields().plan();
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode values. CONTEXT supplies the enclosing values stack for
+     * outer counts and delegated fields.
+     */
+    FieldValues read(BitBuffer bb, SzContext context) {
+        FieldValues fvs = fields.init();
+        boolean tracing = context.tracing();
+        context.push(fvs);
+        for (int i = 0; i < ops.length; i++) {
+            if (tracing) { context.startField(field[i], bb.getBitPosition()); }
+            try {
+                switch (ops[i]) {
+                    case OP_INT -> {
+                        int v = bb.get(args[i]);
+                        if (tracing) { context.addEntry(v, bb); }
+                        fvs.appendInt(i, v);
+                    }
+                    case OP_SUB_CONST -> fvs.appendSubfields(i, readSubfields(i, args[i], bb, context));
+                    case OP_SUB_LOCAL -> fvs.appendSubfields(i, readSubfields(i,
+                            fvs.intAt(args[i]), bb, context));
+                    case OP_SUB_OUTER -> fvs.appendSubfields(i, readSubfields(i,
+                            outerCounts[i].getCount(context.context()), bb, context));
+                    default -> field[i].read(bb, context);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(
+                        "readFailed, field=" + field[i] + ", context=" + context
+                        ,e);
+            }
+            if (tracing) { context.endField(field[i], bb.getBitPosition()); }
+        }
+        return context.pop();
+    }
+
+    private FieldValues[] readSubfields(int i, int count, BitBuffer bb, SzContext context) {
+        FieldsPlan sub = subplans[i];
+        FieldValues[] vs = new FieldValues[count];
+        for (int j = 0; j < count; j++) {
+            vs[j] = sub.read(bb, context);
+        }
+        return vs;
+    }
+
+    /**
+     * Encode values. Subfield values go back through {@link FieldValues#write(BitBuffer, SzContext)}
+     * to honor any {@link Fields#write} overrides.
+     */
+    void write(BitBuffer bb, FieldValues values, SzContext ctx) throws Exception {
+        boolean tracing = ctx.tracing();
+        for (int i = 0; i < ops.length; i++) {
+            if (!values.isPresent(i)) { continue; }
+            if (tracing) { ctx.startField(field[i], bb.getBitPosition()); }
+            switch (ops[i]) {
+                case OP_INT -> {
+                    bb.put(args[i], values.intAt(i));
+                    if (tracing) { ctx.addEntry(values.intAt(i), bb); }
+                }
+                case OP_SUB_CONST, OP_SUB_LOCAL, OP_SUB_OUTER -> {
+                    for (FieldValues sub : values.subfieldsAt(i)) {
+                        sub.write(bb, ctx);
+                    }
+                }
+                default -> values.valueAt(i).write(bb, ctx);
+            }
+            if (tracing) { ctx.endField(field[i], bb.getBitPosition()); }
+        }
+    }
+}
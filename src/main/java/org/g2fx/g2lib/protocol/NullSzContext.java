@@ -0,0 +1,33 @@
+package org.g2fx.g2lib.protocol;
+
+import org.g2fx.g2lib.util.BitBuffer;
+
+/**
+ * Context without tracing: keeps the values stack for subfield counts,
+ * never allocates field or entry records.
+ */
+public class NullSzContext extends SzContext {
+
+    public NullSzContext() {
+        super(false);
+    }
+
+    @Override
+    public void startField(Field f, int fStart) { }
+
+    @Override
+    public void addEntry(int value, BitBuffer bb) { }
+
+    @Override
+    public void endField(Field f, int bitIndex) { }
+
+    @Override
+    public String dumpEntries() {
+        return "(not tracing)";
+    }
+
+    @Override
+    public String toString() {
+        return "NullSzContext{context=" + context() + "}";
+    }
+}
@@ -238,7 +238,7 @@ public class Protocol {
         public Field field() { return f; }
         public static final Fields FIELDS = new Fields(values()) {
             @Override
-            public void write(BitBuffer bb, List<FieldValue> values, SzContext ctx) throws Exception {
+            public void write(BitBuffer bb, FieldValues values, SzContext ctx) throws Exception {
                 super.write(bb, values, ctx);
                 int over = bb.getBitPosition() % 8;
                 //trim up to 4 bits (see VarMorphParams.Reserved3)
@@ -103,6 +103,17 @@ public enum Sections {
 
     public record Section(Sections sections, FieldValues values) { }
 
+    /**
+     * Patch section of TYPE located in AREA, or null if none, e.g. module params
+     * (0x4d) for {@link AreaId#Settings} is {@link #SPatchParams_4d}.
+     */
+    public static Sections forArea(int type, AreaId area) {
+        for (Sections s : FILE_SECTIONS) {
+            if (s.type == type && s.area == area) { return s; }
+        }
+        return null;
+    }
+
     /**
      * Read/enforce type byte, then perform
      * {@link BitBuffer#sliceAheadLength(ByteBuffer)}
@@ -58,7 +58,7 @@ public class StringField extends AbstractField implements Field {
             int c = bb.get(8);
             values.addEntry(c,bb);
             if (c != 0) {
-                sb.append(Character.valueOf((char) c));
+                sb.append((char) c);
             } else {
                 if (lengthWithTerm || length == READ_TO_TERMINATOR) { break; } // support terminators
                 //otherwise, continue for padded fixed length.
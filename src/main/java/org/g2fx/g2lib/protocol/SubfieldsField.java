@@ -6,7 +6,6 @@ import org.g2fx.g2lib.util.Util;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,16 +15,16 @@ public class SubfieldsField extends AbstractField implements Field {
 
     protected final Fields subfields;
     private final SubfieldCounterFactory subfieldCount;
+    /**
+     * Simple count if constructed with one, for {@link FieldsPlan}.
+     */
+    private final SubfieldCount count;
 
     public interface SubfieldCount {
         int getCount(List<FieldValues> values);
     }
 
-    public static class ConstantSubfieldCount implements SubfieldCount {
-        private final int count;
-        public ConstantSubfieldCount(int count) {
-            this.count = count;
-        }
+    public record ConstantSubfieldCount(int count) implements SubfieldCount {
         @Override
         public int getCount(List<FieldValues> values) {
             return count;
@@ -40,8 +39,7 @@ public class SubfieldsField extends AbstractField implements Field {
         @Override
         public int getCount(List<FieldValues> values) {
             for (FieldValues fv : values) {
-                Optional<FieldValue> v = fv.get(f);
-                if (v.isPresent()) { return IntValue.intValue(v.get()); }
+                if (fv.contains(f)) { return fv.getInt(f); }
             }
             throw new NoSuchElementException(f.field().name());
         }
@@ -79,14 +77,31 @@ public class SubfieldsField extends AbstractField implements Field {
         this(e, subfields, (SubfieldCounterFactory) values -> {
             int count = subfieldCount.getCount(values);
             return (vs, rs, i) -> i < count;
-        });
+        }, subfieldCount);
     }
 
     public <T extends Enum<T>> SubfieldsField(Enum<T> e, Fields subfields, SubfieldCounterFactory subfieldCount) {
+        this(e, subfields, subfieldCount, null);
+    }
+
+    private <T extends Enum<T>> SubfieldsField(Enum<T> e, Fields subfields,
+                                               SubfieldCounterFactory subfieldCount, SubfieldCount count) {
         super(e);
         if (subfields == null) { throw new IllegalStateException(e.name() + ": Subfield initialization failed, Protocol fields value null"); }
         this.subfields = subfields;
         this.subfieldCount = subfieldCount;
+        this.count = count;
+    }
+
+    public Fields getSubfields() {
+        return subfields;
+    }
+
+    /**
+     * @return simple count, or null if constructed with {@link SubfieldCounterFactory}.
+     */
+    public SubfieldCount getCount() {
+        return count;
     }
 
     @Override
@@ -4,12 +4,39 @@ import org.g2fx.g2lib.util.BitBuffer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Serialization context: enclosing values stack for subfield counts, plus
+ * field/entry records for tracing dumps when tracing.
+ */
 public class SzContext {
 
-    private List<FieldValues> context = new ArrayList<>();
+    /**
+     * Logger level at which tracing contexts are created.
+     */
+    public static final Level TRACE_LEVEL = Level.INFO;
 
-    private List<SzRecord> records = new ArrayList<>();
+    private final List<FieldValues> context = new ArrayList<>();
+
+    private final List<SzRecord> records;
+
+    public SzContext() {
+        this(true);
+    }
+
+    protected SzContext(boolean tracing) {
+        this.records = tracing ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Tracing context if LOG is at {@link #TRACE_LEVEL}, otherwise a
+     * {@link NullSzContext} which allocates no records.
+     */
+    public static SzContext forLogger(Logger log) {
+        return log.isLoggable(TRACE_LEVEL) ? new SzContext() : new NullSzContext();
+    }
 
     public record SzEntry(int length, int value) {}
 
@@ -42,6 +69,13 @@ public class SzContext {
         }
     }
 
+    /**
+     * @return true if field records are kept for {@link #dumpEntries()}.
+     */
+    public boolean tracing() {
+        return records != null;
+    }
+
     public void startField(Field f, int fStart) {
         records.add(new SzRecord(f,fStart));
     }
@@ -1,12 +1,15 @@
 package org.g2fx.g2lib.repl;
 
 import org.g2fx.g2gui.controls.IndexParam;
+import org.g2fx.g2lib.device.DeviceSession;
+import org.g2fx.g2lib.device.LibScheduler;
 import org.g2fx.g2lib.model.ModParam;
 import org.g2fx.g2lib.model.ModuleType;
 import org.g2fx.g2lib.model.NamedParam;
 import org.g2fx.g2lib.state.*;
 import org.g2fx.g2lib.usb.MessageRecorder;
 import org.g2fx.g2lib.usb.Usb;
+import org.g2fx.g2lib.usb.UsbMetrics;
 import org.g2fx.g2lib.util.SafeLookup;
 import org.jline.console.ArgDesc;
 import org.jline.console.CmdDesc;
@@ -16,13 +19,16 @@ import org.jline.reader.impl.completer.StringsCompleter;
 import org.jline.utils.AttributedString;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import static org.g2fx.g2lib.repl.EvalResult.evalContinue;
 import static org.g2fx.g2lib.util.Util.forEachIndexed;
@@ -43,6 +49,36 @@ public enum EvalCommand {
                 c.devices.runWithCurrentDevice(d -> d.getEntries().dumpEntries(c.writer,type,bank));
             })),
 
+    bankUpload(cmd("Upload banks from device to bank dump folders, resuming a previous upload",
+            argDesc("perfOrPatch","'perf' or 'patch'"),
+            argDesc("dir","directory to create bank folders in"),
+            argDesc("index","bank index, default all banks"))
+            .argsRequired(2)
+            .run(c -> {
+                Entries.EntryType type = Entries.EntryType.LC_NAME_LOOKUP.get(c.nextArg());
+                File dir = new File(c.nextArg());
+                List<Integer> banks = c.args().isEmpty() ?
+                        IntStream.range(0, type.getBanks()).boxed().toList() : List.of(c.nextInt() - 1);
+                DeviceSession s = c.devices.getActive();
+                s.execute(LibScheduler.Priority.Structural, () -> s.getDevice().getBankTransfer()
+                        .upload(type, banks, dir, null, r -> s.execute(LibScheduler.Priority.Structural, r::run))
+                        .whenComplete((result, e) -> c.writer.println(e == null ? result : e)));
+            })),
+
+    bankDownload(cmd("Download bank dump to device, clearing other entries of its banks unless 'keep'",
+            argDesc("file","bank dump .pchList file"),
+            argDesc("keep","'keep' to leave unlisted entries"))
+            .argsRequired(1)
+            .run(c -> {
+                File f = new File(c.nextArg());
+                if (!f.isFile()) { throw c.bad("not a file"); }
+                boolean replace = c.args().isEmpty() || !c.nextArg().equals("keep");
+                DeviceSession s = c.devices.getActive();
+                s.execute(LibScheduler.Priority.Structural, () -> s.getDevice().getBankTransfer()
+                        .download(f, replace, null, r -> s.execute(LibScheduler.Priority.Structural, r::run))
+                        .whenComplete((result, e) -> c.writer.println(e == null ? result : e)));
+            })),
+
     fileLoad(cmd("Load perf or patch file",
             argDesc("file","File ending in .pch2 or .prf2"))
             .run(c -> {
@@ -93,7 +129,7 @@ public enum EvalCommand {
                 Slot slotCode = getSlotCode(typeOrSlot);
                 int bank = c.nextInt() - 1;
                 int entry = c.nextInt() - 1;
-                c.devices.runWithCurrentDevice(d -> d.getEntries().loadEntry(
+                c.devices.runWithCurrentDevice(LibScheduler.Priority.Structural, d -> d.getEntries().loadEntry(
                         slotCode == null ? 4 : slotCode.ordinal(), bank, entry));
             })),
 
@@ -290,6 +326,23 @@ public enum EvalCommand {
                 }).start();
             })),
     offline(cmd("Initialize offline device").run(c -> c.devices.execute(c.devices::initOfflineDevice))),
+    device(cmd("List connected devices, or select current device",
+            argDesc("address","USB address of device to select"))
+            .argsRequired(0)
+            .run(c -> {
+                if (c.args().isEmpty()) {
+                    DeviceSession active = c.devices.getActive();
+                    c.devices.getSessions().forEach(s -> c.writer.format("%s %d: %s%n",
+                            s == active ? "*" : " ", s.getAddress(), Path.mkPath(s)));
+                    return;
+                }
+                int address = c.nextInt();
+                try {
+                    c.devices.select(address);
+                } catch (IllegalArgumentException e) {
+                    throw c.bad(e.getMessage());
+                }
+            })),
     version(cmd("Set patch or perf version",
             argDesc("slotOrPerf","slot (A-D) or [P]erf")
             ,argDesc("version","version integer")).run(
@@ -304,6 +357,37 @@ public enum EvalCommand {
                     }
                 });
             })),
+    stats(cmd("Show USB latency/throughput metrics of current device and lib queue depths",
+            argDesc("jsonOrReset","'json' to export snapshot, 'reset' to clear"),
+            argDesc("file","optional file for json export"))
+            .argsRequired(0)
+            .run(c -> {
+                UsbMetrics metrics = c.devices.getMetrics();
+                String op = c.args().isEmpty() ? "" : c.nextArg();
+                switch (op) {
+                    case "" -> {
+                        metrics.snapshot().dump(c.writer);
+                        c.writer.println("Lib queues:");
+                        c.writer.println(c.devices.getScheduler().stats());
+                    }
+                    case "reset" -> metrics.reset();
+                    case "json" -> {
+                        String json = metrics.snapshot().toJson();
+                        if (c.args().isEmpty()) {
+                            c.writer.println(json);
+                            return;
+                        }
+                        File f = new File(c.nextArg());
+                        try {
+                            Files.writeString(f.toPath(), json);
+                        } catch (IOException e) {
+                            throw c.bad("Unable to write %s: %s", f, e.getMessage());
+                        }
+                        c.writer.println("Wrote " + f);
+                    }
+                    default -> throw c.bad("Expected 'json' or 'reset': " + op);
+                }
+            })),
     comm(cmd("Start/stop device communication stream",
             argDesc("startStop","start or stop"))
             .run(c -> {
@@ -1,6 +1,6 @@
 package org.g2fx.g2lib.repl;
 
-import org.g2fx.g2lib.device.Device;
+import org.g2fx.g2lib.device.DeviceSession;
 import org.g2fx.g2lib.model.ModuleType;
 import org.g2fx.g2lib.model.NamedParam;
 import org.g2fx.g2lib.state.AreaId;
@@ -37,10 +37,11 @@ public record Path(String device, String perf, SlotPatch slot, Integer variation
         );
     }
 
-    public static Path mkPath(Device device, Performance perf) {
+    public static Path mkPath(DeviceSession session) {
+        Performance perf = session.getPerf();
         Patch patch = perf != null ? perf.getSelectedPatch() : null;
         return new Path(
-                device == null || !device.online() ? null : device.getSynthSettings().deviceName().get(),
+                session.getLabel(),
                 perf == null ? null : perf.perfName().get(),
                 patch == null ? null : new SlotPatch(patch.getSlot(),patch.name().get()),
                 patch == null ? null : patch.getPatchSettings().variation().get(),
@@ -0,0 +1,153 @@
+package org.g2fx.g2lib.state;
+
+import org.g2fx.g2lib.model.CableDelta;
+import org.g2fx.g2lib.model.Connector;
+
+import java.util.*;
+
+import static org.g2fx.g2lib.model.Connector.ConnDir.In;
+import static org.g2fx.g2lib.model.Connector.ConnDir.Out;
+
+/**
+ * Cables of an area indexed by connector end (module, connector, direction) and by module,
+ * iterating in insertion order as serialized. Add, remove and lookups are constant time
+ * in the number of cables, linear only in the cables at one connector or module.
+ */
+public class CableGraph extends AbstractCollection<PatchCable> {
+
+    /**
+     * Cable end: source end is an output if the cable direction is set, dest end is always an input.
+     */
+    public record End(int module, int conn, Connector.ConnDir dir) {
+        public static End src(PatchCable c) {
+            return new End(c.getSrcModule(), c.getSrcConn(), c.getDirection() ? Out : In);
+        }
+        public static End dest(PatchCable c) {
+            return new End(c.getDestModule(), c.getDestConn(), In);
+        }
+    }
+
+    /**
+     * Cables by insertion sequence.
+     */
+    private final LinkedHashMap<PatchCable, Long> cables = new LinkedHashMap<>();
+    private final Map<End, List<PatchCable>> byEnd = new HashMap<>();
+    /**
+     * Cables by module, once per end so a module's list size is its cable end count.
+     */
+    private final Map<Integer, List<PatchCable>> byModule = new HashMap<>();
+    private long seq;
+
+    @Override
+    public boolean add(PatchCable c) {
+        if (cables.putIfAbsent(c, seq++) != null) { return false; }
+        index(End.src(c), c);
+        index(End.dest(c), c);
+        return true;
+    }
+
+    private void index(End e, PatchCable c) {
+        byEnd.computeIfAbsent(e, _ -> new ArrayList<>(1)).add(c);
+        byModule.computeIfAbsent(e.module(), _ -> new ArrayList<>(2)).add(c);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof PatchCable c) || cables.remove(c) == null) { return false; }
+        unindex(End.src(c), c);
+        unindex(End.dest(c), c);
+        return true;
+    }
+
+    private void unindex(End e, PatchCable c) {
+        removeFrom(byEnd, e, c);
+        removeFrom(byModule, e.module(), c);
+    }
+
+    private static <K> void removeFrom(Map<K, List<PatchCable>> index, K k, PatchCable c) {
+        List<PatchCable> cs = index.get(k);
+        cs.remove(c);
+        if (cs.isEmpty()) { index.remove(k); }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return cables.containsKey(o);
+    }
+
+    @Override
+    public Iterator<PatchCable> iterator() {
+        Iterator<PatchCable> i = cables.keySet().iterator();
+        return new Iterator<>() {
+            private PatchCable last;
+            @Override public boolean hasNext() { return i.hasNext(); }
+            @Override public PatchCable next() { return last = i.next(); }
+            @Override public void remove() {
+                i.remove();
+                unindex(End.src(last), last);
+                unindex(End.dest(last), last);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return cables.size();
+    }
+
+    @Override
+    public void clear() {
+        cables.clear();
+        byEnd.clear();
+        byModule.clear();
+    }
+
+    /**
+     * Cable from source to dest connector, or null.
+     */
+    public PatchCable find(int srcModule, int srcConn, int destModule, int destConn) {
+        for (PatchCable c : byEnd.getOrDefault(new End(destModule, destConn, In), List.of())) {
+            if (c.getSrcModule() == srcModule && c.getSrcConn() == srcConn) { return c; }
+        }
+        return null;
+    }
+
+    /**
+     * Cables matching CI exactly, same source and destination ends.
+     */
+    public List<PatchCable> matching(CableDelta.CableIndex ci) {
+        List<PatchCable> cs = byEnd.get(new End(ci.destModule(), ci.destConn().index(), In));
+        if (cs == null) { return List.of(); }
+        return cs.stream().filter(ci::match).toList();
+    }
+
+    /**
+     * Number of cable ends at MODULE.
+     */
+    public int degree(int module) {
+        List<PatchCable> cs = byModule.get(module);
+        return cs == null ? 0 : cs.size();
+    }
+
+    /**
+     * Cables touching any of MODULES, in insertion order.
+     */
+    public List<PatchCable> touching(Collection<Integer> modules) {
+        Set<PatchCable> found = new HashSet<>();
+        for (int m : modules) {
+            found.addAll(byModule.getOrDefault(m, List.of()));
+        }
+        List<PatchCable> cs = new ArrayList<>(found);
+        cs.sort(Comparator.comparingLong(cables::get));
+        return cs;
+    }
+
+    /**
+     * Remove all cables touching MODULE.
+     */
+    public void removeModule(int module) {
+        List<PatchCable> cs = byModule.get(module);
+        if (cs == null) { return; }
+        for (PatchCable c : new ArrayList<>(cs)) { remove(c); }
+    }
+}
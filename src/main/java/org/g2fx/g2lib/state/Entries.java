@@ -1,5 +1,7 @@
 package org.g2fx.g2lib.state;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableSortedMap;
 import org.g2fx.g2lib.model.LibProperty;
 import org.g2fx.g2lib.protocol.Codes;
 import org.g2fx.g2lib.protocol.FieldValues;
@@ -9,9 +11,18 @@ import org.g2fx.g2lib.util.BitBuffer;
 import org.g2fx.g2lib.util.SafeLookup;
 import org.g2fx.g2lib.util.Util;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.g2fx.g2lib.device.Device.dispatchSuccess;
@@ -45,7 +56,11 @@ public class Entries implements LibProperty.LibPropertyListener<Entries.EntriesE
         DeleteBank,
         DeleteEntry,
         SaveEntry,
-        LoadEntry
+        LoadEntry,
+        /**
+         * Entry stored or cleared on the device, see {@link EntriesEvent#entries()} for its new value.
+         */
+        UpdateEntry
     }
 
     public record EntryMsg(EntryType type, int bank, int entry, Slot slot) {}
@@ -72,16 +87,49 @@ public class Entries implements LibProperty.LibPropertyListener<Entries.EntriesE
         public static EntriesEvent loadEntry(EntryType type, int bank, int entry, Slot slot) {
             return new EntriesEvent(EntriesEventType.LoadEntry,null,new EntryMsg(type,bank,entry,slot));
         }
+        public static EntriesEvent updateEntry(EntryType type, int bank, int entry,
+                                               Map<EntryType,Map<Integer, Map<Integer,Entry>>> entries) {
+            return new EntriesEvent(EntriesEventType.UpdateEntry,entries,new EntryMsg(type,bank,entry,null));
+        }
         public static EntriesEvent refreshAll(Map<EntryType,Map<Integer, Map<Integer,Entry>>> entries) {
             return new EntriesEvent(EntriesEventType.RefreshAll,entries,null);
         }
 
     }
 
+    /**
+     * In-progress listing of all entries, replacing each type's entries when complete.
+     */
+    private static class Reconcile {
+        final Map<EntryType, SortedMap<Integer, SortedMap<Integer, Entry>>> staging = new EnumMap<>(EntryType.class);
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        EntryType type = EntryType.Performance;
+        int bank;
+        int entry;
+        int retries;
+        boolean changed;
+    }
+
+    public static final String CACHE_DIR_PROPERTY = "g2fx.cache";
+
+    /**
+     * Re-requests of a page whose listing was rejected, e.g. sent before a perf version change.
+     */
+    public static final int MAX_PAGE_RETRIES = 3;
+
+    private static final TypeReference<Map<EntryType, Map<Integer, Map<Integer, Entry>>>> CACHE_TYPE =
+            new TypeReference<>() { };
+
     private EntriesMsg entriesMsg;
     private final UsbSender usb;
 
+    /**
+     * Immutable, replaced per bank on update so events share it without copying.
+     */
     private Map<EntryType,Map<Integer, Map<Integer,Entry>>> entries;
+    private Reconcile reconcile;
+    private volatile CompletableFuture<Void> reconciled = CompletableFuture.completedFuture(null);
+    private File cacheFile;
     //TODO undo should not be supported here ...
     private LibProperty<EntriesEvent> eventProp = new LibProperty<>(EntriesEvent.refreshAll(Map.of()));
 
@@ -95,64 +143,172 @@ public class Entries implements LibProperty.LibPropertyListener<Entries.EntriesE
         return entriesMsg;
     }
 
+    /**
+     * Read all entries from the device, blocking.
+     */
     public void readEntries() throws Exception {
-        resetEntries();
-        readEntries(EntryType.Performance);
-        readEntries(EntryType.Patch);
+        Reconcile r = reconcile = new Reconcile();
+        try {
+            for (EntryType type : List.of(EntryType.Performance, EntryType.Patch)) {
+                r.type = type;
+                r.bank = r.entry = 0;
+                while (!readPage(r)) { }
+                finishType(r);
+            }
+        } finally {
+            reconcile = null;
+        }
+        finish(r);
     }
 
-    private void resetEntries() {
-        entries = Map.of(EntryType.Performance,new HashMap<>(),EntryType.Patch,new HashMap<>());
+    /**
+     * Read all entries from the device a page per task on EXECUTOR, keeping current
+     * (e.g. cached) entries until each type is listed, see {@link #reconciled()}.
+     * A reconcile in progress is superseded, completing with this one.
+     */
+    public void reconcile(Executor executor) {
+        Reconcile prev = reconcile;
+        Reconcile r = reconcile = new Reconcile();
+        reconciled = r.done;
+        if (prev != null) {
+            r.done.whenComplete((_, e) -> {
+                if (e == null) { prev.done.complete(null); } else { prev.done.completeExceptionally(e); }
+            });
+        }
+        executor.execute(() -> reconcilePage(r, executor));
     }
 
-    public void fireRefreshAll() {
-        //deep hashmap copy
-        Map<EntryType,Map<Integer, Map<Integer,Entry>>> m = new HashMap<>();
-        for (Map.Entry<EntryType, Map<Integer, Map<Integer, Entry>>> em1 : entries.entrySet()) {
-            m.put(em1.getKey(), new TreeMap<>());
-            for (Map.Entry<Integer, Map<Integer, Entry>> em2 : em1.getValue().entrySet()) {
-                m.get(em1.getKey()).put(em2.getKey(),new TreeMap<>());
-                for (Map.Entry<Integer, Entry> em3 : em2.getValue().entrySet()) {
-                    m.get(em1.getKey()).get(em2.getKey()).put(em3.getKey(),em3.getValue());
+    private void reconcilePage(Reconcile r, Executor executor) {
+        if (reconcile != r) { return; }
+        try {
+            if (readPage(r)) {
+                finishType(r);
+                if (r.type == EntryType.Patch) {
+                    reconcile = null;
+                    finish(r);
+                    return;
                 }
+                r.type = EntryType.Patch;
+                r.bank = r.entry = 0;
             }
+            executor.execute(() -> reconcilePage(r, executor));
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "reconcile: failed reading entries", e);
+            reconcile = null;
+            r.done.completeExceptionally(e);
         }
-        eventProp.set(EntriesEvent.refreshAll(m));
-    }
-
-    public void readEntries(EntryType type) throws Exception {
-        entriesMsg = new EntriesMsg(type,List.of(new EntryBank(0,0,List.of())),false);
-        entries.get(type).clear();
-        while (!entriesMsg.done() && !entriesMsg.banks().isEmpty()) {
-            EntryBank lastBank = entriesMsg.banks().getLast();
-            int lastEntry = lastBank.entry() + lastBank.entries().size();
-            log.info(() -> "sending entries request: " + type + ":" + lastBank.bank() + "," + lastEntry);
-            entriesMsg = null;
-            usb.sendSystemRequest("entries request"
-                    , Codes.O_LIST_NAMES // Q_LIST_NAMES
-                    , type.ordinal()
-                    , lastBank.bank()
-                    , lastEntry
-            );
-            if (entriesMsg == null) {
+    }
+
+    /**
+     * Completes when the latest reconcile has read all entries.
+     */
+    public CompletableFuture<Void> reconciled() {
+        return reconciled;
+    }
+
+    /**
+     * Request next page of entry names, true if the type is done. A page without
+     * listing stays current, to be requested again up to {@link #MAX_PAGE_RETRIES} times.
+     */
+    private boolean readPage(Reconcile r) throws Exception {
+        log.fine(() -> "sending entries request: " + r.type + ":" + r.bank + "," + r.entry);
+        entriesMsg = null;
+        usb.sendSystemRequest("entries request"
+                , Codes.O_LIST_NAMES // Q_LIST_NAMES
+                , r.type.ordinal()
+                , r.bank
+                , r.entry
+        );
+        if (entriesMsg == null) {
+            if (++r.retries > MAX_PAGE_RETRIES) {
                 throw new IllegalStateException("Did not receive entries message!");
             }
-            log.info(() -> "received entry data: " + entriesMsg);
+            log.warning(() -> "readPage: no entries message, retrying " + r.type + ":" + r.bank + "," + r.entry);
+            return false;
         }
-        log.info(() -> "readEntries: received " + entries.get(type).size() + " banks");
+        r.retries = 0;
+        if (entriesMsg.done() || entriesMsg.banks().isEmpty()) { return true; }
+        EntryBank lastBank = entriesMsg.banks().getLast();
+        r.bank = lastBank.bank();
+        r.entry = lastBank.entry() + lastBank.entries().size();
+        return false;
+    }
 
+    private void finishType(Reconcile r) {
+        Map<Integer, Map<Integer, Entry>> listed = toImmutable(r.staging.getOrDefault(r.type, new TreeMap<>()));
+        log.info(() -> "readEntries: received " + listed.size() + " " + r.type + " banks");
+        if (listed.equals(entries.get(r.type))) { return; }
+        entries = with(r.type, listed);
+        r.changed = true;
+    }
+
+    private void finish(Reconcile r) {
+        if (r.changed || (cacheFile != null && !cacheFile.exists())) {
+            fireRefreshAll();
+            saveCache();
+        }
+        r.done.complete(null);
+    }
+
+    private void resetEntries() {
+        entries = Map.of(EntryType.Performance,Map.of(),EntryType.Patch,Map.of());
+    }
+
+    public void fireRefreshAll() {
+        eventProp.set(EntriesEvent.refreshAll(entries));
+    }
+
+    private static Map<Integer, Map<Integer, Entry>> toImmutable(SortedMap<Integer, SortedMap<Integer, Entry>> banks) {
+        ImmutableSortedMap.Builder<Integer, Map<Integer, Entry>> b = ImmutableSortedMap.naturalOrder();
+        banks.forEach((bank, es) -> { if (!es.isEmpty()) { b.put(bank, ImmutableSortedMap.copyOfSorted(es)); } });
+        return b.build();
+    }
+
+    private Map<EntryType, Map<Integer, Map<Integer, Entry>>> with(EntryType type, Map<Integer, Map<Integer, Entry>> banks) {
+        Map<EntryType, Map<Integer, Map<Integer, Entry>>> m = new EnumMap<>(entries);
+        m.put(type, banks);
+        return Collections.unmodifiableMap(m);
+    }
+
+    /**
+     * Replace BANK of TYPE with EDIT applied, copying only that bank.
+     */
+    private void updateBank(EntryType type, int bank, Consumer<SortedMap<Integer, Entry>> edit) {
+        Map<Integer, Map<Integer, Entry>> banks = entries.get(type);
+        SortedMap<Integer, Entry> es = new TreeMap<>(banks.getOrDefault(bank, Map.of()));
+        edit.accept(es);
+        ImmutableSortedMap.Builder<Integer, Map<Integer, Entry>> b = ImmutableSortedMap.naturalOrder();
+        banks.forEach((bi, bes) -> { if (bi != bank) { b.put(bi, bes); } });
+        if (!es.isEmpty()) { b.put(bank, ImmutableSortedMap.copyOfSorted(es)); }
+        entries = with(type, b.build());
+    }
+
+    private static void putEntries(SortedMap<Integer, Entry> bm, EntryBank bank) {
+        int i = bank.entry();
+        for (Entry e : bank.entries()) {
+            bm.put(i++, e);
+        }
     }
 
     public void processEntriesMsg(boolean isStoreResponse) {
         log.info("processEntriesMsg: " + entriesMsg);
-        entriesMsg.banks().forEach(bank -> {
-            Map<Integer, Entry> bm = entries.get(entriesMsg.type).computeIfAbsent(bank.bank(), b -> new TreeMap<>());
-            int i = bank.entry();
-            for (Entry e : bank.entries()) {
-                bm.put(i++,e);
-            }
-        });
-        if (entriesMsg.done || isStoreResponse) { // <-- what about large banks, multiple post-store messages?
+        EntryType type = entriesMsg.type();
+        if (reconcile != null && (!isStoreResponse || reconcile.staging.containsKey(type))) {
+            // stores during a listing also apply to the listing
+            entriesMsg.banks().forEach(bank -> putEntries(reconcile.staging
+                    .computeIfAbsent(type, _ -> new TreeMap<>())
+                    .computeIfAbsent(bank.bank(), _ -> new TreeMap<>()), bank));
+            if (!isStoreResponse) { return; }
+        }
+        entriesMsg.banks().forEach(bank -> updateBank(type, bank.bank(), bm -> putEntries(bm, bank)));
+        if (isStoreResponse) {
+            entriesMsg.banks().forEach(bank -> {
+                for (int i = 0; i < bank.entries().size(); i++) {
+                    eventProp.set(EntriesEvent.updateEntry(type, bank.bank(), bank.entry() + i, entries));
+                }
+            });
+            saveCache();
+        } else if (entriesMsg.done) {
             fireRefreshAll();
         }
     }
@@ -197,6 +353,70 @@ public class Entries implements LibProperty.LibPropertyListener<Entries.EntriesE
         }
     }
 
+    /**
+     * Banks of TYPE by bank index, entries by entry index. Immutable.
+     */
+    public Map<Integer, Map<Integer,Entry>> getEntries(EntryType type) {
+        return entries.get(type);
+    }
+
+    /**
+     * Remove cleared entry, e.g. after {@link Codes#I_ENTRY_CLEARED}.
+     */
+    public void removeEntry(EntryType type, int bank, int entry) {
+        if (reconcile != null && reconcile.staging.containsKey(type)) {
+            reconcile.staging.get(type).getOrDefault(bank, new TreeMap<>()).remove(entry);
+        }
+        Map<Integer, Entry> bm = entries.get(type).get(bank);
+        if (bm == null || !bm.containsKey(entry)) { return; }
+        updateBank(type, bank, es -> es.remove(entry));
+        eventProp.set(EntriesEvent.updateEntry(type, bank, entry, entries));
+        saveCache();
+    }
+
+    /**
+     * Show cached entries of synth DEVICE_NAME, caching further updates there. The name is
+     * the stable identity across replugs; synths sharing it share the cache, each session
+     * replacing it whole from its own temp file.
+     */
+    public void loadCache(String deviceName) {
+        File dir = new File(System.getProperty(CACHE_DIR_PROPERTY,
+                new File(System.getProperty("user.home"), ".g2fx/cache").getPath()));
+        cacheFile = new File(dir, "entries-" + deviceName.replaceAll("[^A-Za-z0-9_-]", "_") + ".yaml");
+        if (!cacheFile.isFile()) { return; }
+        try {
+            Map<EntryType, Map<Integer, Map<Integer, Entry>>> cached =
+                    Util.mkYamlMapper().readValue(cacheFile, CACHE_TYPE);
+            resetEntries();
+            cached.forEach((type, banks) -> {
+                SortedMap<Integer, SortedMap<Integer, Entry>> m = new TreeMap<>();
+                banks.forEach((b, es) -> m.put(b, new TreeMap<>(es)));
+                entries = with(type, toImmutable(m));
+            });
+            log.info(() -> "loadCache: " + cacheFile);
+            fireRefreshAll();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "loadCache: ignoring unreadable cache " + cacheFile, e);
+        }
+    }
+
+    private void saveCache() {
+        if (cacheFile == null) { return; }
+        Path tmp = null;
+        try {
+            Path dir = Files.createDirectories(cacheFile.getParentFile().toPath());
+            tmp = Files.createTempFile(dir, cacheFile.getName(), ".tmp");
+            Util.mkYamlMapper().writeValue(tmp.toFile(), entries);
+            Files.move(tmp, cacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "saveCache: failed writing " + cacheFile, e);
+            try {
+                if (tmp != null) { Files.deleteIfExists(tmp); }
+            } catch (IOException ignored) { }
+        }
+    }
+
     public void dumpEntries(PrintWriter writer, EntryType type, int bank) {
         entries.get(type).forEach((bi,b) -> {
             if (bank == -1 || bi == bank) {
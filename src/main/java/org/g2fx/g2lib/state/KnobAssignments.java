@@ -13,7 +13,10 @@ public class KnobAssignments {
     private final List<LibProperty<KnobAssignment>> assignments = new ArrayList<>();
     private final FieldValues fvs;
 
-    public KnobAssignments(FieldValues fvs, Slot slot) {
+    /**
+     * @param onChange run after any assignment changes
+     */
+    public KnobAssignments(FieldValues fvs, Slot slot, Runnable onChange) {
         this.fvs = fvs;
         this.kfvs =
                 Protocol.KnobAssignments.Knobs.subfieldsValue(fvs);
@@ -29,11 +32,13 @@ public class KnobAssignments {
             } else {
                 k = KnobAssignment.unassigned();
             }
-            assignments.add(new LibProperty<>(k));
+            LibProperty<KnobAssignment> p = new LibProperty<>(k);
+            p.addListener((_,_) -> onChange.run());
+            assignments.add(p);
         }
     }
 
-    public KnobAssignments(Slot slot) {
+    public KnobAssignments(Slot slot, Runnable onChange) {
         this(Protocol.KnobAssignments.FIELDS.values(
                 Protocol.KnobAssignments.KnobCount.value(0x78),
                 Protocol.KnobAssignments.Knobs.value(
@@ -42,7 +47,7 @@ public class KnobAssignments {
                                         Protocol.KnobAssignment.Assigned.value(0),
                                         Protocol.KnobAssignment.Params.value(List.of())
                                 )).toList())
-        ),slot);
+        ),slot,onChange);
     }
 
     public List<LibProperty<KnobAssignment>> assignments() {
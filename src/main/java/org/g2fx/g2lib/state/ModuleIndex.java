@@ -0,0 +1,184 @@
+package org.g2fx.g2lib.state;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Modules of an area in an array indexed by module index, with a bitset of used indexes
+ * for ordered iteration and free index allocation. Module indexes are 8-bit in the protocol.
+ */
+public class ModuleIndex extends AbstractCollection<PatchModule> {
+
+    public static final int MAX_INDEX = 0xff;
+
+    private final PatchModule[] modules = new PatchModule[MAX_INDEX + 1];
+    private final BitSet used = new BitSet(MAX_INDEX + 1);
+    private int size;
+    private final View view = new View();
+
+    /**
+     * Add or replace module at its index.
+     */
+    public void put(PatchModule m) {
+        int i = checkIndex(m.getIndex());
+        if (modules[i] == null) { size++; }
+        modules[i] = m;
+        used.set(i);
+    }
+
+    @Override
+    public boolean add(PatchModule m) {
+        put(m);
+        return true;
+    }
+
+    /**
+     * Module at INDEX, or null.
+     */
+    public PatchModule get(int index) {
+        return index < 0 || index > MAX_INDEX ? null : modules[index];
+    }
+
+    /**
+     * Remove module at INDEX, returning it or null.
+     */
+    public PatchModule removeIndex(int index) {
+        PatchModule m = get(index);
+        if (m != null) {
+            modules[index] = null;
+            used.clear(index);
+            size--;
+        }
+        return m;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof PatchModule m && get(m.getIndex()) == m && removeIndex(m.getIndex()) != null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof PatchModule m && get(m.getIndex()) == m;
+    }
+
+    /**
+     * Lowest index from 1 not in USED.
+     */
+    public static int nextFree(BitSet used) {
+        int i = used.nextClearBit(1);
+        if (i > MAX_INDEX) { throw new IllegalStateException("No free module index"); }
+        return i;
+    }
+
+    /**
+     * Ordered by index, without iterator.
+     */
+    @Override
+    public void forEach(Consumer<? super PatchModule> action) {
+        for (int i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+            action.accept(modules[i]);
+        }
+    }
+
+    /**
+     * Modules mapped by F, ordered by index.
+     */
+    public <T> List<T> map(Function<? super PatchModule, T> f) {
+        List<T> ts = new ArrayList<>(size);
+        forEach(m -> ts.add(f.apply(m)));
+        return ts;
+    }
+
+    @Override
+    public Iterator<PatchModule> iterator() {
+        return new Iterator<>() {
+            private int next = used.nextSetBit(0);
+            private int last = -1;
+            @Override public boolean hasNext() { return next >= 0; }
+            @Override public PatchModule next() {
+                if (next < 0) { throw new NoSuchElementException(); }
+                last = next;
+                next = used.nextSetBit(next + 1);
+                return modules[last];
+            }
+            @Override public void remove() {
+                if (last < 0) { throw new IllegalStateException(); }
+                removeIndex(last);
+                last = -1;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(modules, null);
+        used.clear();
+        size = 0;
+    }
+
+    /**
+     * Read-only view, tracking this index.
+     */
+    public View view() {
+        return view;
+    }
+
+    /**
+     * Read-only view of the modules, as handed out by areas so that
+     * changes go through them and invalidate encoded sections.
+     */
+    public class View extends AbstractCollection<PatchModule> {
+
+        /**
+         * Module at INDEX, or null.
+         */
+        public PatchModule get(int index) {
+            return ModuleIndex.this.get(index);
+        }
+
+        /**
+         * Modules mapped by F, ordered by index.
+         */
+        public <T> List<T> map(Function<? super PatchModule, T> f) {
+            return ModuleIndex.this.map(f);
+        }
+
+        @Override
+        public void forEach(Consumer<? super PatchModule> action) {
+            ModuleIndex.this.forEach(action);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return ModuleIndex.this.contains(o);
+        }
+
+        @Override
+        public Iterator<PatchModule> iterator() {
+            Iterator<PatchModule> i = ModuleIndex.this.iterator();
+            return new Iterator<>() {
+                @Override public boolean hasNext() { return i.hasNext(); }
+                @Override public PatchModule next() { return i.next(); }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static int checkIndex(int index) {
+        if (index < 0 || index > MAX_INDEX) {
+            throw new IllegalArgumentException("Invalid module index: " + index);
+        }
+        return index;
+    }
+}
@@ -3,10 +3,7 @@ package org.g2fx.g2lib.state;
 import org.g2fx.g2lib.protocol.FieldValues;
 import org.g2fx.g2lib.protocol.Protocol;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.*;
 import java.util.stream.IntStream;
 
 public class MorphParameters {
@@ -14,6 +11,13 @@ public class MorphParameters {
 
     public record MorphParam(int morph, int range) { }
 
+    private record ParamKey(int area, int module, int param) { }
+
+    /**
+     * Per-variation index of {@link #varMorphs}, built as entries are read.
+     */
+    private final Map<Integer,Map<ParamKey,MorphParam>> varIndex = new HashMap<>();
+
     /**
      * {@link org.g2fx.g2lib.protocol.Protocol.MorphParameters} field values
      */
@@ -28,7 +32,7 @@ public class MorphParameters {
         this.fvs = fvs.copy();
         this.fvs.update(Protocol.MorphParameters.VarMorphs.value(fvss));
         this.fvs.update(Protocol.MorphParameters.VariationCount.value(PatchModule.MAX_VARIATIONS));
-        fvss.forEach(vm -> varMorphs.put(Protocol.VarMorph.Variation.intValue(vm),
+        fvss.forEach(vm -> putVarMorphs(Protocol.VarMorph.Variation.intValue(vm),
                 Protocol.VarMorph.VarMorphParams.subfieldsValue(vm)));
     }
 
@@ -41,6 +45,22 @@ public class MorphParameters {
                         IntStream.range(0,10).mapToObj(MorphParameters::mkDefaultVarMorph).toList())));
     }
 
+    private void putVarMorphs(int variation, List<FieldValues> vmps) {
+        varMorphs.put(variation, vmps);
+        Map<ParamKey,MorphParam> index = HashMap.newHashMap(vmps.size());
+        for (FieldValues kp : vmps) {
+            index.put(key(kp), new MorphParam(Protocol.VarMorphParam.Morph.intValue(kp),
+                    Protocol.VarMorphParam.Range.intValue(kp)));
+        }
+        varIndex.put(variation, index);
+    }
+
+    private static ParamKey key(FieldValues kp) {
+        return new ParamKey(Protocol.VarMorphParam.Location.intValue(kp),
+                Protocol.VarMorphParam.ModuleIndex.intValue(kp),
+                Protocol.VarMorphParam.ParamIndex.intValue(kp));
+    }
+
     private static FieldValues mkDefaultVarMorph(int i) {
         return Protocol.VarMorph.FIELDS.values(
                 Protocol.VarMorph.Variation.value(i),
@@ -54,21 +74,17 @@ public class MorphParameters {
     }
 
     public MorphParam getMorphParam(int variation, AreaId area, int module, int param) {
-        List<FieldValues> vm = varMorphs.get(variation);
-        if (vm == null) { throw new IllegalArgumentException("Invalid variation: " + variation); }
-        for (FieldValues kp : vm) {
-            if (area.ordinal() == Protocol.VarMorphParam.Location.intValue(kp) &&
-                    module == Protocol.VarMorphParam.ModuleIndex.intValue(kp) &&
-                    param == Protocol.VarMorphParam.ParamIndex.intValue(kp)) {
-                return new MorphParam(Protocol.VarMorphParam.Morph.intValue(kp),
-                        Protocol.VarMorphParam.Range.intValue(kp));
-            }
-        }
-        return null;
+        return getIndex(variation).get(new ParamKey(area.ordinal(), module, param));
+    }
+
+    private Map<ParamKey,MorphParam> getIndex(int variation) {
+        Map<ParamKey,MorphParam> index = varIndex.get(variation);
+        if (index == null) { throw new IllegalArgumentException("Invalid variation: " + variation); }
+        return index;
     }
 
     public Map<Integer, List<FieldValues>> getVarMorphs() {
-        return varMorphs;
+        return Collections.unmodifiableMap(varMorphs);
     }
 
     public FieldValues getFieldValues(int variationCount) {
@@ -23,8 +23,9 @@ public class ParamValues {
     /**
      * @param values list of {@link Protocol.VarParams} field values,
      *               size {@link PatchModule#MAX_VARIATIONS}
+     * @param onChange run after any param value changes
      */
-    public ParamValues(List<FieldValues> values, UsbSlotSender sender, AreaId area,int index) {
+    public ParamValues(List<FieldValues> values, UsbSlotSender sender, AreaId area, int index, Runnable onChange) {
         log = Util.getLogger(getClass(),area,index);
         this.values = values;
         props = mapWithIndex(values,(vfv,var) ->
@@ -36,15 +37,13 @@ public class ParamValues {
                         }
                         @Override
                         public void set(Integer newValue) {
-                            fvs.update(Protocol.Data7.Datum.value(newValue));
+                            fvs.update(Protocol.Data7.Datum, newValue);
                         }
                     });
                     p.addListener((o,n) -> {
                         log.info(() -> "updateParam: " + param + " -> " + n);
-                        sender.sendSlotCommand("update-param",
-                                0x40, //S_SET_PARAM
-                                area.ordinal(), index, param, n, var
-                        );
+                        onChange.run();
+                        sender.sendSetParam(area.ordinal(), index, param, n, var);
                     });
                     return p;
                 }));
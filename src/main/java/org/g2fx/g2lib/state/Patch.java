@@ -12,8 +12,7 @@ import org.g2fx.g2lib.util.CRC16;
 import org.g2fx.g2lib.util.Util;
 
 import java.nio.ByteBuffer;
-import java.util.LinkedHashMap;
-import java.util.List;
+import java.util.*;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -46,6 +45,29 @@ public class Patch {
     });
 
     public final LinkedHashMap<Sections, Sections.Section> sections = new LinkedHashMap<>();
+
+    /**
+     * Sections whose backing state reports changes via {@link #markDirty(Sections)},
+     * and so can be written from cached bytes. The rest are small and always re-encoded.
+     */
+    private static final Set<Sections> CACHED_SECTIONS = EnumSet.of(
+            Sections.SModuleList1_4a, Sections.SModuleList0_4a,
+            Sections.SCableList1_52, Sections.SCableList0_52,
+            Sections.SPatchParams_4d, Sections.SModuleParams1_4d, Sections.SModuleParams0_4d,
+            Sections.SMorphParameters_65, Sections.SKnobAssignments_62,
+            Sections.SMorphLabels_5b, Sections.SModuleLabels1_5b, Sections.SModuleLabels0_5b,
+            Sections.SModuleNames1_5a, Sections.SModuleNames0_5a);
+
+    /**
+     * Last encoded bytes (type + length + [location] + values) of cached sections
+     * from live state by variation count, see {@link #writeMessage(BitBuffer, int)}.
+     * A missing section is dirty.
+     */
+    private final Map<Integer, Map<Sections, byte[]>> encodedMessages = new HashMap<>();
+    /**
+     * Last encoded bytes of cached stored sections, see {@link #writeFileSections}.
+     */
+    private final Map<Sections, byte[]> encodedFile = new EnumMap<>(Sections.class);
     private final LibProperty<String> name = new LibProperty<>("No name");
     private final Slot slot;
     private int version;
@@ -69,9 +91,9 @@ public class Patch {
         this.slot = slot;
         log = Util.getLogger(getClass(),slot);
         this.slotSender = new UsbSlotSender(sender,this);
-        voiceArea = new PatchArea(slot,AreaId.Voice,slotSender,this::updateVisuals);
-        fxArea = new PatchArea(slot,AreaId.Fx,slotSender,this::updateVisuals);
-        settingsArea = new PatchArea(slot,slotSender);
+        voiceArea = new PatchArea(slot,AreaId.Voice,slotSender,this::updateVisuals,this::markDirty);
+        fxArea = new PatchArea(slot,AreaId.Fx,slotSender,this::updateVisuals,this::markDirty);
+        settingsArea = new PatchArea(slot,slotSender,this::markDirty);
         visuals = new PatchVisuals(slot,voiceArea,fxArea);
         patchSettings = new PatchSettings(slot,slotSender);
     }
@@ -119,7 +141,9 @@ public class Patch {
         settingsArea.initSettingsParams();
         //user module params empty
         morphParams = new MorphParameters();
-        knobAssignments = new KnobAssignments(slot);
+        markDirty(Sections.SMorphParameters_65);
+        knobAssignments = new KnobAssignments(slot,() -> markDirty(Sections.SKnobAssignments_62));
+        markDirty(Sections.SKnobAssignments_62);
         controls = new ControlAssignments();
         settingsArea.initMorphLabels();
         //module labels empty
@@ -202,20 +226,26 @@ public class Patch {
     public static Patch readFromFile(Slot slot, String filePath, UsbSender sender) throws Exception {
         ByteBuffer fileBuffer = verifyFileHeader(filePath, HEADER);
 
-        ByteBuffer slice = fileBuffer.slice();
-        int crc = CRC16.crc16(slice,0,slice.limit()-2);
-
         Patch patch = new Patch(slot, sender);
         Util.expectWarn(patch.log, fileBuffer,0x17,filePath,"header terminator");
         patch.setVersion(fileBuffer.get());
 
         patch.readFileSections(fileBuffer);
 
-        int fcrc = Util.getShort(fileBuffer);
-        if (fcrc != crc) {
-            throw new RuntimeException(String.format("CRC mismatch: %x %x",crc,fcrc));
-        }
+        return patch;
+    }
 
+    /**
+     * Read outbound patch create message (see {@link #writeMessage()}) after its header.
+     */
+    // emulator
+    public static Patch readFromCreateMessage(Slot slot, int version, ByteBuffer buf, UsbSender sender) {
+        Patch patch = new Patch(slot, sender);
+        patch.setVersion(version);
+        BitBuffer bb = new BitBuffer(buf.slice());
+        patch.name.set(Protocol.EntryName.Name.stringValue(Protocol.EntryName.FIELDS.read(bb)));
+        buf.position(buf.position() + bb.getBytePosition());
+        patch.readFileSections(buf);
         return patch;
     }
 
@@ -228,15 +258,25 @@ public class Patch {
     }
 
 
+    /**
+     * Read file at FILE_PATH, verifying HEADER and the CRC trailer in one pass over the file.
+     * Returns the file data after the header, limited before the CRC.
+     */
+    // file-patch, file-perf
     public static ByteBuffer verifyFileHeader(String filePath, ByteBuffer header) throws Exception {
-        ByteBuffer fileBuffer = Util.readFile(filePath);
-        withSliceAhead(fileBuffer, header.limit(), buf -> {
-            if (!header.rewind().equals(buf.rewind())) {
-                throw new RuntimeException("Unexpected file header: " + Util.dumpBufferString(buf));
-            }
-            return true;
-        });
-        return fileBuffer;
+        ByteBuffer fileBuffer = Util.fileBuffer(filePath);
+        int start = header.limit();
+        int end = fileBuffer.limit() - 2;
+        if (end < start || !header.duplicate().rewind().equals(fileBuffer.slice(0, start))) {
+            throw new RuntimeException("Unexpected file header: " +
+                    Util.dumpBufferString(fileBuffer.slice(0, Math.min(start, fileBuffer.limit()))));
+        }
+        int crc = CRC16.crc16(fileBuffer, start, end - start);
+        int fcrc = Util.addb(fileBuffer.get(end), fileBuffer.get(end + 1));
+        if (fcrc != crc) {
+            throw new RuntimeException(String.format("CRC mismatch: %s: %x %x", filePath, crc, fcrc));
+        }
+        return fileBuffer.limit(end).position(start);
     }
 
 
@@ -274,25 +314,93 @@ public class Patch {
 
 
 
+    /**
+     * Write inbound patch description from current state, as the device answers
+     * a patch request, i.e. {@link Sections#MSG_SECTIONS} following the message header.
+     */
+    // emulator
+    public void writeDescriptionMessage(ByteBuffer buf) throws Exception {
+        for (Sections s : Sections.MSG_SECTIONS) {
+            writeLiveSection(buf, s);
+            if (s == Sections.SPatchDescription_21) {
+                buf.put(Util.asBytes(0x2d,0x00));
+            }
+        }
+    }
+
+    /**
+     * Write section S from live state, as type + length + values.
+     */
+    // emulator
+    public void writeLiveSection(ByteBuffer buf, Sections s) throws Exception {
+        Sections.writeSection(buf, s, getSectionValues(s, PatchModule.MAX_VARIATIONS));
+    }
+
+    /**
+     * Invalidate encoded bytes of S after a change to its backing state.
+     */
+    public void markDirty(Sections s) {
+        encodedFile.remove(s);
+        for (Map<Sections, byte[]> m : encodedMessages.values()) {
+            m.remove(s);
+        }
+    }
+
+    /**
+     * Drop all cached encodings, so the next write encodes every section.
+     */
+    public void clearEncodings() {
+        encodedFile.clear();
+        encodedMessages.clear();
+    }
+
     /**
      * write patch message to existing bitbuffer. TODO same as sending patch?
+     * Cached sections are copied from their last encoding unless dirty.
      */
     public void writeMessage(BitBuffer bb, int variationCount) throws Exception {
+        Map<Sections, byte[]> encoded = encodedMessages.computeIfAbsent(variationCount,
+                _ -> new EnumMap<>(Sections.class));
         for (Sections s : Sections.FILE_SECTIONS) {
-            bb.put(8,s.type);
-            int lpos = bb.getBytePosition();
-            bb.put(16,0);
-            int ss = bb.getBytePosition();
-            s.writeLocation(bb);
-            FieldValues fvs = getSectionValues(s,variationCount);
-            fvs.write(bb);
-            int len = bb.getBytePosition() - ss;
-            bb.writeLength(lpos, len);
-            log.info(() -> String.format("writeMessage: %s, length %x",s,len));
-            bb.padToByte();
+            boolean aligned = (bb.getBitPosition() & 7) == 0;
+            byte[] bs = encoded.get(s);
+            if (bs != null && aligned) {
+                bb.put(bs);
+                continue;
+            }
+            int start = bb.getBytePosition();
+            writeMessageSection(bb, s, variationCount);
+            if (aligned && CACHED_SECTIONS.contains(s)) {
+                encoded.put(s, copyBytes(bb.toBuffer(), start, bb.getBytePosition()));
+            }
         }
     }
 
+    private void writeMessageSection(BitBuffer bb, Sections s, int variationCount) throws Exception {
+        bb.put(8,s.type);
+        int lpos = bb.getBytePosition();
+        bb.put(16,0);
+        int ss = bb.getBytePosition();
+        s.writeLocation(bb);
+        FieldValues fvs = getSectionValues(s,variationCount);
+        fvs.write(bb);
+        int len = bb.getBytePosition() - ss;
+        bb.writeLength(lpos, len);
+        log.info(() -> String.format("writeMessage: %s, length %x",s,len));
+        bb.padToByte();
+    }
+
+    private static byte[] copyBytes(ByteBuffer buf, int start, int end) {
+        byte[] bs = new byte[end - start];
+        buf.get(start, bs);
+        return bs;
+    }
+
+
+    /**
+     * Slot requests sent by {@link #sendPatch()}.
+     */
+    public static final int SEND_PATCH_MESSAGES = 3;
 
     public void sendPatch() throws Exception {
         log.info("sendPerf");
@@ -301,6 +409,24 @@ public class Patch {
         sendSelectedParamRequest();
     }
 
+    /**
+     * Send section S from live state as a slot request, see {@link PatchDiff}.
+     */
+    void sendSection(Sections s) throws Exception {
+        slotSender.sendSectionMessage(new Sections.Section(s, getSectionValues(s, PatchModule.MAX_VARIATIONS)));
+    }
+
+    /**
+     * Send patch name as a slot request, see {@link PatchDiff}.
+     */
+    void sendName() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(32);
+        buf.put((byte) O_SET_PATCH_NAME);
+        BitBuffer bb = new BitBuffer(buf);
+        Protocol.EntryName.FIELDS.values(Protocol.EntryName.Name.value(name().get())).write(bb);
+        slotSender.sendSlotRequest("sendName", bb.toBuffer());
+    }
+
     public ByteBuffer writeMessage() throws Exception {
         ByteBuffer buf = ByteBuffer.allocate(0xffff);
         buf.put(Util.asBytes(
@@ -319,7 +445,7 @@ public class Patch {
         return bb.toBuffer();
     }
 
-    private FieldValues getSectionValues(Sections s, int variationCount) {
+    FieldValues getSectionValues(Sections s, int variationCount) {
         return switch (s) {
             case SPatchDescription_21 -> patchSettings.values();
             case SModuleList1_4a -> voiceArea.getModuleListValues();
@@ -357,9 +483,21 @@ public class Patch {
         return buf;
     }
 
+    /**
+     * Write stored sections, copying cached sections from their last encoding unless dirty.
+     */
     public void writeFileSections(ByteBuffer buf) throws Exception {
         for (Sections s : Sections.FILE_SECTIONS) {
+            byte[] bs = encodedFile.get(s);
+            if (bs != null) {
+                buf.put(bs);
+                continue;
+            }
+            int start = buf.position();
             writeSection(buf,s);
+            if (CACHED_SECTIONS.contains(s)) {
+                encodedFile.put(s, copyBytes(buf, start, buf.position()));
+            }
         }
     }
 
@@ -404,6 +542,7 @@ public class Patch {
 
     private void updateSection(Sections s, Sections.Section section) {
         sections.put(s, section);
+        markDirty(s);
         log.info("updateSection: " + s);
         final FieldValues fvs = section.values();
         switch (s) {
@@ -422,7 +561,8 @@ public class Patch {
             case SCableList0_52 -> fxArea.addCables(fvs);
             case SCableList1_52 -> voiceArea.addCables(fvs);
             case SMorphLabels_5b -> settingsArea.setMorphLabels(fvs);
-            case SKnobAssignments_62 -> this.knobAssignments = new KnobAssignments(fvs,slot);
+            case SKnobAssignments_62 -> this.knobAssignments =
+                    new KnobAssignments(fvs,slot,() -> markDirty(Sections.SKnobAssignments_62));
             case SControlAssignments_60 -> this.controls = new ControlAssignments(fvs);
             case SMorphParameters_65 -> this.morphParams = new MorphParameters(fvs);
             case SPatchName_27 -> this.name.set(Protocol.EntryName.Name.stringValue(fvs));
@@ -544,13 +684,7 @@ public class Patch {
 
     public void initialize() throws Exception {
         sendSlotVersionRequest();
-        sendSlotPatchRequest();
-        sendSlotNameRequest();
-        sendSlotCurrentNoteRequest();
-        sendSlotTextRequest();
-        sendSlotResourcesRequests();
-        sendPatchLoadResponse();
-        sendSelectedParamRequest();
+        loadFromDevice();
     }
 
     public void sendSlotVersionRequest() throws Exception {
@@ -10,11 +10,12 @@ import org.g2fx.g2lib.protocol.Protocol;
 import org.g2fx.g2lib.protocol.Sections;
 import org.g2fx.g2lib.usb.UsbSlotSender;
 import org.g2fx.g2lib.util.BitBuffer;
+import org.g2fx.g2lib.util.DirectBufferPool;
 import org.g2fx.g2lib.util.Util;
 
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,10 +32,14 @@ public class PatchArea {
     public final AreaId id;
     private final UsbSlotSender sender;
     private final Runnable updateVisuals;
+    /**
+     * Invalidates encoded patch sections on changes, see {@link Patch#markDirty(Sections)}.
+     */
+    private final Consumer<Sections> markDirty;
     private final Logger log;
 
-    private final Map<Integer,PatchModule> modules = new TreeMap<>();
-    private final List<PatchCable> cables = new ArrayList<>();
+    private final ModuleIndex modules = new ModuleIndex();
+    private final CableGraph cables = new CableGraph();
     private PatchLoadData patchLoadData = new PatchLoadData();
 
     private final LibProperty<ModuleDelta> dummyModuleAddProp =
@@ -48,23 +53,24 @@ public class PatchArea {
     /**
      * User module area constructor.
      */
-    public PatchArea(Slot slot, AreaId id, UsbSlotSender sender, Runnable updateVisuals) {
+    public PatchArea(Slot slot, AreaId id, UsbSlotSender sender, Runnable updateVisuals, Consumer<Sections> markDirty) {
         this.id = id;
         this.sender = sender;
         this.updateVisuals = updateVisuals;
+        this.markDirty = markDirty;
         this.log = Util.getLogger(getClass(),slot,id);
     }
 
     /**
      * Settings area constructor
      */
-    public PatchArea(Slot slot, UsbSlotSender sender) {
+    public PatchArea(Slot slot, UsbSlotSender sender, Consumer<Sections> markDirty) {
         this.sender = sender;
         this.id = AreaId.Settings;
+        this.markDirty = markDirty;
         this.log = Util.getLogger(getClass(),slot,id);
         Arrays.stream(SettingsModules.values()).forEach(sm -> {
-            PatchModule m = new PatchModule(sm,sender,id);
-            modules.put(m.getIndex(),m);
+            modules.put(new PatchModule(sm,sender,id,markDirty));
         });
         updateVisuals=()->{};
     }
@@ -73,6 +79,25 @@ public class PatchArea {
         updateVisuals.run();
     }
 
+    /**
+     * Mark this area's sections of the same types as SS dirty, e.g.
+     * {@link Sections#SModuleParams1_4d} is {@link Sections#SPatchParams_4d} for settings.
+     */
+    private void markDirty(Sections... ss) {
+        for (Sections s : ss) {
+            Sections as = Sections.forArea(s.type, id);
+            if (as != null) { markDirty.accept(as); }
+        }
+    }
+
+    /**
+     * Mark all of this area's sections dirty, after modules are added or removed.
+     */
+    private void markAllDirty() {
+        markDirty(Sections.SModuleList1_4a, Sections.SCableList1_52, Sections.SModuleParams1_4d,
+                Sections.SModuleLabels1_5b, Sections.SModuleNames1_5a);
+    }
+
     public LibProperty<ModuleDelta> getDummyModuleAddProp() {
         return dummyModuleAddProp;
     }
@@ -83,9 +108,8 @@ public class PatchArea {
 
 
     public void addVisuals(Visual.VisualType type, List<PatchVisual> visuals) {
-        for (PatchModule mod : modules.values()) {
-            visuals.addAll(type == Visual.VisualType.Led ? mod.getLeds() : mod.getMetersAndGroups());
-        }
+        modules.forEach(mod ->
+            visuals.addAll(type == Visual.VisualType.Led ? mod.getLeds() : mod.getMetersAndGroups()));
     }
 
 
@@ -94,8 +118,9 @@ public class PatchArea {
     }
 
     private PatchModule addModule(FieldValues fvs) {
-        PatchModule m = new PatchModule(fvs,sender,id);
-        modules.put(m.getIndex(),m);
+        PatchModule m = new PatchModule(fvs,sender,id,markDirty);
+        modules.put(m);
+        markDirty(Sections.SModuleList1_4a, Sections.SModuleNames1_5a);
         return m;
     }
 
@@ -105,8 +130,11 @@ public class PatchArea {
         throw new IllegalArgumentException("No such module: " + index);
     }
 
-    public Collection<PatchModule> getModules() {
-        return modules.values();
+    /**
+     * Modules by index, read-only.
+     */
+    public ModuleIndex.View getModules() {
+        return modules.view();
     }
 
     public PatchModule getSettingsModule(SettingsModules m) {
@@ -118,24 +146,27 @@ public class PatchArea {
                 .forEach(fvs -> getModule(
                         Protocol.ModuleParamSet.ModIndex.intValue(fvs))
                         .setParamValues(Protocol.ModuleParamSet.ModParams.subfieldsValue(fvs)));
+        markDirty(Sections.SModuleParams1_4d);
     }
 
     public void initSettingsParams() {
-        for (PatchModule m : modules.values()) {
+        for (PatchModule m : modules) {
             m.setDefaultParamValues();
         }
+        markDirty(Sections.SModuleParams1_4d);
 
     }
 
     public void addCable(FieldValues fvs) {
         cables.add(new PatchCable(fvs));
+        markDirty(Sections.SCableList1_52);
     }
 
     public void addCables(FieldValues cableListFvs) {
         Protocol.CableList.Cables.subfieldsValue(cableListFvs).forEach(this::addCable);
     }
 
-    public List<PatchCable> getCables() {
+    public CableGraph getCables() {
         return cables;
     }
 
@@ -144,6 +175,7 @@ public class PatchArea {
             getModule(Protocol.ModuleLabel.ModuleIndex.intValue(ml))
                     .setUserLabels(Protocol.ModuleLabel.Labels.subfieldsValue(ml))
         );
+        markDirty(Sections.SModuleLabels1_5b);
     }
 
     public void setModuleNames(FieldValues fv) {
@@ -152,10 +184,12 @@ public class PatchArea {
             m.setModuleName(mn);
             log.info(() -> "setModuleName: " + m.getIndex() + ", " + m.getUserModuleData().getType() + ", " + m.name().get());
         });
+        markDirty(Sections.SModuleNames1_5a);
     }
 
     public void setMorphLabels(FieldValues values) {
         getSettingsModule(SettingsModules.Morphs).setMorphLabels(values);
+        markDirty(Sections.SModuleLabels1_5b);
     }
 
     public void initMorphLabels() {
@@ -233,9 +267,16 @@ public class PatchArea {
             cables.add(c);
             newCables.add(c);
         }
+        markAllDirty();
 
-        //assemble message
-        BitBuffer bb = new BitBuffer();
+        sendPooled("add-modules", bb -> writeAddModules(bb, md, pms));
+        return new CreateResult(pms,newCables);
+    }
+
+    /**
+     * Assemble add-modules message for PMS and the cables of MD.
+     */
+    private ByteBuffer writeAddModules(BitBuffer bb, ModuleDelta md, List<PatchModule> pms) throws Exception {
         for (PatchModule pm : pms) {
             UserModuleData umd = pm.getUserModuleData();
             Protocol.ModuleAdd.FIELDS.init().addAll(
@@ -283,16 +324,14 @@ public class PatchArea {
                         Protocol.ModuleNames.Names.value(pms.stream().map(m -> Protocol.ModuleName.FIELDS.values(
                                 Protocol.ModuleName.ModuleIndex.value(m.getIndex()),
                                 Protocol.ModuleName.Name.value(m.name().get()))).toList())));
-        buf.limit(buf.position());
-        sender.sendSlotRequest("add-modules",buf);
-        return new CreateResult(pms,newCables);
+        return buf.limit(buf.position());
     }
 
     public FieldValues getModuleListValues() {
         return Protocol.ModuleList.FIELDS.values(
                 Protocol.ModuleList.ModuleCount.value(modules.size()),
-                Protocol.ModuleList.Modules.value(modules.values().stream().map(pm ->
-                        pm.getUserModuleData().getValues()).toList())
+                Protocol.ModuleList.Modules.value(modules.map(pm ->
+                        pm.getUserModuleData().getValues()))
                         );
     }
 
@@ -306,7 +345,7 @@ public class PatchArea {
 
     public FieldValues getParamsValues(int variationCount) {
         List<FieldValues> fvss = new ArrayList<>();
-        for (PatchModule m : modules.values()) {
+        for (PatchModule m : modules) {
             FieldValues pvs = m.getParamsValues(variationCount);
             if (pvs != null) { fvss.add(pvs); }
         }
@@ -323,7 +362,7 @@ public class PatchArea {
 
     public FieldValues getModuleLabelValues() {
         List<FieldValues> fvss = new ArrayList<>();
-        for (PatchModule m : modules.values()) {
+        for (PatchModule m : modules) {
             FieldValues vs = m.getModuleLabelsValues();
             if (vs != null) { fvss.add(vs); }
         }
@@ -337,12 +376,12 @@ public class PatchArea {
                 Protocol.ModuleNames.Reserved.value(0), // legacy init: A:1,1 B:21,8 C:1,0 D:0,0
                 Protocol.ModuleNames.NameCount.value(modules.size()),
                 Protocol.ModuleNames.Names.value(
-                        modules.values().stream().map(m ->
+                        modules.map(m ->
                                         Protocol.ModuleName.FIELDS.values(
                                                 Protocol.ModuleName.ModuleIndex.value(m.getIndex()),
                                                 Protocol.ModuleName.Name.value(m.name().get())
                                         )
-                                ).toList()
+                                )
                 )
         );
     }
@@ -352,7 +391,7 @@ public class PatchArea {
         List<ModuleDelta.UserModuleRecord> umrs = idxs.stream().map(i ->
                 new ModuleDelta.UserModuleRecord(getModule(i))).toList();
         List<FieldValues> newCables = new ArrayList<>();
-        for (PatchCable cable : cables) {
+        for (PatchCable cable : cables.touching(idxs)) {
             if (idxs.contains(cable.getSrcModule()) && idxs.contains(cable.getDestModule())) {
                 newCables.add(cable.getFieldValues().copy());
             }
@@ -364,10 +403,8 @@ public class PatchArea {
         List<ModuleDelta.UserModuleRecord> umrs = idxs.stream().map(i ->
                 new ModuleDelta.UserModuleRecord(getModule(i))).toList();
         List<FieldValues> cutCables = new ArrayList<>();
-        for (PatchCable cable : cables) {
-            if (idxs.contains(cable.getSrcModule()) || idxs.contains(cable.getDestModule())) {
-                cutCables.add(ModuleDelta.invertCable(cable.getFieldValues()));
-            }
+        for (PatchCable cable : cables.touching(idxs)) {
+            cutCables.add(ModuleDelta.invertCable(cable.getFieldValues()));
         }
         return new ModuleDelta(umrs,cutCables,false);
     }
@@ -375,9 +412,25 @@ public class PatchArea {
 
 
     public void deleteModules(ModuleDelta md) throws Exception {
-        md.modules().forEach(mr -> modules.remove(mr.getIndex()));
-        md.cables().forEach(mdc -> cables.removeIf(c -> mdc.equals(c.getFieldValues())));
-        BitBuffer bb = new BitBuffer();
+        md.modules().forEach(mr -> removeModule(mr.getIndex()));
+        sendPooled("deleteModules", bb -> writeDeleteModules(bb, md));
+        sendAreaResourcesRequest();
+    }
+
+    /**
+     * Remove module at INDEX and its cables without sending.
+     */
+    // emulator
+    public void removeModule(int index) {
+        modules.removeIndex(index);
+        cables.removeModule(index);
+        markAllDirty();
+    }
+
+    /**
+     * Assemble delete message for the cables and modules of MD.
+     */
+    private ByteBuffer writeDeleteModules(BitBuffer bb, ModuleDelta md) throws Exception {
         forEach(md.cables(), mdc -> {
             Connector.ConnDir destConnType = Protocol.Cable.Direction.booleanIntValue(mdc) ? Out : In;
             Protocol.DeleteCable.FIELDS.values(
@@ -397,8 +450,17 @@ public class PatchArea {
             bb.put(8,id.ordinal());
             bb.put(8,mr.getIndex());
         });
-        sender.sendSlotRequest("deleteModules",bb.toBuffer());
-        sendAreaResourcesRequest();
+        return bb.toBuffer();
+    }
+
+    /**
+     * Assemble a message into a pooled buffer with WRITER and send it as slot request MSG,
+     * releasing the buffer once sent, see {@link org.g2fx.g2lib.usb.UsbSender#sendBulk}.
+     */
+    private void sendPooled(String msg, Util.ThrowingFunction<BitBuffer, ByteBuffer> writer) throws Exception {
+        try (DirectBufferPool.Lease lease = DirectBufferPool.SHARED.acquire(0xffff)) {
+            sender.sendSlotRequest(msg, writer.invoke(new BitBuffer(lease.buffer())));
+        }
     }
 
     public void sendAreaResourcesRequest() throws Exception {
@@ -406,6 +468,7 @@ public class PatchArea {
     }
 
     public void execCableDelta(CableDelta<CableIndex> d) throws Exception {
+        markDirty(Sections.SCableList1_52);
         if (d.add()) {
             execAddCable(d);
         } else {
@@ -417,36 +480,34 @@ public class PatchArea {
         // collect removes
         List<PatchCable> remove = new ArrayList<>();
         // hypothesis that dynamic modules going unconnected drives load request seen in regression 11
-        Map<Integer,Long> moduleCableCount = new HashMap<>();
-        // walk cables to search for removes and color changes. deletes are small so quadratic ok ...
-        cables.forEach(c -> {
-            // compute cable-conn count by module
-            moduleCableCount.compute(c.getSrcModule(),(_,cc) -> cc == null ? 1 : cc+1);
-            moduleCableCount.compute(c.getDestModule(),(_,cc) -> cc == null ? 1 : cc+1);
-            // match with remove cables
-            d.cables().forEach(ci -> { if (ci.match(c)) {
-                remove.add(c);
-                //decrement if dynamic
-                if (ci.srcConn().bandwidth()== Connector.Bandwidth.Dynamic) {
-                    moduleCableCount.computeIfPresent(c.getSrcModule(), (_, cc) -> --cc);
-                }
-                if (ci.destConn().bandwidth()== Connector.Bandwidth.Dynamic) {
-                    moduleCableCount.computeIfPresent(c.getDestModule(), (_, cc) -> --cc);
-                }
-            }});
-
-            d.colorChanges().forEach((ci,cc)->{
-                if (ci.match(c)) { c.setColor(cc); }
-            });
-        });
+        Map<Integer,Integer> moduleCableCount = new HashMap<>();
+        d.cables().forEach(ci -> cables.matching(ci).forEach(c -> {
+            remove.add(c);
+            //decrement cable-conn count by module if dynamic
+            if (ci.srcConn().bandwidth()== Connector.Bandwidth.Dynamic) {
+                moduleCableCount.merge(c.getSrcModule(), cables.degree(c.getSrcModule()) - 1, (cc, _) -> cc - 1);
+            }
+            if (ci.destConn().bandwidth()== Connector.Bandwidth.Dynamic) {
+                moduleCableCount.merge(c.getDestModule(), cables.degree(c.getDestModule()) - 1, (cc, _) -> cc - 1);
+            }
+        }));
+        d.colorChanges().forEach((ci,cc) -> cables.matching(ci).forEach(c -> c.setColor(cc)));
         // module counts decremented to 0 triggers request load
-        AtomicReference<Boolean> requestLoad = new AtomicReference<>(false);
-        moduleCableCount.values().forEach(cc -> {if (cc==0) requestLoad.set(true);});
+        boolean requestLoad = moduleCableCount.containsValue(0);
 
         updateModuleUprates(d);
 
         cables.removeAll(remove);
-        BitBuffer bb = new BitBuffer();
+        sendPooled("delete cable", bb -> writeDeleteCables(bb, remove, d));
+        if (requestLoad) {
+            sendAreaResourcesRequest();
+        }
+    }
+
+    /**
+     * Assemble delete message for REMOVE with uprate changes of D.
+     */
+    private ByteBuffer writeDeleteCables(BitBuffer bb, List<PatchCable> remove, CableDelta<CableIndex> d) throws Exception {
         // write deletes
         forEach(remove, c->{
             Connector.ConnDir destConnType = c.getDirection() ? Out : In;
@@ -463,10 +524,7 @@ public class PatchArea {
             ).write(bb);
         });
         writeUprates(d, bb);
-        sender.sendSlotRequest("delete cable",bb.toBuffer());
-        if (requestLoad.get()) {
-            sendAreaResourcesRequest();
-        }
+        return bb.toBuffer();
     }
 
     private void writeUprates(CableDelta<CableIndex> d, BitBuffer bb) throws Exception {
@@ -484,23 +542,18 @@ public class PatchArea {
     }
 
     private void execAddCable(CableDelta<CableIndex> d) throws Exception {
-        // hypothesis is that dynamic module becoming connected triggers load request per regression 11
-        Set<Integer> modulesWithoutCables = new HashSet<>(modules.keySet());
         // do color changes
-        cables.forEach(c -> {
-            modulesWithoutCables.remove(c.getSrcModule());
-            modulesWithoutCables.remove(c.getDestModule());
-            d.colorChanges().forEach((ci,cc)-> {
-                if (ci.match(c)) c.setColor(cc);
-            });
-        });
+        d.colorChanges().forEach((ci,cc) -> cables.matching(ci).forEach(c -> c.setColor(cc)));
 
-        AtomicReference<Boolean> requestLoad = new AtomicReference<>(false);
-        cables.addAll(d.cables().stream().map(ci -> {
+        // hypothesis is that dynamic module becoming connected triggers load request per regression 11
+        boolean requestLoad = false;
+        for (CableIndex ci : d.cables()) {
             // look for cable-less module add with dynamic connector
-            requestLoad.set(requestLoad.get() ||
-                    (modulesWithoutCables.contains(ci.srcModule()) && ci.srcConn().bandwidth()== Connector.Bandwidth.Dynamic) ||
-                    (modulesWithoutCables.contains(ci.destModule()) && ci.destConn().bandwidth()== Connector.Bandwidth.Dynamic));
+            requestLoad = requestLoad ||
+                    (cables.degree(ci.srcModule()) == 0 && ci.srcConn().bandwidth()== Connector.Bandwidth.Dynamic) ||
+                    (cables.degree(ci.destModule()) == 0 && ci.destConn().bandwidth()== Connector.Bandwidth.Dynamic);
+        }
+        cables.addAll(d.cables().stream().map(ci -> {
             // build add cable
             return new PatchCable(Protocol.Cable.FIELDS.values(
                     Protocol.Cable.Color.value(ci.color()),
@@ -512,7 +565,16 @@ public class PatchArea {
             ));
         }).toList());
         updateModuleUprates(d);
-        BitBuffer bb = new BitBuffer();
+        sendPooled("add cable", bb -> writeAddCables(bb, d));
+        if (requestLoad) {
+            sendAreaResourcesRequest();
+        }
+    }
+
+    /**
+     * Assemble add message for cables and uprate changes of D.
+     */
+    private ByteBuffer writeAddCables(BitBuffer bb, CableDelta<CableIndex> d) throws Exception {
         forEach(d.cables(),c-> Protocol.AddCable.FIELDS.values(
                 Protocol.AddCable.AddCable_50.value(0x50),
                 Protocol.AddCable.Reserved.value(1),
@@ -526,10 +588,7 @@ public class PatchArea {
                 Protocol.AddCable.DestConn.value(c.destConn().index())
                 ).write(bb));
         writeUprates(d,bb);
-        sender.sendSlotRequest("add cable",bb.toBuffer());
-        if (requestLoad.get()) {
-            sendAreaResourcesRequest();
-        }
+        return bb.toBuffer();
     }
 
 }
@@ -0,0 +1,306 @@
+package org.g2fx.g2lib.state;
+
+import org.g2fx.g2gui.module.ModuleDelta;
+import org.g2fx.g2lib.model.CableDelta;
+import org.g2fx.g2lib.model.Connector;
+import org.g2fx.g2lib.model.ModuleType;
+import org.g2fx.g2lib.protocol.Sections;
+import org.g2fx.g2lib.util.Util;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.g2fx.g2lib.model.CableDelta.CableIndex;
+import static org.g2fx.g2lib.state.PatchModule.MAX_VARIATIONS;
+
+/**
+ * Edit script turning a slot's current patch into another, e.g. a new version of it
+ * loaded from file: patch name, module deletes and adds, cable deletes and adds with
+ * uprates, mode sets, and param/name/label/description sections. Edits are applied to the
+ * current patch through the incremental edit commands, so the device ends up holding
+ * the new patch without a full {@link Patch#sendPatch()}. Edits are costed in slot
+ * requests sent, each a USB round trip.
+ * <p>
+ * Differences with no incremental command (module moves or colors,
+ * morphs, knob and control assignments, note, text) leave the diff with a
+ * {@link #blocker()}, requiring a full send.
+ */
+public class PatchDiff {
+
+    private static final Logger log = Util.getLogger(PatchDiff.class);
+
+    public sealed interface Edit {
+        /**
+         * Slot requests sent.
+         */
+        default int messages() { return 1; }
+    }
+
+    /**
+     * Module deletes, sent with a resources request.
+     */
+    public record DeleteModules(AreaId area, List<Integer> modules) implements Edit {
+        public int messages() { return 2; }
+    }
+
+    public record DeleteCables(AreaId area, List<PatchCable> cables) implements Edit { }
+
+    /**
+     * Module adds in one message with their params, labels and names.
+     */
+    public record AddModules(AreaId area, List<PatchModule> modules) implements Edit { }
+
+    /**
+     * Cable adds, and uprate changes of modules in both patches.
+     */
+    public record AddCables(AreaId area, List<PatchCable> cables, Map<Integer, Boolean> uprates) implements Edit { }
+
+    public record SetMode(AreaId area, int module, int mode, int value) implements Edit { }
+
+    /**
+     * Param values of an area sent as one params section, for CHANGED differing values.
+     */
+    public record SetParams(AreaId area, int changed) implements Edit { }
+
+    /**
+     * Section sent whole from the new patch, e.g. module names of an area.
+     */
+    public record SetSection(Sections section) implements Edit { }
+
+    /**
+     * Patch name, e.g. from the file name of a new version.
+     */
+    public record SetName(String name) implements Edit { }
+
+    private final List<Edit> edits = new ArrayList<>();
+    private String blocker;
+
+    private PatchDiff() { }
+
+    public List<Edit> edits() {
+        return edits;
+    }
+
+    /**
+     * Reason the diff cannot be applied incrementally, or null.
+     */
+    public String blocker() {
+        return blocker;
+    }
+
+    public boolean incremental() {
+        return blocker == null;
+    }
+
+    /**
+     * Slot requests sent by {@link #apply}, each a USB round trip.
+     */
+    public int messages() {
+        return edits.stream().mapToInt(Edit::messages).sum();
+    }
+
+    @Override
+    public String toString() {
+        if (blocker != null) { return "PatchDiff[blocked: " + blocker + "]"; }
+        Map<String, Integer> counts = new TreeMap<>();
+        edits.forEach(e -> counts.merge(e.getClass().getSimpleName(), 1, Integer::sum));
+        return "PatchDiff" + counts + ", " + messages() + " messages";
+    }
+
+    private PatchDiff block(String reason) {
+        if (blocker == null) { blocker = reason; }
+        return this;
+    }
+
+    /**
+     * Compute edit script turning FROM into TO.
+     */
+    public static PatchDiff diff(Patch from, Patch to) {
+        PatchDiff d = new PatchDiff();
+        if (from.getMorphParams() == null) {
+            return d.block("patch not loaded");
+        }
+        for (Sections s : new Sections[] { Sections.SMorphParameters_65, Sections.SKnobAssignments_62,
+                Sections.SControlAssignments_60, Sections.SCurrentNote_69, Sections.STextPad_6f }) {
+            if (!Objects.equals(from.getSectionValues(s, MAX_VARIATIONS), to.getSectionValues(s, MAX_VARIATIONS))) {
+                return d.block(s.toString());
+            }
+        }
+        for (AreaId a : AreaId.USER_AREAS) {
+            d.diffArea(from, to, a);
+            if (d.blocker != null) { return d; }
+        }
+        d.diffModules(from.getSettingsArea(), to.getSettingsArea(), from.getSettingsArea().getModules());
+        d.diffSection(from, to, Sections.SMorphLabels_5b);
+        d.diffSection(from, to, Sections.SPatchDescription_21);
+        if (!Objects.equals(from.name().get(), to.name().get())) {
+            d.edits.add(new SetName(to.name().get()));
+        }
+        return d;
+    }
+
+    private void diffArea(Patch from, Patch to, AreaId a) {
+        PatchArea fa = from.getArea(a);
+        PatchArea ta = to.getArea(a);
+        List<Integer> deletes = new ArrayList<>();
+        Set<Integer> deleted = new HashSet<>();
+        List<PatchModule> adds = new ArrayList<>();
+        List<PatchModule> common = new ArrayList<>();
+        for (PatchModule fm : fa.getModules()) {
+            PatchModule tm = ta.getModules().get(fm.getIndex());
+            if (tm == null || tm.getUserModuleData().getType() != fm.getUserModuleData().getType()) {
+                deletes.add(fm.getIndex());
+                deleted.add(fm.getIndex());
+            } else {
+                common.add(fm);
+            }
+        }
+        for (PatchModule tm : ta.getModules()) {
+            PatchModule fm = fa.getModules().get(tm.getIndex());
+            if (fm == null || deleted.contains(fm.getIndex())) { adds.add(tm); }
+        }
+        // module add carries no color
+        for (PatchModule tm : adds) {
+            if (tm.getUserModuleData().color().get() != 0) {
+                block("module color " + a + ":" + tm.getIndex());
+                return;
+            }
+        }
+
+        Map<Integer, Boolean> uprates = new TreeMap<>();
+        for (PatchModule fm : common) {
+            UserModuleData fd = fm.getUserModuleData();
+            UserModuleData td = ta.getModule(fm.getIndex()).getUserModuleData();
+            if (!fd.coords().get().equals(td.coords().get())) {
+                block("module move " + a + ":" + fm.getIndex());
+                return;
+            }
+            if (!fd.color().get().equals(td.color().get())) {
+                block("module color " + a + ":" + fm.getIndex());
+                return;
+            }
+            if (!fd.uprate().get().equals(td.uprate().get())) {
+                uprates.put(fm.getIndex(), td.uprate().get());
+            }
+            for (int i = 0; i < fd.getModes().size(); i++) {
+                int v = td.getModes().get(i).get();
+                if (fd.getModes().get(i).get() != v) {
+                    edits.add(new SetMode(a, fm.getIndex(), i, v));
+                }
+            }
+        }
+
+        // cables touching deleted modules go with them
+        Set<CableKey> toCables = new HashSet<>();
+        ta.getCables().forEach(c -> toCables.add(CableKey.of(c)));
+        Set<CableKey> fromCables = new HashSet<>();
+        List<PatchCable> cableDeletes = new ArrayList<>();
+        for (PatchCable c : fa.getCables()) {
+            fromCables.add(CableKey.of(c));
+            if (!toCables.contains(CableKey.of(c)) &&
+                    !deleted.contains(c.getSrcModule()) && !deleted.contains(c.getDestModule())) {
+                cableDeletes.add(c);
+            }
+        }
+        Set<Integer> added = new HashSet<>();
+        adds.forEach(m -> added.add(m.getIndex()));
+        List<PatchCable> cableAdds = ta.getCables().stream().filter(c ->
+                !fromCables.contains(CableKey.of(c)) || added.contains(c.getSrcModule()) ||
+                        added.contains(c.getDestModule())).toList();
+
+        if (!deletes.isEmpty()) { edits.add(new DeleteModules(a, deletes)); }
+        if (!cableDeletes.isEmpty()) { edits.add(new DeleteCables(a, cableDeletes)); }
+        if (!adds.isEmpty()) { edits.add(new AddModules(a, adds)); }
+        if (!cableAdds.isEmpty() || !uprates.isEmpty()) { edits.add(new AddCables(a, cableAdds, uprates)); }
+
+        diffModules(fa, ta, common);
+        if (common.stream().anyMatch(fm -> !Objects.equals(fm.name().get(),
+                ta.getModule(fm.getIndex()).name().get()))) {
+            edits.add(new SetSection(Sections.forArea(Sections.SModuleNames1_5a.type, a)));
+        }
+        if (common.stream().anyMatch(fm -> !Objects.equals(fm.getModuleLabelsValues(),
+                ta.getModule(fm.getIndex()).getModuleLabelsValues()))) {
+            edits.add(new SetSection(Sections.forArea(Sections.SModuleLabels1_5b.type, a)));
+        }
+    }
+
+    /**
+     * Params section for MODULES of FA present in TA, if any values differ.
+     */
+    private void diffModules(PatchArea fa, PatchArea ta, Collection<PatchModule> modules) {
+        int changed = 0;
+        for (PatchModule fm : modules) {
+            if (fm.getValues() == null) { continue; }
+            PatchModule tm = ta.getModule(fm.getIndex());
+            for (int v = 0; v < MAX_VARIATIONS; v++) {
+                List<Integer> fvs = fm.getVarValues(v);
+                List<Integer> tvs = tm.getVarValues(v);
+                for (int p = 0; p < fvs.size(); p++) {
+                    if (!fvs.get(p).equals(tvs.get(p))) { changed++; }
+                }
+            }
+        }
+        if (changed > 0) { edits.add(new SetParams(fa.id, changed)); }
+    }
+
+    private void diffSection(Patch from, Patch to, Sections s) {
+        if (!Objects.equals(from.getSectionValues(s, MAX_VARIATIONS), to.getSectionValues(s, MAX_VARIATIONS))) {
+            edits.add(new SetSection(s));
+        }
+    }
+
+    private record CableKey(int color, int srcModule, int srcConn, boolean direction, int destModule, int destConn) {
+        static CableKey of(PatchCable c) {
+            return new CableKey(c.getColor(), c.getSrcModule(), c.getSrcConn(), c.getDirection(),
+                    c.getDestModule(), c.getDestConn());
+        }
+    }
+
+    /**
+     * Apply edits to FROM, which sends them, leaving the device holding TO.
+     * TO takes over FROM's slot version.
+     */
+    public void apply(Patch from, Patch to) throws Exception {
+        if (blocker != null) { throw new IllegalStateException("Diff not incremental: " + blocker); }
+        log.info(() -> "apply: " + this);
+        to.setVersion(from.getVersion());
+        for (Edit e : edits) {
+            switch (e) {
+                case DeleteModules dm -> {
+                    PatchArea fa = from.getArea(dm.area());
+                    fa.deleteModules(fa.mkDeleteModuleDelta(dm.modules()));
+                }
+                case DeleteCables dc -> {
+                    PatchArea fa = from.getArea(dc.area());
+                    fa.execCableDelta(new CableDelta<>(
+                            dc.cables().stream().map(c -> cableIndex(fa, c)).toList(), false));
+                }
+                case AddModules am -> from.getArea(am.area()).createModules(new ModuleDelta(
+                        am.modules().stream().map(ModuleDelta.UserModuleRecord::new).toList(),
+                        List.of(), true));
+                case AddCables ac -> {
+                    PatchArea ta = to.getArea(ac.area());
+                    from.getArea(ac.area()).execCableDelta(new CableDelta<>(
+                            ac.cables().stream().map(c -> cableIndex(ta, c)).toList(), true,
+                            ac.uprates(), Map.of()));
+                }
+                case SetMode sm -> from.getArea(sm.area()).getModule(sm.module())
+                        .getUserModuleData().mode(sm.mode()).set(sm.value());
+                case SetParams sp -> to.sendSection(Sections.forArea(Sections.SModuleParams1_4d.type, sp.area()));
+                case SetSection ss -> to.sendSection(ss.section());
+                case SetName _ -> to.sendName();
+            }
+        }
+    }
+
+    /**
+     * Cable index of C with connectors from module types in AREA.
+     */
+    private static CableIndex cableIndex(PatchArea area, PatchCable c) {
+        ModuleType src = area.getModule(c.getSrcModule()).getUserModuleData().getType();
+        ModuleType dest = area.getModule(c.getDestModule()).getUserModuleData().getType();
+        Connector srcConn = (c.getDirection() ? src.outPorts : src.inPorts).get(c.getSrcConn());
+        return new CableIndex(c.getSrcModule(), srcConn, c.getDestModule(),
+                dest.inPorts.get(c.getDestConn()), c.getColor());
+    }
+}
@@ -1,8 +1,10 @@
 package org.g2fx.g2lib.state;
 
 import org.g2fx.g2lib.model.*;
+import org.g2fx.g2lib.protocol.FieldEnum;
 import org.g2fx.g2lib.protocol.FieldValues;
 import org.g2fx.g2lib.protocol.Protocol;
+import org.g2fx.g2lib.protocol.Sections;
 import org.g2fx.g2lib.usb.UsbSlotSender;
 import org.g2fx.g2lib.util.Util;
 
@@ -11,6 +13,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 public class PatchModule {
@@ -32,34 +35,56 @@ public class PatchModule {
     private List<LibProperty<String>> morphLabels; // settings
     private final List<PatchVisual> leds; // user, derived
     private final List<PatchVisual> metersAndGroups; // user, derivced
+    /**
+     * Invalidates encoded patch sections on value changes, see {@link Patch#markDirty(Sections)}.
+     */
+    private final Consumer<Sections> markDirty;
 
     /**
-     * User module constructor
+     * Detached user module constructor
      */
     public PatchModule(FieldValues userModuleFvs, UsbSlotSender sender, AreaId area) {
+        this(userModuleFvs, sender, area, _ -> {});
+    }
+
+    /**
+     * User module constructor
+     */
+    public PatchModule(FieldValues userModuleFvs, UsbSlotSender sender, AreaId area, Consumer<Sections> markDirty) {
         this.userModuleData = new UserModuleData(userModuleFvs,sender,area);
         this.sender = sender;
         this.area = area;
         this.index = userModuleData.getIndex();
         this.settingsModuleType = null;
+        this.markDirty = markDirty;
         log = Util.getLogger(getClass(),userModuleData.getType(),index);
         leds = initVisuals(Visual.VisualType.Led);
         metersAndGroups = initVisuals(null);
+        userModuleData.addChangeListener(() -> markDirty(Sections.SModuleList1_4a.type));
     }
 
     /**
      * Settings module constructor.
      */
-    public PatchModule(SettingsModules settingsModule, UsbSlotSender sender, AreaId area) {
+    public PatchModule(SettingsModules settingsModule, UsbSlotSender sender, AreaId area, Consumer<Sections> markDirty) {
         this.index = settingsModule.getModIndex();
         this.settingsModuleType = settingsModule;
         this.sender = sender;
         this.area = area;
         this.userModuleData = null;
+        this.markDirty = markDirty;
         log = Util.getLogger(getClass(), settingsModuleType,index);
         leds = metersAndGroups = new ArrayList<>();
     }
 
+    /**
+     * Mark section of TYPE in this module's area dirty.
+     */
+    private void markDirty(int type) {
+        Sections s = Sections.forArea(type, area);
+        if (s != null) { markDirty.accept(s); }
+    }
+
     public AreaId getArea() {
         return area;
     }
@@ -73,7 +98,7 @@ public class PatchModule {
         for (int i = varParams.size(); i < MAX_VARIATIONS; i++) {
             vps.add(ParamValues.mkDefaultParams(getDefaultParamValues(),i));
         }
-        values = new ParamValues(vps,sender,area,index);
+        values = new ParamValues(vps,sender,area,index,() -> markDirty(Sections.SModuleParams1_4d.type));
     }
 
     public List<Integer> getVarValues(int variation) {
@@ -119,11 +144,21 @@ public class PatchModule {
     public void setUserLabels(List<FieldValues> uls) {
         uls.forEach(fvs -> userLabels.put(Protocol.ParamLabels.ParamIndex.intValue(fvs),
                 Protocol.ParamLabels.Labels.subfieldsValue(fvs).stream().map(ls ->
-                        LibProperty.stringFieldProperty(ls, Protocol.ParamLabel.Label)).toList()));
+                        labelProperty(ls, Protocol.ParamLabel.Label)).toList()));
     }
 
     public void setModuleName(FieldValues mn) {
         this.name = LibProperty.stringFieldProperty(mn,Protocol.ModuleName.Name);
+        name.addListener((_,_) -> markDirty(Sections.SModuleNames1_5a.type));
+    }
+
+    /**
+     * Param or morph label property, dirtying the labels section on change.
+     */
+    private LibProperty<String> labelProperty(FieldValues fvs, FieldEnum f) {
+        LibProperty<String> p = LibProperty.stringFieldProperty(fvs, f);
+        p.addListener((_,_) -> markDirty(Sections.SModuleLabels1_5b.type));
+        return p;
     }
 
     public LibProperty<String> name() {
@@ -133,7 +168,7 @@ public class PatchModule {
     public void setMorphLabels(FieldValues values) {
         this.morphLabelFvs = values;
         this.morphLabels = Protocol.MorphLabels.Labels.subfieldsValue(morphLabelFvs).stream().map(fvs ->
-                LibProperty.stringFieldProperty(fvs, Protocol.MorphLabel.Label)).toList();
+                labelProperty(fvs, Protocol.MorphLabel.Label)).toList();
     }
 
     public LibProperty<String> getMorphLabel(int index) {
@@ -9,6 +9,7 @@ public class PatchVisual {
     private final String module;
     private final Visual visual;
     private final LibProperty<Integer> value = new LibProperty<>(0);
+    private volatile int index = -1;
 
     public PatchVisual(AreaId area, String module, Visual visual) {
         this.area = area;
@@ -41,4 +42,15 @@ public class PatchVisual {
         return visual;
     }
 
+    /**
+     * Slot-wide index into LED or meter stream/{@link VisualFrame}, or -1 if not indexed.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
 }
@@ -30,44 +30,43 @@ public class PatchVisuals {
         leds.clear();
         voiceArea.addVisuals(Visual.VisualType.Led,leds);
         fxArea.addVisuals(Visual.VisualType.Led,leds);
+        forEachIndexed(leds,(v,i) -> v.setIndex(i));
         log.info(() -> "leds: " + leds);
 
         metersAndGroups.clear();
         voiceArea.addVisuals(null,metersAndGroups);
         fxArea.addVisuals(null,metersAndGroups);
+        forEachIndexed(metersAndGroups,(v,i) -> v.setIndex(i));
         log.info(() -> "metersAndGroups: " + metersAndGroups);
     }
 
 
-    // usb
+    /**
+     * Visual stream on the lib executor, used when no fast lane ({@link VisualFrames})
+     * is installed, e.g. offline replay.
+     */
     public boolean readVolumeData(ByteBuffer buf) {
-        List<PatchVisual> updated = new ArrayList<>();
-        metersAndGroups.forEach(v -> {
+        int updated = 0;
+        for (PatchVisual v : metersAndGroups) {
             buf.get(); // unknown
-            int i = Util.b2i(buf.get());
-            if (v.update(i)) {
-                updated.add(v);
-            }
-        });
-        log.info(() -> "readVolumeData: " + updated);
+            if (v.update(Util.b2i(buf.get()))) { updated++; }
+        }
+        int u = updated;
+        log.fine(() -> "readVolumeData: updated " + u);
         return dispatchSuccess(() -> "readVolumeData");
     }
 
     // usb
     public boolean readLedData(ByteBuffer buf) {
         buf.get(); //unknown
-        ByteBuffer buf2 = buf.slice();
-        List<PatchVisual> updated = new ArrayList<>();
-        forEachIndexed(leds,(v,i) ->  {
-            int bi = Math.floorDiv(i,4);
-            int bm = Math.floorMod(i,4) * 2;
-            int b = (buf2.get(bi) & (0x03 << bm)) >>> bm;
-            //log.info(String.format("%s %s %s %s %s",i,bi,bm,b,Integer.toBinaryString(buf2.get(bi))));
-            if (v.update(b)) {
-                updated.add(v);
-            }
-        });
-        log.info(() -> "readLedData: " + updated);
+        int p = buf.position();
+        int updated = 0;
+        for (int i = 0; i < leds.size(); i++) {
+            int b = (buf.get(p + (i >>> 2)) >>> ((i & 3) * 2)) & 0x03;
+            if (leds.get(i).update(b)) { updated++; }
+        }
+        int u = updated;
+        log.fine(() -> "readLedData: updated " + u);
         return dispatchSuccess(() -> "readLedData");
     }
 
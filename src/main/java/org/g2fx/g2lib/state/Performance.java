@@ -14,6 +14,7 @@ import org.g2fx.g2lib.util.Util;
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -65,21 +66,25 @@ public class Performance {
         return version;
     }
 
+    /**
+     * Read perf file, decoding slots sequentially.
+     */
     public static Performance readFromFile(String filePath,UsbSender sender) throws Exception {
+        return readFromFile(filePath, sender, false);
+    }
+
+    /**
+     * Read perf file, decoding slots in PARALLEL on the common fork-join pool if set.
+     * The gain for four small slots is within noise on most machines, so callers opt in.
+     */
+    public static Performance readFromFile(String filePath,UsbSender sender,boolean parallel) throws Exception {
         ByteBuffer fileBuffer = verifyFileHeader(filePath, HEADER);
 
         Util.expectWarn(log, fileBuffer,0x17,filePath,"header terminator");
         Performance perf = new Performance(sender);
         perf.setVersion(fileBuffer.get());
         perf.readPerformanceSettings(fileBuffer);
-        for (Slot s : Slot.values()) {
-            Patch patch = new Patch(s, sender);
-            patch.setVersion(0); //TODO source?
-            patch.readFileSections(fileBuffer);
-            patch.name().set(perf.getPerfSettings().getSlotSettings(s).patchName().get());
-            perf.slots.put(s,patch);
-        }
-        perf.readGlobalKnobAssignmentsType(fileBuffer);
+        perf.readSlotsAndGlobalKnobs(fileBuffer, sender, parallel);
 
         String name = new File(filePath).getName();
         perf.perfName.set(name.substring(0,name.length()-".prf2".length()));
@@ -87,17 +92,94 @@ public class Performance {
         return perf;
     }
 
+    /**
+     * Read outbound perf create message (see {@link #sendPerf()}) after its header.
+     */
+    // emulator
+    public static Performance readFromCreateMessage(int version, ByteBuffer buf, UsbSender sender) {
+        Performance perf = new Performance(sender);
+        perf.setVersion(version);
+        perf.perfName.set(readEntryName(buf));
+        Util.expectWarn(log, buf, 0x1a, "message", "perf name");
+        Util.expectWarn(log, buf, Sections.SPerformanceName_29.type, "message", "perf name section");
+        readEntryName(buf); // repeated, no length
+        perf.readPerformanceSettings(buf);
+        perf.readSlotsAndGlobalKnobs(buf, sender, false);
+        return perf;
+    }
+
+    private static String readEntryName(ByteBuffer buf) {
+        BitBuffer bb = new BitBuffer(buf.slice());
+        String name = Protocol.EntryName.Name.stringValue(Protocol.EntryName.FIELDS.read(bb));
+        buf.position(buf.position() + bb.getBytePosition());
+        return name;
+    }
+
+    /**
+     * Slot sections are independent: scan section headers for each slot's range,
+     * then decode slots, in PARALLEL on the common fork-join pool if set.
+     */
+    // file-perf, emulator
+    private void readSlotsAndGlobalKnobs(ByteBuffer buf, UsbSender sender, boolean parallel) {
+        Map<Slot, ForkJoinTask<Patch>> decodes = new EnumMap<>(Slot.class);
+        for (Slot s : Slot.values()) {
+            ByteBuffer slotBuf = scanSlotSections(buf);
+            ForkJoinTask<Patch> decode = ForkJoinTask.adapt(() -> {
+                Patch patch = new Patch(s, sender);
+                patch.setVersion(0); //TODO source?
+                patch.readFileSections(slotBuf);
+                return patch;
+            });
+            decodes.put(s, parallel ? decode.fork() : decode);
+        }
+        readGlobalKnobAssignmentsType(buf);
+        decodes.forEach((s, decode) -> {
+            Patch patch = parallel ? decode.join() : decode.invoke();
+            patch.name().set(perfSettings.getSlotSettings(s).patchName().get());
+            slots.put(s,patch);
+        });
+    }
+
+    /**
+     * Slice of a patch's {@link Sections#FILE_SECTIONS} at BUF position, advancing BUF past them.
+     */
+    private static ByteBuffer scanSlotSections(ByteBuffer buf) {
+        int start = buf.position();
+        for (Sections ss : Sections.FILE_SECTIONS) {
+            int t = buf.get();
+            if (t != ss.type) {
+                throw new IllegalArgumentException(String.format("Section incorrect %s %x %x",ss,ss.type,t));
+            }
+            int length = Util.getShort(buf);
+            buf.position(buf.position() + length);
+        }
+        return buf.slice(start, buf.position() - start);
+    }
+
 
     public Patch readPatchFromFile(Slot slot, String path) throws Exception {
         Patch patch = Patch.readFromFile(slot,path,usb);
         String name = new File(path).getName();
         patch.name().set(name.substring(0,name.length()-".pch2".length()));
-        slots.put(slot, patch);
-        patch.sendPatch();
+        Patch current = slots.put(slot, patch);
+        if (!syncPatch(current, patch)) { patch.sendPatch(); }
         for (Patch p : slots.values()) { if (p!=patch) p.sendPatchLoadResponse(); }
         return patch;
     }
 
+    /**
+     * Bring the device from CURRENT to PATCH with a {@link PatchDiff} edit script,
+     * if incremental and sending no more slot requests than a full send.
+     */
+    private boolean syncPatch(Patch current, Patch patch) throws Exception {
+        if (current == null) { return false; }
+        PatchDiff diff = PatchDiff.diff(current, patch);
+        log.info(() -> "syncPatch: " + diff + ", full send " + Patch.SEND_PATCH_MESSAGES + " messages");
+        if (!diff.incremental() || diff.messages() > Patch.SEND_PATCH_MESSAGES) { return false; }
+        diff.apply(current, patch);
+        return true;
+    }
+
     /**
      * Read ahead perf settings.
      */
@@ -200,6 +282,15 @@ public class Performance {
         bb.writeLength(lpos, bb.getBytePosition()-ss);
     }
 
+    /**
+     * Write performance name + settings chunks, as the device answers a perf settings request.
+     */
+    // emulator
+    public void writeNameAndSettings(BitBuffer bb) throws Exception {
+        Protocol.EntryName.FIELDS.values(Protocol.EntryName.Name.value(perfName.get())).write(bb);
+        writeSection(bb, Sections.SPerformanceSettings_11, perfSettings.getFieldValues());
+    }
+
     /**
      * Read (ahead) performance name + settings chunks.
      */
@@ -275,6 +366,11 @@ public class Performance {
         return slots.get(slot);
     }
 
+    // emulator
+    public void setSlot(Slot slot, Patch patch) {
+        slots.put(slot, patch);
+    }
+
     public Patch getSelectedPatch() {
         if (perfSettings == null) { throw new IllegalStateException("Perf settings not initialized"); }
         return getSlot(getSelectedSlot());
@@ -303,7 +399,7 @@ public class Performance {
             m.put("slots",slots.values().stream().map(s ->
                 withYamlMap(sm -> sm.put("modules", withYamlMap(am ->
                     Arrays.stream(AreaId.USER_AREAS).sequential().forEach(a ->
-                        am.put(a.toString(),s.getArea(a).getModules().stream().map(pm -> withYamlMap(mm -> {
+                        am.put(a.toString(),s.getArea(a).getModules().map(pm -> withYamlMap(mm -> {
                             mm.put("index",pm.getIndex());
                             mm.put("name",pm.name().get());
                             ModuleType type = pm.getUserModuleData().getType();
@@ -323,7 +419,7 @@ public class Performance {
                                     }
                                 }));
                             }
-            })).toList())))))).toList())
+            })))))))).toList())
         );
         ObjectMapper mapper = Util.mkYamlMapper();
         mapper.writeValue(
@@ -338,42 +434,55 @@ public class Performance {
         return m;
     }
 
+    /**
+     * Request full performance state, pipelined: versions first, as perf and
+     * slot requests carry them, then all remaining requests back-to-back.
+     */
     public void initialize() throws Exception {
 
-        sendVersionRequest();
+        usb.pipelined(() -> {
+            sendVersionRequest();
+            for (Patch p : slots.values()) {
+                p.sendSlotVersionRequest();
+            }
+        });
 
-        usb.sendSystemRequest("Synth settings", // technically "device scope" but comes back w/ perf version
-                O_SYNTH_SETTINGS);
+        usb.pipelined(() -> {
+            usb.sendSystemRequest("Synth settings", // technically "device scope" but comes back w/ perf version
+                    O_SYNTH_SETTINGS);
 
-        usb.sendSystemRequest("unknown 1", // technically "device scope" but comes back w/ perf version
-                O_UNKNOWN1);
+            usb.sendSystemRequest("unknown 1", // technically "device scope" but comes back w/ perf version
+                    O_UNKNOWN1);
 
-        sendPerfSettingsRequest();
+            sendPerfSettingsRequest();
 
-        sendPerfUnk2Request();
+            sendPerfUnk2Request();
 
-        sendMasterClockRequest();
+            sendMasterClockRequest();
 
-        sendGlobalKnobsRequest();
+            sendGlobalKnobsRequest();
 
-        for (Patch p : slots.values()) {
-            p.initialize();
-        }
+            for (Patch p : slots.values()) {
+                p.loadFromDevice();
+            }
 
-        sendAssignedVoicesRequest();
+            sendAssignedVoicesRequest();
+        });
 
     }
 
     public void loadFromDevice() throws Exception {
 
-        sendVersionRequest();
-        sendPerfSettingsRequest();
-        sendPerfUnk2Request();
-        for (Patch p : slots.values()) {
-            p.loadFromDevice();
-        }
-        sendGlobalKnobsRequest();
-        usb.sendStartStopComm(true);
+        usb.pipelined(this::sendVersionRequest);
+        usb.pipelined(() -> {
+            sendPerfSettingsRequest();
+            sendPerfUnk2Request();
+            for (Patch p : slots.values()) {
+                p.loadFromDevice();
+            }
+            sendGlobalKnobsRequest();
+            usb.sendStartStopComm(true);
+        });
         serviceLoadResponses(true);
 
     }
@@ -419,10 +528,12 @@ public class Performance {
         Patch patch = new Patch(slot, usb);
         slots.put(slot, patch);
         patch.setVersion(version);
-        patch.sendSlotVersionRequest();
-        patch.loadFromDevice();
-        sendGlobalKnobsRequest();
-        usb.sendStartStopComm(true);
+        usb.pipelined(patch::sendSlotVersionRequest);
+        usb.pipelined(() -> {
+            patch.loadFromDevice();
+            sendGlobalKnobsRequest();
+            usb.sendStartStopComm(true);
+        });
         serviceLoadResponses(true);
     }
 
@@ -60,6 +60,8 @@ public class SynthSettings implements LibProperty.FieldValuesChangeListener {
 
     public LibProperty<String> deviceName() { return deviceName; }
 
+    public FieldValues getFieldValues() { return props.getValues(); }
+
     public LibProperty<Boolean> perfMode() {
         return perfMode;
     }
@@ -53,13 +53,7 @@ public class UserModuleData {
             LibProperty<Integer> p = LibProperty.intFieldProperty(mfs, Protocol.ModuleModes.Data);
             p.addListener((o,n)-> {
                 log.info(() -> "setMode: " + index + " -> " + n);
-                sender.sendSlotRequest("setMode",
-                        0x2b, // S_SET_MODE
-                        area.ordinal(),
-                        index,
-                        param,
-                        n
-                );
+                sender.sendSetMode(area.ordinal(), index, param, n);
             });
             return p;
         });
@@ -77,6 +71,16 @@ public class UserModuleData {
         });
     }
 
+    /**
+     * Run LISTENER after any change to module list values (position, color, uprate, leds, modes).
+     */
+    public void addChangeListener(Runnable listener) {
+        for (LibProperty<?> p : List.of(column, row, color, uprate, leds)) {
+            p.addListener((_,_) -> listener.run());
+        }
+        modes.forEach(p -> p.addListener((_,_) -> listener.run()));
+    }
+
     public ModuleType getType() {
         return type;
     }
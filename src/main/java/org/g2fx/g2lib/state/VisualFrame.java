@@ -0,0 +1,54 @@
+package org.g2fx.g2lib.state;
+
+/**
+ * Double-buffered byte snapshot of a visual stream (one byte per LED or meter,
+ * by {@link PatchVisual#getIndex()}). A single writer decodes into the back buffer
+ * and publishes by flipping; readers copy the front buffer, retrying if a flip
+ * raced the copy.
+ */
+public class VisualFrame {
+
+    private final byte[][] buffers = { new byte[64], new byte[64] };
+    private final int[] lengths = new int[2];
+    private volatile int front;
+    private volatile long version;
+
+    /**
+     * Writer: back buffer with at least SIZE bytes.
+     */
+    public byte[] back(int size) {
+        int b = front ^ 1;
+        if (buffers[b].length < size) {
+            buffers[b] = new byte[Math.max(size, buffers[b].length * 2)];
+        }
+        return buffers[b];
+    }
+
+    /**
+     * Writer: publish LENGTH bytes of back buffer.
+     */
+    public void publish(int length) {
+        int b = front ^ 1;
+        lengths[b] = length;
+        front = b;
+        version++; // single writer
+    }
+
+    /**
+     * Copy current snapshot into DST, up to its length.
+     * @return snapshot length, which may exceed DST length.
+     */
+    public int read(byte[] dst) {
+        while (true) {
+            long v = version;
+            int f = front;
+            int len = lengths[f];
+            System.arraycopy(buffers[f], 0, dst, 0, Math.min(len, dst.length));
+            if (version == v) { return len; }
+        }
+    }
+
+    public long version() {
+        return version;
+    }
+}
@@ -0,0 +1,73 @@
+package org.g2fx.g2lib.state;
+
+import org.g2fx.g2lib.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-slot LED and meter snapshots for a device, decoded on the USB read thread
+ * so the visual stream never queues behind the lib executor. Decoding sets a single
+ * dirty flag, which the UI takes once per frame to repaint from the latest snapshots.
+ */
+public class VisualFrames {
+
+    private final VisualFrame[] leds = new VisualFrame[Slot.values().length];
+    private final VisualFrame[] meters = new VisualFrame[Slot.values().length];
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public VisualFrames() {
+        for (int i = 0; i < leds.length; i++) {
+            leds[i] = new VisualFrame();
+            meters[i] = new VisualFrame();
+        }
+    }
+
+    public VisualFrame leds(Slot slot) { return leds[slot.ordinal()]; }
+
+    public VisualFrame meters(Slot slot) { return meters[slot.ordinal()]; }
+
+    /**
+     * Decode LED data (2 bits per LED, after one unknown byte) at BUF position.
+     */
+    public void decodeLeds(Slot slot, ByteBuffer buf) {
+        buf.get(); //unknown
+        int n = buf.remaining() * 4;
+        VisualFrame f = leds(slot);
+        byte[] b = f.back(n);
+        for (int i = 0; i < n; i++) {
+            b[i] = (byte) ((buf.get(buf.position() + (i >>> 2)) >>> ((i & 3) * 2)) & 0x03);
+        }
+        f.publish(n);
+        dirty.set(true);
+    }
+
+    /**
+     * Decode volume data ([unknown, value] per meter/group) at BUF position.
+     */
+    public void decodeVolumes(Slot slot, ByteBuffer buf) {
+        int n = buf.remaining() / 2;
+        VisualFrame f = meters(slot);
+        byte[] b = f.back(n);
+        int p = buf.position();
+        for (int i = 0; i < n; i++) {
+            b[i] = buf.get(p + i * 2 + 1);
+        }
+        f.publish(n);
+        dirty.set(true);
+    }
+
+    /**
+     * Clear and return dirty flag.
+     */
+    public boolean takeDirty() {
+        return dirty.getAndSet(false);
+    }
+
+    /**
+     * Unsigned value at IDX of snapshot copy B of length LEN, or -1 if out of range.
+     */
+    public static int valueAt(byte[] b, int len, int idx) {
+        return idx >= 0 && idx < len && idx < b.length ? Util.b2i(b[idx]) : -1;
+    }
+}
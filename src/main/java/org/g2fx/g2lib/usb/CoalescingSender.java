@@ -0,0 +1,183 @@
+package org.g2fx.g2lib.usb;
+
+import org.g2fx.g2lib.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Outbound stage that coalesces {@link ParamUpdate}s, keeping only the latest value
+ * per (slot, area, module, param, variation), flushing on a tick or when a batch fills.
+ * Any other message flushes pending updates first, preserving order relative to
+ * structural commands (add-module, add-cable etc).
+ * <p>
+ * The tick only hands the flush to the flush executor, normally the owning lib thread,
+ * as mode changes are requests whose responses dispatch on the sending thread.
+ * Sends happen outside the lock, so a blocking round trip never holds it.
+ */
+public class CoalescingSender implements UsbSender {
+
+    private static final Logger log = Util.getLogger(CoalescingSender.class);
+
+    public static final long DEFAULT_TICK_MICROS = 5000;
+    public static final int DEFAULT_MAX_BATCH = 32;
+
+    private final UsbSender sender;
+    private final long tickMicros;
+    private final int maxBatch;
+    private final ScheduledExecutorService scheduler;
+    private final Executor flushExecutor;
+
+    /**
+     * Pending updates by key, in first-update order.
+     */
+    private final LinkedHashMap<Long, ParamUpdate> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduled;
+
+    private long received;
+    private long sent;
+
+    /**
+     * @param flushExecutor runs tick flushes, see class doc.
+     */
+    public CoalescingSender(UsbSender sender, Executor flushExecutor) {
+        this(sender, DEFAULT_TICK_MICROS, TimeUnit.MICROSECONDS, DEFAULT_MAX_BATCH, flushExecutor);
+    }
+
+    /**
+     * Flushing on the tick thread.
+     */
+    public CoalescingSender(UsbSender sender, long tick, TimeUnit unit, int maxBatch) {
+        this(sender, tick, unit, maxBatch, Runnable::run);
+    }
+
+    /**
+     * @param tick flush delay after first pending update; zero disables coalescing.
+     * @param maxBatch pending update count forcing immediate flush.
+     * @param flushExecutor runs tick flushes, see class doc.
+     */
+    public CoalescingSender(UsbSender sender, long tick, TimeUnit unit, int maxBatch, Executor flushExecutor) {
+        if (maxBatch < 1) { throw new IllegalArgumentException("Invalid max batch: " + maxBatch); }
+        this.sender = sender;
+        this.tickMicros = unit.toMicros(tick);
+        this.maxBatch = maxBatch;
+        this.flushExecutor = flushExecutor;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CoalescingSender");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public int sendParamUpdate(ParamUpdate u) throws Exception {
+        boolean full;
+        synchronized (this) {
+            received++;
+            if (tickMicros <= 0) {
+                sent++;
+                full = false;
+            } else {
+                pending.put(u.key(), u);
+                full = pending.size() >= maxBatch;
+                if (!full && scheduled == null) {
+                    scheduled = scheduler.schedule(() -> flushExecutor.execute(this::flushQuietly),
+                            tickMicros, TimeUnit.MICROSECONDS);
+                }
+            }
+        }
+        if (tickMicros <= 0) { return sender.sendParamUpdate(u); }
+        if (full) { flush(); }
+        return u.toBytes().length;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Param flush failed", e);
+        }
+    }
+
+    /**
+     * Send all pending updates now, on the calling thread.
+     */
+    public void flush() throws Exception {
+        List<ParamUpdate> us;
+        synchronized (this) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            if (pending.isEmpty()) { return; }
+            us = new ArrayList<>(pending.values());
+            pending.clear();
+            sent += us.size();
+        }
+        log.fine(() -> "flush: " + us.size());
+        for (ParamUpdate u : us) {
+            sender.sendParamUpdate(u);
+        }
+    }
+
+    /**
+     * Flushes pending updates before sending.
+     */
+    @Override
+    public int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
+        flush();
+        return sender.sendBulk(msg, dispatch, data);
+    }
+
+    @Override
+    public void beginPipeline() {
+        flushQuietly();
+        sender.beginPipeline();
+    }
+
+    @Override
+    public void endPipeline() throws Exception {
+        sender.endPipeline();
+    }
+
+    /**
+     * Flush and stop tick thread, leaving downstream sender running.
+     */
+    public void close() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Param flush failed on close", e);
+        }
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void shutdown() {
+        close();
+        sender.shutdown();
+    }
+
+    @Override
+    public void setDispatcher(Dispatcher dispatcher) {
+        sender.setDispatcher(dispatcher);
+    }
+
+    @Override
+    public boolean online() {
+        return sender.online();
+    }
+
+    public synchronized long getReceived() { return received; }
+
+    public synchronized long getSent() { return sent; }
+}
@@ -0,0 +1,93 @@
+package org.g2fx.g2lib.usb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of nanosecond latencies, HdrHistogram-style:
+ * values below {@link #SUB_BUCKETS} are exact, above that each power of two is
+ * split into {@link #SUB_BUCKETS} buckets (~6% precision). Recording is
+ * allocation-free and safe from any thread; snapshots are not atomic across
+ * buckets but never lose counts.
+ */
+public class LatencyHistogram {
+
+    public static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public record Snapshot(long count, double meanMs, double p50Ms, double p90Ms, double p99Ms, double maxMs) {
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f",
+                    count, meanMs, p50Ms, p90Ms, p99Ms, maxMs);
+        }
+    }
+
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        total.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Upper bound of bucket holding the P (0-1) quantile, capped at max, in nanos.
+     */
+    public long percentile(double p) {
+        long n = count.get();
+        if (n == 0) { return 0; }
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public Snapshot snapshot() {
+        long n = count.get();
+        return new Snapshot(n, n == 0 ? 0 : total.get() / 1e6 / n,
+                percentile(0.5) / 1e6, percentile(0.9) / 1e6, percentile(0.99) / 1e6, max.get() / 1e6);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) { counts.set(i, 0); }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    static int index(long v) {
+        if (v < SUB_BUCKETS) { return (int) v; }
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exp - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) { return index; }
+        int j = index - SUB_BUCKETS;
+        int exp = j / SUB_BUCKETS + SUB_BUCKET_BITS;
+        return (1L << exp) | ((long) (j % SUB_BUCKETS) << (exp - SUB_BUCKET_BITS));
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) { return index; }
+        int exp = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        return lowerBound(index) + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+    }
+}
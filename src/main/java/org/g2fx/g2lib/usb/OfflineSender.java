@@ -8,6 +8,7 @@ import java.util.logging.Logger;
 public class OfflineSender implements UsbSender {
 
     private final Logger log = Util.getLogger(getClass());
+    private final WireLog wire = new WireLog(log);
 
     public static final int LENGTH_OK = 1;
 
@@ -28,8 +29,9 @@ public class OfflineSender implements UsbSender {
 
     @Override
     public int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
-        log.info(() -> String.format("sendBulk: %s %s %s\n",
-                msg, dispatch, Util.dumpBufferString(data)));
+        if (wire.enabled()) {
+            wire.frame(WireLog.Direction.Out, data, () -> String.format("sendBulk: %s %s ", msg, dispatch));
+        }
         listener.onSend(dispatch,data);
         return LENGTH_OK;
     }
@@ -0,0 +1,51 @@
+package org.g2fx.g2lib.usb;
+
+import org.g2fx.g2lib.state.Slot;
+import org.g2fx.g2lib.util.Util;
+
+import static org.g2fx.g2lib.protocol.Codes.*;
+
+/**
+ * Latest-value-wins slot message: param value ({@link org.g2fx.g2lib.protocol.Codes#O_SET_PARAM})
+ * or module mode ({@link org.g2fx.g2lib.protocol.Codes#O_SET_MODE}).
+ * @param variation variation for params, -1 for modes.
+ */
+public record ParamUpdate(Slot slot, int version, int command,
+                          int area, int module, int param, int value, int variation) {
+
+    public static ParamUpdate param(Slot slot, int version, int area, int module, int param, int value, int variation) {
+        return new ParamUpdate(slot, version, O_SET_PARAM, area, module, param, value, variation);
+    }
+
+    public static ParamUpdate mode(Slot slot, int version, int area, int module, int param, int value) {
+        return new ParamUpdate(slot, version, O_SET_MODE, area, module, param, value, -1);
+    }
+
+    /**
+     * Modes are sent as slot requests, params as (no-response) slot commands.
+     */
+    public boolean request() {
+        return command == O_SET_MODE;
+    }
+
+    /**
+     * Coalescing key: (slot, command, area, module, param, variation).
+     */
+    public long key() {
+        return ((long) slot.ordinal() << 40) | ((long) command << 32) |
+                (area << 24) | (module << 16) | (param << 8) | (variation & 0xff);
+    }
+
+    public String msg() {
+        return request() ? "setMode" : "update-param";
+    }
+
+    public byte[] toBytes() {
+        int[] data = request() ?
+                new int[] { M_CMD, S_SLOT_REQ + slot.ordinal(), version,
+                        command, area, module, param, value } :
+                new int[] { M_CMD, S_SLOT_CMD + slot.ordinal(), version,
+                        command, area, module, param, value, variation };
+        return Util.asBytes(data);
+    }
+}
@@ -0,0 +1,140 @@
+package org.g2fx.g2lib.usb;
+
+import org.g2fx.g2lib.util.Util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pipelines request/response exchanges: while active, requests from the owning
+ * thread are submitted back-to-back (up to a window of outstanding requests) and
+ * their responses dispatched in submission order, on the owning thread, as the window
+ * fills or at {@link #end()}. Requests depending on earlier responses (e.g. slot
+ * requests carrying the slot version) belong in a later pipeline. The transport
+ * must match each response to its request, not to arrival order, see
+ * {@link UsbReadThread#expectResponse}.
+ */
+public class RequestPipeline {
+
+    private static final Logger log = Util.getLogger(RequestPipeline.class);
+
+    public static final int DEFAULT_WINDOW = 8;
+
+    /**
+     * Submits request DATA, returning the future response message.
+     */
+    public interface Transport {
+        CompletableFuture<UsbMessage> request(String msg, ByteBuffer data) throws Exception;
+    }
+
+    private record Pending(String msg, CompletableFuture<UsbMessage> response) { }
+
+    private final Transport transport;
+    private final Dispatcher dispatcher;
+    private final int window;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private volatile Thread owner;
+    private int depth;
+    private Exception failure;
+    private long submitted;
+    private int maxDepth;
+
+    public RequestPipeline(Transport transport, Dispatcher dispatcher, int window) {
+        if (window < 1) { throw new IllegalArgumentException("Invalid window: " + window); }
+        this.transport = transport;
+        this.dispatcher = dispatcher;
+        this.window = window;
+    }
+
+    /**
+     * Start pipelining requests from the calling thread. Nested begin/end pairs
+     * (e.g. a dispatch issuing its own pipelined requests) act as barriers.
+     * @throws IllegalStateException if active on another thread.
+     */
+    public void begin() {
+        if (owns()) {
+            depth++;
+            return;
+        }
+        if (owner != null) { throw new IllegalStateException("Pipeline active on " + owner.getName()); }
+        owner = Thread.currentThread();
+        depth = 1;
+    }
+
+    /**
+     * True if active and owned by calling thread.
+     */
+    public boolean owns() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * Submit request without waiting for its response, first draining the oldest
+     * response if the window is full.
+     * @return request length.
+     */
+    public int submit(String msg, ByteBuffer data) throws Exception {
+        if (pending.size() >= window) {
+            drainOne();
+        }
+        int length = data.limit();
+        pending.add(new Pending(msg, transport.request(msg, data)));
+        submitted++;
+        maxDepth = Math.max(maxDepth, pending.size());
+        return length;
+    }
+
+    /**
+     * Dispatch all outstanding responses in order, deactivating if outermost.
+     * @throws Exception first dispatch or transport failure, after draining.
+     */
+    public void end() throws Exception {
+        if (!owns()) { throw new IllegalStateException("Pipeline not active on calling thread"); }
+        try {
+            while (!pending.isEmpty()) {
+                drainOne();
+            }
+        } finally {
+            if (--depth == 0) { owner = null; }
+        }
+        Exception e = failure;
+        failure = null;
+        if (e != null) { throw e; }
+    }
+
+    private void drainOne() {
+        Pending p = pending.poll();
+        UsbMessage m;
+        try {
+            m = p.response().get();
+        } catch (Exception e) {
+            Throwable c = e instanceof ExecutionException ? e.getCause() : e;
+            log.log(Level.SEVERE, "No response: " + p.msg(), c);
+            fail(c instanceof Exception ce ? ce : e);
+            return;
+        }
+        try {
+            dispatcher.dispatch(m);
+        } catch (Exception e) {
+            log.severe("Failure dispatching message: " + m);
+            fail(e);
+        } finally {
+            m.release();
+        }
+    }
+
+    private void fail(Exception e) {
+        if (failure == null) { failure = e; }
+    }
+
+    public long getSubmitted() { return submitted; }
+
+    /**
+     * Max outstanding requests observed.
+     */
+    public int getMaxDepth() { return maxDepth; }
+}
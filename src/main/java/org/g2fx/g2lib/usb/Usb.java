@@ -1,29 +1,40 @@
 package org.g2fx.g2lib.usb;
 
 import org.g2fx.g2lib.util.CRC16;
+import org.g2fx.g2lib.util.DirectBufferPool;
 import org.g2fx.g2lib.util.Util;
 import org.usb4java.BufferUtils;
 import org.usb4java.LibUsb;
+import org.usb4java.LibUsbException;
 
 import java.io.File;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.g2fx.g2lib.usb.UsbService.ERRORS;
 
-public class Usb implements UsbSender {
+public class Usb implements UsbConnection {
     private static final Logger log = Util.getLogger(Usb.class);
+    private static final WireLog wire = new WireLog(log);
 
     // Endpoints
     public static final byte EP_OUT_BULK = (byte) 0x03;
     public static final byte EP_IN_INTERRUPT = (byte) 0x81;
     public static final byte EP_IN_BULK = (byte) 0x82;
 
+    public static final int INTERRUPT_SIZE = 16;
+    public static final int INTERRUPT_DEPTH = 2;
+    public static final int RESPONSE_TIMEOUT = 10000;
+
     private final UsbService.UsbDevice device;
+    private final UsbTransfers transfers;
     private final UsbReadThread readThread;
+    private final BlockingQueue<DirectBufferPool.Lease> interrupts = new LinkedBlockingQueue<>();
+    private final RequestPipeline pipeline =
+            new RequestPipeline(this::request, this::dispatchTimed, RequestPipeline.DEFAULT_WINDOW);
+    private final UsbMetrics metrics = new UsbMetrics();
 
     private MessageRecorder recorder;
 
@@ -34,61 +45,150 @@ public class Usb implements UsbSender {
 
     public Usb(UsbService.UsbDevice device) {
         this.device = device;
+        transfers = new UsbTransfers(device.context(), device.handle());
         readThread = new UsbReadThread(this);
     }
 
+    @Override
     public void start() {
+        transfers.start();
+        transfers.streamInterrupt(EP_IN_INTERRUPT, INTERRUPT_SIZE, INTERRUPT_DEPTH, this::onInterrupt);
         readThread.start();
     }
 
 
     /**
      * Sends DATA and if specified waits for DISPATCH of response. MSG is for logging.
+     * Only submission is serialized, so sends do not wait behind other sends' responses.
+     * While the calling thread is pipelining ({@link #beginPipeline()}), requests expecting
+     * a response return once submitted.
      * @return length if send success or 0 on error.
      */
     @Override
-    public synchronized int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
+    public int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
 
-        Future<UsbMessage> dispatchFuture = dispatch ? expect("dispatch future", m -> true) : null;
+        if (dispatch && pipeline.owns()) {
+            return pipeline.submit(msg, data);
+        }
 
-        ByteBuffer buffer = prepareSendBuffer(data);
-        log.info(String.format("--------------- Send Bulk: %s ----------------", msg) + Util.dumpBufferString(buffer));
-        IntBuffer transferred = BufferUtils.allocateIntBuffer();
-        int r = LibUsb.bulkTransfer(device.handle(), EP_OUT_BULK, buffer, transferred, 10000);
-        if (r >= 0) {
-            //transferred.rewind();
-            log.info("Sent: " + transferred.get(0));
+        long start = System.nanoTime();
+        Submission s = submit(msg, dispatch, data);
+        int transferred;
+        try {
+            transferred = s.sent().get().actual();
+            wire.info(() -> "Sent: " + transferred);
+        } catch (ExecutionException e) {
+            log.log(Level.SEVERE, "Send Bulk failed: " + msg, e.getCause());
+            if (s.response() != null) { s.response().cancel(false); }
+            return 0;
         }
-        // TODO ??? shouldn't really be dispatching on failure here
-        if (dispatchFuture != null) {
-            UsbMessage fm = dispatchFuture.get();
+        if (s.response() != null) {
+            UsbMessage fm;
             try {
-                dispatcher.dispatch(fm);
+                fm = s.response().get();
+            } catch (ExecutionException e) {
+                log.log(Level.SEVERE, "No response: " + msg, e.getCause());
+                return 0;
+            }
+            long rt = System.nanoTime() - start;
+            log.fine(() -> String.format("Round trip: %s %.3fms", msg, rt / 1e6));
+            try {
+                dispatchTimed(fm);
             } catch (Exception e) {
                 log.severe("Failure dispatching message: " + fm);
                 throw e;
+            } finally {
+                fm.release();
+            }
+        }
+
+        return transferred;
+    }
+
+    private record Submission(CompletableFuture<UsbTransfers.Completion> sent,
+                              CompletableFuture<UsbMessage> response) { }
+
+    private Submission submit(String msg, boolean dispatch, ByteBuffer data) {
+        long start = System.nanoTime();
+        int type = UsbMetrics.outboundType(data);
+        DirectBufferPool.Lease lease = DirectBufferPool.SHARED.acquire(data.limit() + 4);
+        ByteBuffer buffer = writeSendBuffer(lease.buffer(), data);
+        if (wire.enabled()) {
+            wire.frame(WireLog.Direction.Out, buffer,
+                    () -> String.format("--------------- Send Bulk: %s ----------------", msg));
+        }
+        CompletableFuture<UsbMessage> response;
+        CompletableFuture<UsbTransfers.Completion> sent;
+        synchronized (this) { // expectation order must match submission order
+            response = dispatch ? readThread.expectResponse(msg, data, RESPONSE_TIMEOUT) : null;
+            sent = transfers.bulk(EP_OUT_BULK, buffer, 10000);
+        }
+        sent.whenComplete((c, _) -> {
+            lease.release();
+            if (c != null) {
+                metrics.record(UsbMetrics.Stage.Send, type, System.nanoTime() - start);
+                metrics.bytesOut(c.actual());
             }
+        });
+        if (response != null) {
+            response.whenComplete((_, e) -> {
+                if (e == null) {
+                    metrics.record(UsbMetrics.Stage.RoundTrip, type, System.nanoTime() - start);
+                } else if (e instanceof TimeoutException) {
+                    metrics.timeout();
+                }
+            });
         }
+        return new Submission(sent, response);
+    }
+
+    /**
+     * Pipeline transport: response future fails if send fails.
+     */
+    private CompletableFuture<UsbMessage> request(String msg, ByteBuffer data) {
+        Submission s = submit(msg, true, data);
+        s.sent().whenComplete((_, e) -> { if (e != null) { s.response().completeExceptionally(e); } });
+        return s.response();
+    }
+
+    /**
+     * Dispatch response on the sending thread.
+     */
+    private boolean dispatchTimed(UsbMessage m) {
+        return metrics.dispatch(dispatcher, m);
+    }
+
+    @Override
+    public void beginPipeline() {
+        pipeline.begin();
+    }
 
-        return transferred.get();
+    @Override
+    public void endPipeline() throws Exception {
+        pipeline.end();
     }
 
     public static ByteBuffer prepareSendBuffer(ByteBuffer data) {
+        return writeSendBuffer(BufferUtils.allocateByteBuffer(data.limit() + 4), data);
+    }
+
+    /**
+     * Write size header, DATA and CRC into BUFFER, which must have DATA limit + 4 remaining.
+     */
+    public static ByteBuffer writeSendBuffer(ByteBuffer buffer, ByteBuffer data) {
         int size = data.limit() + 4;
-        ByteBuffer buffer = BufferUtils.allocateByteBuffer(size);
         buffer.put((byte) (size / 256));
         buffer.put((byte) (size % 256));
         buffer.put(data.rewind());
         int crc = CRC16.crc16(data);
-        //dumpBytes(data);
-        log.info(String.format("send crc: %x %x %x", crc, crc / 256, crc % 256));
+        log.fine(() -> String.format("send crc: %x %x %x", crc, crc / 256, crc % 256));
         buffer.put((byte) (crc / 256));
         buffer.put((byte) (crc % 256));
         return buffer;
     }
 
     @SuppressWarnings("unused")
-    public UsbMessage readInterruptRetry() {
+    public UsbMessage readInterruptRetry() throws InterruptedException {
         UsbMessage r = new UsbMessage(-1,false,-1,null);
         for (int i = 0; i < 5; i++) {
             r = readInterrupt(2000);
@@ -97,28 +197,35 @@ public class Usb implements UsbSender {
         log.info("Interrupt retries exhausted");
         return r;
     }
-    public UsbMessage readInterrupt(int timeout) {
-        ByteBuffer buffer = BufferUtils.allocateByteBuffer(16);
-        IntBuffer transferred = BufferUtils.allocateIntBuffer();
-        int r = LibUsb.interruptTransfer(device.handle(), EP_IN_INTERRUPT, buffer, transferred, timeout);
-        if (r < 0) {
-            if (r != -7) { //timeout
-                log.info(String.format("--------------- Read Interrupt failure: %s ----------------",
-                        ERRORS.get(r)));
-            }
-            return new UsbMessage(r,false,-1,null);
-        } else {
-            UsbMessage m = parseInterrupt(buffer);
-            if (!m.extended()) {
-                log.info(() -> String.format("--------------- Read Interrupt embedded, crc: %x", m.crc()) +
-                        Util.dumpBufferString(m.buffer()));
-                record(m);
-            } else {
-                log.info(() -> String.format("--------------- Read Interrupt extended, size: %x", m.size()) +
-                        Util.dumpBufferString(buffer));
-            }
-            return m;
+    /**
+     * Next message from the interrupt stream, or timeout (-7) failure after TIMEOUT ms.
+     */
+    public UsbMessage readInterrupt(int timeout) throws InterruptedException {
+        DirectBufferPool.Lease lease = interrupts.poll(timeout, TimeUnit.MILLISECONDS);
+        if (lease == null) {
+            return new UsbMessage(LibUsb.ERROR_TIMEOUT,false,-1,null);
+        }
+        ByteBuffer buffer = lease.buffer();
+        metrics.bytesIn(INTERRUPT_SIZE);
+        UsbMessage m = parseInterrupt(buffer).withLease(lease);
+        if (wire.enabled()) {
+            wire.frame(WireLog.Direction.InInterrupt, buffer, () -> m.extended() ?
+                    String.format("--------------- Read Interrupt extended, size: %x", m.size()) :
+                    String.format("--------------- Read Interrupt embedded, crc: %x", m.crc()));
         }
+        if (!m.extended()) {
+            record(m);
+        }
+        return m;
+    }
+
+    /**
+     * Event-thread sink for interrupt stream; copies as transfer buffer is resubmitted.
+     */
+    private void onInterrupt(UsbTransfers.Completion c) {
+        DirectBufferPool.Lease l = DirectBufferPool.SHARED.acquire(INTERRUPT_SIZE);
+        l.buffer().put(c.buffer()).clear();
+        interrupts.add(l);
     }
 
     public static UsbMessage parseInterrupt(ByteBuffer buffer) {
@@ -161,6 +268,7 @@ public class Usb implements UsbSender {
     public UsbMessage readBulkRetries(int size, int retries) {
         UsbMessage r = new UsbMessage(-1,true,-1,null);
         for (int i = 0; i < retries; i++) {
+            if (i > 0) { metrics.retry(); }
             r = readBulk(size);
             if (r.success()) {
                 return r;
@@ -170,25 +278,41 @@ public class Usb implements UsbSender {
     }
 
     public UsbMessage readBulk(int size) {
-        ByteBuffer buffer = BufferUtils.allocateByteBuffer(size);
-        IntBuffer transferred = BufferUtils.allocateIntBuffer();
-        int r = LibUsb.bulkTransfer(device.handle(), EP_IN_BULK, buffer, transferred, 5000);
-        if (r < 0) {
-            log.info("--------------- Read Bulk failure: " + ERRORS.get(r) + " ---------------");
+        DirectBufferPool.Lease lease = DirectBufferPool.SHARED.acquire(size);
+        ByteBuffer buffer = lease.buffer();
+        int tfrd;
+        try {
+            tfrd = transfers.bulk(EP_IN_BULK, buffer, 5000).get().actual();
+        } catch (Exception e) {
+            lease.release();
+            int r = e.getCause() instanceof LibUsbException le ? le.getErrorCode() : LibUsb.ERROR_OTHER;
+            wire.info(() -> "--------------- Read Bulk failure: " + ERRORS.get(r) + " ---------------");
             return new UsbMessage(r,true,-1,null);
-        } else {
-            int tfrd = transferred.get();
-            if (tfrd > 0) {
-                UsbMessage msg = parseBulk(size, buffer);
-                log.info(() -> String.format("--------------- Read Bulk size: %x crc: %x %x", tfrd, msg.crc(),
-                        msg.buffer().getShort(size - 2)) + Util.dumpBufferString(msg.buffer()));
-                return record(msg);
-            } else {
-                return new UsbMessage(0,true,-1,null);
+        }
+        if (tfrd > 0) {
+            metrics.bytesIn(tfrd);
+            UsbMessage msg = parseBulk(size, buffer).withLease(lease);
+            if (wire.enabled()) {
+                wire.frame(WireLog.Direction.InBulk, msg.buffer(),
+                        () -> String.format("--------------- Read Bulk size: %x crc: %x %x", tfrd, msg.crc(),
+                                msg.buffer().getShort(size - 2)));
             }
+            return record(msg);
+        } else {
+            lease.release();
+            return new UsbMessage(0,true,-1,null);
         }
     }
 
+    /**
+     * True if CRC computed on receipt matches the one sent by the device.
+     */
+    public static boolean crcValid(UsbMessage m) {
+        ByteBuffer b = m.buffer();
+        int at = m.extended() ? b.limit() - 2 : ((b.get(0) & 0xf0) >> 4) - 1;
+        return at >= 0 && at + 2 <= b.limit() && (b.getShort(at) & 0xffff) == m.crc();
+    }
+
     public static UsbMessage parseBulk(int size, ByteBuffer buffer) {
         // buffer.rewind();
         int len = buffer.limit();
@@ -203,6 +327,7 @@ public class Usb implements UsbSender {
     public void shutdown() {
 
         readThread.shutdown();
+        transfers.shutdown();
 
         if (deviceInvalid()) { return; }
 
@@ -266,16 +391,38 @@ S_SET_MORPH_RANGE :
    [12] := Slot.FParamUpdBuf[i].Variation;
      */
 
-    public Future<UsbMessage> expect(String id, UsbReadThread.MsgP filter) {
+    public CompletableFuture<UsbMessage> expect(String id, UsbReadThread.MsgP filter) {
         return readThread.expect(id,filter);
     }
 
+    public CompletableFuture<UsbMessage> expect(String id, UsbReadThread.MsgP filter, long timeoutMs) {
+        return readThread.expect(id,filter,timeoutMs);
+    }
+
+    public CompletableFuture<UsbMessage> expect(String id, int signature, long timeoutMs) {
+        return readThread.expect(id,signature,timeoutMs);
+    }
+
     @Override
     public void setDispatcher(Dispatcher dispatcher) {
         this.dispatcher = dispatcher;
     }
 
+    @Override
+    public UsbMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
     public void setThreadsafeDispatcher(Dispatcher dispatcher) {
         readThread.setDispatcher(dispatcher);
     }
+
+    /**
+     * Read-thread dispatcher for LED/volume streams, see {@link UsbReadThread#setStreamDispatcher}.
+     */
+    @Override
+    public void setStreamDispatcher(Dispatcher dispatcher) {
+        readThread.setStreamDispatcher(dispatcher);
+    }
 }
@@ -0,0 +1,29 @@
+package org.g2fx.g2lib.usb;
+
+/**
+ * Connected device endpoint: a sender that also delivers unsolicited inbound
+ * messages, either a USB device ({@link Usb}) or an emulated one.
+ */
+public interface UsbConnection extends UsbSender {
+
+    /**
+     * Start delivering inbound messages.
+     */
+    void start();
+
+    /**
+     * Dispatcher for unsolicited messages, invoked off the sending thread.
+     */
+    void setThreadsafeDispatcher(Dispatcher dispatcher);
+
+    /**
+     * Dispatcher for LED/volume streams, invoked on the inbound thread; it owns message release.
+     */
+    void setStreamDispatcher(Dispatcher dispatcher);
+
+    /**
+     * Latency/throughput instrumentation for this connection.
+     */
+    UsbMetrics getMetrics();
+
+}
@@ -1,10 +1,29 @@
 package org.g2fx.g2lib.usb;
 
+import org.g2fx.g2lib.util.DirectBufferPool;
 import org.g2fx.g2lib.util.Util;
 
 import java.nio.ByteBuffer;
 
-public record UsbMessage(int size, boolean extended, int crc, ByteBuffer buffer) {
+/**
+ * @param lease pooled BUFFER lease if any, released via {@link #release()} after dispatch.
+ */
+public record UsbMessage(int size, boolean extended, int crc, ByteBuffer buffer, DirectBufferPool.Lease lease) {
+
+    public UsbMessage(int size, boolean extended, int crc, ByteBuffer buffer) {
+        this(size, extended, crc, buffer, null);
+    }
+
+    public UsbMessage withLease(DirectBufferPool.Lease lease) {
+        return new UsbMessage(size, extended, crc, buffer, lease);
+    }
+
+    /**
+     * Return pooled buffer, if any; message buffer is invalid afterward.
+     */
+    public void release() {
+        if (lease != null) { lease.release(); }
+    }
 
     public boolean success() {
         return size > 0 && buffer != null;
@@ -0,0 +1,213 @@
+package org.g2fx.g2lib.usb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.g2fx.g2lib.protocol.Codes;
+
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Per-connection USB instrumentation: latency histograms per {@link Codes} message
+ * type for send (submission to transfer completion), round trip (send to response)
+ * and dispatch (inbound handling), plus byte, retry, timeout and CRC mismatch counters
+ * and lib executor queue depth. All recording is lock-free.
+ */
+public class UsbMetrics {
+
+    public enum Stage {
+        Send,
+        RoundTrip,
+        Dispatch;
+
+        /**
+         * Send and round trip are keyed by outbound type, dispatch by inbound.
+         */
+        public boolean inbound() { return this == Dispatch; }
+    }
+
+    private static final int TYPES = 256;
+    private static final String[] OUTBOUND_NAMES = codeNames("O_");
+    private static final String[] INBOUND_NAMES = codeNames("I_");
+
+    private final Map<Stage, AtomicReferenceArray<LatencyHistogram>> histograms = new EnumMap<>(Stage.class);
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder crcMismatches = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private volatile IntSupplier queueDepth = () -> 0;
+    private volatile long started = System.nanoTime();
+
+    public UsbMetrics() {
+        for (Stage s : Stage.values()) {
+            histograms.put(s, new AtomicReferenceArray<>(TYPES));
+        }
+    }
+
+    public record Snapshot(double seconds,
+                           long bytesOut,
+                           long bytesIn,
+                           double bytesOutPerSec,
+                           double bytesInPerSec,
+                           long retries,
+                           long timeouts,
+                           long crcMismatches,
+                           int queueDepth,
+                           int maxQueueDepth,
+                           Map<Stage, Map<String, LatencyHistogram.Snapshot>> latencies) {
+
+        public String toJson() {
+            try {
+                return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(this);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Snapshot not serializable", e);
+            }
+        }
+
+        public void dump(PrintWriter w) {
+            w.format("%.1fs: out %d bytes (%.0f/s), in %d bytes (%.0f/s)%n",
+                    seconds, bytesOut, bytesOutPerSec, bytesIn, bytesInPerSec);
+            w.format("retries %d, timeouts %d, crc mismatches %d, queue %d (max %d)%n",
+                    retries, timeouts, crcMismatches, queueDepth, maxQueueDepth);
+            latencies.forEach((stage, types) -> {
+                if (types.isEmpty()) { return; }
+                w.println(stage + " (ms):");
+                types.forEach((type, h) -> w.format("  %-28s %s%n", type, h));
+            });
+        }
+    }
+
+    public void record(Stage stage, int type, long nanos) {
+        AtomicReferenceArray<LatencyHistogram> hs = histograms.get(stage);
+        int t = type & 0xff;
+        LatencyHistogram h = hs.get(t);
+        if (h == null) {
+            hs.compareAndSet(t, null, new LatencyHistogram());
+            h = hs.get(t);
+        }
+        h.record(nanos);
+    }
+
+    /**
+     * Dispatch MSG with DISPATCHER, recording dispatch latency by inbound type.
+     */
+    public boolean dispatch(Dispatcher dispatcher, UsbMessage msg) {
+        int type = inboundType(msg);
+        long start = System.nanoTime();
+        try {
+            return dispatcher.dispatch(msg);
+        } finally {
+            record(Stage.Dispatch, type, System.nanoTime() - start);
+        }
+    }
+
+    public void bytesOut(int n) { bytesOut.add(n); }
+    public void bytesIn(int n) { bytesIn.add(n); }
+    public void retry() { retries.increment(); }
+    public void timeout() { timeouts.increment(); }
+    public void crcMismatch() { crcMismatches.increment(); }
+
+    /**
+     * Sample of lib executor queue depth, tracking the maximum.
+     */
+    public void queueDepth(int depth) {
+        maxQueueDepth.accumulateAndGet(depth, Math::max);
+    }
+
+    /**
+     * Current lib executor queue depth for snapshots.
+     */
+    public void setQueueDepthGauge(IntSupplier gauge) {
+        this.queueDepth = gauge;
+    }
+
+    public Snapshot snapshot() {
+        double secs = (System.nanoTime() - started) / 1e9;
+        Map<Stage, Map<String, LatencyHistogram.Snapshot>> ls = new EnumMap<>(Stage.class);
+        histograms.forEach((stage, hs) -> {
+            Map<String, LatencyHistogram.Snapshot> m = new LinkedHashMap<>();
+            for (int t = 0; t < TYPES; t++) {
+                LatencyHistogram h = hs.get(t);
+                if (h != null && h.getCount() > 0) {
+                    m.put(typeName(stage.inbound(), t), h.snapshot());
+                }
+            }
+            ls.put(stage, m);
+        });
+        long out = bytesOut.sum();
+        long in = bytesIn.sum();
+        return new Snapshot(secs, out, in, out / secs, in / secs,
+                retries.sum(), timeouts.sum(), crcMismatches.sum(),
+                queueDepth.getAsInt(), maxQueueDepth.get(), ls);
+    }
+
+    public void reset() {
+        histograms.values().forEach(hs -> {
+            for (int t = 0; t < TYPES; t++) {
+                LatencyHistogram h = hs.get(t);
+                if (h != null) { h.reset(); }
+            }
+        });
+        bytesOut.reset();
+        bytesIn.reset();
+        retries.reset();
+        timeouts.reset();
+        crcMismatches.reset();
+        maxQueueDepth.set(0);
+        started = System.nanoTime();
+    }
+
+    /**
+     * Type of outbound DATA: type byte of {@link Codes#M_CMD} messages, otherwise first byte.
+     */
+    public static int outboundType(ByteBuffer data) {
+        if (data.limit() >= 4 && (data.get(0) & 0xff) == Codes.M_CMD) {
+            return data.get(3) & 0xff;
+        }
+        return data.limit() > 0 ? data.get(0) & 0xff : 0;
+    }
+
+    /**
+     * Type of inbound MSG, see {@link UsbReadThread#signature(UsbMessage)}.
+     */
+    public static int inboundType(UsbMessage msg) {
+        int sig = UsbReadThread.signature(msg);
+        return sig == UsbReadThread.NO_SIGNATURE ? 0 : sig & 0xff;
+    }
+
+    public static String typeName(boolean inbound, int type) {
+        String n = (inbound ? INBOUND_NAMES : OUTBOUND_NAMES)[type & 0xff];
+        return String.format("%s(%02x)", n == null ? "?" : n, type);
+    }
+
+    /**
+     * Names of Codes constants with PREFIX by value, falling back to message types.
+     */
+    private static String[] codeNames(String prefix) {
+        String[] names = new String[TYPES];
+        for (String p : new String[] { prefix, "M_" }) {
+            for (Field f : Codes.class.getFields()) {
+                if (!Modifier.isStatic(f.getModifiers()) || f.getType() != int.class
+                        || !f.getName().startsWith(p)) { continue; }
+                try {
+                    int v = f.getInt(null);
+                    if (v >= 0 && v < TYPES && names[v] == null) { names[v] = f.getName(); }
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -2,25 +2,102 @@ package org.g2fx.g2lib.usb;
 
 import org.g2fx.g2lib.util.Util;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.g2fx.g2lib.protocol.Codes.*;
+import static java.util.Map.entry;
+
+/**
+ * Interrupt/bulk read loop, matching inbound messages against expectations
+ * before handing them to the dispatcher. Expectations are indexed by message
+ * signature (command, slot and type bytes) for O(1) lookup; predicate expectations
+ * are checked in registration order only for non-stream messages without a keyed
+ * match. A message of a type that is neither a known response nor a notification
+ * (e.g. an error reply) completes the oldest keyed expectation on its channel instead
+ * of leaving it to time out. LED/volume stream messages go straight to the stream
+ * dispatcher, on this thread, if installed, otherwise to the dispatcher. Expectations
+ * are removed on completion, cancellation or timeout.
+ */
 public class UsbReadThread implements Runnable {
 
     private final Usb usb;
     private final Logger log = Util.getLogger(UsbReadThread.class);
     private final Thread thread;
     private Dispatcher dispatcher;
+    private volatile Dispatcher streamDispatcher;
     private final AtomicBoolean go = new AtomicBoolean(true);
     private final AtomicInteger recd = new AtomicInteger(0);
+    private final AtomicLong seqs = new AtomicLong();
+
+    public static final int NO_SIGNATURE = -1;
+
+    /**
+     * Response types of system requests (version {@link org.g2fx.g2lib.protocol.Codes#V_SYSTEM}) by op, as captured.
+     */
+    private static final Map<Integer, Integer> SYSTEM_RESPONSES = Map.ofEntries(
+            entry(O_SYNTH_SETTINGS, I_SYNTH_SETTINGS),
+            entry(O_ASSIGNED_VOICES, I_ASSIGNED_VOICES),
+            entry(O_STORE_ENTRY, I_ENTRY_LIST),
+            entry(O_CLEAR_ENTRY, I_ENTRY_CLEARED),
+            entry(O_LIST_NAMES, I_ENTRY_LIST),
+            entry(O_ENTRY_UPLOAD_DATA, I_ENTRY_UPLOAD_DATA),
+            entry(O_ENTRY_DOWNLOAD_DATA, I_ENTRY_DOWNLOADED_DATA),
+            entry(O_VERSION, I_VERSION_UPDATE),
+            entry(O_MASTER_CLOCK, I_EXT_MASTER_CLOCK),
+            entry(O_START_STOP_COM, I_OK),
+            entry(O_UNKNOWN1, M_INIT));
+
+    /**
+     * Response types of other perf requests and creates by op, as captured.
+     */
+    private static final Map<Integer, Integer> PERF_RESPONSES = Map.of(
+            O_SELECT_SLOT, I_OK,
+            O_PERF_SETTINGS, I_PERFORMANCE_NAME,
+            O_UNKNOWN2, I_RESERVED_1E,
+            O_GLOBAL_KNOBS, I_GLOBAL_KNOB_ASSIGMENTS,
+            O_CREATE, I_VERSION_UPDATE);
+
+    /**
+     * Response types of slot requests by first op, as captured.
+     */
+    private static final Map<Integer, Integer> SLOT_RESPONSES = Map.ofEntries(
+            entry(O_PATCH_NAME, I_PATCH_NAME),
+            entry(O_SELECTED_PARAM, I_SELECTED_PARAM),
+            entry(O_ADD_MODULE, I_OK),
+            entry(O_CREATE, I_VERSION_UPDATE),
+            entry(O_PATCH, I_PATCH_DESCRIPTION),
+            entry(O_PARAMS, I_PARAMS),
+            entry(O_PARAM_NAMES, I_PARAM_LABELS),
+            entry(O_ADD_CABLE, I_OK),
+            entry(O_DELETE_CABLE, I_OK),
+            entry(O_CURRENT_NOTE, I_CURRENT_NOTE),
+            entry(O_PATCH_TEXT, I_TEXT_PAD),
+            entry(O_PATCH_LOAD_RESPONSE, I_OK),
+            entry(O_RESOURCES_USED, I_PATCH_LOAD_DATA));
+
+    /**
+     * Types of known responses and of notifications the device sends unrequested.
+     */
+    private static final Set<Integer> KNOWN_TYPES = Stream.of(
+            SYSTEM_RESPONSES.values().stream(), PERF_RESPONSES.values().stream(), SLOT_RESPONSES.values().stream(),
+            Stream.of(I_CHANGE_SLOT, I_SEL_PARAM_PAGE, I_SET_PARAM, I_CHANGE_VARIATION, I_PARAMS, I_PARAM_LABELS,
+                    I_VERSION_LOAD_PERF, I_VERSION_LOAD_PATCH, I_SET_MASTER_CLOCK, I_LED_DATA, I_VOLUME_DATA))
+            .flatMap(t -> t).collect(Collectors.toUnmodifiableSet());
 
     public UsbReadThread(Usb usb) {
         this.usb = usb;
@@ -35,6 +112,10 @@ public class UsbReadThread implements Runnable {
             log.fine("Joining read thread");
             thread.join();
         } catch (Exception ignored) {}
+        synchronized (keyed) {
+            keyed.values().forEach(q -> q.forEach(f -> f.future.cancel(false)));
+            wildcards.forEach(f -> f.future.cancel(false));
+        }
     }
 
 
@@ -43,11 +124,18 @@ public class UsbReadThread implements Runnable {
     }
 
     private record MsgFuture(String id,
+                             long seq,
+                             int signature,
                              MsgP filter,
                              CompletableFuture<UsbMessage> future) {
 
     }
-    private final List<MsgFuture> futures = new CopyOnWriteArrayList<>();
+
+    /**
+     * Guarded by itself, along with {@link #wildcards}.
+     */
+    private final Map<Integer, ArrayDeque<MsgFuture>> keyed = new HashMap<>();
+    private final ArrayDeque<MsgFuture> wildcards = new ArrayDeque<>();
 
     public void start() { thread.start(); }
 
@@ -73,34 +161,206 @@ public class UsbReadThread implements Runnable {
             }
             recd.incrementAndGet();
             if (r.extended()) {
+                r.release();
                 r = usb.readBulkRetries(r.size(), 5);
-                if (r.success()) {
-                    receiveMsg(r);
+                if (!r.success()) {
+                    continue;
                 }
-            } else {
-                receiveMsg(r);
             }
+            if (!Usb.crcValid(r)) {
+                usb.getMetrics().crcMismatch();
+                log.warning("CRC mismatch: " + r);
+            }
+            receiveMsg(r);
         }
         log.fine("Exit");
     }
 
-    private void receiveMsg(UsbMessage r) {
-        for (MsgFuture f : new ArrayList<>(futures)) {
-            if (f.filter.test(r)) {
-                f.future.complete(r);
-                futures.remove(f);
-                return;
+    /**
+     * Complete matching expectation with R, or dispatch it.
+     */
+    public void receiveMsg(UsbMessage r) {
+        int sig = signature(r);
+        if (isStream(sig)) {
+            Dispatcher sd = streamDispatcher;
+            (sd != null ? sd : dispatcher).dispatch(r);
+            return;
+        }
+        if (!complete(sig, r)) {
+            dispatcher.dispatch(r);
+        }
+    }
+
+    private boolean complete(int sig, UsbMessage r) {
+        synchronized (keyed) {
+            ArrayDeque<MsgFuture> q = sig == NO_SIGNATURE ? null : keyed.get(sig);
+            MsgFuture f = q == null ? null : q.poll();
+            if (q != null && q.isEmpty()) { keyed.remove(sig); }
+            if (f == null) {
+                for (Iterator<MsgFuture> it = wildcards.iterator(); it.hasNext(); ) {
+                    MsgFuture w = it.next();
+                    if (w.filter.test(r)) {
+                        it.remove();
+                        f = w;
+                        break;
+                    }
+                }
+            }
+            if (f == null && sig != NO_SIGNATURE && !KNOWN_TYPES.contains(sig & 0xff)) {
+                f = pollOldest(sig >> 8);
+                if (f != null) {
+                    String id = f.id;
+                    log.warning(() -> String.format("Unexpected response type %02x completes: %s", sig & 0xff, id));
+                }
             }
+            // done futures are removed on completion, so f is live unless racing a timeout
+            return f != null && f.future.complete(r);
         }
-        dispatcher.dispatch(r);
     }
 
-    public Future<UsbMessage> expect(String id, MsgP filter) {
-        CompletableFuture<UsbMessage> f = new CompletableFuture<>();
-        futures.add(new MsgFuture(id, filter, f));
+    /**
+     * Remove the earliest keyed expectation on CHANNEL, guarded by {@link #keyed}.
+     */
+    private MsgFuture pollOldest(int channel) {
+        ArrayDeque<MsgFuture> oldest = null;
+        for (Map.Entry<Integer, ArrayDeque<MsgFuture>> e : keyed.entrySet()) {
+            if (e.getKey() >> 8 == channel && (oldest == null || e.getValue().peek().seq < oldest.peek().seq)) {
+                oldest = e.getValue();
+            }
+        }
+        if (oldest == null) { return null; }
+        MsgFuture f = oldest.poll();
+        if (oldest.isEmpty()) { keyed.remove(f.signature); }
         return f;
     }
+
+    /**
+     * Signature of message: command, slot and type bytes, skipping the embedded header byte.
+     * @return packed signature or {@link #NO_SIGNATURE} if too short.
+     */
+    public static int signature(UsbMessage m) {
+        int off = m.extended() ? 0 : 1;
+        if (m.buffer().limit() < off + 4) { return NO_SIGNATURE; }
+        return signature(Util.b2i(m.buffer().get(off)), Util.b2i(m.buffer().get(off + 1)),
+                Util.b2i(m.buffer().get(off + 3)));
+    }
+
+    public static int signature(int cmd, int slot, int type) {
+        return (cmd << 16) | (slot << 8) | type;
+    }
+
+    /**
+     * Signature of the response to REQUEST (command, request header, version, op...):
+     * requests on 28-2c answer on 08-0c, with the type captured for the op.
+     * @return signature or {@link #NO_SIGNATURE} if not known for the op.
+     */
+    public static int responseSignature(ByteBuffer request) {
+        int channel = responseChannel(request);
+        if (channel == NO_SIGNATURE || request.limit() < 4) { return NO_SIGNATURE; }
+        int h = Util.b2i(request.get(1));
+        int v = Util.b2i(request.get(2));
+        Integer type = (h == S_PERF_REQ ? v == V_SYSTEM ? SYSTEM_RESPONSES : PERF_RESPONSES : SLOT_RESPONSES)
+                .get(Util.b2i(request.get(3)));
+        return type == null ? NO_SIGNATURE : (channel << 8) | type;
+    }
+
+    /**
+     * Command and slot bytes of the response to REQUEST, as in {@link #signature(int, int, int)} without type.
+     * @return channel or {@link #NO_SIGNATURE} if not a slot or perf request.
+     */
+    public static int responseChannel(ByteBuffer request) {
+        if (request.limit() < 2 || Util.b2i(request.get(0)) != M_CMD) { return NO_SIGNATURE; }
+        int h = Util.b2i(request.get(1));
+        if (h < S_SLOT_REQ || h > S_PERF_REQ) { return NO_SIGNATURE; }
+        return (M_CMD << 8) | (h - (S_SLOT_REQ - S_SLOT_08));
+    }
+
+    /**
+     * True if SIG is of an LED/volume stream message.
+     */
+    public static boolean isStream(int sig) {
+        int type = sig & 0xff;
+        return sig != NO_SIGNATURE && (type == I_LED_DATA || type == I_VOLUME_DATA);
+    }
+
+    /**
+     * Expect next non-stream message without a keyed expectation matching FILTER.
+     */
+    public CompletableFuture<UsbMessage> expect(String id, MsgP filter) {
+        return add(new MsgFuture(id, seqs.incrementAndGet(), NO_SIGNATURE, filter, new CompletableFuture<>()), 0);
+    }
+
+    /**
+     * Expect next message with FILTER, failing with TimeoutException after TIMEOUTMS.
+     */
+    public CompletableFuture<UsbMessage> expect(String id, MsgP filter, long timeoutMs) {
+        return add(new MsgFuture(id, seqs.incrementAndGet(), NO_SIGNATURE, filter, new CompletableFuture<>()), timeoutMs);
+    }
+
+    /**
+     * Expect next message with SIGNATURE (see {@link #signature(int, int, int)}),
+     * failing with TimeoutException after TIMEOUTMS if positive.
+     */
+    public CompletableFuture<UsbMessage> expect(String id, int signature, long timeoutMs) {
+        return add(new MsgFuture(id, seqs.incrementAndGet(), signature, null, new CompletableFuture<>()), timeoutMs);
+    }
+
+    /**
+     * Expect the response to REQUEST: keyed by its {@link #responseSignature}, else the next
+     * message on its {@link #responseChannel}, else (e.g. init) the next non-stream message.
+     */
+    public CompletableFuture<UsbMessage> expectResponse(String id, ByteBuffer request, long timeoutMs) {
+        int sig = responseSignature(request);
+        if (sig != NO_SIGNATURE) { return expect(id, sig, timeoutMs); }
+        int channel = responseChannel(request);
+        return expect(id, channel == NO_SIGNATURE ? _ -> true : m -> signature(m) >> 8 == channel, timeoutMs);
+    }
+
+    private CompletableFuture<UsbMessage> add(MsgFuture f, long timeoutMs) {
+        synchronized (keyed) {
+            if (f.signature == NO_SIGNATURE) {
+                wildcards.add(f);
+            } else {
+                keyed.computeIfAbsent(f.signature, _ -> new ArrayDeque<>(2)).add(f);
+            }
+        }
+        f.future.whenComplete((_, e) -> { if (e != null) { remove(f); } });
+        if (timeoutMs > 0) {
+            f.future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        return f.future;
+    }
+
+    private void remove(MsgFuture f) {
+        synchronized (keyed) {
+            if (f.signature == NO_SIGNATURE) {
+                wildcards.remove(f);
+            } else {
+                ArrayDeque<MsgFuture> q = keyed.get(f.signature);
+                if (q != null && q.remove(f) && q.isEmpty()) { keyed.remove(f.signature); }
+            }
+        }
+        log.fine(() -> "Expectation removed: " + f.id);
+    }
+
+    /**
+     * Outstanding expectations, keyed plus predicate.
+     */
+    public int pending() {
+        synchronized (keyed) {
+            return wildcards.size() + keyed.values().stream().mapToInt(ArrayDeque::size).sum();
+        }
+    }
+
     public void setDispatcher(Dispatcher dispatcher) {
         this.dispatcher = dispatcher;
     }
+
+    /**
+     * Dispatcher for LED/volume stream messages, invoked on the read thread;
+     * it owns message release.
+     */
+    public void setStreamDispatcher(Dispatcher streamDispatcher) {
+        this.streamDispatcher = streamDispatcher;
+    }
 }
@@ -13,8 +13,43 @@ public interface UsbSender {
         return sendBulk(msg,dispatch,ByteBuffer.wrap(data));
     }
 
+    /**
+     * Send DATA, waiting for the response if DISPATCH (unless pipelining). DATA is copied or
+     * consumed before returning, even if pipelined, so callers may reuse or release it after.
+     */
     int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception;
 
+    /**
+     * Latest-value-wins param/mode change, which coalescing senders may defer and merge.
+     */
+    default int sendParamUpdate(ParamUpdate u) throws Exception {
+        return sendBulk(u.msg(), u.request(), u.toBytes());
+    }
+
+    /**
+     * Start pipelining requests from the calling thread: requests expecting a response
+     * are submitted without waiting, their responses dispatched in order by
+     * {@link #endPipeline()}. Default sends synchronously.
+     */
+    default void beginPipeline() { }
+
+    /**
+     * Dispatch outstanding pipelined responses and stop pipelining.
+     */
+    default void endPipeline() throws Exception { }
+
+    /**
+     * Run R pipelined, see {@link #beginPipeline()}.
+     */
+    default void pipelined(Util.ThrowingRunnable r) throws Exception {
+        beginPipeline();
+        try {
+            r.run();
+        } finally {
+            endPipeline();
+        }
+    }
+
     default int sendSystemRequest(String msg, int... cdata) throws Exception {
         return sendBulk(msg, true, Util.concat(Util.asBytes(
                 M_CMD,
@@ -41,7 +41,7 @@ public class UsbService implements Runnable, HotplugCallback {
         return m;
     }
 
-    public record UsbDevice(int address, Device device, DeviceHandle handle) {
+    public record UsbDevice(int address, Device device, DeviceHandle handle, Context context) {
 
     }
 
@@ -123,7 +123,7 @@ public class UsbService implements Runnable, HotplugCallback {
             DeviceHandle handle = new DeviceHandle();
             retcode(LibUsb.open(device, handle), "Unable to acquire handle");
             retcode(LibUsb.claimInterface(handle, IFACE), "Unable to claim interface");
-            UsbDevice ud = new UsbDevice(address, device, handle);
+            UsbDevice ud = new UsbDevice(address, device, handle, context);
             devices.put(address, ud);
             listeners.forEach(l -> l.onConnectionEvent(ud,true));
         } else {
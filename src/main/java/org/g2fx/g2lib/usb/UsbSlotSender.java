@@ -3,6 +3,7 @@ package org.g2fx.g2lib.usb;
 import org.g2fx.g2lib.protocol.Codes;
 import org.g2fx.g2lib.protocol.Sections;
 import org.g2fx.g2lib.state.Patch;
+import org.g2fx.g2lib.util.DirectBufferPool;
 import org.g2fx.g2lib.util.Util;
 
 import java.nio.ByteBuffer;
@@ -44,11 +45,29 @@ public class UsbSlotSender {
         ),Util.asBytes(cdata)));
     }
 
+    /**
+     * Param value change, coalesced by sender.
+     */
+    public int sendSetParam(int area, int module, int param, int value, int variation) throws Exception {
+        return sender.sendParamUpdate(ParamUpdate.param(patch.getSlot(), patch.getVersion(),
+                area, module, param, value, variation));
+    }
+
+    /**
+     * Module mode change, coalesced by sender.
+     */
+    public int sendSetMode(int area, int module, int param, int value) throws Exception {
+        return sender.sendParamUpdate(ParamUpdate.mode(patch.getSlot(), patch.getVersion(),
+                area, module, param, value));
+    }
+
     public int sendSectionMessage(Sections.Section s) throws Exception {
-        ByteBuffer buf = ByteBuffer.allocateDirect(0xffff);
-        Sections.writeSection(buf,s);
-        buf.limit(buf.position());
-        return sendSlotRequest("sendSectionMessage:" + s.sections(),buf);
+        try (DirectBufferPool.Lease l = DirectBufferPool.SHARED.acquire(0xffff)) {
+            ByteBuffer buf = l.buffer();
+            Sections.writeSection(buf,s);
+            buf.limit(buf.position());
+            return sendSlotRequest("sendSectionMessage:" + s.sections(),buf);
+        }
     }
 
     public UsbSender getSender() {
@@ -0,0 +1,249 @@
+package org.g2fx.g2lib.usb;
+
+import org.g2fx.g2lib.util.Util;
+import org.usb4java.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.g2fx.g2lib.usb.UsbService.ERRORS;
+
+/**
+ * Asynchronous transfer engine over the libusb {@link Transfer} API.
+ * Transfers are submitted up to a per-endpoint in-flight limit (excess queued
+ * in submission order), completed by a single event-handling thread, and surfaced
+ * as futures. Continuous inbound streams (interrupt endpoint) keep a fixed number
+ * of transfers submitted, resubmitting on completion or timeout; a stream transfer
+ * failing otherwise (stall, overflow, I/O error) is dropped rather than retried.
+ */
+public class UsbTransfers implements Runnable {
+
+    private static final Logger log = Util.getLogger(UsbTransfers.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    /**
+     * Completed transfer: ACTUAL bytes in BUFFER (limit set), LATENCYNANOS from submit.
+     */
+    public record Completion(ByteBuffer buffer, int actual, long latencyNanos) { }
+
+    private record Request(byte endpoint, byte type, ByteBuffer buffer, long timeout,
+                           CompletableFuture<Completion> future, Consumer<Completion> stream) {
+        boolean streaming() { return stream != null; }
+    }
+
+    private record Submitted(Request request, long submitNanos) { }
+
+    private static class EndpointQueue {
+        int inFlight;
+        final ArrayDeque<Request> waiting = new ArrayDeque<>();
+    }
+
+    private final Context context;
+    private final DeviceHandle handle;
+    private final int maxInFlight;
+    private final Thread thread;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Map<Byte, EndpointQueue> endpoints = new HashMap<>();
+    private final Map<Transfer, Submitted> submitted = new HashMap<>();
+    private final TransferCallback callback = this::onTransfer;
+
+    public UsbTransfers(Context context, DeviceHandle handle) {
+        this(context, handle, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public UsbTransfers(Context context, DeviceHandle handle, int maxInFlight) {
+        this.context = context;
+        this.handle = handle;
+        this.maxInFlight = maxInFlight;
+        this.thread = new Thread(this, "UsbTransfers");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running.set(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (running.get() || hasSubmitted()) {
+            int r = LibUsb.handleEventsTimeout(context, 100000);
+            if (r < 0 && r != LibUsb.ERROR_INTERRUPTED) {
+                log.severe(() -> "handleEvents failed: " + ERRORS.get(r));
+                failAll(new LibUsbException("handleEvents failed", r));
+                break;
+            }
+        }
+        log.fine("Exit");
+    }
+
+    /**
+     * Bulk transfer, in or out per ENDPOINT direction. BUFFER must be direct;
+     * for inbound transfers its limit is the requested length.
+     */
+    public CompletableFuture<Completion> bulk(byte endpoint, ByteBuffer buffer, long timeout) {
+        return submit(new Request(endpoint, LibUsb.TRANSFER_TYPE_BULK, buffer, timeout,
+                new CompletableFuture<>(), null));
+    }
+
+    /**
+     * Single interrupt transfer.
+     */
+    public CompletableFuture<Completion> interrupt(byte endpoint, ByteBuffer buffer, long timeout) {
+        return submit(new Request(endpoint, LibUsb.TRANSFER_TYPE_INTERRUPT, buffer, timeout,
+                new CompletableFuture<>(), null));
+    }
+
+    /**
+     * Keep DEPTH interrupt transfers of SIZE bytes in flight on ENDPOINT, delivering
+     * each completion (on the event thread) to SINK, until shutdown.
+     */
+    public void streamInterrupt(byte endpoint, int size, int depth, Consumer<Completion> sink) {
+        for (int i = 0; i < depth; i++) {
+            submit(new Request(endpoint, LibUsb.TRANSFER_TYPE_INTERRUPT,
+                    ByteBuffer.allocateDirect(size), 0, null, sink));
+        }
+    }
+
+    private CompletableFuture<Completion> submit(Request req) {
+        if (!req.buffer().isDirect()) {
+            throw new IllegalArgumentException("Transfer buffer must be direct");
+        }
+        synchronized (this) {
+            if (!running.get()) {
+                fail(req, new IllegalStateException("Transfer engine not running"));
+                return req.future();
+            }
+            EndpointQueue q = endpoints.computeIfAbsent(req.endpoint(), _ -> new EndpointQueue());
+            if (q.inFlight < maxInFlight || req.streaming()) {
+                doSubmit(q, req);
+            } else {
+                q.waiting.add(req);
+            }
+        }
+        return req.future();
+    }
+
+    private void doSubmit(EndpointQueue q, Request req) {
+        Transfer t = LibUsb.allocTransfer();
+        ByteBuffer buf = req.buffer();
+        if (req.type() == LibUsb.TRANSFER_TYPE_BULK) {
+            LibUsb.fillBulkTransfer(t, handle, req.endpoint(), buf, callback, null, req.timeout());
+        } else {
+            LibUsb.fillInterruptTransfer(t, handle, req.endpoint(), buf, callback, null, req.timeout());
+        }
+        t.setLength(buf.limit()); // fill uses capacity
+        submitted.put(t, new Submitted(req, System.nanoTime()));
+        int r = LibUsb.submitTransfer(t);
+        if (r < 0) {
+            submitted.remove(t);
+            LibUsb.freeTransfer(t);
+            fail(req, new LibUsbException("submitTransfer failed", r));
+            return;
+        }
+        q.inFlight++;
+    }
+
+    /**
+     * Event-thread callback. Stream sinks run before resubmission, so they
+     * may read the transfer buffer directly.
+     */
+    private void onTransfer(Transfer t) {
+        long now = System.nanoTime();
+        int status = t.status();
+        int actual = t.actualLength();
+        Submitted s;
+        synchronized (this) {
+            s = submitted.remove(t);
+            LibUsb.freeTransfer(t);
+        }
+        if (s == null) { return; }
+        Request req = s.request();
+        Completion c = status == LibUsb.TRANSFER_COMPLETED ?
+                new Completion(req.buffer().duplicate().position(0).limit(actual), actual, now - s.submitNanos()) :
+                null;
+        if (req.streaming() && c != null) {
+            try {
+                req.stream().accept(c);
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Stream consumer failed", e);
+            }
+        }
+        synchronized (this) {
+            EndpointQueue q = endpoints.get(req.endpoint());
+            q.inFlight--;
+            if (req.streaming()) {
+                if (running.get() && (status == LibUsb.TRANSFER_COMPLETED || status == LibUsb.TRANSFER_TIMED_OUT)) {
+                    doSubmit(q, req);
+                } else if (running.get() && status != LibUsb.TRANSFER_CANCELLED) {
+                    log.warning(() -> String.format("Stream transfer on %02x stopped: status %d",
+                            req.endpoint(), status));
+                }
+            } else {
+                Request next = q.waiting.poll();
+                if (next != null) { doSubmit(q, next); }
+            }
+        }
+        if (req.streaming()) { return; }
+        if (c != null) {
+            req.future().complete(c);
+        } else {
+            fail(req, new LibUsbException("Transfer failed: status " + status, transferError(status)));
+        }
+    }
+
+    private static int transferError(int status) {
+        if (status == LibUsb.TRANSFER_TIMED_OUT) { return LibUsb.ERROR_TIMEOUT; }
+        if (status == LibUsb.TRANSFER_NO_DEVICE) { return LibUsb.ERROR_NO_DEVICE; }
+        if (status == LibUsb.TRANSFER_STALL) { return LibUsb.ERROR_PIPE; }
+        if (status == LibUsb.TRANSFER_OVERFLOW) { return LibUsb.ERROR_OVERFLOW; }
+        if (status == LibUsb.TRANSFER_CANCELLED) { return LibUsb.ERROR_INTERRUPTED; }
+        return LibUsb.ERROR_IO;
+    }
+
+    private static void fail(Request req, Exception e) {
+        if (req.future() != null) { req.future().completeExceptionally(e); }
+    }
+
+    private synchronized boolean hasSubmitted() {
+        return !submitted.isEmpty();
+    }
+
+    /**
+     * Stop accepting submissions and fail everything queued or in flight.
+     */
+    private synchronized void failAll(Exception e) {
+        running.set(false);
+        for (EndpointQueue q : endpoints.values()) {
+            q.waiting.forEach(r -> fail(r, e));
+            q.waiting.clear();
+        }
+        submitted.values().forEach(s -> fail(s.request(), e));
+    }
+
+    /**
+     * Cancel in-flight transfers and wait for event thread to drain them.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (!running.getAndSet(false)) { return; }
+            for (EndpointQueue q : endpoints.values()) {
+                q.waiting.forEach(r -> fail(r, new IllegalStateException("Transfer engine shut down")));
+                q.waiting.clear();
+            }
+            submitted.keySet().forEach(LibUsb::cancelTransfer);
+        }
+        try {
+            thread.join(2000);
+        } catch (InterruptedException ignored) {}
+    }
+
+}
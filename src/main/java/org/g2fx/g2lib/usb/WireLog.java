@@ -0,0 +1,113 @@
+package org.g2fx.g2lib.usb;
+
+import org.g2fx.g2lib.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Level-guarded wire logging for the usb package. Frames are hex-dumped to the
+ * owning logger at INFO and/or copied to the process-wide {@link WireRingFile}
+ * if one is installed; when both are off {@link #enabled()} is false and callers
+ * skip building headers or dumps entirely.
+ */
+public final class WireLog {
+
+    public enum Direction {
+        Out,
+        InInterrupt,
+        InBulk
+    }
+
+    /**
+     * System property naming a ring file to record all wire frames to, see {@link #installFromProperty()}.
+     */
+    public static final String WIRELOG_PROPERTY = "g2fx.wirelog";
+    public static final long DEFAULT_RING_CAPACITY = 64L << 20;
+    public static final int DEFAULT_RING_QUEUE = 4096;
+
+    private static final Logger classLog = Util.getLogger(WireLog.class);
+
+    private static volatile WireRingFile ringFile;
+
+    private final Logger log;
+
+    public WireLog(Logger log) {
+        this.log = log;
+    }
+
+    /**
+     * Install binary appender for all wire logs, or null to remove.
+     * @return previous appender, if any.
+     */
+    public static WireRingFile setRingFile(WireRingFile rf) {
+        WireRingFile prev = ringFile;
+        ringFile = rf;
+        return prev;
+    }
+
+    public static WireRingFile getRingFile() {
+        return ringFile;
+    }
+
+    /**
+     * If {@link #WIRELOG_PROPERTY} is set, install a ring file at that path with default
+     * capacity, replacing any installed one.
+     * @return true if installed.
+     */
+    public static boolean installFromProperty() throws IOException {
+        String path = System.getProperty(WIRELOG_PROPERTY);
+        if (path == null) { return false; }
+        closeRingFile();
+        setRingFile(new WireRingFile(Path.of(path), DEFAULT_RING_CAPACITY, DEFAULT_RING_QUEUE));
+        classLog.info(() -> "Wire log: " + path);
+        return true;
+    }
+
+    /**
+     * Remove and close installed ring file, if any.
+     */
+    public static void closeRingFile() throws IOException {
+        WireRingFile rf = setRingFile(null);
+        if (rf != null) { rf.close(); }
+    }
+
+    public boolean enabled() {
+        return ringFile != null || log.isLoggable(Level.INFO);
+    }
+
+    public boolean textEnabled() {
+        return log.isLoggable(Level.INFO);
+    }
+
+    /**
+     * Log frame DATA (limit-bounded, position ignored) with lazy HEADER.
+     */
+    public void frame(Direction dir, ByteBuffer data, Supplier<String> header) {
+        WireRingFile rf = ringFile;
+        if (rf != null) {
+            rf.append(dir, data);
+        }
+        if (log.isLoggable(Level.INFO)) {
+            log.info(header.get() + Util.dumpBufferString(data));
+        }
+    }
+
+    /**
+     * Lazy dump of DATA (limit-bounded, position ignored) with HEADER at WARNING.
+     */
+    public void warning(Supplier<String> header, ByteBuffer data) {
+        log.warning(() -> header.get() + Util.dumpBufferString(data));
+    }
+
+    /**
+     * Lazy text-only line at INFO.
+     */
+    public void info(Supplier<String> msg) {
+        log.info(msg);
+    }
+}
@@ -0,0 +1,180 @@
+package org.g2fx.g2lib.usb;
+
+import org.g2fx.g2lib.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Async binary wire-frame appender writing to a fixed-size ring file.
+ * Producers copy frames into a bounded queue (dropping, never blocking, when full);
+ * a writer thread appends them, wrapping to the start when capacity is reached.
+ * <pre>
+ * header: magic(4) version(4) capacity(8) writePos(8) baseMillis(8) baseNanos(8)
+ * frame:  sync(4) length(4) nanos(8) direction(1) data(length)
+ * </pre>
+ * Frames from the previous lap beyond writePos are recovered by scanning for sync.
+ */
+public class WireRingFile implements Runnable, AutoCloseable {
+
+    private static final Logger log = Util.getLogger(WireRingFile.class);
+
+    public static final int MAGIC = 0x4732574c; // "G2WL"
+    public static final int VERSION = 1;
+    public static final int SYNC = 0x57524652; // "WRFR"
+    public static final int HEADER_SIZE = 40;
+    public static final int FRAME_HEADER_SIZE = 17;
+    private static final int WRITE_POS_OFFSET = 16;
+
+    public record Frame(long nanos, WireLog.Direction direction, byte[] data) { }
+
+    private static final Frame STOP = new Frame(0, null, null);
+
+    private final FileChannel channel;
+    private final long capacity;
+    private final BlockingQueue<Frame> queue;
+    private final Thread thread;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+    private final ByteBuffer posBuf = ByteBuffer.allocate(8);
+    private long pos = HEADER_SIZE;
+
+    /**
+     * @param capacity file size in bytes, including header.
+     * @param queueSize max queued frames before dropping.
+     */
+    public WireRingFile(Path path, long capacity, int queueSize) throws IOException {
+        if (capacity < HEADER_SIZE + FRAME_HEADER_SIZE) {
+            throw new IllegalArgumentException("Capacity too small: " + capacity);
+        }
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC).putInt(VERSION).putLong(capacity).putLong(pos)
+                .putLong(System.currentTimeMillis()).putLong(System.nanoTime()).flip();
+        channel.write(h, 0);
+        thread = new Thread(this, "WireRingFile");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copy and enqueue DATA (limit-bounded, position ignored).
+     * @return false if dropped because queue full.
+     */
+    public boolean append(WireLog.Direction dir, ByteBuffer data) {
+        byte[] bs = new byte[data.limit()];
+        data.get(0, bs);
+        if (!queue.offer(new Frame(System.nanoTime(), dir, bs))) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Frame f = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (f == STOP) { break; }
+                if (f != null) {
+                    write(f);
+                    if (!queue.isEmpty()) { continue; }
+                }
+                writePos();
+            }
+            writePos();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Wire ring file writer failed", e);
+        }
+    }
+
+    private void write(Frame f) throws IOException {
+        long size = FRAME_HEADER_SIZE + f.data().length;
+        if (size > capacity - HEADER_SIZE) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (pos + size > capacity) {
+            pos = HEADER_SIZE;
+        }
+        frameHeader.clear().putInt(SYNC).putInt(f.data().length).putLong(f.nanos())
+                .put((byte) f.direction().ordinal()).flip();
+        long p = pos;
+        while (frameHeader.hasRemaining()) { p += channel.write(frameHeader, p); }
+        ByteBuffer d = ByteBuffer.wrap(f.data());
+        while (d.hasRemaining()) { p += channel.write(d, p); }
+        pos = p;
+        written.incrementAndGet();
+    }
+
+    private void writePos() throws IOException {
+        channel.write(posBuf.clear().putLong(pos).flip(), WRITE_POS_OFFSET);
+    }
+
+    public long getDropped() { return dropped.get(); }
+
+    public long getWritten() { return written.get(); }
+
+    /**
+     * Drain queue, write position and close file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(STOP);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.force(true);
+        channel.close();
+    }
+
+    /**
+     * Read frames oldest-first: previous lap (after writePos) then current lap.
+     */
+    public static List<Frame> read(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, READ)) {
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+            buf.flip();
+            if (buf.getInt(0) != MAGIC) { throw new IOException("Bad magic: " + path); }
+            long writePos = buf.getLong(WRITE_POS_OFFSET);
+            List<Frame> frames = new ArrayList<>();
+            int p = (int) writePos;
+            while (p + FRAME_HEADER_SIZE <= buf.limit() && buf.getInt(p) != SYNC) { p++; }
+            readFrames(buf, p, buf.limit(), frames);
+            readFrames(buf, HEADER_SIZE, (int) writePos, frames);
+            return frames;
+        }
+    }
+
+    private static void readFrames(ByteBuffer buf, int p, int end, List<Frame> frames) {
+        WireLog.Direction[] dirs = WireLog.Direction.values();
+        while (p + FRAME_HEADER_SIZE <= end && buf.getInt(p) == SYNC) {
+            int len = buf.getInt(p + 4);
+            int dir = buf.get(p + 16);
+            if (len < 0 || p + FRAME_HEADER_SIZE + len > end || dir < 0 || dir >= dirs.length) { return; }
+            byte[] data = new byte[len];
+            buf.get(p + FRAME_HEADER_SIZE, data);
+            frames.add(new Frame(buf.getLong(p + 8), dirs[dir], data));
+            p += FRAME_HEADER_SIZE + len;
+        }
+    }
+}
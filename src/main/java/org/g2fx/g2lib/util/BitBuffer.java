@@ -6,11 +6,26 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class BitBuffer {
+
+    /**
+     * Value masks by bit length, for extraction and put validation.
+     */
+    private static final long[] MASKS = new long[65];
+    static {
+        for (int i = 0; i < 64; i++) { MASKS[i] = (1L << i) - 1; }
+        MASKS[64] = -1L;
+    }
+
     private final ByteBuffer buffer;
+    /**
+     * Big-endian view over full capacity for word-at-a-time access.
+     */
+    private final ByteBuffer words;
     private int bpos;
 
     public BitBuffer(ByteBuffer buffer) {
         this.buffer = buffer;
+        this.words = buffer.duplicate().clear().order(ByteOrder.BIG_ENDIAN);
         bpos = buffer.position() * 8;
     }
 
@@ -50,76 +65,59 @@ public class BitBuffer {
             throw new IllegalArgumentException
                     (String.format("underflow: %d %d %d", len, bpos, getBitLimit()));
         }
-        int pos = bpos / 8;
-        int b0 = Util.b2i(buffer.get(pos));
-        int off = bpos % 8;
+        int pos = bpos >>> 3;
+        int off = bpos & 7;
         bpos += len;
-
-        int omask = 0xff >> off;
-        int r = b0 & omask;
-        int rem0 = 8 - off;
-        if (len <= rem0) {
-            return r >> (rem0 - len);
-        }
-        len -= rem0;
-        while (len > 0) {
-            int b1 = Util.b2i(buffer.get(++pos));
-            if (len <= 8) {
-                int rem1 = 8 - len;
-                int b1s = b1 >> rem1;
-                int rs = r << len;
-                return rs | b1s;
-            }
-            len -= 8;
-            int rs = r << 8;
-            r = rs | b1;
-        }
-        throw new RuntimeException("Loop failure");
+        return (int) ((getWindow(pos) >>> (64 - off - len)) & MASKS[len]);
     }
 
 
     public void put(int len, int val) {
-        if (val >= Math.pow(2, len)) {
+        if (val > MASKS[len]) {
             throw new IllegalArgumentException("invalid val for len: " + val + ", " + len);
         }
-        int pos = bpos / 8;
-        int off = bpos % 8;
+        int pos = bpos >>> 3;
+        int off = bpos & 7;
         bpos += len;
-        int b0;
-        if (off > 0) {
-            b0 = Util.b2i(buffer.get(pos));
-        } else {
-            b0 = 0;
-            buffer.put(pos,(byte) b0);
-        }
-        int end = off + len;
-        if (end <= 8) {
-            int rem = 8 - end;
-            int vs = val << rem;
-            int r = b0 | vs;
-            buffer.put(pos,(byte) r);
+        int shift = 64 - off - len;
+        long mask = MASKS[len] << shift;
+        long bits = ((long) val << shift) & mask;
+        if (pos + 8 <= words.limit()) {
+            words.putLong(pos, (words.getLong(pos) & ~mask) | bits);
             return;
         }
-
-
-
-        int rem = end - 8;
-        int v0 = val >> rem;
-        int r = b0 | v0;
-        buffer.put(pos,(byte) r);
-        while (rem > 0) {
-            if (rem <= 8) {
-                int v1 = (val << (8-rem)) & 0xff;
-                buffer.put(++pos,(byte) v1);
-                return;
-            }
-
-            rem = rem - 8;
-            int r1 = (val >> rem) & 0xff;
-            buffer.put(++pos,(byte) r1);
+        // tail of buffer: read-modify-write only the touched bytes
+        int end = pos + ((off + len + 7) >>> 3);
+        for (int i = pos, s = 56; i < end; i++, s -= 8) {
+            int bm = (int) (mask >>> s) & 0xff;
+            int b = (Util.b2i(words.get(i)) & ~bm) | ((int) (bits >>> s) & bm);
+            words.put(i, (byte) b);
         }
+    }
 
+    /**
+     * Put BYTES at write head, which must be on a byte boundary.
+     */
+    public void put(byte[] bytes) {
+        if ((bpos & 7) != 0) {
+            throw new IllegalStateException("put bytes: not byte-aligned: " + bpos);
+        }
+        words.put(bpos >>> 3, bytes);
+        bpos += bytes.length * 8;
+    }
 
+    /**
+     * Big-endian 64-bit window starting at byte POS, zero-filled past capacity.
+     */
+    private long getWindow(int pos) {
+        if (pos + 8 <= words.limit()) {
+            return words.getLong(pos);
+        }
+        long w = 0;
+        for (int i = pos; i < pos + 8; i++) {
+            w = (w << 8) | (i < words.limit() ? Util.b2i(words.get(i)) : 0);
+        }
+        return w;
     }
 
     /**
@@ -1,6 +1,9 @@
 package org.g2fx.g2lib.util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /*
 MIT License
@@ -61,20 +64,89 @@ public class CRC16 {
             0x6E17, 0x7E36, 0x4E55, 0x5E74, 0x2E93, 0x3EB2, 0x0ED1, 0x1EF0 };
 
 
+    /**
+     * Slice-by-8 tables: SLICES[k][b] is CRC of byte b followed by k zero bytes.
+     */
+    private static final int[][] SLICES = new int[8][];
+
+    static {
+        SLICES[0] = LOOKUP_TABLE;
+        for (int k = 1; k < 8; k++) {
+            int[] prev = SLICES[k - 1];
+            int[] t = SLICES[k] = new int[256];
+            for (int b = 0; b < 256; b++) {
+                t[b] = ((prev[b] << 8) ^ LOOKUP_TABLE[prev[b] >>> 8]) & 0xFFFF;
+            }
+        }
+    }
+
+    private static final VarHandle LONG_BE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
     public static int crc16(ByteBuffer bytes, int off, int len) {
+        return update(0, bytes, off, len);
+    }
 
-        int crc = 0x0000;
-        int end = off + len;
+    public static int crc16(ByteBuffer bytes) {
+        return crc16(bytes,0,bytes.limit());
+    }
+
+    public static int crc16(byte[] bytes, int off, int len) {
+        return update(0, bytes, off, len);
+    }
 
-        for (int i = off; i < end; i++) {
+    /**
+     * Incremental update with a single byte.
+     */
+    public static int update(int crc, byte b) {
+        return doCrc(b, crc) & 0xFFFF;
+    }
+
+    /**
+     * Incremental update over absolute range of heap or direct buffer; position is unaffected.
+     */
+    public static int update(int crc, ByteBuffer bytes, int off, int len) {
+        if (bytes.hasArray()) {
+            return update(crc, bytes.array(), bytes.arrayOffset() + off, len);
+        }
+        boolean swap = bytes.order() != ByteOrder.BIG_ENDIAN;
+        int i = off;
+        int end = off + len;
+        for (; i + 8 <= end; i += 8) {
+            long w = bytes.getLong(i);
+            crc = slice8(crc, swap ? Long.reverseBytes(w) : w);
+        }
+        for (; i < end; i++) {
             crc = doCrc(bytes.get(i), crc);
         }
+        return crc & 0xFFFF;
+    }
 
+    /**
+     * Incremental update over array range.
+     */
+    public static int update(int crc, byte[] bytes, int off, int len) {
+        int i = off;
+        int end = off + len;
+        for (; i + 8 <= end; i += 8) {
+            crc = slice8(crc, (long) LONG_BE.get(bytes, i));
+        }
+        for (; i < end; i++) {
+            crc = doCrc(bytes[i], crc);
+        }
         return crc & 0xFFFF;
     }
 
-    public static int crc16(ByteBuffer bytes) {
-        return crc16(bytes,0,bytes.limit());
+    private static int slice8(int crc, long w) {
+        int[][] t = SLICES;
+        return t[7][(int) (w >>> 56) ^ ((crc >>> 8) & 0xFF)] ^
+                t[6][((int) (w >>> 48) ^ crc) & 0xFF] ^
+                t[5][(int) (w >>> 40) & 0xFF] ^
+                t[4][(int) (w >>> 32) & 0xFF] ^
+                t[3][(int) (w >>> 24) & 0xFF] ^
+                t[2][(int) (w >>> 16) & 0xFF] ^
+                t[1][(int) (w >>> 8) & 0xFF] ^
+                t[0][(int) w & 0xFF];
     }
 
     private static int doCrc(byte b, int crc) {
@@ -0,0 +1,166 @@
+package org.g2fx.g2lib.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Size-classed pool of direct buffers (power-of-two classes 16B..64KiB) for
+ * USB messages and outbound message assembly. Buffers are handed out as
+ * {@link Lease}s, zeroed and limited to the requested size; larger requests
+ * are allocated unpooled. Leak tracking records acquisition sites of
+ * outstanding leases, for tests.
+ */
+public class DirectBufferPool {
+
+    private static final Logger log = Util.getLogger(DirectBufferPool.class);
+
+    public static final int MIN_SHIFT = 4;
+    public static final int MAX_SHIFT = 16;
+    public static final int DEFAULT_RETAINED = 16;
+
+    /**
+     * Pool for USB layer.
+     */
+    public static final DirectBufferPool SHARED = new DirectBufferPool(DEFAULT_RETAINED);
+
+    private final int maxRetained;
+    private final List<ConcurrentLinkedDeque<ByteBuffer>> free = new ArrayList<>();
+    private final AtomicInteger[] freeCounts = new AtomicInteger[MAX_SHIFT - MIN_SHIFT + 1];
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private volatile boolean trackLeaks;
+    private final Map<Lease, Throwable> outstanding = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxRetained max free buffers kept per size class.
+     */
+    public DirectBufferPool(int maxRetained) {
+        this.maxRetained = maxRetained;
+        for (int i = 0; i < freeCounts.length; i++) {
+            free.add(new ConcurrentLinkedDeque<>());
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    public final class Lease implements AutoCloseable {
+        private final ByteBuffer buffer;
+        private final int sizeClass;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(ByteBuffer buffer, int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Return buffer to pool; buffer must not be used afterward.
+         * @throws IllegalStateException if already released.
+         */
+        public void release() {
+            if (!released.compareAndSet(false, true)) {
+                throw new IllegalStateException("Lease already released");
+            }
+            DirectBufferPool.this.release(this);
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+
+        @Override
+        public String toString() {
+            return "Lease[" + buffer.capacity() + "]";
+        }
+    }
+
+    public Lease acquire(int size) {
+        int c = sizeClass(size);
+        ByteBuffer b = null;
+        if (c >= 0) {
+            b = free.get(c).poll();
+            if (b != null) {
+                freeCounts[c].decrementAndGet();
+                zero(b.clear().limit(size));
+            }
+        }
+        if (b == null) {
+            allocated.incrementAndGet();
+            b = ByteBuffer.allocateDirect(c >= 0 ? 1 << (c + MIN_SHIFT) : size).limit(size);
+        }
+        Lease l = new Lease(b, c);
+        acquired.incrementAndGet();
+        if (trackLeaks) {
+            outstanding.put(l, new Throwable("Lease acquired: " + size));
+        }
+        return l;
+    }
+
+    private void release(Lease l) {
+        released.incrementAndGet();
+        if (trackLeaks) {
+            outstanding.remove(l);
+        }
+        int c = l.sizeClass;
+        if (c < 0) { return; }
+        if (freeCounts[c].incrementAndGet() <= maxRetained) {
+            free.get(c).push(l.buffer);
+        } else {
+            freeCounts[c].decrementAndGet();
+        }
+    }
+
+    private static int sizeClass(int size) {
+        if (size > 1 << MAX_SHIFT) { return -1; }
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1)));
+        return shift - MIN_SHIFT;
+    }
+
+    private static void zero(ByteBuffer b) {
+        int lim = b.limit();
+        int i = 0;
+        for (; i + 8 <= lim; i += 8) { b.putLong(i, 0); }
+        for (; i < lim; i++) { b.put(i, (byte) 0); }
+    }
+
+    public long getOutstanding() {
+        return acquired.get() - released.get();
+    }
+
+    public long getAcquired() { return acquired.get(); }
+
+    /**
+     * Count of direct allocations, pooled misses plus unpooled.
+     */
+    public long getAllocated() { return allocated.get(); }
+
+    /**
+     * Enable recording of acquisition sites, clearing any recorded.
+     */
+    public void setLeakTracking(boolean track) {
+        outstanding.clear();
+        trackLeaks = track;
+    }
+
+    /**
+     * Acquisition sites of unreleased leases since tracking enabled.
+     */
+    public List<Throwable> getLeaks() {
+        List<Throwable> leaks = new ArrayList<>(outstanding.values());
+        leaks.forEach(t -> log.warning(() -> "Leaked: " + t.getMessage()));
+        return leaks;
+    }
+}
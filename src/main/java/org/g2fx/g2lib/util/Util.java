@@ -8,9 +8,12 @@ import com.google.common.collect.Streams;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
@@ -85,34 +88,38 @@ public class Util {
     }
 
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     public static String dumpBufferString(ByteBuffer buffer1) {
-        ByteBuffer buffer = buffer1.slice(0,buffer1.limit());
-        StringBuilder hex = new StringBuilder();
-        StringBuilder ascii = new StringBuilder();
-        StringBuilder output = new StringBuilder("\n");
-        int i = 0;
-        while (buffer.hasRemaining()) {
+        int len = buffer1.limit();
+        StringBuilder output = new StringBuilder(1 + (len / 16 + 1) * 72).append('\n');
+        StringBuilder ascii = new StringBuilder(16);
+        for (int i = 0; i < len; i++) {
             if (i % 16 == 0) {
-                output.append(String.format("%04x  ",i));
+                appendHex(output, i >>> 8).append(HEX[(i >>> 4) & 0xf]).append(HEX[i & 0xf]).append("  ");
+                ascii.setLength(0);
             }
-            byte d = buffer.get();
-            hex.append(String.format("%02x ", d));
-            ascii.append((d >= 33 && d < 126) ? String.format("%c", d) : ".");
+            byte d = buffer1.get(i);
+            output.append(HEX[(d >>> 4) & 0xf]).append(HEX[d & 0xf]).append(' ');
+            ascii.append((d >= 33 && d < 126) ? (char) d : '.');
             if (i % 16 == 15) {
-                output.append(String.format("%s  %s\n", hex, ascii));
-                hex = new StringBuilder();
-                ascii = new StringBuilder();
+                output.append("  ").append(ascii).append('\n');
             }
-            i++;
         }
-        if (i % 16 > 0) {
-            int pad = 3 * (16 - (i % 16));
-            //System.out.printf("pad %d %d\n",pad,i % 16);
-            output.append(String.format("%s %" + pad + "s %s\n", hex, "", ascii));
+        if (len % 16 > 0) {
+            output.repeat(' ', 2 + 3 * (16 - (len % 16))).append(ascii).append('\n');
         }
         return output.toString();
     }
 
+    /**
+     * Append two hex digits of high byte of 16-bit offset (%04x, wider if needed).
+     */
+    private static StringBuilder appendHex(StringBuilder sb, int hi) {
+        if (hi > 0xff) { sb.append(Integer.toHexString(hi >>> 8)); }
+        return sb.append(HEX[(hi >>> 4) & 0xf]).append(HEX[hi & 0xf]);
+    }
+
     public static ByteBuffer readBufferDump(String v) {
         String[] lines = v.split("\\n");
         ByteBuffer buf = ByteBuffer.allocateDirect(v.length()); //oversize
@@ -175,6 +182,28 @@ public class Util {
         return r;
     }
 
+    /**
+     * Files from this size are mapped by {@link #fileBuffer}. Mapping costs more than
+     * reading a patch-sized file, and on Windows locks the file while mapped.
+     */
+    public static final int MAP_THRESHOLD = 1 << 20;
+
+    /**
+     * Contents of PATH, read-only: mapped off the heap if at least {@link #MAP_THRESHOLD}
+     * bytes, otherwise read into a heap buffer.
+     */
+    public static ByteBuffer fileBuffer(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size >= MAP_THRESHOLD) {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+            return buf.flip().asReadOnlyBuffer();
+        }
+    }
+
     public static ByteBuffer readFile(String path) throws Exception {
         ByteBuffer buf;
         try (FileInputStream fis = new FileInputStream(path)) {
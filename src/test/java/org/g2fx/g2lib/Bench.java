@@ -0,0 +1,55 @@
+package org.g2fx.g2lib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing harness for "bench" tagged tests: each case runs N times untimed to warm up,
+ * then N times timed, and one line is printed with per-run times and speedups over
+ * the first case.
+ */
+public class Bench {
+
+    @FunctionalInterface
+    public interface Body {
+        /**
+         * Run iteration I.
+         */
+        void run(int i) throws Exception;
+    }
+
+    public record Case(String label, Body body) { }
+
+    public static Case of(String label, Body body) {
+        return new Case(label, body);
+    }
+
+    /**
+     * Time N runs of each case, reporting under NAME.
+     * @return nanos per run for each case
+     */
+    public static double[] run(String name, int n, Case... cases) throws Exception {
+        for (Case c : cases) {
+            for (int i = 0; i < n; i++) { c.body().run(i); }
+        }
+        double[] nanos = new double[cases.length];
+        for (int k = 0; k < cases.length; k++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < n; i++) { cases[k].body().run(i); }
+            nanos[k] = (double) (System.nanoTime() - t0) / n;
+        }
+        List<String> rs = new ArrayList<>();
+        for (int k = 0; k < cases.length; k++) {
+            String r = cases[k].label() + " " + format(nanos[k]);
+            rs.add(k == 0 ? r : r + String.format(" (%.1fx)", nanos[0] / nanos[k]));
+        }
+        System.out.printf("%s: %s%n", name, String.join(", ", rs));
+        return nanos;
+    }
+
+    private static String format(double nanos) {
+        if (nanos < 1e3) { return String.format("%.1fns", nanos); }
+        if (nanos < 1e6) { return String.format("%.1fus", nanos / 1e3); }
+        return String.format("%.2fms", nanos / 1e6);
+    }
+}
@@ -5,9 +5,11 @@ import org.g2fx.g2lib.util.Util;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class BitBufferTest {
 
@@ -66,4 +68,109 @@ class BitBufferTest {
     }
 
 
+    @Test
+    void fuzzAgainstLegacy() throws Exception {
+        Random r = new Random(0x62);
+        for (int round = 0; round < 200; round++) {
+            int size = 1 + r.nextInt(64);
+            boolean direct = r.nextBoolean();
+            int[] lens = new int[size * 2];
+            int[] vals = new int[lens.length];
+            int bits = 0, n = 0;
+            while (n < lens.length) {
+                int len = 1 + r.nextInt(32);
+                if (bits + len > size * 8) { break; }
+                lens[n] = len;
+                vals[n] = (int) (r.nextLong() & ((1L << Math.min(len, 31)) - 1));
+                bits += len;
+                n++;
+            }
+
+            //write
+            ByteBuffer nbuf = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+            ByteBuffer lbuf = ByteBuffer.allocate(size);
+            BitBuffer bb = new BitBuffer(nbuf);
+            LegacyBitBuffer lb = new LegacyBitBuffer(lbuf);
+            for (int i = 0; i < n; i++) {
+                bb.put(lens[i], vals[i]);
+                lb.put(lens[i], vals[i]);
+            }
+            assertEquals(lb.bpos, bb.getBitPosition());
+            assertEquals(lbuf.rewind(), nbuf.rewind(), "write round " + round);
+
+            //read
+            BitBuffer rb = new BitBuffer(nbuf);
+            LegacyBitBuffer lr = new LegacyBitBuffer(lbuf);
+            for (int i = 0; i < n; i++) {
+                int len = lens[(i + round) % n];
+                if (rb.getBitsRemaining() < len) { break; }
+                assertEquals(lr.get(len), rb.get(len), "read round " + round + ", field " + i);
+            }
+        }
+    }
+
+    @Test
+    void putValidation() {
+        BitBuffer bb = new BitBuffer(4);
+        bb.put(7, 127);
+        assertThrows(IllegalArgumentException.class, () -> bb.put(7, 128));
+        assertThrows(IllegalArgumentException.class, () -> bb.get(64));
+    }
+
+    /**
+     * Byte-at-a-time implementation preceding word-at-a-time engine, for comparison.
+     */
+    private static class LegacyBitBuffer {
+        private final ByteBuffer buffer;
+        private int bpos;
+
+        LegacyBitBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int get(int len) {
+            int pos = bpos / 8;
+            int b0 = Util.b2i(buffer.get(pos));
+            int off = bpos % 8;
+            bpos += len;
+            int r = b0 & (0xff >> off);
+            int rem0 = 8 - off;
+            if (len <= rem0) {
+                return r >> (rem0 - len);
+            }
+            len -= rem0;
+            while (len > 0) {
+                int b1 = Util.b2i(buffer.get(++pos));
+                if (len <= 8) {
+                    return (r << len) | (b1 >> (8 - len));
+                }
+                len -= 8;
+                r = (r << 8) | b1;
+            }
+            throw new RuntimeException("Loop failure");
+        }
+
+        void put(int len, int val) {
+            int pos = bpos / 8;
+            int off = bpos % 8;
+            bpos += len;
+            int b0 = off > 0 ? Util.b2i(buffer.get(pos)) : 0;
+            int end = off + len;
+            if (end <= 8) {
+                buffer.put(pos, (byte) (b0 | (val << (8 - end))));
+                return;
+            }
+            int rem = end - 8;
+            buffer.put(pos, (byte) (b0 | (val >> rem)));
+            while (rem > 0) {
+                if (rem <= 8) {
+                    buffer.put(++pos, (byte) ((val << (8 - rem)) & 0xff));
+                    return;
+                }
+                rem = rem - 8;
+                buffer.put(++pos, (byte) ((val >> rem) & 0xff));
+            }
+        }
+    }
+
 }
@@ -1,24 +1,58 @@
 package org.g2fx.g2lib;
 
+import org.g2fx.g2lib.device.BankTransfer;
 import org.g2fx.g2lib.device.Device;
+import org.g2fx.g2lib.device.DeviceSession;
+import org.g2fx.g2lib.device.Devices;
+import org.g2fx.g2lib.device.G2Emulator;
+import org.g2fx.g2lib.device.LibScheduler;
+import org.g2fx.g2lib.model.LibProperty;
 import org.g2fx.g2lib.model.ModParam;
 import org.g2fx.g2lib.model.SettingsModules;
 import org.g2fx.g2lib.protocol.Codes;
+import org.g2fx.g2lib.protocol.FieldEnum;
 import org.g2fx.g2lib.protocol.FieldValues;
 import org.g2fx.g2lib.protocol.Protocol;
+import org.g2fx.g2lib.protocol.Sections;
 import org.g2fx.g2lib.state.*;
+import org.g2fx.g2lib.usb.CoalescingSender;
+import org.g2fx.g2lib.usb.Dispatcher;
+import org.g2fx.g2lib.usb.LatencyHistogram;
 import org.g2fx.g2lib.usb.MessageRecorder;
 import org.g2fx.g2lib.usb.OfflineSender;
+import org.g2fx.g2lib.usb.ParamUpdate;
+import org.g2fx.g2lib.usb.RequestPipeline;
 import org.g2fx.g2lib.usb.UsbMessage;
+import org.g2fx.g2lib.usb.UsbMetrics;
+import org.g2fx.g2lib.usb.UsbReadThread;
 import org.g2fx.g2lib.usb.UsbSender;
 import org.g2fx.g2lib.util.Util;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.ByteBuffer;
-import java.util.List;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 import static org.g2fx.g2lib.PerformanceTest.dropCrcTrailer;
 import static org.g2fx.g2lib.PerformanceTest.overwriteBytes;
@@ -27,10 +61,12 @@ import static org.junit.jupiter.api.Assertions.*;
 public class DeviceTest {
 
     public static final String CAP_OO4_POWERON = "data/capture/capture-004-poweron-init-save.pcapng";
+    public static final String EMULATED_PERF = "data/perf/perf-20240802.prf2";
 
     @BeforeAll
-    public static void beforeAll() {
+    public static void beforeAll() throws Exception {
         Util.configureLogging();
+        System.setProperty(Entries.CACHE_DIR_PROPERTY, Files.createTempDirectory("g2fx-cache").toString());
     }
 
 
@@ -290,6 +326,874 @@ public class DeviceTest {
         }
     }
 
+    @Test
+    void expectationMatching() throws Exception {
+        UsbReadThread rt = new UsbReadThread(null);
+        List<UsbMessage> dispatched = new CopyOnWriteArrayList<>();
+        rt.setDispatcher(m -> { dispatched.add(m); return true; });
+        UsbMessage led = new UsbMessage(6, false, 0, Util.readTextColsByteBuffer("52 01 08 00 39 00 00"));
+        UsbMessage name = new UsbMessage(4, true, 0, Util.readTextColsByteBuffer("01 09 00 27 41 00"));
+        UsbMessage ok = new UsbMessage(5, false, 0, Util.readTextColsByteBuffer("62 01 0c 00 7f 00"));
+
+        CompletableFuture<UsbMessage> any = rt.expect("any", _ -> true, 0);
+        CompletableFuture<UsbMessage> keyed = rt.expect("name",
+                UsbReadThread.signature(Codes.M_CMD, Codes.S_SLOT_08 + 1, Codes.I_PATCH_NAME), 0);
+        CompletableFuture<UsbMessage> timed = rt.expect("timed",
+                UsbReadThread.signature(Codes.M_CMD, Codes.S_PERF_0C, Codes.I_SYNTH_SETTINGS), 10);
+        assertEquals(3, rt.pending());
+
+        rt.receiveMsg(led);
+        assertEquals(List.of(led), dispatched, "stream bypasses expectations");
+        assertFalse(any.isDone());
+        rt.receiveMsg(name);
+        assertSame(name, keyed.getNow(null), "keyed before predicate");
+        assertFalse(any.isDone());
+        rt.receiveMsg(ok);
+        assertSame(ok, any.getNow(null));
+
+        ExecutionException e = assertThrows(ExecutionException.class, timed::get);
+        assertInstanceOf(java.util.concurrent.TimeoutException.class, e.getCause());
+        CompletableFuture<UsbMessage> cancelled = rt.expect("cancelled", _ -> true);
+        cancelled.cancel(false);
+        for (int i = 0; i < 100 && rt.pending() > 0; i++) { Thread.sleep(5); } // timeout removal is async
+        assertEquals(0, rt.pending(), "completed, timed-out and cancelled removed");
+        rt.receiveMsg(ok);
+        assertEquals(List.of(led, ok), dispatched);
+    }
+
+    /**
+     * Requests expect responses by signature where their op's response type is known.
+     */
+    @Test
+    void responseSignatures() {
+        ByteBuffer patchName = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_SLOT_REQ + 1, 0, Codes.O_PATCH_NAME));
+        ByteBuffer perfSettings = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_PERF_REQ, 0, Codes.O_PERF_SETTINGS));
+        ByteBuffer startComm = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_PERF_REQ, Codes.V_SYSTEM,
+                Codes.O_START_STOP_COM, 0));
+        ByteBuffer setMode = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_SLOT_REQ + 2, 0, Codes.O_SET_MODE));
+        assertEquals(UsbReadThread.signature(Codes.M_CMD, Codes.S_SLOT_08 + 1, Codes.I_PATCH_NAME),
+                UsbReadThread.responseSignature(patchName));
+        assertEquals(UsbReadThread.signature(Codes.M_CMD, Codes.S_PERF_0C, Codes.I_PERFORMANCE_NAME),
+                UsbReadThread.responseSignature(perfSettings));
+        assertEquals(UsbReadThread.signature(Codes.M_CMD, Codes.S_PERF_0C, Codes.I_OK),
+                UsbReadThread.responseSignature(startComm));
+        assertEquals(UsbReadThread.NO_SIGNATURE, UsbReadThread.responseSignature(setMode));
+        assertEquals(UsbReadThread.signature(Codes.M_CMD, Codes.S_SLOT_08 + 2, 0) >> 8,
+                UsbReadThread.responseChannel(setMode));
+        assertEquals(UsbReadThread.NO_SIGNATURE, UsbReadThread.responseChannel(
+                ByteBuffer.wrap(Util.asBytes(Codes.M_INIT))));
+    }
+
+    /**
+     * Pipelined responses match their requests by expected signature, so unsolicited
+     * messages arriving in between do not shift later matches.
+     */
+    @Test
+    void pipelinedResponseMatching() {
+        UsbReadThread rt = new UsbReadThread(null);
+        List<UsbMessage> dispatched = new CopyOnWriteArrayList<>();
+        rt.setDispatcher(m -> { dispatched.add(m); return true; });
+        ByteBuffer patchName = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_SLOT_REQ + 1, 0, Codes.O_PATCH_NAME));
+        ByteBuffer perfSettings = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_PERF_REQ, 0, Codes.O_PERF_SETTINGS));
+        ByteBuffer startComm = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_PERF_REQ, Codes.V_SYSTEM,
+                Codes.O_START_STOP_COM, 0));
+        ByteBuffer setMode = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_SLOT_REQ + 2, 0, Codes.O_SET_MODE));
+
+        CompletableFuture<UsbMessage> name = rt.expectResponse("name", patchName, 0);
+        CompletableFuture<UsbMessage> settings = rt.expectResponse("settings", perfSettings, 0);
+        CompletableFuture<UsbMessage> started = rt.expectResponse("start", startComm, 0);
+        CompletableFuture<UsbMessage> mode = rt.expectResponse("mode", setMode, 0);
+        UsbMessage note = new UsbMessage(4, true, 0, Util.readTextColsByteBuffer("01 00 00 69 00 00"));
+        UsbMessage nameR = new UsbMessage(4, true, 0, Util.readTextColsByteBuffer("01 09 00 27 41 00"));
+        UsbMessage perfName = new UsbMessage(4, true, 0, Util.readTextColsByteBuffer("01 04 00 29 41 00"));
+        UsbMessage settingsR = new UsbMessage(4, true, 0, Util.readTextColsByteBuffer("01 0c 00 29 41 00"));
+        UsbMessage okR = new UsbMessage(5, false, 0, Util.readTextColsByteBuffer("62 01 0c 00 7f 00"));
+        UsbMessage modeR = new UsbMessage(5, false, 0, Util.readTextColsByteBuffer("62 01 0a 00 7f 00"));
+        for (UsbMessage m : List.of(note, nameR, perfName, settingsR, okR, modeR)) { rt.receiveMsg(m); }
+        assertSame(nameR, name.getNow(null));
+        assertSame(settingsR, settings.getNow(null));
+        assertSame(okR, started.getNow(null));
+        assertSame(modeR, mode.getNow(null), "unkeyed op matches on its slot");
+        assertEquals(List.of(note, perfName), dispatched);
+        assertEquals(0, rt.pending());
+    }
+
+    /**
+     * A reply of a type not in the response tables completes the oldest expectation on
+     * its channel rather than leaving it to time out; notifications are still dispatched.
+     */
+    @Test
+    void unknownResponseType() {
+        UsbReadThread rt = new UsbReadThread(null);
+        List<UsbMessage> dispatched = new CopyOnWriteArrayList<>();
+        rt.setDispatcher(m -> { dispatched.add(m); return true; });
+        ByteBuffer patchName = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_SLOT_REQ + 1, 0, Codes.O_PATCH_NAME));
+        ByteBuffer params = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_SLOT_REQ + 1, 0, Codes.O_PARAMS));
+        ByteBuffer perfSettings = ByteBuffer.wrap(Util.asBytes(Codes.M_CMD, Codes.S_PERF_REQ, 0, Codes.O_PERF_SETTINGS));
+
+        CompletableFuture<UsbMessage> name = rt.expectResponse("name", patchName, 0);
+        CompletableFuture<UsbMessage> ps = rt.expectResponse("params", params, 0);
+        CompletableFuture<UsbMessage> settings = rt.expectResponse("settings", perfSettings, 0);
+        UsbMessage setParam = new UsbMessage(5, false, 0, Util.readTextColsByteBuffer("62 01 09 00 40 00"));
+        UsbMessage error1 = new UsbMessage(5, false, 0, Util.readTextColsByteBuffer("62 01 09 00 7e 00"));
+        UsbMessage error2 = new UsbMessage(5, false, 0, Util.readTextColsByteBuffer("62 01 09 00 7e 01"));
+        rt.receiveMsg(setParam);
+        assertEquals(List.of(setParam), dispatched, "notification not taken as a reply");
+        assertEquals(3, rt.pending());
+        rt.receiveMsg(error1);
+        assertSame(error1, name.getNow(null), "oldest on channel");
+        assertFalse(ps.isDone());
+        rt.receiveMsg(error2);
+        assertSame(error2, ps.getNow(null));
+        assertFalse(settings.isDone(), "other channel");
+        assertEquals(1, rt.pending());
+        assertEquals(List.of(setParam), dispatched);
+    }
+
+    @Test
+    void visualFastLane() {
+        Device d = initDevice();
+        UsbReadThread rt = new UsbReadThread(null);
+        List<UsbMessage> dispatched = new CopyOnWriteArrayList<>();
+        rt.setDispatcher(m -> { dispatched.add(m); return true; });
+        rt.setStreamDispatcher(d::dispatchVisuals);
+
+        rt.receiveMsg(new UsbMessage(6, false, 0, Util.readTextColsByteBuffer("72 01 08 00 39 00 e4 1b")));
+        rt.receiveMsg(new UsbMessage(8, true, 0, Util.readTextColsByteBuffer("01 09 00 3a 00 05 00 7f")));
+        assertEquals(List.of(), dispatched);
+
+        VisualFrames vf = d.getVisualFrames();
+        assertTrue(vf.takeDirty());
+        assertFalse(vf.takeDirty());
+        byte[] leds = new byte[16];
+        assertEquals(8, vf.leds(Slot.A).read(leds));
+        assertArrayEquals(Util.asBytes(0, 1, 2, 3, 3, 2, 1, 0), java.util.Arrays.copyOf(leds, 8));
+        assertEquals(1, vf.leds(Slot.A).version());
+        byte[] meters = new byte[1];
+        assertEquals(2, vf.meters(Slot.B).read(meters), "length exceeds copy");
+        assertEquals(5, VisualFrames.valueAt(meters, 2, 0));
+        assertEquals(-1, VisualFrames.valueAt(meters, 2, 1), "beyond copy");
+        assertEquals(0, vf.meters(Slot.A).version());
+    }
+
+    /**
+     * Performance.initialize pipelined reaches the same state as sequential, replaying
+     * capture 004 responses with their recorded round trips.
+     */
+    @Test
+    void pipelinedInit() throws Exception {
+        assertEquals(replayInit(1), replayInit(RequestPipeline.DEFAULT_WINDOW));
+    }
+
+    /**
+     * Benchmark of Performance.initialize time-to-ready, sequential vs pipelined.
+     */
+    @Test
+    @Tag("bench")
+    void pipelinedInitTimeToReady() throws Exception {
+        Bench.run("Performance.initialize time-to-ready", 1,
+                Bench.of("sequential", _ -> replayInit(1)),
+                Bench.of("pipelined", _ -> replayInit(RequestPipeline.DEFAULT_WINDOW)));
+    }
+
+    /**
+     * Initialize from capture 004 replay with WINDOW requests in flight.
+     * @return yaml dump of the performance
+     */
+    private static String replayInit(int window) throws Exception {
+        ReplaySender sender = new ReplaySender(CAP_OO4_POWERON, window);
+        Device d = new Device(sender, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        Performance perf = initPerf(d);
+        perf.initialize();
+        sender.shutdown();
+        assertTrue(perf.perfName().get().startsWith("eff"), perf.perfName().get());
+        assertEquals("simple synth 001", perf.getSlot(Slot.B).name().get());
+        java.io.File f = java.io.File.createTempFile("perf", ".yaml");
+        perf.dumpYaml(f.getPath());
+        String yaml = java.nio.file.Files.readString(f.toPath());
+        f.delete();
+        return yaml;
+    }
+
+    /**
+     * Answers requests with the response that followed the same request in a capture,
+     * after its recorded round trip. The device serves requests in order, spending
+     * {@link #SERVICE} of each round trip busy; the rest (USB scheduling, transfer)
+     * overlaps with other requests.
+     */
+    static class ReplaySender implements UsbSender {
+        static final double SERVICE = 0.2;
+        record Recorded(UsbMessage response, long roundTripNanos) { }
+
+        private final Map<String, ArrayDeque<Recorded>> responses = new HashMap<>();
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final RequestPipeline pipeline;
+        private Dispatcher dispatcher;
+        private long deviceFree;
+
+        ReplaySender(String capFile, int window) throws Exception {
+            List<MessageRecorder.RecordedUsbMessage> ms = MessageRecorder.parseCapture(capFile,
+                    b -> MessageRecorder.INBOUND.test(b) || MessageRecorder.OUTBOUND.test(b));
+            String request = null;
+            for (MessageRecorder.RecordedUsbMessage m : ms) {
+                ByteBuffer b = m.msg().buffer();
+                if (!m.inbound()) {
+                    request = Util.dumpBufferString(b.slice(2, b.limit() - 4));
+                } else if (request != null && (UsbReadThread.signature(m.msg()) & 0xff) != Codes.I_LED_DATA &&
+                        (UsbReadThread.signature(m.msg()) & 0xff) != Codes.I_VOLUME_DATA) {
+                    responses.computeIfAbsent(request, _ -> new ArrayDeque<>())
+                            .add(new Recorded(m.msg(), TimeUnit.MILLISECONDS.toNanos(Math.max(1, m.time()))));
+                    request = null;
+                }
+            }
+            pipeline = new RequestPipeline(this::request, m -> dispatcher.dispatch(m), window);
+        }
+
+        CompletableFuture<UsbMessage> request(String msg, ByteBuffer data) {
+            Recorded r = Optional.ofNullable(responses.get(Util.dumpBufferString(data)))
+                    .map(ArrayDeque::poll).orElse(null);
+            if (r == null) {
+                return CompletableFuture.failedFuture(new IllegalStateException("No recorded response: " + msg));
+            }
+            long now = System.nanoTime();
+            long service = (long) (r.roundTripNanos() * SERVICE);
+            long transfer = (r.roundTripNanos() - service) / 2;
+            long done;
+            synchronized (this) {
+                deviceFree = Math.max(now + transfer, deviceFree) + service;
+                done = deviceFree + transfer;
+            }
+            UsbMessage m = r.response();
+            UsbMessage copy = new UsbMessage(m.size(), m.extended(), m.crc(), m.buffer().duplicate().rewind());
+            CompletableFuture<UsbMessage> f = new CompletableFuture<>();
+            timer.schedule(() -> f.complete(copy), done - now, TimeUnit.NANOSECONDS);
+            return f;
+        }
+
+        @Override
+        public int sendBulk(String msg, boolean dispatch, ByteBuffer data) throws Exception {
+            if (!dispatch) { return data.limit(); }
+            if (pipeline.owns()) { return pipeline.submit(msg, data); }
+            dispatcher.dispatch(request(msg, data).get());
+            return data.limit();
+        }
+
+        @Override public void beginPipeline() { pipeline.begin(); }
+        @Override public void endPipeline() throws Exception { pipeline.end(); }
+        @Override public void setDispatcher(Dispatcher dispatcher) { this.dispatcher = dispatcher; }
+        @Override public void shutdown() { timer.shutdownNow(); }
+    }
+
+    @Test
+    void coalesceParamUpdates() throws Exception {
+        List<String> sent = new CopyOnWriteArrayList<>();
+        OfflineSender offline = new OfflineSender((dispatch, data) ->
+                sent.add(Util.dumpBufferString(data).trim()));
+        CoalescingSender cs = new CoalescingSender(offline, 1, TimeUnit.HOURS, 3);
+        for (int v = 0; v < 100; v++) { // knob sweep, two params
+            cs.sendParamUpdate(ParamUpdate.param(Slot.B, 2, 1, 3, 0, v, 0));
+            cs.sendParamUpdate(ParamUpdate.param(Slot.B, 2, 1, 3, 1, v, 0));
+        }
+        assertEquals(0, sent.size());
+        cs.sendBulk("structural", false, Util.asBytes(Codes.M_CMD, 0x39, 2, Codes.O_ADD_CABLE));
+        cs.sendParamUpdate(ParamUpdate.mode(Slot.B, 2, 1, 3, 0, 1));
+        cs.flush();
+        assertEquals(List.of(
+                Util.dumpBufferString(ByteBuffer.wrap(Util.asBytes(0x01, 0x39, 2, 0x40, 1, 3, 0, 99, 0))).trim(),
+                Util.dumpBufferString(ByteBuffer.wrap(Util.asBytes(0x01, 0x39, 2, 0x40, 1, 3, 1, 99, 0))).trim(),
+                Util.dumpBufferString(ByteBuffer.wrap(Util.asBytes(0x01, 0x39, 2, 0x50))).trim(),
+                Util.dumpBufferString(ByteBuffer.wrap(Util.asBytes(0x01, 0x29, 2, 0x2b, 1, 3, 0, 1))).trim()
+        ), sent);
+        assertEquals(201, cs.getReceived());
+        assertEquals(3, cs.getSent());
+
+        // batch full
+        sent.clear();
+        for (int p = 0; p < 3; p++) {
+            cs.sendParamUpdate(ParamUpdate.param(Slot.A, 1, 0, 1, p, 64, 2));
+        }
+        assertEquals(3, sent.size());
+
+        // tick flushes on the lib thread
+        sent.clear();
+        LibScheduler lib = new LibScheduler("coalesce-lib");
+        List<String> threads = new CopyOnWriteArrayList<>();
+        CoalescingSender ticking = new CoalescingSender(new OfflineSender((dispatch, data) -> {
+            threads.add(Thread.currentThread().getName());
+            sent.add(Util.dumpBufferString(data).trim());
+        }), 5, TimeUnit.MILLISECONDS, 32, r -> lib.execute(LibScheduler.Priority.Edit, r));
+        ticking.sendParamUpdate(ParamUpdate.mode(Slot.A, 1, 0, 1, 0, 2));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (sent.isEmpty() && System.currentTimeMillis() < deadline) { Thread.sleep(1); }
+        assertEquals(1, sent.size());
+        assertEquals(List.of("coalesce-lib"), threads);
+        ticking.close();
+        cs.close();
+        lib.shutdown();
+    }
+
+    /**
+     * Device initialized against the emulator reads back the emulated performance,
+     * bank listing across pages, edits and a bank load; streams reach VisualFrames.
+     */
+    @Test
+    void emulatorServesDevice() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.NONE)
+                .addEntry(Entries.EntryType.Patch, 2, 5, "data/patch/simplesynth001-20240802.pch2")
+                .addEntry(Entries.EntryType.Patch, 2, 7, "data/patch/g2fx-uprate-4mod.pch2");
+        for (int i = 0; i < G2Emulator.ENTRIES_PAGE + 6; i++) {
+            emu.addEntry(Entries.EntryType.Performance, 1, i, EMULATED_PERF);
+        }
+        Device d = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        Performance perf = initPerf(d);
+        d.initialize();
+        perf.initialize();
+        d.loadEntries(Runnable::run);
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+
+        StringWriter sw = new StringWriter();
+        d.getEntries().dumpEntries(new PrintWriter(sw), Entries.EntryType.Patch, -1);
+        assertEquals("Patch bank 3:\n  06: simplesynth001-2 [0]\n  08: g2fx-uprate-4mod [0]\n", sw.toString());
+        sw.getBuffer().setLength(0);
+        d.getEntries().dumpEntries(new PrintWriter(sw), Entries.EntryType.Performance, 1);
+        assertEquals(G2Emulator.ENTRIES_PAGE + 7, sw.toString().lines().count());
+
+        Patch a = perf.getSlot(Slot.A);
+        PatchModule pm = a.getArea(AreaId.Voice).getModules().stream()
+                .filter(m -> !m.getVarValues(0).isEmpty()).findFirst().orElseThrow();
+        int value = 127 - pm.getVarValues(0).getFirst();
+        d.getUsb().sendParamUpdate(ParamUpdate.param(Slot.A, a.getVersion(),
+                AreaId.Voice.ordinal(), pm.getIndex(), 0, value, 0));
+        assertEquals(value, emu.getPerf().getSlot(Slot.A).getArea(AreaId.Voice)
+                .getModule(pm.getIndex()).getVarValues(0).getFirst());
+        int variation = (a.getPatchSettings().variation().get() + 1) % 8;
+        a.getPatchSettings().variation().set(variation);
+        assertEquals(variation, emu.getPerf().getSlot(Slot.A).getPatchSettings().variation().get());
+
+        int version = perf.getSlot(Slot.C).getVersion();
+        d.getEntries().loadEntry(Slot.C.ordinal(), 2, 7);
+        assertEquals("g2fx-uprate-4mod", perf.getSlot(Slot.C).name().get());
+        assertEquals(version + 1, perf.getSlot(Slot.C).getVersion());
+
+        emu.setStreamDispatcher(d::dispatchVisuals);
+        emu.setStreamRates(200, 200);
+        emu.start();
+        emu.sendStartStopComm(true);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (emu.getStreamed() < 16 && System.currentTimeMillis() < deadline) { Thread.sleep(1); }
+        emu.shutdown();
+        assertTrue(emu.getStreamed() >= 16, "streamed " + emu.getStreamed());
+        assertTrue(d.getVisualFrames().takeDirty());
+    }
+
+    /**
+     * Loading a close variant of a slot's patch (param edits, a cable removed) syncs the
+     * emulator with an edit script, keeping the slot version; a different patch falls back
+     * to a full send.
+     */
+    @Test
+    void patchDiffSync() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.NONE);
+        Device d = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        Performance perf = initPerf(d);
+        d.initialize();
+        perf.initialize();
+        Patch a = perf.getSlot(Slot.A);
+        int version = a.getVersion();
+
+        File dir = Files.createTempDirectory("g2diff").toFile();
+        File orig = new File(dir, "v1/" + a.name().get() + ".pch2");
+        File variant = new File(dir, "v2/" + a.name().get() + ".pch2");
+        FieldValues removed = writeVariant(a, orig, variant);
+        List<FieldValues> cables = Protocol.CableList.Cables.subfieldsValue(
+                Patch.readFromFile(Slot.A, variant.getPath(), new OfflineSender())
+                        .getSection(Sections.SCableList1_52).values());
+
+        Patch synced = perf.readPatchFromFile(Slot.A, variant.getPath());
+        assertEquals(version, synced.getVersion());
+        Patch ea = emu.getPerf().getSlot(Slot.A);
+        assertEquals(version, ea.getVersion(), "no full send");
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+        assertEquals(cables.size(), ea.getArea(AreaId.Voice).getCables().size());
+        assertTrue(ea.getArea(AreaId.Voice).getCables().stream().noneMatch(c -> c.getFieldValues().equals(removed)));
+
+        // and back, restoring the cable
+        perf.readPatchFromFile(Slot.A, orig.getPath());
+        assertEquals(version, emu.getPerf().getSlot(Slot.A).getVersion(), "no full send");
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+        assertEquals(cables.size() + 1, emu.getPerf().getSlot(Slot.A).getArea(AreaId.Voice).getCables().size());
+
+        perf.readPatchFromFile(Slot.A, PerformanceTest.PATCH_UPRATE_4MOD);
+        assertEquals(version + 1, emu.getPerf().getSlot(Slot.A).getVersion(), "full send");
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+    }
+
+    /**
+     * A variant under another file name syncs with a patch name edit.
+     */
+    @Test
+    void patchDiffRename() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.NONE);
+        Device d = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        Performance perf = initPerf(d);
+        d.initialize();
+        perf.initialize();
+        Patch a = perf.getSlot(Slot.A);
+        int version = a.getVersion();
+
+        File dir = Files.createTempDirectory("g2diff").toFile();
+        File orig = new File(dir, a.name().get() + ".pch2");
+        File variant = new File(dir, "renamed-v2.pch2");
+        writeVariant(a, orig, variant);
+        Patch v = Patch.readFromFile(Slot.A, variant.getPath(), new OfflineSender());
+        v.name().set("renamed-v2");
+        PatchDiff diff = PatchDiff.diff(a, v);
+        assertTrue(diff.incremental(), diff.toString());
+        assertTrue(diff.edits().contains(new PatchDiff.SetName("renamed-v2")));
+
+        perf.readPatchFromFile(Slot.A, variant.getPath());
+        Patch ea = emu.getPerf().getSlot(Slot.A);
+        assertEquals(version, ea.getVersion(), "no full send");
+        assertEquals("renamed-v2", ea.name().get());
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+
+        perf.readPatchFromFile(Slot.A, orig.getPath());
+        assertEquals(version, emu.getPerf().getSlot(Slot.A).getVersion(), "no full send");
+        assertEquals(a.name().get(), emu.getPerf().getSlot(Slot.A).name().get());
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+    }
+
+    /**
+     * Write patch A to ORIG, and a variant of it to VARIANT: three
+     * variations of one param edited and the last voice cable removed.
+     * @return removed cable
+     */
+    private static FieldValues writeVariant(Patch a, File orig, File variant) throws Exception {
+        Files.createDirectories(orig.getParentFile().toPath());
+        Files.createDirectories(variant.getParentFile().toPath());
+        Util.writeBuffer(a.writeFile(), orig);
+        Patch v = Patch.readFromFile(Slot.A, orig.getPath(), new OfflineSender());
+        PatchModule pm = v.getArea(AreaId.Voice).getModules().stream()
+                .filter(m -> m.getValues() != null).findFirst().orElseThrow();
+        for (int var = 0; var < 3; var++) {
+            LibProperty<Integer> p = pm.getParamValueProperty(var, 0);
+            p.set(127 - p.get());
+        }
+        FieldValues cl = v.getSection(Sections.SCableList1_52).values();
+        List<FieldValues> cables = new ArrayList<>(Protocol.CableList.Cables.subfieldsValue(cl));
+        FieldValues removed = cables.removeLast();
+        cl.update(Protocol.CableList.Cables.value(cables));
+        cl.update(Protocol.CableList.CableCount.value(cables.size()));
+        Util.writeBuffer(v.writeFile(), variant);
+        return removed;
+    }
+
+    /**
+     * Benchmark of switching to a copy with a module moved (full send), vs to a
+     * variant (diff sync).
+     */
+    @Test
+    @Tag("bench")
+    void patchDiffSyncBench() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.NONE);
+        Device d = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        Performance perf = initPerf(d);
+        d.initialize();
+        perf.initialize();
+        Patch a = perf.getSlot(Slot.A);
+        File dir = Files.createTempDirectory("g2diff").toFile();
+        File orig = new File(dir, "v1/" + a.name().get() + ".pch2");
+        File variant = new File(dir, "v2/" + a.name().get() + ".pch2");
+        writeVariant(a, orig, variant);
+        File moved = new File(dir, "v3/" + a.name().get() + ".pch2");
+        Files.createDirectories(moved.getParentFile().toPath());
+        Patch m = Patch.readFromFile(Slot.A, variant.getPath(), new OfflineSender());
+        UserModuleData md = m.getArea(AreaId.Voice).getModules().iterator().next().getUserModuleData();
+        md.coords().set(new Coords(md.coords().get().column(), md.coords().get().row() + 1));
+        Util.writeBuffer(m.writeFile(), moved);
+        // full sends step the emulated slot version, keep it in range
+        Bench.run("Patch variant load", 20,
+                Bench.of("full send", i -> perf.readPatchFromFile(Slot.A, (i % 2 == 0 ? orig : moved).getPath())),
+                Bench.of("diff sync", i -> perf.readPatchFromFile(Slot.A, (i % 2 == 0 ? orig : variant).getPath())));
+    }
+
+    /**
+     * Loading a variant with a module added syncs with a single add-modules message,
+     * which the emulator models with the new module's params, labels and name.
+     */
+    @Test
+    void patchDiffAddModules() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.NONE);
+        Device d = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        Performance perf = initPerf(d);
+        d.initialize();
+        perf.initialize();
+        Patch a = perf.getSlot(Slot.A);
+        int version = a.getVersion();
+
+        File dir = Files.createTempDirectory("g2diff").toFile();
+        File orig = new File(dir, "v1/" + a.name().get() + ".pch2");
+        File variant = new File(dir, "v2/" + a.name().get() + ".pch2");
+        Files.createDirectories(orig.getParentFile().toPath());
+        Files.createDirectories(variant.getParentFile().toPath());
+        Util.writeBuffer(a.writeFile(), orig);
+        Patch v = Patch.readFromFile(Slot.A, orig.getPath(), new OfflineSender());
+        PatchArea va = v.getArea(AreaId.Voice);
+        PatchModule pm = va.getModules().stream()
+                .filter(m -> m.getValues() != null && m.getUserModuleData().color().get() == 0)
+                .findFirst().orElseThrow();
+        BitSet used = new BitSet();
+        va.getModules().forEach(m -> used.set(m.getIndex()));
+        int index = ModuleIndex.nextFree(used);
+        int row = va.getModules().stream().mapToInt(m -> m.getUserModuleData().row().get()).max().orElse(0) + 4;
+        addSectionEntry(v, Sections.SModuleList1_4a, Protocol.ModuleList.Modules, Protocol.ModuleList.ModuleCount,
+                pm.getUserModuleData().getValues().copy()
+                        .update(Protocol.UserModule.Index.value(index))
+                        .update(Protocol.UserModule.Column.value(0))
+                        .update(Protocol.UserModule.Row.value(row)));
+        addSectionEntry(v, Sections.SModuleParams1_4d, Protocol.ModuleParams.ParamSet, Protocol.ModuleParams.SetCount,
+                Protocol.ModuleParams.ParamSet.subfieldsValue(v.getSection(Sections.SModuleParams1_4d).values()).stream()
+                        .filter(ps -> Protocol.ModuleParamSet.ModIndex.intValue(ps) == pm.getIndex()).findFirst()
+                        .orElseThrow().copy().update(Protocol.ModuleParamSet.ModIndex.value(index)));
+        addSectionEntry(v, Sections.SModuleNames1_5a, Protocol.ModuleNames.Names, Protocol.ModuleNames.NameCount,
+                Protocol.ModuleName.FIELDS.values(Protocol.ModuleName.ModuleIndex.value(index),
+                        Protocol.ModuleName.Name.value("Added")));
+        Util.writeBuffer(v.writeFile(), variant);
+
+        PatchDiff diff = PatchDiff.diff(a, Patch.readFromFile(Slot.A, variant.getPath(), new OfflineSender()));
+        assertTrue(diff.incremental(), diff.toString());
+        assertEquals(List.of(PatchDiff.AddModules.class), diff.edits().stream().map(Object::getClass).toList());
+        assertEquals(1, diff.messages());
+
+        perf.readPatchFromFile(Slot.A, variant.getPath());
+        Patch ea = emu.getPerf().getSlot(Slot.A);
+        assertEquals(version, ea.getVersion(), "no full send");
+        assertEquals(pm.getValues().getValues(), ea.getArea(AreaId.Voice).getModule(index).getValues().getValues());
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+
+        // and back, deleting it
+        perf.readPatchFromFile(Slot.A, orig.getPath());
+        assertEquals(version, emu.getPerf().getSlot(Slot.A).getVersion(), "no full send");
+        assertEquals(dumpYaml(emu.getPerf()), dumpYaml(perf));
+    }
+
+    /**
+     * Append ENTRY to the LIST field of file section S of P, updating COUNT.
+     */
+    private static void addSectionEntry(Patch p, Sections s, FieldEnum list, FieldEnum count,
+                                        FieldValues entry) {
+        FieldValues fvs = p.getSection(s).values();
+        List<FieldValues> entries = new ArrayList<>(list.subfieldsValue(fvs));
+        entries.add(entry);
+        fvs.update(list.value(entries));
+        fvs.update(count.value(entries.size()));
+    }
+
+    /**
+     * Soak of Devices against an emulated G2 with USB timing and streams running:
+     * connect, a knob sweep and a performance load from bank.
+     */
+    @Test
+    void emulatorSoak() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.G2)
+                .addEntry(Entries.EntryType.Performance, 0, 0, "data/perf/g2fx-perf-01.prf2");
+        emu.setStreamRates(50, 50);
+        Devices devices = new Devices();
+        BlockingQueue<Performance> inits = new LinkedBlockingQueue<>();
+        devices.addPerfListener(new LifecycleListener<>() {
+            @Override public void onLifecycleInit(Performance p) { inits.add(p); }
+            @Override public void onLifecycleDispose(Performance p) { }
+        });
+
+        devices.connect(1, emu);
+        Performance perf = inits.poll(10, TimeUnit.SECONDS);
+        assertNotNull(perf);
+        assertEquals(emu.getPerf().getName(), perf.getName());
+
+        PatchModule pm = perf.getSlot(Slot.A).getArea(AreaId.Voice).getModules().stream()
+                .filter(m -> !m.getVarValues(0).isEmpty()).findFirst().orElseThrow();
+        PatchModule emuModule = emu.getPerf().getSlot(Slot.A).getArea(AreaId.Voice).getModule(pm.getIndex());
+        int sweep = 1000;
+        for (int i = 0; i < sweep; i++) {
+            int v = i & 0x7f;
+            devices.execute(() -> pm.getParamValueProperty(0, 0).set(v));
+        }
+        int last = (sweep - 1) & 0x7f;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (emuModule.getVarValues(0).getFirst() != last && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(last, emuModule.getVarValues(0).getFirst());
+
+        devices.runWithCurrentDevice(d -> d.getEntries().loadEntry(Codes.S_PERF_04, 0, 0));
+        Performance loaded = inits.poll(10, TimeUnit.SECONDS);
+        assertNotNull(loaded);
+        assertEquals(emu.getPerf().getName(), loaded.getName());
+
+        devices.shutdown();
+        assertTrue(emu.getStreamed() > 0);
+
+        UsbMetrics.Snapshot stats = devices.getMetrics().snapshot();
+        assertTrue(stats.bytesOut() > 0 && stats.bytesIn() > 0);
+        assertEquals(0, stats.crcMismatches());
+        assertTrue(stats.latencies().get(UsbMetrics.Stage.RoundTrip).containsKey(
+                UsbMetrics.typeName(false, Codes.O_LIST_NAMES)));
+        assertTrue(stats.latencies().get(UsbMetrics.Stage.Dispatch).containsKey(
+                UsbMetrics.typeName(true, Codes.I_LED_DATA)));
+        assertTrue(stats.toJson().contains("\"RoundTrip\""));
+    }
+
+    /**
+     * Two emulated G2s on one Devices: sessions initialize and take edits concurrently
+     * on their own lib threads, listeners follow the selected device.
+     */
+    @Test
+    void multiDevice() throws Exception {
+        G2Emulator emu1 = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.G2);
+        G2Emulator emu2 = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.G2);
+        Map<Integer, G2Emulator> emus = Map.of(1, emu1, 2, emu2);
+        Devices devices = new Devices();
+        BlockingQueue<Performance> inits = new LinkedBlockingQueue<>();
+        devices.addPerfListener(new LifecycleListener<>() {
+            @Override public void onLifecycleInit(Performance p) { inits.add(p); }
+            @Override public void onLifecycleDispose(Performance p) { }
+        });
+
+        devices.connect(1, emu1);
+        devices.connect(2, emu2);
+        Performance first = inits.poll(10, TimeUnit.SECONDS);
+        assertNotNull(first);
+        DeviceSession active = devices.getActive();
+        assertSame(first, active.getPerf());
+        List<DeviceSession> sessions = devices.getSessions();
+        assertEquals(List.of(1, 2), sessions.stream().map(DeviceSession::getAddress).toList());
+        DeviceSession other = sessions.stream().filter(s -> s != active).findFirst().orElseThrow();
+        Performance second = other.invoke(LibScheduler.Priority.Structural, other::getPerf);
+        assertNotNull(second);
+        assertTrue(inits.isEmpty(), "inactive device not notified");
+
+        int sweep = 1000;
+        int last = (sweep - 1) & 0x7f;
+        Map<DeviceSession, PatchModule> emuModules = new HashMap<>();
+        for (DeviceSession s : sessions) {
+            PatchModule pm = s.getPerf().getSlot(Slot.A).getArea(AreaId.Voice).getModules().stream()
+                    .filter(m -> !m.getVarValues(0).isEmpty()).findFirst().orElseThrow();
+            emuModules.put(s, emus.get(s.getAddress()).getPerf().getSlot(Slot.A)
+                    .getArea(AreaId.Voice).getModule(pm.getIndex()));
+            for (int i = 0; i < sweep; i++) {
+                int v = i & 0x7f;
+                s.execute(LibScheduler.Priority.Edit, () -> pm.getParamValueProperty(0, 0).set(v));
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (emuModules.values().stream().anyMatch(m -> m.getVarValues(0).getFirst() != last)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        for (PatchModule m : emuModules.values()) {
+            assertEquals(last, m.getVarValues(0).getFirst());
+        }
+
+        devices.select(other.getAddress());
+        assertSame(second, inits.poll(5, TimeUnit.SECONDS));
+        assertSame(other, devices.getActive());
+        assertSame(second, devices.getCurrentPerf());
+        assertTrue(devices.getPath().device().endsWith("@" + other.getAddress()), devices.getPath().toString());
+        assertThrows(IllegalArgumentException.class, () -> devices.select(3));
+
+        // unplugging current device falls back to remaining one
+        devices.disconnect(other.getAddress());
+        assertSame(first, inits.poll(5, TimeUnit.SECONDS));
+        assertSame(active, devices.getActive());
+        assertEquals(List.of(active), devices.getSessions());
+
+        devices.shutdown();
+    }
+
+    /**
+     * Bank backup/restore against an emulated G2: upload banks to disk, resume,
+     * download to another bank replacing its entries, and round trip the result.
+     */
+    @Test
+    void bankTransfer() throws Exception {
+        String[] patches = { "data/patch/simplesynth001-20240802.pch2", "data/patch/g2fx-uprate-4mod.pch2",
+                "data/patch/simplesynth001-g2lib.pch2" };
+        G2Emulator emu = G2Emulator.fromFile(EMULATED_PERF, G2Emulator.Timing.G2)
+                .addEntry(Entries.EntryType.Patch, 9, 20, patches[0]);
+        int count = 1;
+        for (int bank = 0; bank < 2; bank++) {
+            for (int i = 0; i < 12; i++) {
+                emu.addEntry(Entries.EntryType.Patch, bank, i * 3, patches[(count++ - 1) % patches.length]);
+            }
+        }
+        Devices devices = new Devices();
+        BlockingQueue<Performance> inits = new LinkedBlockingQueue<>();
+        devices.addPerfListener(new LifecycleListener<>() {
+            @Override public void onLifecycleInit(Performance p) { inits.add(p); }
+            @Override public void onLifecycleDispose(Performance p) { }
+        });
+        devices.connect(1, emu);
+        assertNotNull(inits.poll(10, TimeUnit.SECONDS));
+        DeviceSession s = devices.getActive();
+        s.getDevice().getEntries().reconciled().get(10, TimeUnit.SECONDS);
+        BankTransfer bt = s.getDevice().getBankTransfer();
+        Executor lib = r -> s.execute(LibScheduler.Priority.Structural, r::run);
+        File dir = Files.createTempDirectory("banks").toFile();
+        List<Integer> all = IntStream.range(0, Entries.EntryType.Patch.getBanks()).boxed().toList();
+
+        List<BankTransfer.Progress> progress = new CopyOnWriteArrayList<>();
+        CompletableFuture<BankTransfer.Result> uploading = s.invoke(LibScheduler.Priority.Structural,
+                () -> bt.upload(Entries.EntryType.Patch, all, dir, progress::add, lib));
+        // lib thread is free between windows
+        assertFalse(s.invoke(LibScheduler.Priority.Invoke, uploading::isDone));
+        BankTransfer.Result up = uploading.get(30, TimeUnit.SECONDS);
+        assertTrue(up.ok(), up.toString());
+        assertEquals(count, up.transferred());
+        assertEquals(count, progress.size());
+        assertEquals(count, progress.getLast().total());
+        File bank1 = new File(dir, "PatchBank1/PatchBank1.pchList");
+        List<BankTransfer.BankListEntry> list = BankTransfer.readBankList(bank1);
+        assertEquals(12, list.size());
+        assertEquals(new BankTransfer.BankListEntry(0, 3, "g2fx-uprate-4mod.pch2"), list.get(1));
+        assertEquals(new BankTransfer.BankListEntry(0, 9, "simplesynth001-2 (10).pch2"), list.get(3));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(-1, Files.mismatch(new File(bank1.getParentFile(), list.get(i).file()).toPath(),
+                    new File(patches[i]).toPath()));
+        }
+        assertEquals(List.of(new BankTransfer.BankListEntry(7, 0, "g2fx-uprate-4mod.pch2")),
+                BankTransfer.readBankList(new File("data/patch/PatchBank8.pchList")));
+
+        // resume: only missing entries transfer
+        assertTrue(new File(bank1.getParentFile(), list.get(5).file()).delete());
+        BankTransfer.Result resumed = s.invoke(LibScheduler.Priority.Structural,
+                () -> bt.upload(Entries.EntryType.Patch, all, dir, null, lib)).get(30, TimeUnit.SECONDS);
+        assertEquals(1, resumed.transferred());
+        assertEquals(count, resumed.skipped() + 1);
+
+        // download bank 1 to bank 10, clearing its other entries, skipping a journaled entry;
+        // entry 10:41 is not yet in the entries cache
+        emu.addEntry(Entries.EntryType.Patch, 9, 40, patches[1]);
+        File toBank10 = new File(bank1.getParentFile(), "ToBank10.pchList");
+        BankTransfer.writeBankList(toBank10, list.stream()
+                .map(e -> new BankTransfer.BankListEntry(9, e.entry(), e.file())).toList());
+        Files.writeString(new File(toBank10.getPath() + BankTransfer.JOURNAL_EXT).toPath(), "Patch 10:1\n");
+        BankTransfer.Result down = s.invoke(LibScheduler.Priority.Structural,
+                () -> bt.download(toBank10, true, null, lib)).get(30, TimeUnit.SECONDS);
+        assertTrue(down.ok(), down.toString());
+        assertEquals(11, down.transferred());
+        assertEquals(1, down.skipped());
+        assertEquals(2, down.cleared());
+        assertFalse(new File(toBank10.getPath() + BankTransfer.JOURNAL_EXT).exists());
+        Map<Integer, Entries.Entry> bank10 = s.invoke(LibScheduler.Priority.Structural,
+                () -> Map.copyOf(s.getDevice().getEntries().getEntries(Entries.EntryType.Patch).get(9)));
+        assertEquals(11, bank10.size());
+        assertEquals("g2fx-uprate-4mod", bank10.get(3).name());
+        assertNull(bank10.get(20));
+        assertNull(bank10.get(40));
+
+        File back = Files.createTempDirectory("banks").toFile();
+        BankTransfer.Result roundTrip = s.invoke(LibScheduler.Priority.Structural,
+                () -> bt.upload(Entries.EntryType.Patch, List.of(9), back, null, lib)).get(30, TimeUnit.SECONDS);
+        assertEquals(11, roundTrip.transferred());
+        assertEquals(-1, Files.mismatch(new File(back, "PatchBank10/g2fx-uprate-4mod.pch2").toPath(),
+                new File(patches[1]).toPath()));
+
+        assertTrue(up.bytesPerSec() > 0 && down.bytesPerSec() > 0);
+        devices.shutdown();
+    }
+
+    @Test
+    void libSchedulerPriorities() throws Exception {
+        LibScheduler scheduler = new LibScheduler("test-lib");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        scheduler.execute(LibScheduler.Priority.Structural, () -> {
+            started.countDown();
+            try { blocked.await(); } catch (InterruptedException ignored) {}
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        List<String> order = new CopyOnWriteArrayList<>();
+        List<String> discarded = new CopyOnWriteArrayList<>();
+        scheduler.executeVisual("led-a", () -> order.add("led-a1"), () -> discarded.add("led-a1"));
+        scheduler.execute(LibScheduler.Priority.Structural, () -> order.add("load"));
+        Future<String> invoked = scheduler.submit(LibScheduler.Priority.Invoke, () -> {
+            order.add("invoke");
+            return "done";
+        });
+        scheduler.execute(() -> order.add("edit"));
+        scheduler.executeVisual("led-a", () -> order.add("led-a2"), () -> discarded.add("led-a2"));
+        assertEquals(List.of("led-a1"), discarded); // coalesced
+        for (int i = 0; i < LibScheduler.Priority.Visual.capacity; i++) {
+            int v = i;
+            scheduler.executeVisual(null, () -> order.add("vol" + v), () -> discarded.add("vol" + v));
+        }
+
+        blocked.countDown();
+        assertEquals("done", invoked.get(5, TimeUnit.SECONDS));
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+
+        // led-a2 was dropped as oldest visual when full
+        assertEquals(List.of("led-a1", "led-a2"), discarded);
+        assertEquals(List.of("edit", "invoke", "load"), order.subList(0, 3));
+        assertEquals(LibScheduler.Priority.Visual.capacity, order.size() - 3);
+        assertEquals("vol0", order.get(3));
+        LibScheduler.Stats stats = scheduler.stats();
+        assertEquals(1, stats.coalesced());
+        assertEquals(1, stats.dropped());
+        assertEquals(LibScheduler.Priority.Visual.capacity,
+                stats.classes().get(LibScheduler.Priority.Visual.ordinal()).maxDepth());
+        assertThrows(RejectedExecutionException.class, () -> scheduler.execute(() -> {}));
+    }
+
+    @Test
+    void libSchedulerInboundUnbounded() throws Exception {
+        LibScheduler scheduler = new LibScheduler("test-lib");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        scheduler.execute(LibScheduler.Priority.Structural, () -> {
+            started.countDown();
+            try { blocked.await(); } catch (InterruptedException ignored) {}
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        AtomicInteger ran = new AtomicInteger();
+        int n = LibScheduler.Priority.Structural.capacity * 2;
+        // would block a producer on a full Structural queue
+        for (int i = 0; i < n; i++) { scheduler.executeInbound(ran::incrementAndGet); }
+        assertEquals(n, scheduler.stats().classes().get(LibScheduler.Priority.Structural.ordinal()).depth());
+        blocked.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(n, ran.get());
+        assertThrows(RejectedExecutionException.class, () -> scheduler.executeInbound(() -> {}));
+    }
+
+    @Test
+    void latencyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000000L, h.percentile(1.0));
+        assertEquals(500000, h.percentile(0.5), 500000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990000, h.percentile(0.99), 990000 / LatencyHistogram.SUB_BUCKETS);
+        LatencyHistogram.Snapshot s = h.snapshot();
+        assertEquals(0.5005, s.meanMs(), 1e-9);
+        assertEquals(1.0, s.maxMs());
+        h.reset();
+        assertEquals(0, h.snapshot().count());
+        assertEquals(0, h.percentile(0.5));
+    }
+
+    static String dumpYaml(Performance perf) throws Exception {
+        java.io.File f = java.io.File.createTempFile("perf", ".yaml");
+        perf.dumpYaml(f.getPath());
+        String s = java.nio.file.Files.readString(f.toPath());
+        f.delete();
+        return s;
+    }
+
     public static Performance initPerf(Device d) {
         Performance perf = new Performance(d.getUsb());
         d.setPerf(perf);
@@ -1,8 +1,11 @@
 package org.g2fx.g2lib;
 
 import org.g2fx.g2lib.device.Device;
+import org.g2fx.g2lib.device.G2Emulator;
 import org.g2fx.g2lib.protocol.Codes;
 import org.g2fx.g2lib.state.Entries;
+import org.g2fx.g2lib.state.LifecycleListener;
+import org.g2fx.g2lib.state.Performance;
 import org.g2fx.g2lib.usb.MessageRecorder;
 import org.g2fx.g2lib.usb.OfflineSender;
 import org.g2fx.g2lib.util.Util;
@@ -10,19 +13,20 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.g2fx.g2lib.DeviceTest.captureCmd;
 import static org.g2fx.g2lib.DeviceTest.dispatchMsgs;
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class EntriesTest {
 
     @BeforeAll
-    public static void beforeAll() {
-        Util.configureLogging();
+    public static void beforeAll() throws Exception {
+        DeviceTest.beforeAll();
     }
 
 
@@ -82,6 +86,84 @@ public class EntriesTest {
         assertEquals(new TreeSet<>(Set.of(1, 2, 3, 4, 5, 6, 20, 22, 23, 24, 25, 26, 27)),bank.keySet());
     }
 
+    /**
+     * Cached entries show before the device listing, which then updates them;
+     * a clear updates one entry, sharing the rest.
+     */
+    @Test
+    public void cacheAndReconcile() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(DeviceTest.EMULATED_PERF, G2Emulator.Timing.NONE)
+                .addEntry(Entries.EntryType.Patch, 0, 0, "data/patch/g2fx-uprate-4mod.pch2")
+                .addEntry(Entries.EntryType.Patch, 1, 4, "data/patch/simplesynth001-g2lib.pch2")
+                .addEntry(Entries.EntryType.Performance, 0, 0, DeviceTest.EMULATED_PERF);
+        emu.getSynthSettings().deviceName().set("Cache Test G2");
+        Device d = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        DeviceTest.initPerf(d).initialize();
+        d.loadEntries(Runnable::run);
+        assertTrue(d.getEntries().reconciled().isDone());
+        assertEquals(Set.of(0, 1), d.getEntries().getEntries(Entries.EntryType.Patch).keySet());
+
+        emu.addEntry(Entries.EntryType.Patch, 1, 5, "data/patch/g2fx-uprate-4mod.pch2");
+        Device d2 = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        DeviceTest.initPerf(d2).initialize();
+        List<Entries.EntriesEvent> evs = new ArrayList<>();
+        d2.getEntries().getEventProp().addListener((o,n) -> evs.add(n));
+        List<Runnable> background = new ArrayList<>();
+        d2.loadEntries(background::add);
+        assertEquals(1, evs.size());
+        assertEquals(Set.of(4), evs.getFirst().entries().get(Entries.EntryType.Patch).get(1).keySet());
+        assertFalse(d2.getEntries().reconciled().isDone());
+        while (!background.isEmpty()) { background.removeFirst().run(); }
+        assertTrue(d2.getEntries().reconciled().isDone());
+        assertEquals(2, evs.size());
+        assertEquals(Entries.EntriesEventType.RefreshAll, evs.getLast().type());
+        assertEquals(Set.of(4, 5), evs.getLast().entries().get(Entries.EntryType.Patch).get(1).keySet());
+
+        Map<Integer, Map<Integer, Entries.Entry>> before = d2.getEntries().getEntries(Entries.EntryType.Patch);
+        d2.getUsb().sendSystemRequest("clear", Codes.O_CLEAR_ENTRY, Entries.EntryType.Patch.ordinal(), 1, 5, 0x01);
+        Entries.EntriesEvent cleared = evs.getLast();
+        assertEquals(Entries.EntriesEventType.UpdateEntry, cleared.type());
+        assertEquals(new Entries.EntryMsg(Entries.EntryType.Patch, 1, 5, null), cleared.msg());
+        assertEquals(Set.of(4), cleared.entries().get(Entries.EntryType.Patch).get(1).keySet());
+        assertSame(before.get(0), cleared.entries().get(Entries.EntryType.Patch).get(0));
+
+        // cache follows the clear
+        Device d3 = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        d3.getEntries().loadCache("Cache Test G2");
+        assertEquals(cleared.entries(), d3.getEntries().getEventProp().get().entries());
+        // one cache file per name, no temp files left behind
+        try (var fs = Files.list(Path.of(System.getProperty(Entries.CACHE_DIR_PROPERTY)))) {
+            assertEquals(List.of("entries-Cache_Test_G2.yaml"), fs.map(f -> f.getFileName().toString())
+                    .filter(f -> f.startsWith("entries-Cache_Test_G2")).toList());
+        }
+    }
+
+    /**
+     * A listing rejected for a perf version change mid-reconcile is requested again.
+     */
+    @Test
+    public void reconcileRetriesPage() throws Exception {
+        G2Emulator emu = G2Emulator.fromFile(DeviceTest.EMULATED_PERF, G2Emulator.Timing.NONE)
+                .addEntry(Entries.EntryType.Patch, 1, 4, "data/patch/simplesynth001-g2lib.pch2");
+        Device d = new Device(emu, LifecycleListener.noopListener(), LifecycleListener.noopListener());
+        Performance perf = DeviceTest.initPerf(d);
+        d.initialize();
+        List<Runnable> background = new ArrayList<>();
+        d.getEntries().reconcile(background::add);
+        int v = perf.getVersion();
+        perf.setVersion(v + 1);
+        background.removeFirst().run();
+        assertEquals(1, background.size());
+        perf.setVersion(v);
+        while (!background.isEmpty()) { background.removeFirst().run(); }
+        d.getEntries().reconciled().get();
+        assertEquals(Set.of(4), d.getEntries().getEntries(Entries.EntryType.Patch).get(1).keySet());
+
+        perf.setVersion(v + 1);
+        d.getEntries().reconcile(Runnable::run);
+        assertTrue(d.getEntries().reconciled().isCompletedExceptionally());
+    }
+
     @Test
     public void testEntriesDispatch() throws Exception {
         List<MessageRecorder.RecordedUsbMessage> ms =
@@ -4,13 +4,21 @@ import org.g2fx.g2lib.model.ModuleType;
 import org.g2fx.g2lib.state.Coords;
 import org.g2fx.g2lib.usb.MessageRecorder;
 import org.g2fx.g2lib.usb.Usb;
+import org.g2fx.g2lib.usb.WireLog;
+import org.g2fx.g2lib.usb.WireRingFile;
 import org.g2fx.g2lib.util.CRC16;
+import org.g2fx.g2lib.util.DirectBufferPool;
 import org.g2fx.g2lib.util.Util;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Random;
 import java.util.TreeSet;
 import java.util.stream.Stream;
 
@@ -37,6 +45,138 @@ class MainTest {
         )));
     }
 
+    @Test
+    void directBufferPool() {
+        DirectBufferPool pool = new DirectBufferPool(2);
+        pool.setLeakTracking(true);
+        DirectBufferPool.Lease a = pool.acquire(10);
+        assertEquals(10, a.buffer().limit());
+        assertEquals(16, a.buffer().capacity());
+        assertTrue(a.buffer().isDirect());
+        a.buffer().put(0, (byte) 0x7f);
+        a.release();
+        assertThrows(IllegalStateException.class, a::release);
+        DirectBufferPool.Lease b = pool.acquire(16);
+        assertEquals(0, b.buffer().get(0), "reused buffer zeroed");
+        assertEquals(1, pool.getAllocated(), "reused");
+        DirectBufferPool.Lease c = pool.acquire(0xffff);
+        assertEquals(0x10000, c.buffer().capacity());
+        DirectBufferPool.Lease d = pool.acquire(0x20000);
+        assertEquals(0x20000, d.buffer().capacity(), "unpooled");
+        assertEquals(3, pool.getOutstanding());
+        assertEquals(3, pool.getLeaks().size());
+        b.release();
+        c.release();
+        d.release();
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(List.of(), pool.getLeaks());
+    }
+
+    @Test
+    void wireRingFile() throws Exception {
+        Path f = Files.createTempFile("wire", ".g2wl");
+        int frameSize = WireRingFile.FRAME_HEADER_SIZE + 100;
+        // room for 3 frames, so 5 writes wrap once
+        try (WireRingFile rf = new WireRingFile(f, WireRingFile.HEADER_SIZE + 3 * frameSize + 10, 16)) {
+            for (int i = 0; i < 5; i++) {
+                ByteBuffer b = ByteBuffer.allocate(100);
+                b.put(0, (byte) i);
+                assertTrue(rf.append(i % 2 == 0 ? WireLog.Direction.Out : WireLog.Direction.InBulk, b));
+            }
+            assertThrows(IllegalArgumentException.class, () -> new WireRingFile(f, 20, 1));
+        }
+        List<WireRingFile.Frame> frames = WireRingFile.read(f);
+        assertEquals(List.of(2, 3, 4), frames.stream().map(fr -> (int) fr.data()[0]).toList());
+        assertEquals(List.of(WireLog.Direction.Out, WireLog.Direction.InBulk, WireLog.Direction.Out),
+                frames.stream().map(WireRingFile.Frame::direction).toList());
+        assertTrue(frames.get(0).nanos() <= frames.get(2).nanos());
+        Files.delete(f);
+    }
+
+    @Test
+    void wireLogFromProperty() throws Exception {
+        assertFalse(WireLog.installFromProperty());
+        Path f = Files.createTempFile("wire", ".g2wl");
+        System.setProperty(WireLog.WIRELOG_PROPERTY, f.toString());
+        try {
+            assertTrue(WireLog.installFromProperty());
+            WireLog wire = new WireLog(Util.getLogger(MainTest.class));
+            assertTrue(wire.enabled());
+            wire.frame(WireLog.Direction.Out, ByteBuffer.wrap(new byte[] { 0x01, 0x02 }), () -> "test ");
+        } finally {
+            WireLog.closeRingFile();
+            System.clearProperty(WireLog.WIRELOG_PROPERTY);
+        }
+        assertNull(WireLog.getRingFile());
+        List<WireRingFile.Frame> frames = WireRingFile.read(f);
+        assertEquals(1, frames.size());
+        assertArrayEquals(new byte[] { 0x01, 0x02 }, frames.getFirst().data());
+        Files.delete(f);
+    }
+
+    @Test
+    void crcSliceBy8() {
+        Random r = new Random(0x1021);
+        for (int round = 0; round < 200; round++) {
+            byte[] bs = new byte[r.nextInt(300)];
+            r.nextBytes(bs);
+            int off = bs.length == 0 ? 0 : r.nextInt(bs.length);
+            int len = bs.length - off;
+            int expected = legacyCrc16(bs, off, len);
+            assertEquals(expected, CRC16.crc16(bs, off, len));
+            assertEquals(expected, CRC16.crc16(ByteBuffer.wrap(bs), off, len));
+            ByteBuffer direct = ByteBuffer.allocateDirect(bs.length).put(bs);
+            assertEquals(expected, CRC16.crc16(direct, off, len));
+            assertEquals(expected, CRC16.crc16(direct.order(ByteOrder.LITTLE_ENDIAN), off, len));
+            int split = len == 0 ? 0 : r.nextInt(len);
+            int crc = CRC16.update(0, direct, off, split);
+            if (split < len) {
+                crc = CRC16.update(crc, bs[off + split]);
+                crc = CRC16.update(crc, bs, off + split + 1, len - split - 1);
+            }
+            assertEquals(expected, crc);
+        }
+    }
+
+    /**
+     * Micro-benchmark, bytewise table lookup vs slice-by-8 on 64KiB.
+     */
+    @Test
+    @Tag("bench")
+    void crcBenchmark() throws Exception {
+        byte[] bs = new byte[64 * 1024];
+        new Random(0).nextBytes(bs);
+        ByteBuffer heap = ByteBuffer.wrap(bs);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bs.length).put(bs);
+        int expected = legacyCrc16(bs, 0, bs.length);
+        Bench.run("crc16 64KiB", 2000,
+                Bench.of("legacy", _ -> assertEquals(expected, legacyCrc16(heap, 0, bs.length))),
+                Bench.of("heap", _ -> assertEquals(expected, CRC16.crc16(heap))),
+                Bench.of("direct", _ -> assertEquals(expected, CRC16.crc16(direct))));
+    }
+
+    private static final int[] CRC_TABLE = new int[256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            CRC_TABLE[b] = CRC16.crc16(new byte[]{(byte) b}, 0, 1);
+        }
+    }
+
+    private static int legacyCrc16(byte[] bs, int off, int len) {
+        return legacyCrc16(ByteBuffer.wrap(bs), off, len);
+    }
+
+    /**
+     * Previous bytewise implementation.
+     */
+    private static int legacyCrc16(ByteBuffer bytes, int off, int len) {
+        int crc = 0;
+        for (int i = off; i < off + len; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 8) ^ (bytes.get(i) & 0xFF)) & 0xFF];
+        }
+        return crc & 0xFFFF;
+    }
+
     @Test
     void testUsbSend() throws Exception {
         ByteBuffer bi = PerformanceTest.get001PerfLoadMsg().buffer();
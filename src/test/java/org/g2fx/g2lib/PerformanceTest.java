@@ -3,26 +3,41 @@ package org.g2fx.g2lib;
 import org.g2fx.g2gui.CaptureSender;
 import org.g2fx.g2lib.device.Device;
 import org.g2fx.g2lib.model.CableDelta;
+import org.g2fx.g2lib.model.LibProperty;
 import org.g2fx.g2lib.model.ModuleType;
 import org.g2fx.g2lib.model.NamedParam;
 import org.g2fx.g2lib.protocol.Codes;
+import org.g2fx.g2lib.protocol.FieldValues;
 import org.g2fx.g2lib.protocol.Protocol;
+import org.g2fx.g2lib.protocol.Sections;
 import org.g2fx.g2lib.state.*;
 import org.g2fx.g2lib.usb.MessageRecorder;
 import org.g2fx.g2lib.usb.OfflineSender;
 import org.g2fx.g2lib.usb.UsbMessage;
+import org.g2fx.g2lib.util.DirectBufferPool;
 import org.g2fx.g2lib.util.Util;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.g2fx.g2lib.usb.MessageRecorder.parseCapture;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class PerformanceTest {
 
@@ -36,6 +51,12 @@ public class PerformanceTest {
         Util.configureLogging();
         //WARNING: Protocol subfield init can fail with tests running in multiple threads!!
         Protocol.ModuleParams.ParamSet.toString(); // force fields init
+        DirectBufferPool.SHARED.setLeakTracking(true);
+    }
+
+    @AfterEach
+    public void checkLeases() {
+        assertEquals(List.of(), DirectBufferPool.SHARED.getLeaks(), "leaked buffer leases");
     }
 
 
@@ -100,6 +121,387 @@ public class PerformanceTest {
     }
 
 
+    /**
+     * Heap footprint benchmark: retained bytes per loaded PERF_002.
+     */
+    @Test
+    @Tag("bench")
+    void perfHeapFootprint() throws Exception {
+        int count = 20;
+        Performance[] perfs = new Performance[count];
+        Performance.readFromFile(PERF_002, new OfflineSender()); // warm up
+        long before = usedHeap();
+        for (int i = 0; i < count; i++) {
+            perfs[i] = Performance.readFromFile(PERF_002, new OfflineSender());
+        }
+        long after = usedHeap();
+        System.out.printf("PERF_002 heap footprint: %d bytes%n", (after - before) / count);
+        assertEquals(count, Arrays.stream(perfs).filter(java.util.Objects::nonNull).count());
+    }
+
+    /**
+     * File load rejects corrupt header or data.
+     */
+    @Test
+    void fileVerify() throws Exception {
+        java.io.File f = java.io.File.createTempFile("perf", ".prf2");
+        byte[] bs = Files.readAllBytes(java.nio.file.Path.of(PERF_002));
+        Files.write(f.toPath(), bs);
+        assertEquals("g2fx-perf-002", Performance.readFromFile(PERF_002, new OfflineSender()).perfName().get());
+        assertEquals(Performance.readFromFile(PERF_002, new OfflineSender()).writeFile(),
+                Performance.readFromFile(f.getPath(), new OfflineSender()).writeFile());
+
+        bs[Performance.HEADER.limit() + 40] ^= 1;
+        Files.write(f.toPath(), bs);
+        RuntimeException crc = assertThrows(RuntimeException.class,
+                () -> Performance.readFromFile(f.getPath(), new OfflineSender()));
+        assertTrue(crc.getMessage().startsWith("CRC mismatch"), crc.getMessage());
+        bs[10] ^= 1;
+        Files.write(f.toPath(), bs);
+        RuntimeException header = assertThrows(RuntimeException.class,
+                () -> Patch.verifyFileHeader(f.getPath(), Performance.HEADER));
+        assertTrue(header.getMessage().startsWith("Unexpected file header"), header.getMessage());
+        assertThrows(RuntimeException.class, () -> Patch.readFromFile(Slot.A, PERF_002, new OfflineSender()));
+    }
+
+    /**
+     * Only files from the threshold size are mapped.
+     */
+    @Test
+    void fileBufferMapThreshold() throws Exception {
+        ByteBuffer small = Util.fileBuffer(PERF_002);
+        assertFalse(small.isDirect());
+        assertEquals(ByteBuffer.wrap(Files.readAllBytes(java.nio.file.Path.of(PERF_002))), small);
+        java.io.File f = java.io.File.createTempFile("big", ".bin");
+        f.deleteOnExit();
+        byte[] bs = new byte[Util.MAP_THRESHOLD];
+        bs[bs.length - 1] = 0x7f;
+        Files.write(f.toPath(), bs);
+        ByteBuffer big = Util.fileBuffer(f.getPath());
+        assertTrue(big.isDirect());
+        assertEquals(ByteBuffer.wrap(bs), big);
+    }
+
+    /**
+     * Benchmark of file header and CRC verification.
+     */
+    @Test
+    @Tag("bench")
+    void fileVerifyBench() throws Exception {
+        Bench.run("pch2 header+CRC verify", 2000,
+                Bench.of("per file", _ -> Patch.verifyFileHeader(PATCH_UPRATE_4MOD, Patch.HEADER)));
+    }
+
+    private static List<String> perfFiles() throws Exception {
+        try (var ps = Files.list(java.nio.file.Path.of("data/perf"))) {
+            return ps.map(java.nio.file.Path::toString).filter(f -> f.endsWith(".prf2")).sorted().toList();
+        }
+    }
+
+    /**
+     * Parallel slot decode matches sequential byte for byte.
+     */
+    @Test
+    void parallelSlotDecode() throws Exception {
+        for (String f : perfFiles()) {
+            assertEquals(Util.dumpBufferString(Performance.readFromFile(f, new OfflineSender(), false).writeFile()),
+                    Util.dumpBufferString(Performance.readFromFile(f, new OfflineSender(), true).writeFile()), f);
+        }
+    }
+
+    /**
+     * Benchmark of sequential vs parallel slot decode over data/perf.
+     */
+    @Test
+    @Tag("bench")
+    void parallelSlotDecodeBench() throws Exception {
+        List<String> files = perfFiles();
+        Bench.run("Perf file decode", 200 * files.size(),
+                Bench.of("sequential", i -> Performance.readFromFile(files.get(i % files.size()), new OfflineSender(), false)),
+                Bench.of("parallel", i -> Performance.readFromFile(files.get(i % files.size()), new OfflineSender(), true)));
+    }
+
+    /**
+     * Param, name and position edits after an encode re-encode only dirty sections, matching
+     * a patch with the same edits encoded from scratch.
+     */
+    @Test
+    void incrementalPatchEncode() throws Exception {
+        String file = "data/patch/simplesynth001-20240802.pch2";
+        Patch p = Patch.readFromFile(Slot.A, file, new OfflineSender());
+        String msg0 = Util.dumpBufferString(p.writeMessage());
+        assertEncodeCached(p);
+        editPatch(p, PerformanceTest::assertEncodeCached);
+        Patch q = Patch.readFromFile(Slot.A, file, new OfflineSender());
+        editPatch(q, _ -> {});
+        String msg1 = Util.dumpBufferString(p.writeMessage());
+        assertTrue(!msg0.equals(msg1), "edits encoded");
+        assertEquals(Util.dumpBufferString(q.writeMessage()), msg1);
+        assertEquals(Util.dumpBufferString(q.writeFile()), Util.dumpBufferString(p.writeFile()));
+    }
+
+    /**
+     * Benchmark of patch send after one param tweak, full vs incremental encode.
+     */
+    @Test
+    @Tag("bench")
+    void incrementalPatchEncodeBench() throws Exception {
+        Patch p = Patch.readFromFile(Slot.A, "data/patch/simplesynth001-20240802.pch2", new OfflineSender());
+        LibProperty<Integer> param = firstParam(p);
+        Bench.run("Patch send after param tweak", 2000,
+                Bench.of("full", i -> {
+                    param.set(i % 128);
+                    Arrays.stream(Sections.FILE_SECTIONS).forEach(p::markDirty);
+                    p.writeMessage();
+                }),
+                Bench.of("incremental", i -> {
+                    param.set(i % 128);
+                    p.writeMessage();
+                }));
+    }
+
+    @Test
+    void cableGraphIndex() throws Exception {
+        Patch p = Patch.readFromFile(Slot.A, "data/patch/simplesynth001-20240802.pch2", new OfflineSender());
+        PatchArea area = p.getArea(AreaId.Voice);
+        CableGraph g = area.getCables();
+        List<PatchCable> scan = new ArrayList<>(g);
+        assertTrue(scan.size() > 1);
+        for (PatchModule m : area.getModules()) {
+            int i = m.getIndex();
+            assertEquals(scan.stream().mapToInt(c -> (c.getSrcModule() == i ? 1 : 0) + (c.getDestModule() == i ? 1 : 0)).sum(),
+                    g.degree(i));
+            assertEquals(scan.stream().filter(c -> c.getSrcModule() == i || c.getDestModule() == i).toList(),
+                    g.touching(List.of(i)));
+        }
+        PatchCable c = scan.get(1);
+        assertEquals(c, g.find(c.getSrcModule(), c.getSrcConn(), c.getDestModule(), c.getDestConn()));
+
+        // module delete removes its cables, cable list stays in order
+        int m = c.getDestModule();
+        assertEncodeCached(p);
+        area.deleteModules(area.mkDeleteModuleDelta(List.of(m)));
+        assertEncodeCached(p);
+        assertEquals(scan.stream().filter(k -> k.getSrcModule() != m && k.getDestModule() != m).toList(),
+                new ArrayList<>(g));
+        assertEquals(0, g.degree(m));
+        assertEquals(null, g.find(c.getSrcModule(), c.getSrcConn(), c.getDestModule(), c.getDestConn()));
+
+        CableGraph big = bigCableGraph(2000);
+        for (PatchCable k : big) {
+            assertEquals(k, big.find(k.getSrcModule(), k.getSrcConn(), k.getDestModule(), k.getDestConn()));
+        }
+    }
+
+    private static CableGraph bigCableGraph(int n) {
+        CableGraph big = new CableGraph();
+        for (int i = 0; i < n; i++) {
+            big.add(new PatchCable(Protocol.Cable.FIELDS.values(
+                    Protocol.Cable.Color.value(0),
+                    Protocol.Cable.SrcModule.value(i % 250),
+                    Protocol.Cable.SrcConn.value(i / 250),
+                    Protocol.Cable.Direction.value(1),
+                    Protocol.Cable.DestModule.value((i + 1) % 250),
+                    Protocol.Cable.DestConn.value(i / 250))));
+        }
+        return big;
+    }
+
+    /**
+     * Benchmark of cable delete lookups on a large graph vs list scan.
+     */
+    @Test
+    @Tag("bench")
+    void cableGraphIndexBench() throws Exception {
+        CableGraph big = bigCableGraph(2000);
+        List<PatchCable> list = new ArrayList<>(big);
+        Bench.run("Cable lookup in " + list.size() + " cables", list.size(),
+                Bench.of("scan", i -> {
+                    PatchCable k = list.get(i);
+                    assertEquals(k, list.stream().filter(l -> l.getSrcModule() == k.getSrcModule() &&
+                            l.getSrcConn() == k.getSrcConn() && l.getDestModule() == k.getDestModule() &&
+                            l.getDestConn() == k.getDestConn()).findFirst().orElseThrow());
+                }),
+                Bench.of("indexed", i -> {
+                    PatchCable k = list.get(i);
+                    assertEquals(k, big.find(k.getSrcModule(), k.getSrcConn(), k.getDestModule(), k.getDestConn()));
+                }));
+    }
+
+    @Test
+    void moduleIndexLookup() throws Exception {
+        Patch p = Patch.readFromFile(Slot.A, "data/patch/simplesynth001-20240802.pch2", new OfflineSender());
+        PatchArea area = p.getArea(AreaId.Voice);
+        TreeMap<Integer,PatchModule> tree = new TreeMap<>();
+        area.getModules().forEach(m -> tree.put(m.getIndex(), m));
+        assertEquals(List.copyOf(tree.values()), new ArrayList<>(area.getModules()));
+        assertEquals(tree.size(), area.getModules().size());
+        tree.forEach((i, m) -> assertEquals(m, area.getModule(i)));
+        assertThrows(IllegalArgumentException.class, () -> area.getModule(ModuleIndex.MAX_INDEX + 1));
+
+        // area view is read-only
+        PatchModule m = tree.firstEntry().getValue();
+        assertThrows(UnsupportedOperationException.class, () -> area.getModules().add(m));
+        assertThrows(UnsupportedOperationException.class, () -> area.getModules().remove(m));
+        assertThrows(UnsupportedOperationException.class, () -> {
+            Iterator<PatchModule> i = area.getModules().iterator();
+            i.next();
+            i.remove();
+        });
+
+        // free index fills the first gap
+        ModuleIndex mi = new ModuleIndex();
+        area.getModules().forEach(mi::put);
+        BitSet used = new BitSet();
+        mi.removeIndex(tree.firstKey());
+        mi.forEach(k -> used.set(k.getIndex()));
+        assertEquals(1, ModuleIndex.nextFree(used));
+        mi.put(m);
+        assertEquals(List.copyOf(tree.values()), new ArrayList<>(mi));
+        used.set(m.getIndex());
+        int free = ModuleIndex.nextFree(used);
+        assertTrue(!tree.containsKey(free) && tree.headMap(free).size() == free - 1);
+    }
+
+    /**
+     * Benchmark of module lookup by index, tree map vs array.
+     */
+    @Test
+    @Tag("bench")
+    void moduleIndexLookupBench() throws Exception {
+        Patch p = Patch.readFromFile(Slot.A, "data/patch/simplesynth001-20240802.pch2", new OfflineSender());
+        PatchArea area = p.getArea(AreaId.Voice);
+        TreeMap<Integer,PatchModule> tree = new TreeMap<>();
+        area.getModules().forEach(m -> tree.put(m.getIndex(), m));
+        int[] ixs = tree.keySet().stream().mapToInt(i -> i).toArray();
+        long[] sum = new long[1];
+        Bench.run("Module lookup", 1_000_000,
+                Bench.of("tree map", i -> sum[0] += tree.get(ixs[i % ixs.length]).getIndex()),
+                Bench.of("indexed", i -> sum[0] += area.getModule(ixs[i % ixs.length]).getIndex()));
+        assertTrue(sum[0] > 0);
+    }
+
+    /**
+     * Morph params of P with every param of every module morphed in variation V.
+     */
+    private static MorphParameters morphAll(Patch p, int v) {
+        List<FieldValues> kps = new ArrayList<>();
+        for (AreaId a : AreaId.USER_AREAS) {
+            for (PatchModule m : p.getArea(a).getModules()) {
+                for (int i = 0; i < m.getUserModuleData().getType().getParams().size(); i++) {
+                    kps.add(Protocol.VarMorphParam.FIELDS.values(
+                            Protocol.VarMorphParam.Location.value(a.ordinal()),
+                            Protocol.VarMorphParam.ModuleIndex.value(m.getIndex()),
+                            Protocol.VarMorphParam.ParamIndex.value(i),
+                            Protocol.VarMorphParam.Morph.value(kps.size() % 8),
+                            Protocol.VarMorphParam.Range.value(kps.size() % 128)));
+                }
+            }
+        }
+        FieldValues fvs = p.getMorphParams().getFieldValues(PatchModule.MAX_VARIATIONS).copy();
+        List<FieldValues> vms = new ArrayList<>(Protocol.MorphParameters.VarMorphs.subfieldsValue(fvs));
+        vms.set(v, vms.get(v).copy()
+                .update(Protocol.VarMorph.MorphCount.value(kps.size()))
+                .update(Protocol.VarMorph.VarMorphParams.value(kps)));
+        return new MorphParameters(fvs.update(Protocol.MorphParameters.VarMorphs.value(vms)));
+    }
+
+    @Test
+    void morphParamIndex() throws Exception {
+        Patch p = Patch.readFromFile(Slot.A, "data/patch/simplesynth001-20240802.pch2", new OfflineSender());
+        int v = 1;
+        MorphParameters mps = morphAll(p, v);
+        assertTrue(mps.getVarMorphs().get(v).size() > 0);
+        for (MorphParameters m : List.of(p.getMorphParams(), mps)) {
+            m.getVarMorphs().forEach((var, kps) -> {
+                for (FieldValues kp : kps) {
+                    assertEquals(scanMorphParam(m, var, kp), m.getMorphParam(var, AreaId.LOOKUP.get(
+                            Protocol.VarMorphParam.Location.intValue(kp)), Protocol.VarMorphParam.ModuleIndex.intValue(kp),
+                            Protocol.VarMorphParam.ParamIndex.intValue(kp)));
+                }
+            });
+        }
+        PatchModule m0 = p.getArea(AreaId.Voice).getModules().iterator().next();
+        assertEquals(null, mps.getMorphParam(v, AreaId.Voice, m0.getIndex(), 127));
+        assertThrows(IllegalArgumentException.class,
+                () -> mps.getMorphParam(PatchModule.MAX_VARIATIONS, AreaId.Voice, m0.getIndex(), 0));
+    }
+
+    /**
+     * Benchmark of morph param binding, list scan vs index.
+     */
+    @Test
+    @Tag("bench")
+    void morphParamIndexBench() throws Exception {
+        Patch p = Patch.readFromFile(Slot.A, "data/patch/simplesynth001-20240802.pch2", new OfflineSender());
+        int v = 1;
+        MorphParameters mps = morphAll(p, v);
+        List<FieldValues> kps = mps.getVarMorphs().get(v);
+        Bench.run("Morph bind of " + kps.size() + " params", kps.size(),
+                Bench.of("scan", i -> assertNotNull(scanMorphParam(mps, v, kps.get(i)))),
+                Bench.of("indexed", i -> {
+                    FieldValues kp = kps.get(i);
+                    assertNotNull(mps.getMorphParam(v, AreaId.LOOKUP.get(Protocol.VarMorphParam.Location.intValue(kp)),
+                            Protocol.VarMorphParam.ModuleIndex.intValue(kp),
+                            Protocol.VarMorphParam.ParamIndex.intValue(kp)));
+                }));
+    }
+
+    /**
+     * Linear scan lookup, as before the morph index.
+     */
+    private static MorphParameters.MorphParam scanMorphParam(MorphParameters mps, int v, FieldValues key) {
+        for (FieldValues kp : mps.getVarMorphs().get(v)) {
+            if (Protocol.VarMorphParam.Location.intValue(key) == Protocol.VarMorphParam.Location.intValue(kp) &&
+                    Protocol.VarMorphParam.ModuleIndex.intValue(key) == Protocol.VarMorphParam.ModuleIndex.intValue(kp) &&
+                    Protocol.VarMorphParam.ParamIndex.intValue(key) == Protocol.VarMorphParam.ParamIndex.intValue(kp)) {
+                return new MorphParameters.MorphParam(Protocol.VarMorphParam.Morph.intValue(kp),
+                        Protocol.VarMorphParam.Range.intValue(kp));
+            }
+        }
+        return null;
+    }
+
+    private static LibProperty<Integer> firstParam(Patch p) {
+        return p.getArea(AreaId.Voice).getModules().stream().filter(m -> m.getValues() != null)
+                .findFirst().orElseThrow().getParamValueProperty(0, 0);
+    }
+
+    /**
+     * Edit a param, name and position of P, calling CHECK after each.
+     */
+    private static void editPatch(Patch p, Util.ThrowingConsumer<Patch> check) throws Exception {
+        LibProperty<Integer> param = firstParam(p);
+        param.set((param.get() + 1) % 128);
+        check.accept(p);
+        PatchModule m = p.getArea(AreaId.Fx).getModules().iterator().next();
+        m.name().set("Edited");
+        check.accept(p);
+        m.getUserModuleData().column().set(m.getUserModuleData().column().get() + 1);
+        check.accept(p);
+    }
+
+    /**
+     * Message and file encodes of P, written from cached sections where clean,
+     * match encodes of every section from scratch.
+     */
+    public static void assertEncodeCached(Patch p) throws Exception {
+        String msg = Util.dumpBufferString(p.writeMessage());
+        String file = Util.dumpBufferString(p.writeFile());
+        p.clearEncodings();
+        assertEquals(Util.dumpBufferString(p.writeMessage()), msg, "message");
+        assertEquals(Util.dumpBufferString(p.writeFile()), file, "file");
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
     @Test
     void roundtripPerformanceFile() throws Exception {
         String filePath = "data/perf/perf-20240802.prf2";
@@ -115,6 +517,7 @@ public class PerformanceTest {
 
         assertEquals(Util.dumpBufferString(dropCrcTrailer(fbuf)),
                 Util.dumpBufferString(dropCrcTrailer(perf.writeFile())));
+        for (Patch p : perf.slots()) { assertEncodeCached(p); }
 
     }
 
@@ -157,6 +560,7 @@ public class PerformanceTest {
     void regress001_RoundtripFile() throws Exception {
         Performance perf = Performance.readFromFile(PERF_001,new OfflineSender());
         ByteBuffer wbuf = perf.writeFile();
+        for (Patch p : perf.slots()) { assertEncodeCached(p); }
         ByteBuffer buf = Util.readFile(PERF_001);
         //sigh ... here, empty ModuleParams have variation count :(
         overwriteBytes(buf,
@@ -213,6 +617,7 @@ public class PerformanceTest {
     void regress002_RoundtripFile() throws Exception {
         Performance perf = Performance.readFromFile(PERF_002,new OfflineSender());
         ByteBuffer wbuf = perf.writeFile();
+        for (Patch p : perf.slots()) { assertEncodeCached(p); }
         ByteBuffer buf = Util.readFile(PERF_002);
         //module names reserved values
         overwriteBytes(buf,0x2aae,0x40,
@@ -259,6 +664,7 @@ public class PerformanceTest {
                 Map.of()
         ));
         p.serviceLoadResponses(true);
+        assertEncodeCached(p.getSlot(Slot.A));
         p.getSlot(Slot.A).getArea(AreaId.Voice).execCableDelta(new CableDelta<>(
                 List.of(new CableDelta.CableIndex(1,ModuleType.M_LevMult.outPorts.get(0),
                         2,ModuleType.M_LevMult.inPorts.get(1),-1)),
@@ -267,6 +673,7 @@ public class PerformanceTest {
                 Map.of()
         ));
         p.serviceLoadResponses(true);
+        assertEncodeCached(p.getSlot(Slot.A));
         p.getSlot(Slot.A).getArea(AreaId.Voice).execCableDelta(new CableDelta<>(
                 List.of(new CableDelta.CableIndex(1,ModuleType.M_LevMult.outPorts.get(0),
                         2,ModuleType.M_LevMult.inPorts.get(1),1)), //TODO check against gui code
@@ -275,6 +682,7 @@ public class PerformanceTest {
                 Map.of()
         ));
         p.serviceLoadResponses(true);
+        assertEncodeCached(p.getSlot(Slot.A));
         p.getSlot(Slot.A).getArea(AreaId.Voice).execCableDelta(new CableDelta<>(
                 List.of(new CableDelta.CableIndex(4,ModuleType.M_OscA.outPorts.get(0),
                         2,ModuleType.M_LevMult.inPorts.get(0),0)), //TODO check against gui code
@@ -283,6 +691,7 @@ public class PerformanceTest {
                 Map.of()
         ));
         p.serviceLoadResponses(true);
+        assertEncodeCached(p.getSlot(Slot.A));
         sender.assertScriptDone();
     }
 
@@ -22,9 +22,14 @@ import org.junit.jupiter.api.Test;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import static org.g2fx.g2lib.protocol.Protocol.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ProtocolTest {
@@ -309,11 +314,12 @@ class ProtocolTest {
             }
         };
         ind.run();
-        for (int i = 0; i < fv.values.size(); i++) {
+        List<FieldValue> vs = fv.values();
+        for (int i = 0; i < vs.size(); i++) {
             if (i > 0) {
                 System.out.print(", ");
             }
-            FieldValue v = fv.values.get(i);
+            FieldValue v = vs.get(i);
             if (v instanceof SubfieldsValue) {
                 System.out.println(v.field().name() + ": ");
                 for (FieldValues sfv : ((SubfieldsValue) v).value()) {
@@ -732,6 +738,15 @@ class ProtocolTest {
         pd.values().update(PatchDescription.Reserved2.value(0x00));
         //this file is made by g2lib as a manual test, so this is a regression
         assertEquals(Util.readFile("data/patch/simplesynth001-g2lib.pch2").rewind(),p.writeFile().rewind());
+
+        //emulator writes from live state, which drops reserved values
+        pd.values().update(PatchDescription.Unk2.value(2));
+        ByteBuffer live = ByteBuffer.allocate(2048);
+        p.writeMessageHeader(live);
+        p.writeDescriptionMessage(live);
+        msgbuf = p.writeMessageOld();
+        assertEquals(Util.dumpBufferString(msgbuf.rewind().limit(msgbuf.limit() - 2)),
+                Util.dumpBufferString(live.flip()));
     }
 
     @Test
@@ -740,6 +755,7 @@ class ProtocolTest {
         ByteBuffer buf = p.writeFile();
         ByteBuffer filebuf = Util.readFile(PATCH_FILE);
         assertEquals(filebuf.rewind(),buf.rewind());
+        PerformanceTest.assertEncodeCached(p);
 
         //roundtrip ModuleRecord
         p.getArea(AreaId.Fx).getModules().forEach(pm -> {
@@ -754,6 +770,75 @@ class ProtocolTest {
     }
 
 
+    @Test
+    void tracingMatchesUntraced() throws Exception {
+        for (String file : List.of(PATCH_FILE, "data/patch/g2fx-uprate-4mod.pch2")) {
+            ByteBuffer buf = Patch.verifyFileHeader(file, Patch.HEADER);
+            buf.position(buf.position() + 2); // 0x17, version
+            for (Sections s : Sections.FILE_SECTIONS) {
+                ByteBuffer sect = buf.duplicate();
+                BitBuffer untraced = Sections.sliceAheadSection(s, buf);
+                BitBuffer traced = Sections.sliceAheadSection(s, sect);
+                if (s.area != null) {
+                    AreaId.readLocation(untraced);
+                    AreaId.readLocation(traced);
+                }
+                SzContext tc = new SzContext();
+                FieldValues ufvs = s.fields.read(untraced, new NullSzContext());
+                FieldValues tfvs = s.fields.read(traced, tc);
+                assertEquals(tfvs, ufvs, file + ": " + s);
+                assertEquals(traced.getBitPosition(), untraced.getBitPosition(), file + ": " + s);
+                assertFalse(tc.dumpEntries().isBlank(), file + ": " + s);
+
+                BitBuffer ubb = new BitBuffer(0xffff);
+                BitBuffer tbb = new BitBuffer(0xffff);
+                ufvs.write(ubb, new NullSzContext());
+                tfvs.write(tbb, new SzContext());
+                assertEquals(tbb.toBuffer(), ubb.toBuffer(), file + ": " + s);
+            }
+        }
+    }
+
+    /**
+     * Decoding all sections of a patch file with a {@link NullSzContext} keeps no field
+     * records and builds no trace strings, and decodes the same values as a tracing context.
+     */
+    @Test
+    void untracedReadSkipsTrace() throws Exception {
+        ByteBuffer file = Patch.verifyFileHeader(PATCH_FILE, Patch.HEADER);
+        int start = file.position() + 2; // 0x17, version
+        int[] traces = new int[1];
+        List<FieldValues> untraced = decodeSections(file.position(start), () -> new NullSzContext() {
+            @Override public String dumpEntries() { traces[0]++; return super.dumpEntries(); }
+            @Override public String toString() { traces[0]++; return super.toString(); }
+        });
+        assertEquals(0, traces[0]);
+        List<SzContext> contexts = new ArrayList<>();
+        List<FieldValues> traced = decodeSections(file.position(start), () -> {
+            SzContext c = new SzContext();
+            contexts.add(c);
+            return c;
+        });
+        assertEquals(traced, untraced);
+        assertTrue(contexts.stream().allMatch(c -> c.tracing() && !c.dumpEntries().isEmpty()));
+
+        Logger l = Logger.getAnonymousLogger();
+        l.setLevel(Level.WARNING);
+        assertInstanceOf(NullSzContext.class, SzContext.forLogger(l));
+        l.setLevel(SzContext.TRACE_LEVEL);
+        assertTrue(SzContext.forLogger(l).tracing());
+    }
+
+    private static List<FieldValues> decodeSections(ByteBuffer buf, Supplier<SzContext> contexts) {
+        List<FieldValues> fvs = new ArrayList<>();
+        for (Sections s : Sections.FILE_SECTIONS) {
+            BitBuffer bb = Sections.sliceAheadSection(s, buf);
+            if (s.area != null) { AreaId.readLocation(bb); }
+            fvs.add(s.fields.read(bb, contexts.get()));
+        }
+        return fvs;
+    }
+
     @Test
     void readSynthSettingsMessage() throws Exception {
         ByteBuffer buf = Util.readFile("data/msg/msg_SynthSettings_f574.msg");